@@ -0,0 +1,106 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.crisis_economics.abm.bank.StrategyBank;
+import eu.crisis_economics.abm.bank.strategies.EmptyBankStrategy;
+import eu.crisis_economics.abm.contracts.Contract;
+import eu.crisis_economics.abm.contracts.FixedValueContract;
+import eu.crisis_economics.abm.contracts.loans.LenderInsufficientFundsException;
+import eu.crisis_economics.abm.contracts.loans.Loan;
+import eu.crisis_economics.abm.contracts.loans.LoanFactory;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Benchmarks for the balance sheet queries of {@link Agent}. The benchmarked
+  * {@link Agent} holds {@code numberOfContracts} assets, one quarter of which
+  * are {@link Loan}{@code s}.
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class AgentBenchmark {
+   
+   @Param({"10", "100", "1000"})
+   public int
+      numberOfContracts;
+   
+   private Simulation
+      state;
+   private StrategyBank
+      lender;
+   
+   @Setup(Level.Trial)
+   public void setUp() throws LenderInsufficientFundsException {
+      state = new EmptySimulation(1L);
+      state.start();
+      lender = new StrategyBank(1.e12, EmptyBankStrategy.factory());
+      final StrategyBank
+         borrower = new StrategyBank(1.e12, EmptyBankStrategy.factory());
+      for(int i = 0; i< numberOfContracts; ++i) {
+         if(i % 4 == 0)
+            LoanFactory.createFixedRateMortgage(borrower, lender, 1., .01, 10);
+         else
+            lender.addAsset(new FixedValueContract(Double.POSITIVE_INFINITY, 0., 1., 1.));
+      }
+   }
+   
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      state.finish();
+   }
+   
+   @Benchmark
+   public List<Contract> getAssets() {
+      return lender.getAssets();
+   }
+   
+   @Benchmark
+   public List<Loan> getAssetLoans() {
+      return lender.getAssetLoans();
+   }
+   
+   @Benchmark
+   public double getTotalAssets() {
+      return lender.getTotalAssets();
+   }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  * Benchmarks for call auction price discovery in large order books. This 
+  * benchmark compares the {@link CallAuction}, which scans the order books for 
+  * every candidate price, with the {@link SortedCallAuction}, which sorts the 
+  * order books once. Prices are drawn from a finite set of ticks, so that 
+  * many participants share the same price.<br><br>
+  * 
+  * The {@link CallAuction} costs O(n^2) time in the number of nodes. A single 
+  * invocation with {@code 100000} sellers and buyers takes minutes.<br><br>
+  * 
+  * The comparison is not like-for-like. Both algorithms choose the same auction
+  * price and trade the same total volume, but the {@link CallAuction} also passes
+  * participants who are priced out of the auction to its {@link 
+  * RationingAlgorithm}, which can restore volume to such participants. The 
+  * {@link SortedCallAuction} rations only participants who are not priced out, 
+  * so the volume traded by each participant can differ (see {@code 
+  * SortedCallAuctionTest}).
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CallAuctionBenchmark {
+   
+   private static final int
+      NUMBER_OF_PRICE_TICKS = 1000;
+   
+   @Param({"CALL_AUCTION", "SORTED_CALL_AUCTION"})
+   public MatchingAlgorithmBenchmark.Algorithm
+      algorithm;
+   
+   @Param({"1000", "10000", "100000"})
+   public int
+      numberOfNodes;
+   
+   private MatchingAlgorithm
+      matchingAlgorithm;
+   private List<SimpleNode>
+      sellers,
+      buyers;
+   
+   @Setup(Level.Trial)
+   public void setUp() {
+      matchingAlgorithm = algorithm.create();
+      final Random dice = new Random(1L);
+      sellers = new ArrayList<SimpleNode>();
+      buyers = new ArrayList<SimpleNode>();
+      for(int i = 0; i< numberOfNodes; ++i) {
+         sellers.add(new SimpleNode(
+            1. + dice.nextInt(NUMBER_OF_PRICE_TICKS) / (double) NUMBER_OF_PRICE_TICKS,
+            1. + 10. * dice.nextDouble(), i));
+         buyers.add(new SimpleNode(
+            1. + dice.nextInt(NUMBER_OF_PRICE_TICKS) / (double) NUMBER_OF_PRICE_TICKS,
+            1. + 10. * dice.nextDouble(), i));
+      }
+   }
+   
+   @Benchmark
+   public Matching matchNodes() throws InvalidAlgorithmParameterException {
+      return matchingAlgorithm.matchNodes(sellers, buyers);
+   }
+}
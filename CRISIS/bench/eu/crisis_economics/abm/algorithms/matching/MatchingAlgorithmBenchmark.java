@@ -0,0 +1,120 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Benchmarks for {@link MatchingAlgorithm}{@code s}. Each algorithm matches
+  * a random population of sellers and buyers.
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class MatchingAlgorithmBenchmark {
+   
+   public enum Algorithm {
+      FORAGER {
+         @Override
+         MatchingAlgorithm create() {
+            return new ForagerMatchingAlgorithm(new HomogeneousRationingAlgorithm());
+         }
+      },
+      CALL_AUCTION {
+         @Override
+         MatchingAlgorithm create() {
+            return new CallAuction(new HomogeneousRationingAlgorithm());
+         }
+      },
+      SORTED_CALL_AUCTION {
+         @Override
+         MatchingAlgorithm create() {
+            return new SortedCallAuction(new HomogeneousRationingAlgorithm());
+         }
+      };
+      
+      abstract MatchingAlgorithm create();
+   }
+   
+   @Param({"FORAGER", "CALL_AUCTION", "SORTED_CALL_AUCTION"})
+   public Algorithm
+      algorithm;
+   
+   @Param({"10", "100", "1000"})
+   public int
+      numberOfNodes;
+   
+   private Simulation
+      state;
+   private MatchingAlgorithm
+      matchingAlgorithm;
+   private List<SimpleNode>
+      sellers,
+      buyers;
+   
+   @Setup(Level.Trial)
+   public void setUp() {
+      state = new EmptySimulation(1L);
+      state.start();
+      matchingAlgorithm = algorithm.create();
+      final Random dice = new Random(1L);
+      sellers = new ArrayList<SimpleNode>();
+      buyers = new ArrayList<SimpleNode>();
+      for(int i = 0; i< numberOfNodes; ++i) {
+         sellers.add(new SimpleNode(1. + dice.nextDouble(), 1. + 10. * dice.nextDouble(), i));
+         buyers.add(new SimpleNode(1. + dice.nextDouble(), 1. + 10. * dice.nextDouble(), i));
+      }
+   }
+   
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      state.finish();
+   }
+   
+   @Benchmark
+   public Matching matchNodes() throws InvalidAlgorithmParameterException {
+      return matchingAlgorithm.matchNodes(sellers, buyers);
+   }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.crisis_economics.abm.contracts.stocks.TargetValueNoBuyingStockMarketResponseFunction;
+import eu.crisis_economics.abm.contracts.stocks.TargetValueStockMarketResponseFunction;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.MarketResponseFunction.TradeOpportunity;
+
+/**
+  * Benchmarks comparing the evaluation of {@link MarketResponseFunction}{@code s}
+  * using {@link TradeOpportunity} objects with vectorized evaluation (see {@link 
+  * VectorizedMarketResponseFunction}). Each family of response functions is 
+  * created as it is created by its factory:
+  * <ul>
+  *   <li> {@code LOAN_SUPPLY}: {@link LoanSupplierMarketResponseFunctionFactory};
+  *   <li> {@code LOAN_DEMAND}: {@link LoanConsumerMarketResponseFunctionFactory};
+  *   <li> {@code TARGET_VALUE_STOCK}: {@link TargetValueStockMarketResponseFunctionFactory};
+  *   <li> {@code GRADUALLY_SELL_SHARES}: {@link 
+  *        GraduallySellSharesMarketResponseFunctionFactory}.
+  * </ul>
+  * Each evaluation queries the response to every trade opportunity, as a network
+  * node does when all of its edge rates change. Stock market response functions
+  * accept exactly one trade opportunity, so for these families the parameter 
+  * {@code numberOfOpportunities} is ignored.
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MarketResponseFunctionBenchmark {
+   
+   public enum Family {
+      LOAN_SUPPLY {
+         @Override
+         VectorizedMarketResponseFunction create() {
+            return new PartitionedResponseFunction(
+               new ExpIOCPartitionFunction(1./MAXIMUM_INTEREST_RATE),
+               new PolynomialSupplyInnerResponse(EXPONENT, MAXIMUM_INTEREST_RATE, 1.e6));
+         }
+      },
+      LOAN_DEMAND {
+         @Override
+         VectorizedMarketResponseFunction create() {
+            return new PartitionedResponseFunction(
+               new InverseExpIOCPartitionFunction(1./MAXIMUM_INTEREST_RATE),
+               new PolynomialDemandInnerResponse(EXPONENT, MAXIMUM_INTEREST_RATE, 1.e6));
+         }
+      },
+      TARGET_VALUE_STOCK {
+         @Override
+         VectorizedMarketResponseFunction create() {
+            return new TargetValueStockMarketResponseFunction(1.e3, 5.e3);
+         }
+         @Override
+         boolean isSingleOpportunity() {
+            return true;
+         }
+      },
+      GRADUALLY_SELL_SHARES {
+         @Override
+         VectorizedMarketResponseFunction create() {
+            return new TargetValueNoBuyingStockMarketResponseFunction(1.e3, 5.e3);
+         }
+         @Override
+         boolean isSingleOpportunity() {
+            return true;
+         }
+      };
+      
+      abstract VectorizedMarketResponseFunction create();
+      
+      boolean isSingleOpportunity() {
+         return false;
+      }
+   }
+   
+   private static final double
+      EXPONENT = .2,
+      MAXIMUM_INTEREST_RATE = 1.;
+   
+   @Param({"LOAN_SUPPLY", "LOAN_DEMAND", "TARGET_VALUE_STOCK", "GRADUALLY_SELL_SHARES"})
+   public Family
+      family;
+   
+   @Param({"4", "16", "64"})
+   public int
+      numberOfOpportunities;
+   
+   private VectorizedMarketResponseFunction
+      function;
+   private int[]
+      queries;
+   private TradeOpportunity[]
+      opportunities;
+   private double[]
+      rates,
+      result;
+   
+   @Setup
+   public void setUp() {
+      final Random dice = new Random(1L);
+      final int size = family.isSingleOpportunity() ? 1 : numberOfOpportunities;
+      function = family.create();
+      queries = new int[size];
+      opportunities = new TradeOpportunity[size];
+      rates = new double[size];
+      result = new double[size];
+      final ClearingInstrument instrument = 
+         new ClearingInstrument("Benchmark Market", "Commercial Loan");
+      for(int i = 0; i< size; ++i) {
+         queries[i] = i;
+         rates[i] = dice.nextDouble() * MAXIMUM_INTEREST_RATE;
+         opportunities[i] = TradeOpportunity.create(rates[i], instrument, "Party " + i);
+      }
+   }
+   
+   @Benchmark
+   public double[] evaluateTradeOpportunities() {
+      return function.getValue(queries, opportunities);
+   }
+   
+   @Benchmark
+   public double[] evaluateVectorized() {
+      function.getValue(queries, rates, result);
+      return result;
+   }
+}
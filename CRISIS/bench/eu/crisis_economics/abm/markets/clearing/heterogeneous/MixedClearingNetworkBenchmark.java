@@ -0,0 +1,198 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  * Benchmarks for {@link MixedClearingNetworkAlgorithm}{@code s}. Each algorithm
+  * clears a synthetic, completely connected, heterogeneous network with
+  * {@code N} polynomial demand nodes and {@code N} polynomial supply nodes
+  * ({@code N*N} edges). The network is rebuilt before each invocation, 
+  * because clearing modifies the state of the network. The {@link 
+  * AdaptiveSelectionClearingAlgorithm} is created once per trial, and therefore
+  * selects its strategy using the history of previous invocations.<br><br>
+  * 
+  * {@link NelderMeadClearingAlgorithm} is not benchmarked: this algorithm is
+  * unbounded, and the polynomial node responses in this network are defined 
+  * only for non-negative rates.
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MixedClearingNetworkBenchmark {
+   
+   public enum Algorithm {
+      ASCENT_MARCH {
+         @Override
+         MixedClearingNetworkAlgorithm create() {
+            return new AscentMarchHeterogeneousClearingAlgorithm(
+               MAXIMUM_ITERATIONS_PER_EDGE, ACCURACY_GOAL, createStoppingCondition());
+         }
+      },
+      DESCENT_MARCH {
+         @Override
+         MixedClearingNetworkAlgorithm create() {
+            return new DescentMarchHeterogeneousClearingAlgorithm(
+               MAXIMUM_ITERATIONS_PER_EDGE, ACCURACY_GOAL, createStoppingCondition());
+         }
+      },
+      ADAPTIVE_MARCH {
+         @Override
+         MixedClearingNetworkAlgorithm create() {
+            return new AdaptiveMarchHeterogeneousClearingAlgorithm(
+               MAXIMUM_ITERATIONS_PER_EDGE, ACCURACY_GOAL, createStoppingCondition());
+         }
+      },
+      LEVENBERG_MARQUARDT {
+         @Override
+         MixedClearingNetworkAlgorithm create() {
+            return new LevenbergMarquardtClearingAlgorithm(
+               MAXIMUM_ITERATIONS, MAXIMUM_EVALUATIONS, ACCURACY_GOAL, ACCURACY_GOAL);
+         }
+      },
+      BOUNDED_QUADRATIC_ESTIMATION {
+         @Override
+         MixedClearingNetworkAlgorithm create() {
+            return new BoundedQuadraticEstimationClearingAlgorithm(
+               MAXIMUM_ITERATIONS, MAXIMUM_EVALUATIONS, ACCURACY_GOAL, ACCURACY_GOAL);
+         }
+      },
+      ADAPTIVE_SELECTION {
+         @Override
+         MixedClearingNetworkAlgorithm create() {
+            return new AdaptiveSelectionClearingAlgorithm(
+               new MixedClearingNetworkAlgorithmFactory() {
+                  @Override
+                  public MixedClearingNetworkAlgorithm create(
+                     final MixedClearingNetwork network) {
+                     return ADAPTIVE_MARCH.create();
+                  }
+               },
+               ACCURACY_GOAL
+               );
+         }
+      };
+      
+      abstract MixedClearingNetworkAlgorithm create();
+   }
+   
+   private static final int
+      MAXIMUM_ITERATIONS_PER_EDGE = 15,
+      MAXIMUM_NETWORK_ITERATIONS = 7,
+      MAXIMUM_ITERATIONS = 20,
+      MAXIMUM_EVALUATIONS = 3000;
+   private static final double
+      ACCURACY_GOAL = 1.e-10;
+   
+   private static MixedClearingNetworkAlgorithmStoppingCondition createStoppingCondition() {
+      return new TargetResidualOrMaximumIterationsStoppingCondition(
+         ACCURACY_GOAL, MAXIMUM_NETWORK_ITERATIONS);
+   }
+   
+   @Param({"ASCENT_MARCH", "DESCENT_MARCH", "ADAPTIVE_MARCH", 
+           "LEVENBERG_MARQUARDT", "BOUNDED_QUADRATIC_ESTIMATION", "ADAPTIVE_SELECTION"})
+   public Algorithm
+      algorithm;
+   
+   @Param({"2", "4", "8", "16"})
+   public int
+      numberOfNodesPerSide;
+   
+   private MixedClearingNetworkAlgorithm
+      clearingAlgorithm;
+   private MixedClearingNetwork
+      network;
+   
+   private static final class NoContractDelegate implements ResourceExchangeDelegate {
+      @Override
+      public void commit(final MixedClearingNetworkResult result) { }
+   }
+   
+   @Setup(Level.Trial)
+   public void setUpAlgorithm() {
+      clearingAlgorithm = algorithm.create();
+   }
+   
+   @Setup(Level.Invocation)
+   public void setUpNetwork() {
+      final Random dice = new Random(6L);
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      final List<String>
+         demandNodeIDs = new ArrayList<String>(),
+         supplyNodeIDs = new ArrayList<String>();
+      for(int i = 0; i< numberOfNodesPerSide; ++i) {
+         final String id = "Demand Node " + i;
+         builder.addNetworkNode(id, new PartitionedResponseFunction(
+            new InverseExpIOCPartitionFunction(),
+            new PolynomialDemandInnerResponse(
+               Math.max(dice.nextGaussian() / 4. + 1., .1),
+               dice.nextGaussian() / 3. + 2.,
+               1.)
+            ), id);
+         demandNodeIDs.add(id);
+      }
+      for(int j = 0; j< numberOfNodesPerSide; ++j) {
+         final String id = "Supply Node " + j;
+         builder.addNetworkNode(id, new PartitionedResponseFunction(
+            new ExpIOCPartitionFunction(),
+            new PolynomialSupplyInnerResponse(
+               Math.max(dice.nextGaussian() / 4. + 1., .1),
+               dice.nextGaussian() / 3. + 2.,
+               1.)
+            ), id);
+         supplyNodeIDs.add(id);
+      }
+      for(final String demandNodeID : demandNodeIDs)
+         for(final String supplyNodeID : supplyNodeIDs)
+            builder.addEdge(
+               demandNodeID,
+               supplyNodeID,
+               new NoContractDelegate(),
+               new ClearingInstrument("Benchmark Market", "Bond")
+               );
+      network = builder.build();
+   }
+   
+   @Benchmark
+   public double applyClearingAlgorithm() {
+      return network.applyClearingAlgorithm(clearingAlgorithm);
+   }
+}
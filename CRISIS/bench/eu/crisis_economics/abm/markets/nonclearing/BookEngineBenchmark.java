@@ -0,0 +1,174 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.nonclearing;
+
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.crisis_economics.abm.markets.Party;
+import eu.crisis_economics.abm.markets.nonclearing.Instrument.BookEngineType;
+import eu.crisis_economics.abm.markets.nonclearing.Instrument.MatchingMode;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Benchmarks for {@link BookEngineInterface} implementations in asynchronous
+  * mode. Each benchmark is parameterized by the engine type and by the number
+  * of orders resting on each side of the book. See also
+  * {@link SynchronousBookEngineBenchmark}.
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BookEngineBenchmark {
+   
+   @Param({"LIST", "PRICE_LEVEL"})
+   public BookEngineType
+      engine;
+   
+   @Param({"100", "1000", "10000"})
+   public int
+      bookDepth;
+   
+   private Simulation
+      state;
+   private BenchmarkInstrument
+      asynchronousInstrument;
+   private final BenchmarkParty
+      buyer = new BenchmarkParty("Buyer"),
+      seller = new BenchmarkParty("Seller");
+   private double
+      nextRestingBidPrice;
+   
+   static final class BenchmarkParty implements Party {
+      private final String name;
+      BenchmarkParty(final String name) { this.name = name; }
+      @Override
+      public String getUniqueName() { return name; }
+      @Override
+      public void addOrder(final Order order) { }
+      @Override
+      public boolean removeOrder(final Order order) { return true; }
+      @Override
+      @SuppressWarnings("deprecation") // Required by Party. Orders notify parties by this method.
+      public void updateState(final Order order) { }
+   }
+   
+   static final class BenchmarkOrder extends Order {
+      BenchmarkOrder(
+         final Party party,
+         final Instrument instrument,
+         final double size,
+         final double price
+         ) throws OrderException {
+         super(party, instrument, size, price);
+      }
+      @Override
+      protected void disallocatePartyAsset() { }
+      @Override
+      public boolean isRegisteredSeller(final Party party) { return true; }
+      @Override
+      public boolean isRegisteredBuyer(final Party party) { return true; }
+   }
+   
+   static final class BenchmarkInstrument extends Instrument {
+      private static final long serialVersionUID = 1L;
+      int numberOfTrades;
+      BenchmarkInstrument(final MatchingMode mode, final BookEngineType type) {
+         super("BENCHMARK", new LinkedBlockingQueue<Order>(), mode, 
+            new HashSet<InstrumentListener>(), type);
+      }
+      @Override
+      protected void setupContract(
+         final Order buyOrder,
+         final Order sellOrder,
+         final double quantity,
+         final double price
+         ) {
+         ++numberOfTrades;
+      }
+   }
+   
+   @Setup(Level.Trial)
+   public void setUpSimulation() {
+      state = new EmptySimulation(1L);
+      state.start();
+   }
+   
+   @TearDown(Level.Trial)
+   public void tearDownSimulation() {
+      state.finish();
+   }
+   
+   /*
+    * A book with bookDepth bids, at prices in [1, 2), and bookDepth asks,
+    * at prices in [3, 4). The asks have a very large size, so that they
+    * are never completely filled.
+    */
+   @Setup(Level.Iteration)
+   public void setUpAsynchronousBook() throws OrderException {
+      asynchronousInstrument = 
+         new BenchmarkInstrument(MatchingMode.ASYNCHRONOUS, engine);
+      for(int i = 0; i< bookDepth; ++i) {
+         new BenchmarkOrder(buyer, asynchronousInstrument, -1., 1. + i / (double) bookDepth);
+         new BenchmarkOrder(seller, asynchronousInstrument, 1.e12, 3. + i / (double) bookDepth);
+      }
+      nextRestingBidPrice = 1.;
+   }
+   
+   /**
+     * Submit a buy order which does not cross the book, and then cancel it.
+     */
+   @Benchmark
+   public Order processNewRestingOrder() throws OrderException {
+      nextRestingBidPrice += 1.e-9;
+      final Order order = 
+         new BenchmarkOrder(buyer, asynchronousInstrument, -1., nextRestingBidPrice);
+      order.cancel();
+      return order;
+   }
+   
+   /**
+     * Submit a buy order which trades with the best ask.
+     */
+   @Benchmark
+   public Order processNewMarketableOrder() throws OrderException {
+      return new BenchmarkOrder(buyer, asynchronousInstrument, -1., 3.5);
+   }
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.nonclearing;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import eu.crisis_economics.abm.markets.nonclearing.BookEngineBenchmark.BenchmarkInstrument;
+import eu.crisis_economics.abm.markets.nonclearing.BookEngineBenchmark.BenchmarkOrder;
+import eu.crisis_economics.abm.markets.nonclearing.BookEngineBenchmark.BenchmarkParty;
+import eu.crisis_economics.abm.markets.nonclearing.Instrument.BookEngineType;
+import eu.crisis_economics.abm.markets.nonclearing.Instrument.MatchingMode;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Benchmarks for {@link BookEngineInterface} implementations in synchronous
+  * mode. Before each invocation, {@code bookDepth} sell orders are submitted,
+  * followed (in the next simulation cycle) by one large buy order which crosses
+  * every sell order. The book is then matched.
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class SynchronousBookEngineBenchmark {
+   
+   @Param({"LIST", "PRICE_LEVEL"})
+   public BookEngineType
+      engine;
+   
+   @Param({"100", "1000", "10000"})
+   public int
+      bookDepth;
+   
+   private Simulation
+      state;
+   private BenchmarkInstrument
+      instrument;
+   private final BenchmarkParty
+      buyer = new BenchmarkParty("Buyer"),
+      seller = new BenchmarkParty("Seller");
+   
+   @Setup(Level.Trial)
+   public void setUpSimulation() {
+      state = new EmptySimulation(1L);
+      state.start();
+      state.schedule.scheduleRepeating(Schedule.EPOCH, new Steppable() {
+         private static final long serialVersionUID = 1L;
+         @Override
+         public void step(final SimState state) { }
+      }, 1.);
+   }
+   
+   @TearDown(Level.Trial)
+   public void tearDownSimulation() {
+      state.finish();
+   }
+   
+   /*
+    * The buy order is more recent than all of the sell orders, and is therefore 
+    * the aggressor in synchronizedOrderMatch.
+    */
+   @Setup(Level.Invocation)
+   public void setUpBook() throws OrderException {
+      instrument = new BenchmarkInstrument(MatchingMode.SYNCHRONOUS, engine);
+      for(int i = 0; i< bookDepth; ++i)
+         new BenchmarkOrder(seller, instrument, 1., 1. + i / (double) bookDepth);
+      state.schedule.step(state);
+      new BenchmarkOrder(buyer, instrument, -2. * bookDepth, 2.);
+   }
+   
+   /**
+     * Match the book with {@link Instrument#synchronizedOrderMatch()}.
+     */
+   @Benchmark
+   public int synchronizedOrderMatch() throws InstrumentException {
+      instrument.synchronizedOrderMatch();
+      return instrument.numberOfTrades;
+   }
+   
+   /**
+     * Match the book with {@link Instrument#matchOrders()}, the default
+     * synchronous matching algorithm.
+     */
+   @Benchmark
+   @SuppressWarnings("deprecation") // The deprecated matching path is what is measured.
+   public int matchOrders() throws InstrumentException {
+      instrument.matchOrders();
+      return instrument.numberOfTrades;
+   }
+}
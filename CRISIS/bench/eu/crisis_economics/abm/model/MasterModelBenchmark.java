@@ -0,0 +1,90 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.crisis_economics.abm.model.configuration.MasterModelConfiguration;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Benchmark for one complete simulation cycle of a small {@link MasterModel}.
+  * The model is started, and run for a small number of cycles, before
+  * measurement begins. Each benchmark invocation advances the model by one
+  * simulation cycle.
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class MasterModelBenchmark {
+   
+   private static final int
+      NUMBER_OF_CYCLES_BEFORE_MEASUREMENT = 10;
+   
+   @Param({"100"})
+   public int
+      numberOfHouseholds;
+   
+   private MasterModel
+      model;
+   
+   @Setup(Level.Trial)
+   public void setUp() {
+      model = new MasterModel(1L);
+      ((MasterModelConfiguration) model.getAgentsConfiguration())
+         .getHouseholdSubEconomy().setNumberOfHouseholds(numberOfHouseholds);
+      model.start();
+      for(int i = 0; i< NUMBER_OF_CYCLES_BEFORE_MEASUREMENT; ++i)
+         simulateOneCycle();
+   }
+   
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      model.finish();
+   }
+   
+   @Benchmark
+   public double simulateOneCycle() {
+      final double endOfCycle = Math.floor(Simulation.getTime()) + 1.;
+      while(Simulation.getTime() < endOfCycle)
+         if(!model.schedule.step(model))
+            throw new IllegalStateException(
+               "MasterModelBenchmark: the model has no further scheduled events.");
+      return Simulation.getTime();
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.model.plumbing;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  * Benchmarks for {@link BaseAgentGroup#getAgentsOfType(Class)}. The group
+  * contains {@code populationSize} agents, divided evenly between four 
+  * concrete types. Queries are made for one concrete type and for a common
+  * supertype of three concrete types.
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class AgentGroupBenchmark {
+   
+   @Param({"100", "1000", "10000"})
+   public int
+      populationSize;
+   
+   private BaseAgentGroup
+      group;
+   
+   static class Trader { }
+   static final class Firm extends Trader { }
+   static final class Bank extends Trader { }
+   static final class Fund extends Trader { }
+   static final class Household { }
+   
+   private static final class BenchmarkAgentGroup extends BaseAgentGroup {
+      private static final long serialVersionUID = 1L;
+      void add(final Object agent) {
+         addAgent(agent);
+      }
+   }
+   
+   @Setup(Level.Trial)
+   public void setUp() {
+      final BenchmarkAgentGroup result = new BenchmarkAgentGroup();
+      for(int i = 0; i< populationSize; ++i) {
+         switch(i % 4) {
+            case 0: result.add(new Firm()); break;
+            case 1: result.add(new Bank()); break;
+            case 2: result.add(new Fund()); break;
+            default: result.add(new Household()); break;
+         }
+      }
+      group = result;
+   }
+   
+   @Benchmark
+   public List<Household> getAgentsOfConcreteType() {
+      return group.getAgentsOfType(Household.class);
+   }
+   
+   @Benchmark
+   public List<Trader> getAgentsOfSupertype() {
+      return group.getAgentsOfType(Trader.class);
+   }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+  * Benchmarks for the dispatch of scheduled events. The benchmarks measure:
+  * <ul>
+  *   <li> the cost of one call to a {@code private} and to a package-private 
+  *        method using the dispatchers bound by {@link 
+  *        MethodDispatchers#forMethod(Method)};
+  *   <li> the cost of one repeating event scheduled with {@link 
+  *        Simulation#repeat(Object, String, SimulatedEventOrder)}, including 
+  *        rescheduling, for {@code private} and package-private scheduled methods.
+  * </ul>
+  * 
+  * @author phillips
+  */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ScheduledMethodDispatchBenchmark {
+   
+   private static final int
+      NUMBER_OF_AGENTS = 10000;
+   
+   public static final class Counter {
+      private long
+         count;
+      
+      void incrementPackagePrivate() {
+         ++count;
+      }
+      
+      @SuppressWarnings("unused")
+      private void incrementPrivate() {
+         ++count;
+      }
+   }
+   
+   public static final class ScheduledCounter {
+      private long
+         count;
+      
+      ScheduledCounter(final boolean isPrivateTarget) {
+         Simulation.repeat(
+            this, isPrivateTarget ? "incrementPrivate" : "increment",
+            NamedEventOrderings.CONSUMPTION);
+      }
+      
+      void increment() {
+         ++count;
+      }
+      
+      @SuppressWarnings("unused")
+      private void incrementPrivate() {
+         ++count;
+      }
+   }
+   
+   @Param({"false", "true"})
+   public boolean
+      isPrivateTarget;
+   
+   private Counter
+      counter;
+   private MethodDispatcher
+      boundDispatcher;
+   private Simulation
+      simulation;
+   
+   @Setup(Level.Trial)
+   public void setUp() throws NoSuchMethodException {
+      counter = new Counter();
+      boundDispatcher = MethodDispatchers.forMethod(Counter.class.getDeclaredMethod(
+         isPrivateTarget ? "incrementPrivate" : "incrementPackagePrivate"));
+      simulation = new EmptySimulation(1L);
+      simulation.start();
+      for(int i = 0; i< NUMBER_OF_AGENTS; ++i)
+         new ScheduledCounter(isPrivateTarget);
+   }
+   
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      simulation.finish();
+   }
+   
+   /**
+     * One call to the {@code private} or package-private target, depending on 
+     * {@code isPrivateTarget}, using the dispatcher bound by {@link 
+     * MethodDispatchers#forMethod(Method)}.
+     */
+   @Benchmark
+   public long boundDispatch() throws Throwable {
+      boundDispatcher.invoke(counter, null);
+      return counter.count;
+   }
+   
+   /**
+     * One simulation cycle. The result is reported per scheduled event.
+     */
+   @Benchmark
+   @OperationsPerInvocation(NUMBER_OF_AGENTS)
+   public double scheduledRepeatingEvent() {
+      final double endTime = Math.floor(simulation.schedule.getTime()) + 1.;
+      while(simulation.schedule.getTime() < endTime)
+         simulation.schedule.step(simulation);
+      return simulation.schedule.getTime();
+   }
+}
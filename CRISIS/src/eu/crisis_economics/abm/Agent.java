@@ -54,6 +54,7 @@ import eu.crisis_economics.abm.model.Mark2Model;
 import eu.crisis_economics.abm.simulation.NamedEventOrderings;
 import eu.crisis_economics.abm.simulation.Simulation;
 import eu.crisis_economics.abm.simulation.Simulation.ScheduledMethodInvokation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
 
 /**
  * Simple Crisis agent with a balance sheet.
@@ -64,18 +65,17 @@ import eu.crisis_economics.abm.simulation.Simulation.ScheduledMethodInvokation;
  */
 public class Agent implements Party, IAgent {
 
-    private static long serial = 0;
-
     /**
-     * A unique name for the agent. This generation of the name assumes single
-     * threaded execution.
+     * A unique name for the agent. Names are unique within the active
+     * {@link SimulationContext}. This generation of the name assumes single
+     * threaded execution within each context.
      */
     private String
-       id = getClass().getSimpleName() + serial++;
+       id = getClass().getSimpleName() + SimulationContext.current().nextAgentSerial();
     
     public Boolean liquidateAtAfterAll = false;  
     public static void resetSerial() {
-        serial = 0;
+        SimulationContext.current().resetAgentSerial();
     }
     
     private ScheduledMethodInvokation afterAllInvokation;
@@ -113,14 +113,26 @@ public class Agent implements Party, IAgent {
     }
     
     /**
-     * The assets of the agent.
+     * Typed indices of the assets and liabilities of the agent. See
+     * {@link ContractIndex}.
+     */
+    private final ContractIndex
+       assetIndex = new ContractIndex(),
+       liabilityIndex = new ContractIndex();
+
+    /**
+     * The assets of the agent. This list is backed by the asset index of
+     * the agent, and supports {@link List#add(Object)} and 
+     * {@link List#remove(Object)} only.
      */
-    protected List<Contract> assets = new ArrayList<Contract>();
+    protected final List<Contract> assets = assetIndex.asList();
 
     /**
-     * The liabilities of the agent.
+     * The liabilities of the agent. This list is backed by the liability index
+     * of the agent, and supports {@link List#add(Object)} and
+     * {@link List#remove(Object)} only.
      */
-    protected List<Contract> liabilities = new ArrayList<Contract>();
+    protected final List<Contract> liabilities = liabilityIndex.asList();
 
     /**
      * A registry of markets this agent can submit orders to. The markets are
@@ -139,32 +151,32 @@ public class Agent implements Party, IAgent {
 
     @Override
     public void addAsset(final Contract asset) {
-        assets.add(asset);
+        assetIndex.add(asset);
     }
 
     @Override
     public boolean removeAsset(final Contract asset) {
-        return assets.remove(asset);
+        return assetIndex.remove(asset);
     }
 
     @Override
     public List<Contract> getAssets() {
-       return Collections.unmodifiableList(new ArrayList<Contract>(assets));
+       return assetIndex.getAll();
     }
 
     @Override
     public void addLiability(final Contract liability) {
-        liabilities.add(liability);
+        liabilityIndex.add(liability);
     }
 
     @Override
     public boolean removeLiability(final Contract liability) {
-        return liabilities.remove(liability);
+        return liabilityIndex.remove(liability);
     }
 
     @Override
     public List<Contract> getLiabilities() {
-        return Collections.unmodifiableList(new ArrayList<Contract>(liabilities));
+        return liabilityIndex.getAll();
     }
 
     @Override
@@ -237,16 +249,7 @@ public class Agent implements Party, IAgent {
      */
     @Override
    public List<Loan> getAssetLoans() {
-        final ArrayList<Loan> ret = new ArrayList<Loan>();
-
-        for (final Contract act : getAssets()) {
-            if (act instanceof Loan) {
-                final Loan loan = (Loan) act;
-                ret.add(loan);
-            }
-        }
-
-        return Collections.unmodifiableList(ret);
+        return assetIndex.getLoans();
     }
 
     /**
@@ -256,16 +259,7 @@ public class Agent implements Party, IAgent {
      */
     @Override
    public List<Loan> getLiabilitiesLoans() {
-        final ArrayList<Loan> ret = new ArrayList<Loan>();
-
-        for (final Contract act : getLiabilities()) {
-            if (act instanceof Loan) {
-                final Loan loan = (Loan) act;
-                ret.add(loan);
-            }
-        }
-
-        return Collections.unmodifiableList(ret);
+        return liabilityIndex.getLoans();
     }
 
     /**
@@ -275,16 +269,7 @@ public class Agent implements Party, IAgent {
      */
     @Override
    public List<StockAccount> getAssetStockAccounts() {
-        final ArrayList<StockAccount> ret = new ArrayList<StockAccount>();
-
-        for (final Contract act : getAssets()) {
-            if (act instanceof StockAccount) {
-                final StockAccount stockAccount = (StockAccount) act;
-                ret.add(stockAccount);
-            }
-        }
-
-        return Collections.unmodifiableList(ret);
+        return assetIndex.getStockAccounts();
     }
 
     /**
@@ -295,16 +280,7 @@ public class Agent implements Party, IAgent {
      */
     @Override
    public List<DepositAccount> getAssetDeposits() {
-        final ArrayList<DepositAccount> ret = new ArrayList<DepositAccount>();
-
-        for (final Contract act : getAssets()) {
-            if (act instanceof DepositAccount) {
-                final DepositAccount depositAccount = (DepositAccount) act;
-                ret.add(depositAccount);
-            }
-        }
-
-        return Collections.unmodifiableList(ret);
+        return assetIndex.getDeposits();
     }
 
     /**
@@ -315,16 +291,7 @@ public class Agent implements Party, IAgent {
      */
     @Override
    public List<DepositAccount> getLiabilitiesDeposits() {
-        final ArrayList<DepositAccount> ret = new ArrayList<DepositAccount>();
-
-        for (final Contract act : getLiabilities()) {
-            if (act instanceof DepositAccount) {
-                final DepositAccount depositAccount = (DepositAccount) act;
-                ret.add(depositAccount);
-            }
-        }
-
-        return Collections.unmodifiableList(ret);
+        return liabilityIndex.getDeposits();
     }
 
     /**
@@ -340,19 +307,11 @@ public class Agent implements Party, IAgent {
 
     @RecorderSource("TotalAssets")
     public double getTotalAssets() {
-        double totalAssets = 0;
-        for (final Contract contract : assets) {
-            totalAssets += contract.getValue();
-        }
-        return totalAssets;
+        return assetIndex.getTotalValue();
     }
 
     public double getTotalLiabilities() {
-        double totalLiabilities = 0;
-        for (final Contract contract : liabilities) {
-            totalLiabilities += contract.getValue();
-        }
-        return totalLiabilities;
+        return liabilityIndex.getTotalValue();
     }
 
     /*
@@ -0,0 +1,205 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import eu.crisis_economics.abm.contracts.Contract;
+import eu.crisis_economics.abm.contracts.DepositAccount;
+import eu.crisis_economics.abm.contracts.loans.Loan;
+import eu.crisis_economics.abm.contracts.stocks.StockAccount;
+
+/**
+  * An incrementally maintained index of the {@link Contract}{@code s} held on one
+  * side of an {@link Agent} balance sheet.<br><br>
+  *
+  * The index keeps one list of all contracts, in insertion order, and one list
+  * for each of the contract types that {@link Agent} queries by type ({@link Loan},
+  * {@link StockAccount} and {@link DepositAccount}). The index is updated as
+  * contracts are added and removed, so typed queries do not scan the balance sheet.<br><br>
+  *
+  * Read-only views returned by this index are snapshots: a view is never modified
+  * after it has been returned. Each list is copied (at most) once when it is next
+  * modified after a view of it has been returned. Callers may therefore iterate over
+  * a view while terminating the contracts it contains, as with the defensive copies
+  * this index replaces. Repeated queries with no intervening modification do not copy.<br><br>
+  *
+  * This class is not thread-safe.
+  *
+  * @author phillips
+  */
+final class ContractIndex {
+
+   /**
+     * The contracts of one type, with copy-on-write semantics.
+     */
+   private static final class Partition<T> {
+      private final Class<T>
+         type;
+      private List<T>
+         members;
+      private List<T>
+         view;
+
+      Partition(final Class<T> type) {
+         this.type = type;
+         this.members = new ArrayList<T>();
+      }
+
+      void add(final Contract contract) {
+         if(!type.isInstance(contract))
+            return;
+         detachView();
+         members.add(type.cast(contract));
+      }
+
+      void remove(final Contract contract) {
+         if(!type.isInstance(contract))
+            return;
+         detachView();
+         members.remove(contract);
+      }
+
+      List<T> view() {
+         if(view == null)
+            view = Collections.unmodifiableList(members);
+         return view;
+      }
+
+      /**
+        * If a view of the current members has been returned, replace the members
+        * with a private copy, so that the existing view is not modified.
+        */
+      private void detachView() {
+         if(view == null)
+            return;
+         members = new ArrayList<T>(members);
+         view = null;
+      }
+   }
+
+   private final Partition<Contract>
+      all;
+   private final Partition<Loan>
+      loans;
+   private final Partition<StockAccount>
+      stockAccounts;
+   private final Partition<DepositAccount>
+      deposits;
+   private final List<Contract>
+      liveList;
+
+   ContractIndex() {
+      this.all = new Partition<Contract>(Contract.class);
+      this.loans = new Partition<Loan>(Loan.class);
+      this.stockAccounts = new Partition<StockAccount>(StockAccount.class);
+      this.deposits = new Partition<DepositAccount>(DepositAccount.class);
+      this.liveList = new LiveList();
+   }
+
+   void add(final Contract contract) {
+      all.add(contract);
+      loans.add(contract);
+      stockAccounts.add(contract);
+      deposits.add(contract);
+   }
+
+   boolean remove(final Contract contract) {
+      if(!all.members.contains(contract))
+         return false;
+      all.remove(contract);
+      loans.remove(contract);
+      stockAccounts.remove(contract);
+      deposits.remove(contract);
+      return true;
+   }
+
+   /**
+     * Get a read-only snapshot of all indexed contracts, in insertion order.
+     */
+   List<Contract> getAll() {
+      return all.view();
+   }
+
+   List<Loan> getLoans() {
+      return loans.view();
+   }
+
+   List<StockAccount> getStockAccounts() {
+      return stockAccounts.view();
+   }
+
+   List<DepositAccount> getDeposits() {
+      return deposits.view();
+   }
+
+   /**
+     * Get the sum of the values of all indexed contracts.
+     */
+   double getTotalValue() {
+      double result = 0.;
+      final List<Contract> members = all.members;
+      for(int i = 0; i< members.size(); ++i)
+         result += members.get(i).getValue();
+      return result;
+   }
+
+   /**
+     * Get a live, modifiable {@link List} backed by this index. Elements added
+     * or removed via the {@link List#add(Object)} and {@link List#remove(Object)}
+     * methods of the result are added to, or removed from, this index. Other
+     * structural modifications are not supported.
+     */
+   List<Contract> asList() {
+      return liveList;
+   }
+
+   private final class LiveList extends AbstractList<Contract> {
+      @Override
+      public Contract get(final int index) {
+         return all.members.get(index);
+      }
+
+      @Override
+      public int size() {
+         return all.members.size();
+      }
+
+      @Override
+      public boolean add(final Contract contract) {
+         ContractIndex.this.add(contract);
+         return true;
+      }
+
+      @Override
+      public boolean remove(final Object object) {
+         if(!(object instanceof Contract))
+            return false;
+         return ContractIndex.this.remove((Contract) object);
+      }
+
+      @Override
+      public boolean contains(final Object object) {
+         return all.members.contains(object);
+      }
+   }
+}
@@ -20,22 +20,22 @@
 package eu.crisis_economics.abm.agent;
 
 import eu.crisis_economics.abm.Agent;
+import eu.crisis_economics.abm.simulation.SimulationContext;
 
 /**
   * An instance-based naming convention for {@link Agent}{@code s}. This class returns the
-  * simple class name of the {@link Agent} suffixed with the value of a global counter.
-  * The value of the global counter is incremented by {@code 1} every time a new name
-  * is requested.
+  * simple class name of the {@link Agent} suffixed with the value of a counter. The
+  * counter belongs to the active {@link SimulationContext}, and is reset when a
+  * simulation is reset. The value of the counter is incremented by {@code 1} every time
+  * a new name is requested.
   * 
   * @author phillips
   */
 public final class InstanceIDAgentNameFactory implements AgentNameFactory {
    
-   private static long
-      serial = 0L;
-   
    @Override
    public String generateNameFor(final Agent agent) {
-      return (agent.getClass().getSimpleName() + serial++);
+      return (agent.getClass().getSimpleName() 
+         + SimulationContext.current().nextAgentNameSerial());
    }
 }
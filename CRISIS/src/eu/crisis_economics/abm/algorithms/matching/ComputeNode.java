@@ -26,8 +26,12 @@ import com.google.common.base.Preconditions;
   * @author phillips
   */
 final class ComputeNode implements Node {
-   private double unusable;
-   private final Node node;
+   private double
+      pricePerUnit,
+      volume,
+      unusable;
+   private Object
+      objectReference;
    
    /**
      * Add 'usable' and 'unusable' subvolumes to an existing node
@@ -35,8 +39,32 @@ final class ComputeNode implements Node {
      */
    public ComputeNode(final Node node) { // Mutable, Detail
       Preconditions.checkNotNull(node);
-      this.node = node;
-      unusable = 0.;
+      reset(node.getPricePerUnit(), node.getVolume(), node.getObjectReference());
+   }
+   
+   /**
+     * Create an empty (zero volume) node. This constructor is intended for
+     * node pools, such as {@link MatchingWorkspace}, whose nodes are 
+     * reused by calling {@link #reset(double, double, Object)}.
+     */
+   ComputeNode() {
+      reset(0., 0., null);
+   }
+   
+   /**
+     * Reuse this node. The price per unit, volume and object reference of 
+     * this node are replaced by the arguments, and the node is flagged as
+     * completely usable.
+     */
+   void reset(
+      final double pricePerUnit,
+      final double volume,
+      final Object objectReference
+      ) {
+      this.pricePerUnit = pricePerUnit;
+      this.volume = volume;
+      this.objectReference = objectReference;
+      this.unusable = 0.;
    }
    
    /**
@@ -50,7 +78,7 @@ final class ComputeNode implements Node {
      * The node subvolume that is usable.
      */
    public double getUsable() {
-      return Math.max(this.getVolume() - unusable, 0.);
+      return usable(getVolume(), unusable);
    }
    
    /**
@@ -67,7 +95,7 @@ final class ComputeNode implements Node {
      * of the node, then V is silently trimmed to this value.
      */
    public void setUnusable(double volume) {
-      unusable = Math.max(Math.min(volume, getVolume()), 0.);
+      unusable = clampUnusable(volume, getVolume());
    }
    
    /**
@@ -99,7 +127,7 @@ final class ComputeNode implements Node {
      *        F is silently set to zero. If F > 1, F is silently trimmed to 1.
      */
    public void setUnusableByFraction(double fraction) {
-      unusable = Math.min(Math.max(fraction, 0.), 1.) * getVolume();
+      unusable = unusableByFraction(fraction, getVolume());
    }
    
    /**
@@ -109,19 +137,44 @@ final class ComputeNode implements Node {
       setUnusableByFraction(1. - fraction);
    }
    
+   /**
+     * The usable subvolume of a node with the given volume and unusable 
+     * subvolume. This method, and the following static methods, apply the 
+     * arithmetic of {@link ComputeNode} to nodes stored in primitive arrays.
+     */
+   static double usable(final double volume, final double unusable) {
+      return Math.max(volume - unusable, 0.);
+   }
+   
+   /**
+     * The unusable subvolume of a node with the given volume, after a call to 
+     * {@link #setUnusable(double)} with the first argument.
+     */
+   static double clampUnusable(final double unusable, final double volume) {
+      return Math.max(Math.min(unusable, volume), 0.);
+   }
+   
+   /**
+     * The unusable subvolume of a node with the given volume, after a call to 
+     * {@link #setUnusableByFraction(double)} with the first argument.
+     */
+   static double unusableByFraction(final double fraction, final double volume) {
+      return Math.min(Math.max(fraction, 0.), 1.) * volume;
+   }
+   
    @Override
    public double getPricePerUnit() {
-      return node.getPricePerUnit();
+      return pricePerUnit;
    }
    
    @Override
    public double getVolume() {
-      return node.getVolume();
+      return volume;
    }
    
    @Override
    public Object getObjectReference() {
-      return node.getObjectReference();
+      return objectReference;
    }
    
    /**
@@ -24,7 +24,6 @@ package eu.crisis_economics.abm.algorithms.matching;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Random;
 import java.security.InvalidAlgorithmParameterException;
 
 import org.testng.Assert;
@@ -69,9 +68,13 @@ import eu.crisis_economics.utilities.StateVerifier;
   * natural resources, and accept, out of necessity, whatever
   * resources they find.
   * 
+  * {@link #matchNodes(MatchingWorkspace, MatchListener)} is safe for concurrent
+  * use with distinct workspaces if the rationing algorithm is stateless (Eg.
+  * {@link HomogeneousRationingAlgorithm} and {@link WorstPropositionRationing}).
+  * 
   * @author phillips
   */
-public final class ForagerMatchingAlgorithm implements MatchingAlgorithm {
+public final class ForagerMatchingAlgorithm implements IndexedMatchingAlgorithm {
    
    private final RationingAlgorithm
       rationing;
@@ -85,73 +88,128 @@ public final class ForagerMatchingAlgorithm implements MatchingAlgorithm {
       rationing = rationingAlgorithm;
    }
    
+   /**
+     * Match two collections of nodes. This method is equivalent to copying the
+     * nodes into a new {@link MatchingWorkspace}, seeded from the simulation 
+     * random number generator, and calling {@link #matchNodes(MatchingWorkspace, 
+     * MatchListener)}.
+     */
    @Override
    public Matching matchNodes(
-      Collection<SimpleNode> left,
-      Collection<SimpleNode> right
+      final Collection<SimpleNode> left,
+      final Collection<SimpleNode> right
       ) throws InvalidAlgorithmParameterException
    {
-       Matching.Builder builder = new Matching.Builder();
+       final Matching.Builder builder = new Matching.Builder();
        
        if(left.isEmpty() || right.isEmpty())
           return builder.build();
        
-       final List<ComputeNode> 
-          leftWorkspace = new ArrayList<ComputeNode>(),
-          rightWorkspace = new ArrayList<ComputeNode>();
-       for(Node node : left)
-          leftWorkspace.add(new ComputeNode(node));
-       for(Node node : right)
-          rightWorkspace.add(new ComputeNode(node));
-       
-       rationing.rationNodes(leftWorkspace, rightWorkspace);                    // Rationing
+       final List<SimpleNode>
+          leftNodes = new ArrayList<SimpleNode>(left),
+          rightNodes = new ArrayList<SimpleNode>(right);
+       final MatchingWorkspace workspace = new MatchingWorkspace();
+       for(final Node node : leftNodes)
+          workspace.addLeftNode(node.getPricePerUnit(), node.getVolume(), node.getObjectReference());
+       for(final Node node : rightNodes)
+          workspace.addRightNode(node.getPricePerUnit(), node.getVolume(), node.getObjectReference());
+       workspace.setSeedFrom(Simulation.getSimState().random);
        
-       final List<Integer> rightSidePermuation = new ArrayList<Integer>();
-       for(int i = 0; i< right.size(); ++i)
-          rightSidePermuation.add(i);
-       Random rnd = new Random(Simulation.getSimState().random.nextLong());
-       java.util.Collections.shuffle(rightSidePermuation, rnd);
+       matchNodes(workspace, new MatchListener() {
+          @Override
+          public void addMatch(
+             final int leftIndex,
+             final int rightIndex,
+             final double matchAmount,
+             final double matchCost
+             ) {
+             builder.addMatch(new OneToOneMatch(
+                leftNodes.get(leftIndex), rightNodes.get(rightIndex), matchAmount, matchCost));
+          }
+       });
        
-       {
-       int leftCursor = 0;
-       for(int i = 0; i< right.size(); ++i) {
-          int rightCursor = rightSidePermuation.get(i);
-          final ComputeNode rightNode = rightWorkspace.get(rightCursor);
-          double
-             sought = rightNode.getUsable();
-          if(sought == 0) continue;
-          int j = leftCursor;
-          for(; j< left.size(); ++j) {
-             final ComputeNode leftNode = leftWorkspace.get(j);
-             final double 
-                offered = leftNode.getUsable();
-             if(offered == 0) continue;
-                double executionPrice = 
-                   (rightNode.getPricePerUnit() <= leftNode.getPricePerUnit()) ?
-                   rightNode.getPricePerUnit() :
-                   .5 * (rightNode.getPricePerUnit() + leftNode.getPricePerUnit());
-                if(offered <= rightNode.getUsable()) {
-                   builder.addMatch(new OneToOneMatch(
-                      leftNode, rightNode, offered, executionPrice));
-                   rightNode.incrementUnusable(offered);
-                   leftNode.setFullyUnusable();
-                }
-                else {
-                   builder.addMatch(new OneToOneMatch(
-                      leftNode, rightNode, sought, executionPrice));
-                   leftNode.incrementUnusable(sought);
-                   rightNode.setFullyUnusable();
-                   break;
-                }
-                sought = rightNode.getUsable();
-                if(sought == 0) break;
+       return builder.build();
+   }
+   
+   /**
+     * Match the left and right node groups of a {@link MatchingWorkspace}, as 
+     * described in the documentation of this class. The right (buyer) group is 
+     * shuffled, in place, with the random number generator of the workspace. No
+     * objects are created by this method, other than by the {@link 
+     * RationingAlgorithm} and the {@link MatchListener}.
+     */
+   @Override
+   public void matchNodes(
+      final MatchingWorkspace workspace,
+      final MatchListener listener
+      ) throws InvalidAlgorithmParameterException
+   {
+      StateVerifier.checkNotNull(workspace, listener);
+      
+      final int
+         numberOfLeftNodes = workspace.getNumberOfLeftNodes(),
+         numberOfRightNodes = workspace.getNumberOfRightNodes();
+      if(numberOfLeftNodes == 0 || numberOfRightNodes == 0)
+         return;
+      
+      rationing.rationNodes(                                                    // Rationing
+         workspace.getLeftComputeNodes(), workspace.getRightComputeNodes());
+      
+      workspace.loadArrays();
+      workspace.shuffleRightPermutation();
+      
+      final double[]
+         leftPrices = workspace.leftPrices,
+         leftVolumes = workspace.leftVolumes,
+         leftUnusable = workspace.leftUnusable,
+         rightPrices = workspace.rightPrices,
+         rightVolumes = workspace.rightVolumes,
+         rightUnusable = workspace.rightUnusable;
+      final int[]
+         rightPermutation = workspace.rightPermutation;
+      
+      /*
+       * The usable subvolume of each node is computed, and updated, exactly as
+       * by ComputeNode.getUsable(), ComputeNode.incrementUnusable(double) and
+       * ComputeNode.setFullyUnusable().
+       */
+      int leftCursor = 0;
+      for(int i = 0; i< numberOfRightNodes; ++i) {
+         final int rightCursor = rightPermutation[i];
+         final double
+            rightPrice = rightPrices[rightCursor],
+            rightVolume = rightVolumes[rightCursor];
+         double
+            rightUnusableNow = rightUnusable[rightCursor],
+            sought = Math.max(rightVolume - rightUnusableNow, 0.);
+         if(sought == 0) continue;
+         int j = leftCursor;
+         for(; j< numberOfLeftNodes; ++j) {
+            final double
+               offered = Math.max(leftVolumes[j] - leftUnusable[j], 0.);
+            if(offered == 0) continue;
+            final double executionPrice =
+               (rightPrice <= leftPrices[j]) ? rightPrice : .5 * (rightPrice + leftPrices[j]);
+            if(offered <= sought) {
+               listener.addMatch(j, rightCursor, offered, executionPrice);
+               rightUnusableNow =
+                  Math.max(Math.min(rightUnusableNow + offered, rightVolume), 0.);
+               leftUnusable[j] = leftVolumes[j];
             }
-            leftCursor = j;
-        }
-        }
-        
-        return builder.build();
-    }
+            else {
+               listener.addMatch(j, rightCursor, sought, executionPrice);
+               leftUnusable[j] =
+                  Math.max(Math.min(leftUnusable[j] + sought, leftVolumes[j]), 0.);
+               rightUnusableNow = rightVolume;
+               break;
+            }
+            sought = Math.max(rightVolume - rightUnusableNow, 0.);
+            if(sought == 0) break;
+         }
+         rightUnusable[rightCursor] = rightUnusableNow;
+         leftCursor = j;
+      }
+   }
     
     // TODO: migrate to /test/
     static public void main(String[] args) {
@@ -24,10 +24,12 @@ import java.security.InvalidAlgorithmParameterException;
 
 import com.google.inject.Inject;
 
+import ec.util.MersenneTwisterFast;
+
 /**
   * @author phillips
   */
-public final class HomogeneousRationingAlgorithm implements RationingAlgorithm {
+public final class HomogeneousRationingAlgorithm implements SortedRationingAlgorithm {
    
    /**
      * Create a homogeneous rationing algorithm.
@@ -81,6 +83,37 @@ public final class HomogeneousRationingAlgorithm implements RationingAlgorithm {
          }
    }
    
+   /**
+     * Ration a pair of node groups stored in primitive arrays. The result is 
+     * the same as the result of {@link #rationNodes(Collection, Collection)}.
+     * No random numbers are drawn.
+     */
+   @Override
+   public void rationSortedVolumes(
+      final double[] leftVolumes,
+      final double[] leftUnusable,                                  // Modified
+      final int numberOfLeftNodes,
+      final double totalLeftVolume,
+      final double[] rightVolumes,
+      final double[] rightUnusable,                                 // Modified
+      final int numberOfRightNodes,
+      final double totalRightVolume,
+      final MersenneTwisterFast random
+      ) {
+      if(totalLeftVolume == totalRightVolume) return;
+      
+      if(totalLeftVolume > totalRightVolume) {
+         final double rationFactor = 1. - totalRightVolume / totalLeftVolume;
+         for(int i = 0; i< numberOfLeftNodes; ++i)
+            leftUnusable[i] = ComputeNode.unusableByFraction(rationFactor, leftVolumes[i]);
+      }
+      else {
+         final double rationFactor = 1. - totalLeftVolume / totalRightVolume;
+         for(int i = 0; i< numberOfRightNodes; ++i)
+            rightUnusable[i] = ComputeNode.unusableByFraction(rationFactor, rightVolumes[i]);
+      }
+   }
+   
    /**
      * Returns a brief description of this object. The exact details of the
      * string are subject to change, and should not be regarded as fixed.
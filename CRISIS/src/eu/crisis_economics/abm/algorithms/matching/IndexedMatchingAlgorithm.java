@@ -0,0 +1,53 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.security.InvalidAlgorithmParameterException;
+
+/**
+  * A {@link MatchingAlgorithm} which can also operate on the primitive
+  * arrays of a reusable {@link MatchingWorkspace}.<br><br>
+  * 
+  * Callers who process the same market repeatedly (Eg. a goods or labour
+  * instrument) can retain a {@link MatchingWorkspace} and a {@link MatchBuffer}
+  * between sessions. In this case no objects are created per node or per
+  * trade. Implementations should document whether they can process distinct 
+  * workspaces concurrently.
+  * 
+  * @author phillips
+  */
+public interface IndexedMatchingAlgorithm extends MatchingAlgorithm {
+   /**
+     * Match the left and right node groups of a {@link MatchingWorkspace}.
+     * 
+     * @param workspace
+     *        The nodes to match. The workspace is used as scratch space by
+     *        this method, however the prices, volumes and object references of 
+     *        its nodes are never modified. Any randomness is drawn from the 
+     *        workspace itself (see {@link MatchingWorkspace#setSeed(long)}),
+     *        so this method does not consume simulation random numbers.
+     * @param listener
+     *        A receiver for all trades, in the order in which they are 
+     *        identified.
+     */
+   public void matchNodes(
+      MatchingWorkspace workspace,
+      MatchListener listener
+      ) throws InvalidAlgorithmParameterException;
+}
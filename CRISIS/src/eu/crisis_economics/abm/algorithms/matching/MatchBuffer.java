@@ -0,0 +1,140 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.util.Arrays;
+
+/**
+  * A reusable, structure-of-arrays {@link MatchListener}.<br><br>
+  * 
+  * This object records trades in primitive arrays. The {@code i}th trade
+  * is described by {@link #getLeftIndex(int)}, {@link #getRightIndex(int)},
+  * {@link #getMatchAmount(int)} and {@link #getMatchCost(int)}. Calling 
+  * {@link #clear()} discards all trades but retains the storage of this 
+  * object, so that a buffer used repeatedly no longer allocates memory once 
+  * it has grown to the size of the largest session.
+  * 
+  * @author phillips
+  */
+public final class MatchBuffer implements MatchListener {
+   
+   private static final int
+      DEFAULT_INITIAL_CAPACITY = 16;
+   
+   private int
+      size;
+   private int[]
+      leftIndices,
+      rightIndices;
+   private double[]
+      matchAmounts,
+      matchCosts;
+   
+   /**
+     * Create an empty {@link MatchBuffer}.
+     */
+   public MatchBuffer() {                                           // Mutable
+      this.leftIndices = new int[DEFAULT_INITIAL_CAPACITY];
+      this.rightIndices = new int[DEFAULT_INITIAL_CAPACITY];
+      this.matchAmounts = new double[DEFAULT_INITIAL_CAPACITY];
+      this.matchCosts = new double[DEFAULT_INITIAL_CAPACITY];
+   }
+   
+   @Override
+   public void addMatch(
+      final int leftIndex,
+      final int rightIndex,
+      final double matchAmount,
+      final double matchCost
+      ) {
+      if(size == leftIndices.length) {
+         final int capacity = 2 * size;
+         leftIndices = Arrays.copyOf(leftIndices, capacity);
+         rightIndices = Arrays.copyOf(rightIndices, capacity);
+         matchAmounts = Arrays.copyOf(matchAmounts, capacity);
+         matchCosts = Arrays.copyOf(matchCosts, capacity);
+      }
+      leftIndices[size] = leftIndex;
+      rightIndices[size] = rightIndex;
+      matchAmounts[size] = matchAmount;
+      matchCosts[size] = matchCost;
+      ++size;
+   }
+   
+   /**
+     * Discard all trades. The storage of this object is retained.
+     */
+   public void clear() {
+      size = 0;
+   }
+   
+   /**
+     * Get the number of trades recorded.
+     */
+   public int size() {
+      return size;
+   }
+   
+   /**
+     * Get the workspace index of the left node of the {@code i}th trade.
+     */
+   public int getLeftIndex(final int i) {
+      checkIndex(i);
+      return leftIndices[i];
+   }
+   
+   /**
+     * Get the workspace index of the right node of the {@code i}th trade.
+     */
+   public int getRightIndex(final int i) {
+      checkIndex(i);
+      return rightIndices[i];
+   }
+   
+   /**
+     * Get the quantity traded in the {@code i}th trade.
+     */
+   public double getMatchAmount(final int i) {
+      checkIndex(i);
+      return matchAmounts[i];
+   }
+   
+   /**
+     * Get the execution price per unit of the {@code i}th trade.
+     */
+   public double getMatchCost(final int i) {
+      checkIndex(i);
+      return matchCosts[i];
+   }
+   
+   private void checkIndex(final int i) {
+      if(i < 0 || i >= size)
+         throw new IndexOutOfBoundsException(
+            "MatchBuffer: index " + i + " is out of range [0, " + size + ").");
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public String toString() {
+      return "Match Buffer, trades: " + size + ".";
+   }
+}
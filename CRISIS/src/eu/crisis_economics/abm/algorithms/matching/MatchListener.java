@@ -0,0 +1,49 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+/**
+  * A receiver for trades identified by an {@link IndexedMatchingAlgorithm}.<br><br>
+  * 
+  * Trades are identified by the indices of the left and right nodes in a 
+  * {@link MatchingWorkspace}, rather than by {@link Matching.OneToOneMatch}
+  * objects. This interface is analogous to {@link Matching.Builder#addMatch}.
+  * 
+  * @author phillips
+  */
+public interface MatchListener {
+   /**
+     * Receive one trade.
+     * 
+     * @param leftIndex
+     *        The index of the left node in the {@link MatchingWorkspace}.
+     * @param rightIndex
+     *        The index of the right node in the {@link MatchingWorkspace}.
+     * @param matchAmount
+     *        The quantity traded.
+     * @param matchCost
+     *        The execution price per unit traded.
+     */
+   public void addMatch(
+      int leftIndex,
+      int rightIndex,
+      double matchAmount,
+      double matchCost
+      );
+}
@@ -0,0 +1,321 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+  * A reusable workspace for {@link IndexedMatchingAlgorithm}{@code s}.<br><br>
+  * 
+  * A workspace holds two groups of nodes (left and right), each described by
+  * a price per unit, a volume and an object reference. Nodes are identified
+  * by their index in the order in which they were added. Trades identified by
+  * a matching algorithm refer to these indices (see {@link MatchListener}).
+  * <br><br>
+  * 
+  * Calling {@link #clear()} discards all nodes but retains the storage of this
+  * object. A workspace which is reused for every processing session of a 
+  * market no longer allocates memory once it has grown to the size of the 
+  * largest session.<br><br>
+  * 
+  * Each workspace has its own random number generator, which is used by 
+  * matching algorithms to shuffle and to ration nodes. Callers who require reproducible 
+  * results should reseed this generator, with {@link #setSeed(long)}, from 
+  * the simulation random number generator before each session. Workspaces
+  * are not thread safe, however distinct workspaces can be processed 
+  * concurrently.
+  * 
+  * @author phillips
+  */
+public final class MatchingWorkspace {
+   
+   private static final int
+      DEFAULT_INITIAL_CAPACITY = 16;
+   
+   private final List<ComputeNode>
+      leftNodes,
+      rightNodes;
+   
+   private int
+      numberOfLeftNodes,
+      numberOfRightNodes;
+   
+   double[]                                                          // Algorithm Detail
+      leftPrices,
+      leftVolumes,
+      leftUnusable,
+      rightPrices,
+      rightVolumes,
+      rightUnusable;
+   
+   int[]                                                             // Algorithm Detail
+      rightPermutation;
+   
+   int[]                                                             // Algorithm Detail
+      leftOrder,
+      rightOrder,
+      orderScratch;
+   
+   double[]                                                          // Algorithm Detail
+      leftSortedVolumes,
+      leftSortedUnusable,
+      leftCumulativeVolumes,
+      rightSortedVolumes,
+      rightSortedUnusable,
+      rightCumulativeVolumes;
+   
+   private final MersenneTwisterFast
+      random;
+   
+   /**
+     * Create an empty {@link MatchingWorkspace}. The random number generator of
+     * this workspace has a fixed initial seed.
+     */
+   public MatchingWorkspace() {                                     // Mutable
+      this.leftNodes = new ArrayList<ComputeNode>();
+      this.rightNodes = new ArrayList<ComputeNode>();
+      this.leftPrices = new double[DEFAULT_INITIAL_CAPACITY];
+      this.leftVolumes = new double[DEFAULT_INITIAL_CAPACITY];
+      this.leftUnusable = new double[DEFAULT_INITIAL_CAPACITY];
+      this.rightPrices = new double[DEFAULT_INITIAL_CAPACITY];
+      this.rightVolumes = new double[DEFAULT_INITIAL_CAPACITY];
+      this.rightUnusable = new double[DEFAULT_INITIAL_CAPACITY];
+      this.rightPermutation = new int[DEFAULT_INITIAL_CAPACITY];
+      this.random = new MersenneTwisterFast(1L);
+   }
+   
+   /**
+     * Add a node to the left group.
+     * 
+     * @param pricePerUnit
+     *        The price per unit that the participant is willing to pay.
+     * @param volume
+     *        The volume (total quantity) that the participant wants to trade.
+     * @param objectReference
+     *        A reference to the participant, or any other object.
+     */
+   public void addLeftNode(
+      final double pricePerUnit,
+      final double volume,
+      final Object objectReference
+      ) {
+      addNode(leftNodes, numberOfLeftNodes++, pricePerUnit, volume, objectReference);
+   }
+   
+   /**
+     * Add a node to the right group. See {@link #addLeftNode}.
+     */
+   public void addRightNode(
+      final double pricePerUnit,
+      final double volume,
+      final Object objectReference
+      ) {
+      addNode(rightNodes, numberOfRightNodes++, pricePerUnit, volume, objectReference);
+   }
+   
+   private static void addNode(
+      final List<ComputeNode> pool,
+      final int index,
+      final double pricePerUnit,
+      final double volume,
+      final Object objectReference
+      ) {
+      if(index == pool.size())
+         pool.add(new ComputeNode());
+      pool.get(index).reset(pricePerUnit, volume, objectReference);
+   }
+   
+   /**
+     * Discard all nodes. The storage of this workspace is retained, however 
+     * references to node objects are released.
+     */
+   public void clear() {
+      for(int i = 0; i< numberOfLeftNodes; ++i)
+         leftNodes.get(i).reset(0., 0., null);
+      for(int i = 0; i< numberOfRightNodes; ++i)
+         rightNodes.get(i).reset(0., 0., null);
+      numberOfLeftNodes = 0;
+      numberOfRightNodes = 0;
+   }
+   
+   /**
+     * Reseed the random number generator of this workspace.
+     */
+   public void setSeed(final long seed) {
+      random.setSeed(seed);
+   }
+   
+   /**
+     * Reseed the random number generator of this workspace with a value drawn
+     * from the argument. No value is drawn if either node group is empty, as no
+     * matching is possible in this case.
+     */
+   public void setSeedFrom(final MersenneTwisterFast source) {
+      if(numberOfLeftNodes == 0 || numberOfRightNodes == 0)
+         return;
+      setSeed(source.nextLong());
+   }
+   
+   /**
+     * Get the random number generator of this workspace.
+     */
+   MersenneTwisterFast getRandom() {
+      return random;
+   }
+   
+   /**
+     * Get the number of nodes in the left group.
+     */
+   public int getNumberOfLeftNodes() {
+      return numberOfLeftNodes;
+   }
+   
+   /**
+     * Get the number of nodes in the right group.
+     */
+   public int getNumberOfRightNodes() {
+      return numberOfRightNodes;
+   }
+   
+   /**
+     * Get the object reference of the left node with the specified index.
+     */
+   public Object getLeftObjectReference(final int index) {
+      checkIndex(index, numberOfLeftNodes);
+      return leftNodes.get(index).getObjectReference();
+   }
+   
+   /**
+     * Get the object reference of the right node with the specified index.
+     */
+   public Object getRightObjectReference(final int index) {
+      checkIndex(index, numberOfRightNodes);
+      return rightNodes.get(index).getObjectReference();
+   }
+   
+   private static void checkIndex(final int index, final int size) {
+      if(index < 0 || index >= size)
+         throw new IndexOutOfBoundsException(
+            "MatchingWorkspace: node index " + index + " is out of range [0, " + size + ").");
+   }
+   
+   /**
+     * Get the left group as a list of {@link ComputeNode}{@code s}, for 
+     * {@link RationingAlgorithm}{@code s}. The result is a view of the node 
+     * pool of this workspace.
+     */
+   List<ComputeNode> getLeftComputeNodes() {
+      return leftNodes.subList(0, numberOfLeftNodes);
+   }
+   
+   /**
+     * Get the right group as a list of {@link ComputeNode}{@code s}. See 
+     * {@link #getLeftComputeNodes()}.
+     */
+   List<ComputeNode> getRightComputeNodes() {
+      return rightNodes.subList(0, numberOfRightNodes);
+   }
+   
+   /**
+     * Copy the prices, volumes and unusable subvolumes of all nodes (Eg. after
+     * rationing) to the primitive arrays of this workspace, and reset the right
+     * node permutation to the identity.
+     */
+   void loadArrays() {
+      ensureCapacity(Math.max(numberOfLeftNodes, numberOfRightNodes));
+      for(int i = 0; i< numberOfLeftNodes; ++i) {
+         final ComputeNode node = leftNodes.get(i);
+         leftPrices[i] = node.getPricePerUnit();
+         leftVolumes[i] = node.getVolume();
+         leftUnusable[i] = node.getUnusable();
+      }
+      for(int i = 0; i< numberOfRightNodes; ++i) {
+         final ComputeNode node = rightNodes.get(i);
+         rightPrices[i] = node.getPricePerUnit();
+         rightVolumes[i] = node.getVolume();
+         rightUnusable[i] = node.getUnusable();
+         rightPermutation[i] = i;
+      }
+   }
+   
+   /**
+     * Shuffle the right node permutation in place (Fisher-Yates), using the 
+     * random number generator of this workspace.
+     */
+   void shuffleRightPermutation() {
+      for(int i = numberOfRightNodes; i > 1; --i) {
+         final int
+            j = random.nextInt(i),
+            swap = rightPermutation[i - 1];
+         rightPermutation[i - 1] = rightPermutation[j];
+         rightPermutation[j] = swap;
+      }
+   }
+   
+   /**
+     * Allocate the ordering arrays of this workspace (Eg. for {@link 
+     * SortedCallAuction}{@code s}), if their capacity is insufficient for the 
+     * current nodes. Ordering arrays are not allocated until first use, and their
+     * contents are not retained when they are reallocated. Cumulative volume 
+     * arrays have one more element than the other ordering arrays.
+     */
+   void ensureOrderingCapacity() {
+      final int size = Math.max(numberOfLeftNodes, numberOfRightNodes);
+      if(leftOrder != null && size <= leftOrder.length)
+         return;
+      final int capacity = Math.max(size,
+         leftOrder == null ? DEFAULT_INITIAL_CAPACITY : 2 * leftOrder.length);
+      leftOrder = new int[capacity];
+      rightOrder = new int[capacity];
+      orderScratch = new int[capacity];
+      leftSortedVolumes = new double[capacity];
+      leftSortedUnusable = new double[capacity];
+      leftCumulativeVolumes = new double[capacity + 1];
+      rightSortedVolumes = new double[capacity];
+      rightSortedUnusable = new double[capacity];
+      rightCumulativeVolumes = new double[capacity + 1];
+   }
+   
+   private void ensureCapacity(final int size) {
+      if(size <= leftPrices.length)
+         return;
+      final int capacity = Math.max(size, 2 * leftPrices.length);
+      leftPrices = Arrays.copyOf(leftPrices, capacity);
+      leftVolumes = Arrays.copyOf(leftVolumes, capacity);
+      leftUnusable = Arrays.copyOf(leftUnusable, capacity);
+      rightPrices = Arrays.copyOf(rightPrices, capacity);
+      rightVolumes = Arrays.copyOf(rightVolumes, capacity);
+      rightUnusable = Arrays.copyOf(rightUnusable, capacity);
+      rightPermutation = new int[capacity];
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public String toString() {
+      return "Matching Workspace, left nodes: " + numberOfLeftNodes
+           + ", right nodes: " + numberOfRightNodes + ".";
+   }
+}
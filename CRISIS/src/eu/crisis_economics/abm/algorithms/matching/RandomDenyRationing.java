@@ -26,12 +26,22 @@ import java.lang.Math;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import ec.util.MersenneTwisterFast;
+
 /**
-  * Resource rationing by random denial.
+  * Resource rationing by random denial.<br><br>
+  * 
+  * {@link #rationNodes(Collection, Collection)} draws random numbers from a
+  * generator owned by this object, and is intended for sequential use. When 
+  * nodes are rationed in primitive arrays, by {@link SortedCallAuction}, random
+  * numbers are instead drawn from the generator of the {@link MatchingWorkspace}
+  * being processed. This object is then stateless, and distinct workspaces can
+  * be rationed concurrently with results which do not depend on the number of 
+  * threads.
   * 
   * @author phillips
   */
-public final class RandomDenyRationing implements RationingAlgorithm {
+public final class RandomDenyRationing implements SortedRationingAlgorithm {
    
    public final static double
       DEFAULT_INHOMOGENEITY_OF_RATIONING = .05;
@@ -152,6 +162,80 @@ public final class RandomDenyRationing implements RationingAlgorithm {
       return;                                                       // Success
    }
    
+   /**
+     * Ration a pair of node groups stored in primitive arrays. This method
+     * applies the same rationing as {@link #rationNodes(Collection, Collection)}, 
+     * and draws one random number per rationed node from {@code random}.
+     */
+   @Override
+   public void rationSortedVolumes(
+      final double[] leftVolumes,
+      final double[] leftUnusable,                                  // Modified
+      final int numberOfLeftNodes,
+      final double totalLeftVolume,
+      final double[] rightVolumes,
+      final double[] rightUnusable,                                 // Modified
+      final int numberOfRightNodes,
+      final double totalRightVolume,
+      final MersenneTwisterFast random
+      ) throws InvalidAlgorithmParameterException {
+      if(leftVolumes == null || leftUnusable == null ||
+         rightVolumes == null || rightUnusable == null || random == null)
+         throw new InvalidAlgorithmParameterException();
+      
+      if(totalLeftVolume == 0. && totalRightVolume == 0.)
+         return;
+      else if(totalLeftVolume > totalRightVolume)
+         applyRationing(
+            totalRightVolume, leftVolumes, leftUnusable, numberOfLeftNodes, totalLeftVolume,
+            random);
+      else if(totalRightVolume > totalLeftVolume)
+         applyRationing(
+            totalLeftVolume, rightVolumes, rightUnusable, numberOfRightNodes, totalRightVolume,
+            random);
+      else return;
+   }
+   
+   /**
+     * Apply a non-uniform rationing to nodes stored in primitive arrays. See
+     * {@link #applyRationing(double, Collection)}. The unusable array is used
+     * to store the usable fraction of each node before the final rescaling.
+     */
+   private void applyRationing(
+      final double targetOffering,
+      final double[] volumes,
+      final double[] unusable,                                      // Modified
+      final int numberOfNodes,
+      final double maxOffering,
+      final MersenneTwisterFast random
+      ) {
+      if(targetOffering <= 0.) {
+         for(int i = 0; i< numberOfNodes; ++i)
+            unusable[i] = volumes[i];
+         return;                                                    // Target offering is zero.
+      }
+      if(maxOffering == 0. || targetOffering >= maxOffering)
+         return;                                                    // All fully usable, return.
+      final double
+         homogeneousF = targetOffering / maxOffering,
+         __1minusHomogeneousF = Math.max(0., 1. - homogeneousF);
+      double
+         offering = 0.;
+      for(int i = 0; i< numberOfNodes; ++i) {
+         double
+            f = homogeneousF + inhomogeneityOfRationing * random.nextDouble() * __1minusHomogeneousF;
+         f = Math.max(f, 0.); 
+         f = Math.min(f, 1.);
+         unusable[i] = f;
+         offering += volumes[i] * f;
+      }
+      final double
+         globalF = (offering == targetOffering) ? 1. : targetOffering / offering;
+      for(int i = 0; i< numberOfNodes; ++i)
+         unusable[i] = ComputeNode.unusableByFraction(1. - globalF * unusable[i], volumes[i]);
+      return;                                                       // Success
+   }
+   
    /**
      * Get the total volume over a set of nodes.
      */
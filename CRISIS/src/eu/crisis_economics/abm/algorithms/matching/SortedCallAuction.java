@@ -0,0 +1,400 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import eu.crisis_economics.abm.algorithms.matching.Matching.OneToOneMatch;
+import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.utilities.StateVerifier;
+
+/**
+  * A call auction with sort-based price discovery.<br><br>
+  * 
+  * This algorithm clears the same auction as {@link CallAuction}. Left nodes are
+  * sellers and right nodes are buyers. The auction considers every price in the 
+  * buy book, and chooses the price P maximising the traded volume min(S(P), D(P)), 
+  * where S(P) is the total volume of sellers asking at most P and D(P) is the total
+  * volume of buyers bidding at least P. Where several prices yield the same 
+  * volume, the price of the earliest buyer (in the order of the right group) is 
+  * chosen. Sellers asking more than P, and buyers bidding less than P, are priced
+  * out of the auction. All trades are executed at the price P.<br><br>
+  * 
+  * {@link CallAuction} evaluates S(P) and D(P) by scanning every node for each 
+  * candidate price, which costs O(n^2) time in the number of nodes. This 
+  * implementation sorts sellers and buyers by price once, accumulates their 
+  * volumes, and finds the clearing price by one merge walk over the two sorted 
+  * books. Price discovery therefore costs O(n log n) time, and the subsequent 
+  * rationing and matching cost O(n) time.<br><br>
+  * 
+  * Demand and supply at the auction price are equalized by a {@link 
+  * RationingAlgorithm}. Only participants who are not priced out of the auction 
+  * are rationed. This differs from {@link CallAuction}, which passes priced out
+  * participants to the {@link RationingAlgorithm} as well. Rationing algorithms
+  * which rescale every node of one side can then restore volume to priced out 
+  * participants, who may trade. The auction price and the total traded volume 
+  * are the same, but the volume traded by each participant can differ. {@link HomogeneousRationingAlgorithm}, {@link 
+  * WorstPropositionRationing} and {@link RandomDenyRationing} ration the sorted 
+  * books directly, in one pass. Any other {@link RationingAlgorithm} is applied to
+  * the participants as {@link ComputeNode}{@code s}. Finally, sellers and buyers 
+  * are paired greedily, in the order of the left and right groups, as by {@link 
+  * CallAuction}.<br><br>
+  * 
+  * The workspace {@link #matchNodes(MatchingWorkspace, MatchListener)} does not 
+  * use simulation random numbers. {@link HomogeneousRationingAlgorithm}, {@link 
+  * WorstPropositionRationing} and {@link RandomDenyRationing} draw any random 
+  * numbers they need from the generator of the workspace, so this method is safe 
+  * for concurrent use with distinct workspaces, and gives the same result on any
+  * thread, if the {@link RationingAlgorithm} is one of these or is otherwise 
+  * stateless.
+  * 
+  * @author phillips
+  */
+public final class SortedCallAuction implements IndexedMatchingAlgorithm {
+   
+   private final RationingAlgorithm
+      rationingStrategy;
+   
+   @Inject
+   public SortedCallAuction(
+      // Immutable
+      @Named("CALL_AUCTION_RATIONING_ALGORITHM")
+         final RationingAlgorithm rationingStrategy
+      ) {
+      StateVerifier.checkNotNull(rationingStrategy);
+      this.rationingStrategy = rationingStrategy;
+   }
+   
+   /**
+     * Match two collections of nodes. This method is equivalent to copying the
+     * nodes into a new {@link MatchingWorkspace}, seeding the workspace from the
+     * simulation random number generator (if a simulation exists), and calling
+     * {@link #matchNodes(MatchingWorkspace, MatchListener)}.
+     */
+   @Override
+   public Matching matchNodes(
+      final Collection<SimpleNode> left,
+      final Collection<SimpleNode> right
+      ) throws InvalidAlgorithmParameterException {
+      final Matching.Builder builder = new Matching.Builder();
+      
+      if(left.isEmpty() || right.isEmpty())
+         return builder.build();
+      
+      final List<SimpleNode>
+         leftNodes = new ArrayList<SimpleNode>(left),
+         rightNodes = new ArrayList<SimpleNode>(right);
+      final MatchingWorkspace workspace = new MatchingWorkspace();
+      for(final Node node : leftNodes)
+         workspace.addLeftNode(node.getPricePerUnit(), node.getVolume(), node.getObjectReference());
+      for(final Node node : rightNodes)
+         workspace.addRightNode(node.getPricePerUnit(), node.getVolume(), node.getObjectReference());
+      if(Simulation.getSimState() != null)
+         workspace.setSeedFrom(Simulation.getSimState().random);
+      
+      matchNodes(workspace, new MatchListener() {
+         @Override
+         public void addMatch(
+            final int leftIndex,
+            final int rightIndex,
+            final double matchAmount,
+            final double matchCost
+            ) {
+            builder.addMatch(new OneToOneMatch(
+               leftNodes.get(leftIndex), rightNodes.get(rightIndex), matchAmount, matchCost));
+         }
+      });
+      
+      return builder.build();
+   }
+   
+   /**
+     * Match the left (seller) and right (buyer) node groups of a {@link 
+     * MatchingWorkspace}, as described in the documentation of this class. No 
+     * objects are created by this method, other than by the {@link 
+     * MatchListener} and by {@link RationingAlgorithm}{@code s} which cannot 
+     * ration sorted books directly.
+     */
+   @Override
+   public void matchNodes(
+      final MatchingWorkspace workspace,
+      final MatchListener listener
+      ) throws InvalidAlgorithmParameterException {
+      StateVerifier.checkNotNull(workspace, listener);
+      
+      final int
+         numberOfLeftNodes = workspace.getNumberOfLeftNodes(),
+         numberOfRightNodes = workspace.getNumberOfRightNodes();
+      if(numberOfLeftNodes == 0 || numberOfRightNodes == 0)
+         return;
+      
+      workspace.loadArrays();
+      workspace.ensureOrderingCapacity();
+      
+      final double[]
+         leftPrices = workspace.leftPrices,
+         leftVolumes = workspace.leftVolumes,
+         leftUnusable = workspace.leftUnusable,
+         rightPrices = workspace.rightPrices,
+         rightVolumes = workspace.rightVolumes,
+         rightUnusable = workspace.rightUnusable,
+         leftCumulativeVolumes = workspace.leftCumulativeVolumes,
+         rightCumulativeVolumes = workspace.rightCumulativeVolumes;
+      final int[]
+         leftOrder = workspace.leftOrder,
+         rightOrder = workspace.rightOrder;
+      
+      // Sort the books: sellers by increasing price, buyers by decreasing price.
+      sortByPrice(leftPrices, numberOfLeftNodes, false, leftOrder, workspace.orderScratch);
+      sortByPrice(rightPrices, numberOfRightNodes, true, rightOrder, workspace.orderScratch);
+      loadSortedVolumes(
+         leftVolumes, leftOrder, numberOfLeftNodes, workspace.leftSortedVolumes,
+         workspace.leftSortedUnusable, leftCumulativeVolumes);
+      loadSortedVolumes(
+         rightVolumes, rightOrder, numberOfRightNodes, workspace.rightSortedVolumes,
+         workspace.rightSortedUnusable, rightCumulativeVolumes);
+      if(leftCumulativeVolumes[numberOfLeftNodes] == 0. ||
+         rightCumulativeVolumes[numberOfRightNodes] == 0.)
+         return;                                                    // No volume to trade
+      
+      /*
+       * Price discovery. Candidate prices are visited in decreasing order, one 
+       * group of equal buyer prices at a time. D(P) is the cumulative buyer volume
+       * at the end of the group. The number of sellers asking at most P can only 
+       * decrease as P decreases, so S(P) is found by walking the seller book 
+       * backwards.
+       */
+      int
+         numberOfSellersInMarket = numberOfLeftNodes,
+         auctionSellers = 0,
+         auctionBuyers = 0,
+         auctionFirstBuyer = Integer.MAX_VALUE;
+      double
+         maxTradeVolume = -1.,
+         auctionPrice = Double.NaN;
+      for(int k = 0; k< numberOfRightNodes; ) {
+         final int
+            firstBuyer = rightOrder[k];                             // Earliest, as sorting is stable
+         final double
+            queryPrice = rightPrices[firstBuyer];
+         do { ++k; }
+            while(k < numberOfRightNodes && rightPrices[rightOrder[k]] == queryPrice);
+         while(numberOfSellersInMarket > 0 &&
+               leftPrices[leftOrder[numberOfSellersInMarket - 1]] > queryPrice)
+            --numberOfSellersInMarket;
+         final double tradeVolume =
+            Math.min(leftCumulativeVolumes[numberOfSellersInMarket], rightCumulativeVolumes[k]);
+         if(tradeVolume > maxTradeVolume ||
+            (tradeVolume == maxTradeVolume && firstBuyer < auctionFirstBuyer)) {
+            maxTradeVolume = tradeVolume;
+            auctionPrice = queryPrice;
+            auctionSellers = numberOfSellersInMarket;
+            auctionBuyers = k;
+            auctionFirstBuyer = firstBuyer;
+         }
+      }
+      if(maxTradeVolume <= 0.)
+         return;                                                    // No crossing
+      
+      // Ration the participants who are not priced out of the auction.
+      ration(workspace, auctionSellers, auctionBuyers);
+      
+      // Restore the original node order. Priced out nodes are fully unusable.
+      for(int i = 0; i< numberOfLeftNodes; ++i)
+         leftUnusable[i] = leftVolumes[i];
+      for(int k = 0; k< auctionSellers; ++k)
+         leftUnusable[leftOrder[k]] = workspace.leftSortedUnusable[k];
+      for(int i = 0; i< numberOfRightNodes; ++i)
+         rightUnusable[i] = rightVolumes[i];
+      for(int k = 0; k< auctionBuyers; ++k)
+         rightUnusable[rightOrder[k]] = workspace.rightSortedUnusable[k];
+      
+      /*
+       * Greedy matching, knowing demand == supply. The usable subvolume of each
+       * node is computed, and updated, exactly as by ComputeNode.getUsable(), 
+       * ComputeNode.incrementUnusable(double) and ComputeNode.setFullyUnusable().
+       */
+      int
+         buyer = 0,
+         seller = 0;
+      while(true) {
+         final double
+            demand = ComputeNode.usable(rightVolumes[buyer], rightUnusable[buyer]),
+            supply = ComputeNode.usable(leftVolumes[seller], leftUnusable[seller]);
+         if(demand <= 0) {
+            if(++buyer == numberOfRightNodes)
+               break;
+            continue;
+         }
+         if(supply <= 0) {
+            if(++seller == numberOfLeftNodes)
+               break;
+            continue;
+         }
+         if(demand > supply) {
+            rightUnusable[buyer] =
+               ComputeNode.clampUnusable(rightUnusable[buyer] + supply, rightVolumes[buyer]);
+            leftUnusable[seller] = leftVolumes[seller];
+            listener.addMatch(seller, buyer, supply, auctionPrice);
+         } else {
+            rightUnusable[buyer] =
+               ComputeNode.clampUnusable(rightUnusable[buyer] + demand, rightVolumes[buyer]);
+            leftUnusable[seller] =
+               ComputeNode.clampUnusable(leftUnusable[seller] + demand, leftVolumes[seller]);
+            listener.addMatch(seller, buyer, demand, auctionPrice);
+         }
+      }
+   }
+   
+   /**
+     * Ration the first {@code numberOfSellers} nodes of the sorted seller book 
+     * against the first {@code numberOfBuyers} nodes of the sorted buyer book.
+     * The result is written to the sorted unusable arrays of the workspace.
+     */
+   private void ration(
+      final MatchingWorkspace workspace,
+      final int numberOfSellers,
+      final int numberOfBuyers
+      ) throws InvalidAlgorithmParameterException {
+      if(rationingStrategy instanceof SortedRationingAlgorithm) {
+         ((SortedRationingAlgorithm) rationingStrategy).rationSortedVolumes(
+            workspace.leftSortedVolumes,
+            workspace.leftSortedUnusable,
+            numberOfSellers,
+            workspace.leftCumulativeVolumes[numberOfSellers],
+            workspace.rightSortedVolumes,
+            workspace.rightSortedUnusable,
+            numberOfBuyers,
+            workspace.rightCumulativeVolumes[numberOfBuyers],
+            workspace.getRandom()
+            );
+         return;
+      }
+      final List<ComputeNode>
+         sellers = new ArrayList<ComputeNode>(numberOfSellers),
+         buyers = new ArrayList<ComputeNode>(numberOfBuyers),
+         leftPool = workspace.getLeftComputeNodes(),
+         rightPool = workspace.getRightComputeNodes();
+      for(int k = 0; k< numberOfSellers; ++k) {
+         final ComputeNode node = leftPool.get(workspace.leftOrder[k]);
+         node.setFullyUsable();
+         sellers.add(node);
+      }
+      for(int k = 0; k< numberOfBuyers; ++k) {
+         final ComputeNode node = rightPool.get(workspace.rightOrder[k]);
+         node.setFullyUsable();
+         buyers.add(node);
+      }
+      rationingStrategy.rationNodes(sellers, buyers);
+      for(int k = 0; k< numberOfSellers; ++k)
+         workspace.leftSortedUnusable[k] = sellers.get(k).getUnusable();
+      for(int k = 0; k< numberOfBuyers; ++k)
+         workspace.rightSortedUnusable[k] = buyers.get(k).getUnusable();
+   }
+   
+   /**
+     * Copy node volumes into sorted order, clear the sorted unusable subvolumes,
+     * and accumulate the sorted volumes. On return, {@code cumulativeVolumes[k]}
+     * is the total volume of the first {@code k} sorted nodes.
+     */
+   private static void loadSortedVolumes(
+      final double[] volumes,
+      final int[] order,
+      final int numberOfNodes,
+      final double[] sortedVolumes,
+      final double[] sortedUnusable,
+      final double[] cumulativeVolumes
+      ) {
+      cumulativeVolumes[0] = 0.;
+      for(int k = 0; k< numberOfNodes; ++k) {
+         sortedVolumes[k] = volumes[order[k]];
+         sortedUnusable[k] = 0.;
+         cumulativeVolumes[k + 1] = cumulativeVolumes[k] + sortedVolumes[k];
+      }
+   }
+   
+   /**
+     * Sort node indices by price (stable bottom-up merge sort). On return,
+     * {@code order[k]} is the index of the node with rank {@code k}. Nodes with
+     * equal prices retain their original order.
+     * 
+     * @param prices
+     *        The node prices. This array is not modified.
+     * @param numberOfNodes
+     *        The number of nodes to sort.
+     * @param isDecreasing
+     *        Whether to sort by decreasing, rather than increasing, price.
+     * @param order
+     *        The result.
+     * @param scratch
+     *        Scratch space, at least as long as {@code order}.
+     */
+   private static void sortByPrice(
+      final double[] prices,
+      final int numberOfNodes,
+      final boolean isDecreasing,
+      final int[] order,                                            // Modified
+      final int[] scratch                                           // Modified
+      ) {
+      for(int i = 0; i< numberOfNodes; ++i)
+         order[i] = i;
+      int[]
+         source = order,
+         target = scratch;
+      for(int width = 1; width < numberOfNodes; width *= 2) {
+         for(int low = 0; low < numberOfNodes; low += 2 * width) {
+            final int
+               middle = Math.min(low + width, numberOfNodes),
+               high = Math.min(low + 2 * width, numberOfNodes);
+            int i = low, j = middle, k = low;
+            while(i < middle && j < high) {
+               final double
+                  first = prices[source[i]],
+                  second = prices[source[j]];
+               if(isDecreasing ? first >= second : first <= second)
+                  target[k++] = source[i++];
+               else
+                  target[k++] = source[j++];
+            }
+            while(i < middle) target[k++] = source[i++];
+            while(j < high) target[k++] = source[j++];
+         }
+         final int[] swap = source;
+         source = target;
+         target = swap;
+      }
+      if(source != order)
+         System.arraycopy(source, 0, order, 0, numberOfNodes);
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public String toString() {
+      return "Sorted Call Auction, rationing: " + rationingStrategy + ".";
+   }
+}
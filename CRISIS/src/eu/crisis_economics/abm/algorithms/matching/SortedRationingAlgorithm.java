@@ -0,0 +1,78 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.security.InvalidAlgorithmParameterException;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+  * A {@link RationingAlgorithm} which can also ration nodes stored in primitive 
+  * arrays. This type is detail and should retain package private status.<br><br>
+  * 
+  * Nodes are supplied in order of competitiveness: left nodes (sellers) in order 
+  * of increasing price, and right nodes (buyers) in order of decreasing price. 
+  * Nodes with equal prices are supplied in their original order. Implementations
+  * may rely on this ordering, and should not need to sort the nodes.
+  * 
+  * @author phillips
+  */
+interface SortedRationingAlgorithm extends RationingAlgorithm {
+   /**
+     * Ration two groups of nodes, such that the usable volume of the left group 
+     * equals the usable volume of the right group. The result is the same as the 
+     * result of {@link #rationNodes} for {@link ComputeNode}{@code s} with the 
+     * same volumes, in the same order, and no unusable subvolumes.
+     * 
+     * @param leftVolumes
+     *        The volumes of the left nodes. This array is not modified.
+     * @param leftUnusable
+     *        The unusable subvolumes of the left nodes. On entry, every element of
+     *        this array is zero. On return, this array contains the unusable 
+     *        subvolume of each left node after rationing.
+     * @param numberOfLeftNodes
+     *        The number of left nodes.
+     * @param totalLeftVolume
+     *        The sum of the volumes of the left nodes.
+     * @param rightVolumes
+     *        The volumes of the right nodes. See {@code leftVolumes}.
+     * @param rightUnusable
+     *        The unusable subvolumes of the right nodes. See {@code leftUnusable}.
+     * @param numberOfRightNodes
+     *        The number of right nodes.
+     * @param totalRightVolume
+     *        The sum of the volumes of the right nodes.
+     * @param random
+     *        The source of any random numbers drawn by this method. Callers 
+     *        should supply the generator of their {@link MatchingWorkspace}, so
+     *        that the result does not depend on which thread, or in which order,
+     *        distinct workspaces are rationed.
+     */
+   void rationSortedVolumes(
+      double[] leftVolumes,
+      double[] leftUnusable,                                        // Modified
+      int numberOfLeftNodes,
+      double totalLeftVolume,
+      double[] rightVolumes,
+      double[] rightUnusable,                                       // Modified
+      int numberOfRightNodes,
+      double totalRightVolume,
+      MersenneTwisterFast random
+      ) throws InvalidAlgorithmParameterException;
+}
@@ -26,6 +26,8 @@ import java.security.InvalidAlgorithmParameterException;
 
 import org.testng.Assert;
 
+import ec.util.MersenneTwisterFast;
+
 /**
  * @author      JKP
  * @category    Rationing Algorithms
@@ -33,7 +35,7 @@ import org.testng.Assert;
  * @since       1.0
  * @version     1.0
  */
-public final class WorstPropositionRationing implements RationingAlgorithm {
+public final class WorstPropositionRationing implements SortedRationingAlgorithm {
     
     private enum GoverningSide { BUYERS, SELLERS }
     
@@ -122,6 +124,54 @@ public final class WorstPropositionRationing implements RationingAlgorithm {
         }
     }
     
+    /**
+      * Ration a pair of node groups stored in primitive arrays. Left nodes are
+      * supplied in order of increasing price, so the cheapest propositions are
+      * allocated first without sorting. The result is the same as the result 
+      * of {@link #rationNodes(Collection, Collection)}. No random numbers are
+      * drawn.
+      */
+    @Override
+    public void rationSortedVolumes(
+        final double[] leftVolumes,
+        final double[] leftUnusable,                                // Modified
+        final int numberOfLeftNodes,
+        final double totalLeftVolume,
+        final double[] rightVolumes,
+        final double[] rightUnusable,                               // Modified
+        final int numberOfRightNodes,
+        final double totalRightVolume,
+        final MersenneTwisterFast random
+        ) {
+        if(totalLeftVolume == totalRightVolume) return;
+        
+        if(totalRightVolume > totalLeftVolume) {                    // Buyers govern
+            final double globalRationFactor =
+               1. - totalLeftVolume/totalRightVolume;
+            for(int i = 0; i< numberOfRightNodes; ++i)
+                rightUnusable[i] =
+                   ComputeNode.unusableByFraction(globalRationFactor, rightVolumes[i]);
+            return;
+        }
+        double allocationRemaining =                                // Sellers govern
+            Math.min(totalLeftVolume, totalRightVolume);
+        for(int i = 0; i< numberOfLeftNodes; ++i) {
+            if(allocationRemaining <= 0) {
+                leftUnusable[i] = leftVolumes[i];
+                continue;
+            }
+            final double requestedAmount =
+                ComputeNode.usable(leftVolumes[i], leftUnusable[i]);
+            if(requestedAmount <= allocationRemaining) {
+                allocationRemaining -= requestedAmount;
+                continue;
+            }
+            leftUnusable[i] = ComputeNode.clampUnusable(
+                leftUnusable[i] + (requestedAmount - allocationRemaining), leftVolumes[i]);
+            allocationRemaining = 0;
+        }
+    }
+    
     public static void main(String[] args) {
         System.out.println("Testing WorstPropositionRationing type..");
         
@@ -42,13 +42,21 @@ public class ValueBisectorAlgorithm<T extends ValueBisectorAlgorithm.Bisectable>
           predictedRootLocation,
           bracketUpperBound;
        
-       private BisectionResult(
+       /**
+         * Create an empty {@link BisectionResult}, to be overwritten by
+         * {@link ValueBisectorAlgorithm#bisectInRange(Bisectable, double, double, 
+         * double, BisectionResult)}.
+         */
+       public BisectionResult() { }
+       
+       private BisectionResult set(
           final double bracketLowerBound,
           final double predictedRootLocation,
           final double bracketUpperBound) {
           this.bracketLowerBound = bracketLowerBound;
           this.predictedRootLocation = predictedRootLocation;
           this.bracketUpperBound = bracketUpperBound;
+          return this;
        }
        
        public double getBracketLowerBound() {
@@ -80,6 +88,22 @@ public class ValueBisectorAlgorithm<T extends ValueBisectorAlgorithm.Bisectable>
         double maxCoord,
         double desiredValue
         ) {
+        return bisectInRange(
+           meritFunction, minCoord, maxCoord, desiredValue, new BisectionResult());
+    }
+    
+    /**
+      * As {@link #bisectInRange(Bisectable, double, double, double)}, except that
+      * the bracket is written to, and returned as, the specified {@link 
+      * BisectionResult}. Callers which bisect repeatedly can reuse one result.
+      */
+    public BisectionResult bisectInRange(
+        T meritFunction,
+        double minCoord, 
+        double maxCoord,
+        double desiredValue,
+        BisectionResult result
+        ) {
         if(maxCoord < minCoord)
             throw new IllegalArgumentException(
                 "ValueBisectorAlgorithm.bisectInRange:" +
@@ -93,9 +117,9 @@ public class ValueBisectorAlgorithm<T extends ValueBisectorAlgorithm.Bisectable>
                 lowerEval = meritFunction.functionValue(myMinCoord),
                 upperEval = meritFunction.functionValue(myMaxCoord);
             if(lowerEval == desiredValue)
-                return new BisectionResult(myMinCoord, myMinCoord, myMinCoord);
+                return result.set(myMinCoord, myMinCoord, myMinCoord);
             if(upperEval == desiredValue)
-                return new BisectionResult(myMaxCoord, myMaxCoord, myMaxCoord);
+                return result.set(myMaxCoord, myMaxCoord, myMaxCoord);
             if((lowerEval - desiredValue) * (upperEval - desiredValue) > 0)
                 throw new IllegalArgumentException(
                     "ValueBisectorAlgorithm.bisectInRange: desired value " +
@@ -121,8 +145,8 @@ public class ValueBisectorAlgorithm<T extends ValueBisectorAlgorithm.Bisectable>
             ++iterations;
         }
         return invertDomain ? 
-           new BisectionResult(myMaxCoord, (myMaxCoord + myMinCoord) / 2., myMinCoord) :
-           new BisectionResult(myMinCoord, (myMaxCoord + myMinCoord) / 2., myMaxCoord);
+           result.set(myMaxCoord, (myMaxCoord + myMinCoord) / 2., myMinCoord) :
+           result.set(myMinCoord, (myMaxCoord + myMinCoord) / 2., myMaxCoord);
     }
     
     //TODO: migrate to /test/
@@ -0,0 +1,249 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.aspects;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.crisis_economics.abm.annotation.Collect;
+import eu.crisis_economics.abm.annotation.Collect.ChangeType;
+import eu.crisis_economics.abm.annotation.ReportKey;
+import eu.crisis_economics.abm.annotation.ReportSource;
+import eu.crisis_economics.abm.annotation.ReportValue;
+import eu.crisis_economics.abm.simulation.MethodDispatcher;
+import eu.crisis_economics.abm.simulation.MethodDispatchers;
+
+/**
+  * The {@link Collect} fields and methods of one data collector class, resolved
+  * once. A {@link CollectorBinding} maps each report key and {@link ChangeType}
+  * to the fields and methods which receive such reports. Fields are made 
+  * accessible when the binding is created, and methods are called via a 
+  * {@link MethodDispatcher}. The argument layout of each method (which 
+  * arguments receive the report key, value and source) is computed once.
+  * 
+  * @author phillips
+  */
+final class CollectorBinding {
+   
+   /**
+     * Something which receives reports on behalf of a collector.
+     */
+   private interface Sink {
+      void receive(
+         Object collector,
+         String key,
+         Object data,
+         Object sender,
+         ReportCopier copier
+         );
+   }
+   
+   /**
+     * A copy policy for report values.
+     */
+   interface ReportCopier {
+      Object copyOf(Object data);
+   }
+   
+   /**
+     * A {@link Collect} field. If the current value of the field is a 
+     * {@link Collection}, reports are added to the collection. Otherwise the 
+     * field is overwritten by reports whose type is assignable to the type of
+     * the current value of the field.
+     */
+   private static final class FieldSink implements Sink {
+      private final Field
+         field;
+      
+      FieldSink(final Field field) {
+         field.setAccessible(true);
+         this.field = field;
+      }
+      
+      @Override
+      public void receive(
+         final Object collector,
+         final String key,
+         final Object data,
+         final Object sender,
+         final ReportCopier copier
+         ) {
+         try {
+            final Object member = field.get(collector);
+            if(member instanceof Collection<?>) {
+               @SuppressWarnings("unchecked")
+               final Collection<Object> list = (Collection<Object>) member;
+               list.add(copier.copyOf(data));
+            } else if(member.getClass().isAssignableFrom(data.getClass()))
+               field.set(collector, copier.copyOf(data));
+         } catch (final IllegalArgumentException e) {
+            throw new RuntimeException(e);
+         } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+         }
+      }
+   }
+   
+   private static final class MethodSink implements Sink {
+      private static final int
+         NONE = 0,
+         KEY = 1,
+         VALUE = 2,
+         SOURCE = 3;
+      
+      private final Method
+         method;
+      private final MethodDispatcher
+         dispatcher;
+      private final int[]
+         argumentRoles;
+      
+      MethodSink(final Method method) {
+         this.method = method;
+         this.dispatcher = MethodDispatchers.forMethod(method);
+         final Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+         this.argumentRoles = new int[parameterAnnotations.length];
+         for(int i = 0; i< parameterAnnotations.length; ++i) {
+            argumentRoles[i] = NONE;
+            for(final Annotation annotation : parameterAnnotations[i]) {
+               if(annotation instanceof ReportKey)
+                  argumentRoles[i] = KEY;
+               if(annotation instanceof ReportValue)
+                  argumentRoles[i] = VALUE;
+               if(annotation instanceof ReportSource)
+                  argumentRoles[i] = SOURCE;
+            }
+         }
+      }
+      
+      @Override
+      public void receive(
+         final Object collector,
+         final String key,
+         final Object data,
+         final Object sender,
+         final ReportCopier copier
+         ) {
+         final Object[] arguments = new Object[argumentRoles.length];
+         for(int i = 0; i< argumentRoles.length; ++i) {
+            switch(argumentRoles[i]) {
+               case KEY:    arguments[i] = key; break;
+               case VALUE:  arguments[i] = data; break;
+               case SOURCE: arguments[i] = sender; break;
+               default:     break;
+            }
+         }
+         try {
+            dispatcher.invoke(collector, arguments);
+         } catch (final RuntimeException e) {
+            throw e;
+         } catch (final Error e) {
+            throw e;
+         } catch (final Throwable e) {
+            throw new RuntimeException(
+               "CollectorBinding: collector method " + method + " raised an exception.", e);
+         }
+      }
+   }
+   
+   private final Map<String, Map<ChangeType, List<Sink>>>
+      sinks;
+   
+   private CollectorBinding(final Map<String, Map<ChangeType, List<Sink>>> sinks) {
+      this.sinks = sinks;
+   }
+   
+   /**
+     * Create a {@link CollectorBinding} for the declared {@link Collect} fields 
+     * and methods of the specified class.
+     */
+   static CollectorBinding forType(final Class<?> collectorType) {
+      final Map<String, Map<ChangeType, List<Sink>>>
+         sinks = new HashMap<String, Map<ChangeType, List<Sink>>>();
+      for(final Field field : collectorType.getDeclaredFields()) {
+         final Collect collect = field.getAnnotation(Collect.class);
+         if(collect == null) continue;
+         bind(sinks, collect, new FieldSink(field));
+      }
+      for(final Method method : collectorType.getDeclaredMethods()) {
+         final Collect collect = method.getAnnotation(Collect.class);
+         if(collect == null) continue;
+         bind(sinks, collect, new MethodSink(method));
+      }
+      return new CollectorBinding(sinks);
+   }
+   
+   private static void bind(
+      final Map<String, Map<ChangeType, List<Sink>>> sinks,
+      final Collect collect,
+      final Sink sink
+      ) {
+      Map<ChangeType, List<Sink>> byChangeType = sinks.get(collect.value());
+      if(byChangeType == null) {
+         byChangeType = new EnumMap<ChangeType, List<Sink>>(ChangeType.class);
+         sinks.put(collect.value(), byChangeType);
+      }
+      final List<ChangeType> changeTypes = Arrays.asList(collect.changeType());
+      for(final ChangeType changeType : 
+         changeTypes.contains(ChangeType.ANY) ? Arrays.asList(ChangeType.values()) : changeTypes) {
+         List<Sink> list = byChangeType.get(changeType);
+         if(list == null) {
+            list = new ArrayList<Sink>();
+            byChangeType.put(changeType, list);
+         }
+         list.add(sink);
+      }
+   }
+   
+   /**
+     * Get the report keys collected by this binding.
+     */
+   Set<String> getKeys() {
+      return Collections.unmodifiableSet(sinks.keySet());
+   }
+   
+   /**
+     * Deliver a report to a collector of the bound type.
+     */
+   void deliver(
+      final Object collector,
+      final String key,
+      final Object data,
+      final Object sender,
+      final ChangeType changeType,
+      final ReportCopier copier
+      ) {
+      final Map<ChangeType, List<Sink>> byChangeType = sinks.get(key);
+      if(byChangeType == null) return;
+      final List<Sink> list = byChangeType.get(changeType);
+      if(list == null) return;
+      for(int i = 0; i< list.size(); ++i)
+         list.get(i).receive(collector, key, data, sender, copier);
+   }
+}
@@ -19,18 +19,19 @@
  */
 package eu.crisis_economics.abm.aspects;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.aspectj.lang.Aspects;
 import org.aspectj.lang.JoinPoint;
@@ -38,52 +39,161 @@ import org.aspectj.lang.annotation.After;
 import org.aspectj.lang.annotation.AfterReturning;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
-import org.reflections.Reflections;
-import org.reflections.scanners.FieldAnnotationsScanner;
-import org.reflections.scanners.MethodAnnotationsScanner;
-import org.reflections.scanners.TypeAnnotationsScanner;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
 
 import sim.engine.SimState;
 import sim.engine.Steppable;
 
+import com.google.common.base.Preconditions;
 import com.rits.cloning.Cloner;
 
 import eu.crisis_economics.abm.annotation.Collect;
 import eu.crisis_economics.abm.annotation.Collect.ChangeType;
 import eu.crisis_economics.abm.annotation.DataCollector;
 import eu.crisis_economics.abm.annotation.Report;
-import eu.crisis_economics.abm.annotation.ReportKey;
-import eu.crisis_economics.abm.annotation.ReportSource;
-import eu.crisis_economics.abm.annotation.ReportValue;
+import eu.crisis_economics.abm.simulation.NamedEventOrderings;
+import eu.crisis_economics.abm.simulation.ScheduleIntervals;
 import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
 
 /**
+ * The data collection aspect. Values reported by {@link Report} fields and methods
+ * of data reporters are delivered to the {@link Collect} fields and methods of 
+ * data collectors.<br><br>
+ * 
+ * The {@link Collect} and {@link Report} members of each collector and reporter
+ * class are resolved once, when the first instance of that class is created (see 
+ * {@link CollectorBinding}). Reported values which are immutable (primitive 
+ * wrappers, strings and enums) are not copied; other values are deep-copied 
+ * before they are stored in a collector field.<br><br>
+ * 
+ * By default, unscheduled reports are delivered to collectors immediately. If a 
+ * report buffer capacity is set, either with {@link #setReportBufferCapacity(int)}
+ * or with the system property {@value #REPORT_BUFFER_CAPACITY_PROPERTY}, unscheduled
+ * reports are instead held in a bounded buffer for each report key and are delivered
+ * once per simulation cycle, after all other events in the cycle. If more reports 
+ * than the buffer capacity arrive for one key in one cycle, the oldest reports are 
+ * discarded. Buffered values are copied once, when they are reported. Each
+ * {@link SimulationContext} has its own report buffers, so concurrent simulations 
+ * do not share pending reports.
+ * 
  * @author Tamás Máhr
  *
  */
 @Aspect
 public class DataCollection {
 
+	/**
+	 * The name of the system property specifying the default report buffer capacity.
+	 */
+	public static final String REPORT_BUFFER_CAPACITY_PROPERTY =
+		"eu.crisis_economics.abm.aspects.reportBufferCapacity";
+	
 	/**
 	 * A map containing {@link DataCollector} objects per annotation names. That
 	 * is, the keys in the map are the values of the {@link Collect} annotations.
 	 */
 	protected Map<String, Set<Object>> collectors = new HashMap<String, Set<Object>>();
 	
-	// { class : { annotationValue : { changeType : [ field, ...]}}}
-	protected Map<Class<?>, Map<String, Map<ChangeType, Set<Field>>>> collectorsFieldReflections = new HashMap<Class<?>, Map<String, Map<ChangeType, Set<Field>>>>();
-	protected Map<Class<?>, Map<String, Map<ChangeType, Set<Method>>>> collectorsMethodReflections = new HashMap<Class<?>, Map<String, Map<ChangeType, Set<Method>>>>();
+	// { collector class : binding }
+	private final ConcurrentMap<Class<?>, CollectorBinding> collectorBindings = new ConcurrentHashMap<Class<?>, CollectorBinding>();
+	
+	// { reporter class : binding }
+	private final ConcurrentMap<Class<?>, ReporterBinding> reporterBindings = new ConcurrentHashMap<Class<?>, ReporterBinding>();
 
 	// { interval : { order : [ field, ...]}}
 	protected Map<Double, Map<Integer, Set<ScheduledReport>>> scheduledReporterFields = new HashMap<Double, Map<Integer,Set<ScheduledReport>>>();
 	protected Map<Double, Map<Integer, Set<ScheduledReport>>> scheduledReporterMethods = new HashMap<Double, Map<Integer,Set<ScheduledReport>>>();
 
-	private Reflections reflections = new Reflections(new ConfigurationBuilder().addUrls(ClasspathHelper.forClassLoader()).setScanners(
-			new TypeAnnotationsScanner(), new FieldAnnotationsScanner(), new MethodAnnotationsScanner()));
-
-	private Cloner cloner = new Cloner();
+	private Cloner cloner;
+	
+	private final CollectorBinding.ReportCopier copier = new CollectorBinding.ReportCopier() {
+		@Override
+		public Object copyOf(final Object data) {
+			return DataCollection.this.copyOf(data);
+		}
+	};
+	
+	private int reportBufferCapacity = Integer.getInteger(REPORT_BUFFER_CAPACITY_PROPERTY, 0);
+	
+	/**
+	 * The buffered reports of one simulation, stored in its {@link SimulationContext}.
+	 */
+	private static final class PendingReports {
+		// { report key : pending reports }
+		final Map<String, ReportBuffer> buffers = new LinkedHashMap<String, ReportBuffer>();
+		
+		boolean isDraining;
+		
+		SimState drainState;
+		
+		double drainTime = Double.NaN;
+	}
+	
+	/**
+	 * A copier for buffered values, which were copied when they were reported. The 
+	 * first sink to store a buffered value takes the buffered copy, and other sinks
+	 * receive copies of their own.
+	 */
+	private final class BufferedValueCopier implements CollectorBinding.ReportCopier {
+		private boolean isTaken;
+		
+		@Override
+		public Object copyOf(final Object data) {
+			if (!isTaken){
+				isTaken = true;
+				return data;
+			}
+			return DataCollection.this.copyOf(data);
+		}
+	}
+	
+	/**
+	 * The {@link Report} members of one reporter class (including inherited
+	 * members), resolved once.
+	 */
+	private static final class ReporterBinding {
+		final List<Field> scheduledFields = new ArrayList<Field>();
+		
+		final List<Method> scheduledMethods = new ArrayList<Method>();
+		
+		// Unscheduled fields, declared by exactly this class.
+		final List<Field> declaredFields = new ArrayList<Field>();
+		
+		ReporterBinding(final Class<?> reporterType) {
+			for (final Class<?> type : getSupertypes(reporterType)) {
+				for (final Field field : type.getDeclaredFields()) {
+					final Report annotation = field.getAnnotation(Report.class);
+					if (annotation == null) continue;
+					field.setAccessible(true);
+					if (annotation.interval() > 0)
+						scheduledFields.add(field);
+					else if (type == reporterType)
+						declaredFields.add(field);
+				}
+				for (final Method method : type.getDeclaredMethods()) {
+					final Report annotation = method.getAnnotation(Report.class);
+					if (annotation == null || annotation.interval() <= 0) continue;
+					method.setAccessible(true);
+					scheduledMethods.add(method);
+				}
+			}
+		}
+		
+		private static List<Class<?>> getSupertypes(final Class<?> type) {
+			final List<Class<?>> result = new ArrayList<Class<?>>();
+			final List<Class<?>> queue = new ArrayList<Class<?>>();
+			queue.add(type);
+			while (!queue.isEmpty()) {
+				final Class<?> next = queue.remove(0);
+				if (next == null || result.contains(next)) continue;
+				result.add(next);
+				queue.add(next.getSuperclass());
+				for (final Class<?> superInterface : next.getInterfaces())
+					queue.add(superInterface);
+			}
+			return result;
+		}
+	}
 	
 	protected class ScheduledReport {
 		Object target;
@@ -91,6 +201,8 @@ public class DataCollection {
 		Field field;
 		
 		Method method;
+		
+		String key;
 
 		/**
 		 * @param target
@@ -102,6 +214,7 @@ public class DataCollection {
 			this.target = target;
 			this.field = field;
 			this.method = method;
+			this.key = (field != null ? field.getAnnotation(Report.class) : method.getAnnotation(Report.class)).value();
 		}
 		
 	}
@@ -131,12 +244,11 @@ public class DataCollection {
 				Set<ScheduledReport> reporterFields = intervalMap.get(order);
 				if (reporterFields != null){
 					for (ScheduledReport report : reporterFields) {
-						Report annotation = report.field.getAnnotation(Report.class);
-						Set<Object> set = collectors.get(annotation.value());
+						Set<Object> set = collectors.get(report.key);
 						if (set != null){
 							for (Object collector : set) {
 								try {
-									handleData(annotation.value(), report.field.get(report.target), collector, report.target, Collect.ChangeType.CHANGE);
+									handleData(report.key, report.field.get(report.target), collector, report.target, Collect.ChangeType.CHANGE);
 								} catch (IllegalArgumentException e) {
 									throw new RuntimeException(e);
 								} catch (IllegalAccessException e) {
@@ -154,12 +266,11 @@ public class DataCollection {
 				Set<ScheduledReport> reporterMethods = intervalMap.get(order);
 				if (reporterMethods != null){
 					for (ScheduledReport report : reporterMethods) {
-						Report annotation = report.method.getAnnotation(Report.class);
-						Set<Object> set = collectors.get(annotation.value());
+						Set<Object> set = collectors.get(report.key);
 						if (set != null){
 							for (Object collector : set) {
 								try {
-									handleData(annotation.value(), report.method.invoke(report.target), collector, report.target, Collect.ChangeType.CHANGE);
+									handleData(report.key, report.method.invoke(report.target), collector, report.target, Collect.ChangeType.CHANGE);
 								} catch (IllegalArgumentException e) {
 									throw new RuntimeException(e);
 								} catch (IllegalAccessException e) {
@@ -189,88 +300,7 @@ public class DataCollection {
 	 */
 	@After("execution((@eu.crisis_economics.abm.annotation.DataCollector *).new(..)) && this(collector)")
 	public void findUseNewsFields(Object collector){
-		Map<String, Map<ChangeType, Set<Field>>> collectorFieldReflections = collectorsFieldReflections.get(collector.getClass());
-		Map<String, Map<ChangeType, Set<Method>>> collectorMethodReflections = collectorsMethodReflections.get(collector.getClass());
-		if (collectorFieldReflections == null){
-			collectorFieldReflections = new HashMap<String, Map<ChangeType, Set<Field>>>();
-			collectorsFieldReflections.put(collector.getClass(), collectorFieldReflections);
-
-			Set<Field> fieldsAnnotatedWith = reflections.getFieldsAnnotatedWith(Collect.class);
-			
-			for (Field field : fieldsAnnotatedWith) {
-				if (field.getDeclaringClass().equals(collector.getClass())){
-					Collect collect = field.getAnnotation(Collect.class);
-					Map<ChangeType, Set<Field>> useNewsMap = collectorFieldReflections.get(collect.value());
-					if (useNewsMap == null){
-						useNewsMap = new HashMap<Collect.ChangeType, Set<Field>>();
-						collectorFieldReflections.put(collect.value(), useNewsMap);
-					}
-
-					List<ChangeType> changeTypes = new ArrayList<Collect.ChangeType>(Arrays.asList(collect.changeType()));
-					
-					if (changeTypes.contains(ChangeType.ANY)){
-						changeTypes.clear();
-						for (ChangeType changeType : ChangeType.values()) {
-							changeTypes.add(changeType);
-						}
-					}
-					for (ChangeType changeType : changeTypes) {
-						Set<Field> useNewsSet = useNewsMap.get(changeType);
-						if (useNewsSet == null){
-							useNewsSet = new HashSet<Field>();
-							useNewsMap.put(changeType, useNewsSet);
-						}
-						field.setAccessible(true);
-						useNewsSet.add(field);
-					}
-				}
-			}
-			
-			collectorMethodReflections = new HashMap<String, Map<ChangeType, Set<Method>>>();
-			collectorsMethodReflections.put(collector.getClass(), collectorMethodReflections);
-			
-			Set<Method> methodsAnnotatedWith = reflections.getMethodsAnnotatedWith(Collect.class);
-			
-			for (Method method : methodsAnnotatedWith) {
-				if (method.getDeclaringClass().equals(collector.getClass())){
-					Collect annotation = method.getAnnotation(Collect.class);
-					Map<ChangeType, Set<Method>> useNewsMap = collectorMethodReflections.get(annotation.value());
-					if (useNewsMap == null){
-						useNewsMap = new HashMap<Collect.ChangeType, Set<Method>>();
-						collectorMethodReflections.put(annotation.value(), useNewsMap);
-					}
-					
-					List<ChangeType> changeTypes = new ArrayList<Collect.ChangeType>(Arrays.asList(annotation.changeType()));
-					
-					if (changeTypes.contains(ChangeType.ANY)){
-						changeTypes.clear();
-						for (ChangeType changeType : ChangeType.values()) {
-							changeTypes.add(changeType);
-						}
-					}
-					for (ChangeType changeType : changeTypes) {
-						Set<Method> useNewsSet = useNewsMap.get(changeType);
-						if (useNewsSet == null){
-							useNewsSet = new HashSet<Method>();
-							useNewsMap.put(changeType, useNewsSet);
-						}
-						method.setAccessible(true);
-						useNewsSet.add(method);
-					}
-				}
-			}
-		}
-		
-		for (String useNewsValue : collectorFieldReflections.keySet()) {
-			Set<Object> set = collectors.get(useNewsValue);
-			if (set == null){
-				set = new HashSet<Object>();
-				collectors.put(useNewsValue, set);
-			}
-			set.add(collector);
-		}
-		
-		for (String useNewsValue : collectorMethodReflections.keySet()) {
+		for (String useNewsValue : getCollectorBinding(collector.getClass()).getKeys()) {
 			Set<Object> set = collectors.get(useNewsValue);
 			if (set == null){
 				set = new HashSet<Object>();
@@ -282,94 +312,61 @@ public class DataCollection {
 	
 	@After("execution((@eu.crisis_economics.abm.annotation.DataReporter *).new(..)) && this(reporter)")
 	public void findScheduledReporters(Object reporter){
+		final ReporterBinding binding = getReporterBinding(reporter.getClass());
 		
-		Set<Field> fieldsAnnotatedWith = reflections.getFieldsAnnotatedWith(Report.class);
-		
-		for (Field field : fieldsAnnotatedWith) {
-			if (field.getDeclaringClass().isAssignableFrom(reporter.getClass())){
-				Report annotation = field.getAnnotation(Report.class);
-
-				if (annotation.interval() > 0){
-					boolean steppableExists = true;
-					Map<Integer, Set<ScheduledReport>> intervalMap = scheduledReporterFields.get(annotation.interval());
-					if (intervalMap == null){
-						intervalMap = new HashMap<Integer, Set<ScheduledReport>>();
-						scheduledReporterFields.put(annotation.interval(), intervalMap);
-						steppableExists = false;
-					}
-
-					Set<ScheduledReport> scheduledReports = intervalMap.get(annotation.order());
-					if (scheduledReports == null){
-						scheduledReports = new HashSet<DataCollection.ScheduledReport>();
-						intervalMap.put(annotation.order(), scheduledReports);
-						steppableExists = false;
-					}
-
-					field.setAccessible(true);
-					scheduledReports.add(new ScheduledReport(reporter, field, null));
-
-					if (! steppableExists){
-						Simulation.getSimState().schedule.scheduleOnceIn(annotation.interval(), new ScheduledReporter(annotation.interval(), annotation.order()), annotation.order());
-					}
-				}
+		for (Field field : binding.scheduledFields) {
+			Report annotation = field.getAnnotation(Report.class);
+			if (addScheduledReport(scheduledReporterFields, annotation, new ScheduledReport(reporter, field, null))){
+				Simulation.getSimState().schedule.scheduleOnceIn(annotation.interval(), new ScheduledReporter(annotation.interval(), annotation.order()), annotation.order());
 			}
 		}
 
-		Set<Method> methodsAnnotatedWith = reflections.getMethodsAnnotatedWith(Report.class);
-		for (Method method : methodsAnnotatedWith) {
-			if (method.getDeclaringClass().isAssignableFrom(reporter.getClass())){
-				Report annotation = method.getAnnotation(Report.class);
-
-				if (annotation.interval() > 0){
-					boolean steppableExists = true;
-					Map<Integer, Set<ScheduledReport>> intervalMap = scheduledReporterMethods.get(annotation.interval());
-					if (intervalMap == null){
-						intervalMap = new HashMap<Integer, Set<ScheduledReport>>();
-						scheduledReporterMethods.put(annotation.interval(), intervalMap);
-						steppableExists = false;
-					}
-
-					Set<ScheduledReport> scheduledReports = intervalMap.get(annotation.order());
-					if (scheduledReports == null){
-						scheduledReports = new HashSet<DataCollection.ScheduledReport>();
-						intervalMap.put(annotation.order(), scheduledReports);
-						steppableExists = false;
-					}
-
-					method.setAccessible(true);
-					scheduledReports.add(new ScheduledReport(reporter, null, method));
-
-					if (! steppableExists){
-						Simulation.getSimState().schedule.scheduleOnceIn(annotation.interval(), new ScheduledReporter(annotation.interval(), annotation.order()), annotation.order());
-					}
-				}
+		for (Method method : binding.scheduledMethods) {
+			Report annotation = method.getAnnotation(Report.class);
+			if (addScheduledReport(scheduledReporterMethods, annotation, new ScheduledReport(reporter, null, method))){
+				Simulation.getSimState().schedule.scheduleOnceIn(annotation.interval(), new ScheduledReporter(annotation.interval(), annotation.order()), annotation.order());
 			}
 		}
 	}
 	
+	/**
+	 * Register a scheduled report. Returns {@code true} if no {@link ScheduledReporter}
+	 * yet exists for the interval and order of the report.
+	 */
+	private boolean addScheduledReport(
+		final Map<Double, Map<Integer, Set<ScheduledReport>>> scheduledReports,
+		final Report annotation,
+		final ScheduledReport report
+		) {
+		boolean steppableExists = true;
+		Map<Integer, Set<ScheduledReport>> intervalMap = scheduledReports.get(annotation.interval());
+		if (intervalMap == null){
+			intervalMap = new HashMap<Integer, Set<ScheduledReport>>();
+			scheduledReports.put(annotation.interval(), intervalMap);
+			steppableExists = false;
+		}
+
+		Set<ScheduledReport> reports = intervalMap.get(annotation.order());
+		if (reports == null){
+			reports = new HashSet<DataCollection.ScheduledReport>();
+			intervalMap.put(annotation.order(), reports);
+			steppableExists = false;
+		}
+		reports.add(report);
+		return !steppableExists;
+	}
+	
 	@After("set(@eu.crisis_economics.abm.annotation.Report * *) && args(newValue) && @annotation(newsAnnotation) && target(sender)")
 	public void collectField(Object newValue, eu.crisis_economics.abm.annotation.Report newsAnnotation, Object sender){
 		if (newsAnnotation.interval() == 0 && !(newValue instanceof Collection)){
-			DataCollection aspectOf = Aspects.aspectOf(DataCollection.class);
-			Set<Object> set = aspectOf.collectors.get(newsAnnotation.value());
-			if (set != null){
-				for (Object collector : set) {
-					aspectOf.handleData(newsAnnotation.value(), newValue, collector, sender, Collect.ChangeType.CHANGE);
-				}
-			}
+			Aspects.aspectOf(DataCollection.class).report(newsAnnotation.value(), newValue, sender, Collect.ChangeType.CHANGE);
 		}
 	}
 	
 	@AfterReturning(pointcut="execution(@eu.crisis_economics.abm.annotation.Report * *(..)) && @annotation(newsAnnotation) && target(sender)", returning="returnValue")
 	public void collectReturnValue(Object returnValue, eu.crisis_economics.abm.annotation.Report newsAnnotation, Object sender){
 		if (newsAnnotation.interval() == 0){
-			DataCollection aspectOf = Aspects.aspectOf(DataCollection.class);
-			Set<Object> set = aspectOf.collectors.get(newsAnnotation.value());
-			if (set != null){
-				for (Object collector : set) {
-					aspectOf.handleData(newsAnnotation.value(), returnValue, collector, sender, Collect.ChangeType.CHANGE);
-				}
-			}
+			Aspects.aspectOf(DataCollection.class).report(newsAnnotation.value(), returnValue, sender, Collect.ChangeType.CHANGE);
 		}
 	}
 
@@ -389,7 +386,10 @@ public class DataCollection {
 		DataCollection aspectOf = Aspects.aspectOf(DataCollection.class);
 		Object targetCollection = jp.getTarget();
 		Class<?> dataReporterClass = enc.getSignature().getDeclaringType();
-		Field[] dataReporterFields = dataReporterClass.getDeclaredFields();
+		List<Field> dataReporterFields = aspectOf.getReporterBinding(dataReporterClass).declaredFields;
+		if (dataReporterFields.isEmpty()){
+			return;
+		}
 		Collect.ChangeType changeType = jp.getSignature().getName().startsWith("add") ? ChangeType.COLLECTION_ADD : ChangeType.COLLECTION_REMOVE;
 		
 		if (jp.getSignature().getName().startsWith("remove") && !(result instanceof Boolean)){
@@ -397,20 +397,10 @@ public class DataCollection {
 		}
 		
 		try {
-			for (Field field : dataReporterFields) {
-				field.setAccessible(true);
+			for (int i = 0; i < dataReporterFields.size(); i++) {
+				Field field = dataReporterFields.get(i);
 				if (field.get(reporter) == targetCollection){
-					Report newsAnnotation = field.getAnnotation(Report.class);
-					if (newsAnnotation != null){
-						if (newsAnnotation.interval() == 0){
-							Set<Object> set = aspectOf.collectors.get(newsAnnotation.value());
-							if (set != null){
-								for (Object collector : set) {
-									handleData(newsAnnotation.value(), arg, collector, reporter, changeType);
-								}
-							}
-						}
-					}
+					aspectOf.report(field.getAnnotation(Report.class).value(), arg, reporter, changeType);
 				}
 			}
 		} catch (IllegalAccessException e){
@@ -420,69 +410,180 @@ public class DataCollection {
 	
 	
 	//------------------------- other methods----------------
-	public void handleData(final String key, final Object data, Object collector, final Object sender, final Collect.ChangeType changeType){
-		Map<String, Map<ChangeType, Set<Field>>> fieldMap = collectorsFieldReflections.get(collector.getClass());
-		Map<ChangeType, Set<Field>> changeMap = fieldMap.get(key);
-		if (changeMap != null){
-			Set<Field> fields = changeMap.get(changeType);
-
-			if (fields != null){
-				for (Field field : fields) {
-					try {
-						Object member = field.get(collector);
-						if (member instanceof Collection<?>) {
-							@SuppressWarnings("unchecked")
-							Collection<Object> list = (Collection<Object>) member;
-							list.add(cloner.deepClone(data));
-						} else if (member.getClass().isAssignableFrom(data.getClass())){
-							field.set(collector, cloner.deepClone(data));
-						}
-					} catch (IllegalArgumentException e) {
-						throw new RuntimeException(e);
-					} catch (IllegalAccessException e) {
-						throw new RuntimeException(e);
-					}
+	
+	/**
+	 * Report an unscheduled change. The report is delivered to all collectors of
+	 * the key, either immediately or, if reports are buffered, at the end of the 
+	 * current simulation cycle.
+	 */
+	protected void report(final String key, final Object data, final Object sender, final Collect.ChangeType changeType){
+		Set<Object> set = collectors.get(key);
+		if (set == null){
+			return;
+		}
+		if (reportBufferCapacity > 0 && Simulation.getSimState() != null){
+			final PendingReports pending = pendingReports();
+			if (!pending.isDraining){
+				ReportBuffer buffer = pending.buffers.get(key);
+				if (buffer == null){
+					buffer = new ReportBuffer(reportBufferCapacity);
+					pending.buffers.put(key, buffer);
 				}
+				buffer.add(copyOf(data), sender, changeType);
+				scheduleDrain(pending);
+				return;
 			}
 		}
-		
-		Map<String, Map<ChangeType, Set<Method>>> methodMap = collectorsMethodReflections.get(collector.getClass());
-		
-		Map<ChangeType, Set<Method>> changeMethodMap = methodMap.get(key);
-		if (changeMethodMap != null){
-			Set<Method> methods = changeMethodMap.get(changeType);
-			if (methods != null){
-
-				for (Method method : methods) {
-					Annotation[][] parameterAnnotations = method.getParameterAnnotations();
-					Object[] args = new Object[parameterAnnotations.length];
-					for (int i = 0; i < parameterAnnotations.length; i++) {
-						args[i] = null;
-
-						for (Annotation annotation : parameterAnnotations[i]) {
-							if (annotation instanceof ReportKey){
-								args[i] = key;
-							}
-							if (annotation instanceof ReportValue){
-								args[i] = data;
-							}
-							if (annotation instanceof ReportSource){
-								args[i] = sender;
-							}
+		for (Object collector : set) {
+			handleData(key, data, collector, sender, changeType);
+		}
+	}
+	
+	/**
+	 * Schedule the buffers to be drained after all other events in the current
+	 * cycle, or in the next cycle if the end of the current cycle has been reached.
+	 */
+	private void scheduleDrain(final PendingReports pending){
+		final SimState state = Simulation.getSimState();
+		final double
+			time = state.schedule.getTime(),
+			endOfCycle = Math.floor(time) + NamedEventOrderings.AFTER_ALL.getUnitIntervalTime();
+		final int delay = (time >= 0. && time < endOfCycle) ? 0 : 1;
+		final double drainTime = endOfCycle + delay;
+		if (state == pending.drainState && drainTime == pending.drainTime){
+			return;
+		}
+		pending.drainState = state;
+		pending.drainTime = drainTime;
+		Simulation.onceCustom(this, "drainReportBuffers", NamedEventOrderings.AFTER_ALL,
+			ScheduleIntervals.create(delay));
+	}
+	
+	/**
+	 * Deliver all buffered reports to collectors, in the order in which the reports
+	 * were made (for each key), and empty the report buffers. Reports made while the 
+	 * buffers are being drained are delivered immediately. This method is called 
+	 * automatically once per simulation cycle when reports are buffered.
+	 */
+	public void drainReportBuffers(){
+		final PendingReports pending = pendingReports();
+		if (pending.isDraining){
+			return;
+		}
+		pending.isDraining = true;
+		try {
+			for (Map.Entry<String, ReportBuffer> record : pending.buffers.entrySet()) {
+				final String key = record.getKey();
+				final ReportBuffer buffer = record.getValue();
+				final Set<Object> set = collectors.get(key);
+				if (set != null){
+					for (int i = 0; i < buffer.size(); i++) {
+						final BufferedValueCopier copier = new BufferedValueCopier();
+						for (Object collector : set) {
+							getCollectorBinding(collector.getClass()).deliver(collector, key,
+								buffer.getValue(i), buffer.getSource(i), buffer.getChangeType(i), copier);
 						}
 					}
-					try {
-						method.invoke(collector, args);
-					} catch (IllegalArgumentException e) {
-						throw new RuntimeException(e);
-					} catch (IllegalAccessException e) {
-						throw new RuntimeException(e);
-					} catch (InvocationTargetException e) {
-						throw new RuntimeException(e);
-					}
 				}
+				buffer.clear();
 			}
+		} finally {
+			pending.isDraining = false;
+		}
+	}
+	
+	/**
+	 * Set the capacity of the per-key report buffers. If the argument is zero,
+	 * reports are not buffered, and are delivered to collectors immediately. 
+	 * Any reports already buffered are delivered before the capacity is changed.
+	 */
+	public void setReportBufferCapacity(final int capacity){
+		Preconditions.checkArgument(capacity >= 0);
+		drainReportBuffers();
+		pendingReports().buffers.clear();
+		reportBufferCapacity = capacity;
+	}
+	
+	public int getReportBufferCapacity(){
+		return reportBufferCapacity;
+	}
+	
+	/**
+	 * Get the total number of reports discarded, in the current {@link SimulationContext},
+	 * because a report buffer was full.
+	 */
+	public long getNumberOfDiscardedReports(){
+		long result = 0;
+		for (ReportBuffer buffer : pendingReports().buffers.values()) {
+			result += buffer.getNumberOfDiscardedReports();
+		}
+		return result;
+	}
+	
+	public void handleData(final String key, final Object data, Object collector, final Object sender, final Collect.ChangeType changeType){
+		getCollectorBinding(collector.getClass()).deliver(collector, key, data, sender, changeType, copier);
+	}
+	
+	/**
+	 * Get the buffered reports of the current {@link SimulationContext}.
+	 */
+	private PendingReports pendingReports(){
+		final SimulationContext context = SimulationContext.current();
+		PendingReports result = (PendingReports) context.getService(this);
+		if (result == null){
+			result = new PendingReports();
+			context.putService(this, result);
+		}
+		return result;
+	}
+	
+	private CollectorBinding getCollectorBinding(final Class<?> collectorType){
+		CollectorBinding result = collectorBindings.get(collectorType);
+		if (result == null){
+			result = CollectorBinding.forType(collectorType);
+			final CollectorBinding existing = collectorBindings.putIfAbsent(collectorType, result);
+			if (existing != null){
+				result = existing;
+			}
+		}
+		return result;
+	}
+	
+	private ReporterBinding getReporterBinding(final Class<?> reporterType){
+		ReporterBinding result = reporterBindings.get(reporterType);
+		if (result == null){
+			result = new ReporterBinding(reporterType);
+			final ReporterBinding existing = reporterBindings.putIfAbsent(reporterType, result);
+			if (existing != null){
+				result = existing;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Copy a reported value. Immutable values are returned as is. Other values
+	 * are deep-copied.
+	 */
+	private Object copyOf(final Object data){
+		if (isImmutable(data)){
+			return data;
+		}
+		if (cloner == null){
+			cloner = new Cloner();
+		}
+		return cloner.deepClone(data);
+	}
+	
+	private static boolean isImmutable(final Object data){
+		if (data == null){
+			return true;
 		}
+		final Class<?> type = data.getClass();
+		return type == String.class || type == Double.class || type == Integer.class 
+			|| type == Long.class || type == Boolean.class || type == Float.class 
+			|| type == Short.class || type == Byte.class || type == Character.class
+			|| data instanceof Enum || type == Class.class;
 	}
 
 }
@@ -0,0 +1,115 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.aspects;
+
+import com.google.common.base.Preconditions;
+
+import eu.crisis_economics.abm.annotation.Collect.ChangeType;
+
+/**
+  * A bounded ring buffer of pending reports for one report key. When the buffer
+  * is full, the oldest pending report is discarded to make room for the newest.
+  * The number of discarded reports is counted.<br><br>
+  * 
+  * This class is not thread-safe.
+  * 
+  * @author phillips
+  */
+final class ReportBuffer {
+   
+   private final Object[]
+      values,
+      sources;
+   private final ChangeType[]
+      changeTypes;
+   private int
+      head,
+      size;
+   private long
+      numberOfDiscardedReports;
+   
+   ReportBuffer(final int capacity) {
+      Preconditions.checkArgument(capacity > 0);
+      this.values = new Object[capacity];
+      this.sources = new Object[capacity];
+      this.changeTypes = new ChangeType[capacity];
+   }
+   
+   /**
+     * Append a report to this buffer, discarding the oldest pending report
+     * if the buffer is full.
+     */
+   void add(final Object value, final Object source, final ChangeType changeType) {
+      final int capacity = values.length;
+      if(size == capacity) {
+         head = (head + 1) % capacity;
+         --size;
+         ++numberOfDiscardedReports;
+      }
+      final int tail = (head + size) % capacity;
+      values[tail] = value;
+      sources[tail] = source;
+      changeTypes[tail] = changeType;
+      ++size;
+   }
+   
+   /**
+     * Get the number of pending reports.
+     */
+   int size() {
+      return size;
+   }
+   
+   /**
+     * Get the value of the i<sup>th</sup> oldest pending report.
+     */
+   Object getValue(final int index) {
+      return values[(head + index) % values.length];
+   }
+   
+   Object getSource(final int index) {
+      return sources[(head + index) % values.length];
+   }
+   
+   ChangeType getChangeType(final int index) {
+      return changeTypes[(head + index) % values.length];
+   }
+   
+   /**
+     * Discard all pending reports.
+     */
+   void clear() {
+      for(int i = 0; i< size; ++i) {
+         final int index = (head + i) % values.length;
+         values[index] = null;
+         sources[index] = null;
+         changeTypes[index] = null;
+      }
+      head = 0;
+      size = 0;
+   }
+   
+   /**
+     * Get the total number of reports discarded by this buffer because 
+     * the buffer was full.
+     */
+   long getNumberOfDiscardedReports() {
+      return numberOfDiscardedReports;
+   }
+}
@@ -217,10 +217,8 @@ public class StrategyBank extends StockTradingBank implements InterbankBorrower
 	
 	public double getLoanInvestment() {
 		double loanInvestment = 0;
-		for (Contract contract : assets) {
-			if (contract instanceof Loan) {
-				loanInvestment += contract.getValue();
-			}
+		for (final Loan loan : getAssetLoans()) {
+			loanInvestment += loan.getValue();
 		}
 		return loanInvestment;
 	}
@@ -20,12 +20,12 @@
  */
 package eu.crisis_economics.abm.contracts;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import sim.engine.SimState;
 import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
 
 /**
   * @author bochmann
@@ -33,13 +33,7 @@ import eu.crisis_economics.abm.simulation.Simulation;
   */
 public abstract class Contract {
     
-    private static long contractsCreated;
     private final String contractUID;
-    private static List<Contract> allActiveContracts;
-    
-    static {
-       allActiveContracts = new ArrayList<Contract>();
-    }
     
     private final double
        contractCreationTime,
@@ -49,7 +43,8 @@ public abstract class Contract {
        final double expirationTime
        ) {
        this.contractCreationTime = Simulation.getTime();
-       this.contractUID = getClass().getName() + contractsCreated++;
+       this.contractUID =
+          getClass().getName() + SimulationContext.current().nextContractSerial();
        this.contractExpiryTime = expirationTime;
        if(contractExpiryTime < contractCreationTime)
           throw new IllegalArgumentException(
@@ -62,8 +57,9 @@ public abstract class Contract {
    /**
      * Global logging for Contract objects. Ultimately all Contract objects are
      * created via the above constructor. If the Simulation indicates that 
-     * Contracts should be recorded, then a singleton ArrayList<Contract>
-     * is populated with all new instances. This method executes the logging.
+     * Contracts should be recorded, then the contract log of the active
+     * SimulationContext is populated with all new instances. This method
+     * executes the logging.
      */
    private void storeInstance() {
       final SimState simState = Simulation.getSimState();
@@ -71,7 +67,7 @@ public abstract class Contract {
          if (simState instanceof Simulation) {                      // TODO
             final Simulation simulation = (Simulation) simState;
             if (simulation.isRecordingContracts())
-               allActiveContracts.add(this);
+               SimulationContext.current().getRecordedContracts().add(this);
          }
       }
    }
@@ -79,7 +75,8 @@ public abstract class Contract {
    /** Get an unmodifiable list of Contracts. This list contains all
      * Contract objects ever created by the running simulation. */
    public static List<Contract> getContracts() {
-      return Collections.unmodifiableList(allActiveContracts);
+      return Collections.unmodifiableList(
+         SimulationContext.current().getRecordedContracts());
    }
    
    /** Get a unique (String) ID corresponding to this contract. */
@@ -157,7 +154,6 @@ public abstract class Contract {
    }
 
    static public void resetInstanceCounterAndClearLogs() {
-      contractsCreated = 0;
-      allActiveContracts.clear();
+      SimulationContext.current().resetContractSerialAndClearLogs();
    }
 }
\ No newline at end of file
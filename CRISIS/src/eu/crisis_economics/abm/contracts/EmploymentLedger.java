@@ -0,0 +1,560 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.contracts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sim.engine.SimState;
+
+import com.google.common.base.Preconditions;
+
+import eu.crisis_economics.abm.contracts.settlements.Settlement;
+import eu.crisis_economics.abm.contracts.settlements.SettlementFactory;
+import eu.crisis_economics.abm.events.WagePaymentEvent;
+import eu.crisis_economics.abm.simulation.NamedEventOrderings;
+import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
+
+/**
+  * A ledger of active {@link Labour} contracts.<br><br>
+  * 
+  * Each record in this ledger describes the employment of one {@link Employee}
+  * by one {@link Employer}. The terms of each record (the amount of labour 
+  * employed, the wage per unit labour, and the cycles in which the record was
+  * opened and expires) are stored in primitive arrays. Contracts formed between
+  * the same {@link Employer} and {@link Employee}, in the same simulation cycle
+  * and with the same maturity, are aggregated into one record. Each record is 
+  * represented to its parties by one pooled {@link Labour} instance.<br><br>
+  * 
+  * The first wage installment for each contract is paid when the contract is 
+  * formed. Subsequent installments for all records are paid in bulk at {@link 
+  * NamedEventOrderings#WAGE_PAYMENT}, and expired records are closed in bulk at
+  * {@link NamedEventOrderings#BEFORE_ALL}. No simulation events are scheduled for
+  * individual contracts. If the {@link Employer} cannot afford an installment, 
+  * no further installments are paid for that contract unless {@link 
+  * Labour#payWage()} later succeeds.<br><br>
+  * 
+  * This ledger keeps running employment totals for each party. {@link Employer}
+  * {@code s} and {@link Employee}{@code s} can query their workforce and their 
+  * employment without iterating over their contracts.<br><br>
+  * 
+  * One ledger exists for each {@link SimulationContext}. Use {@link 
+  * #forCurrentContext()} to obtain the ledger for the running simulation. The
+  * ledger is emptied by {@link #reset()} when the simulation is restarted.
+  * 
+  * @author phillips
+  */
+public final class EmploymentLedger {
+   
+   private static final int
+      INITIAL_CAPACITY = 64;
+   
+   /*
+    * Running totals for one party. The indices of the records to which the
+    * party is a counterparty are stored in an unordered array.
+    */
+   private static final class PartyAccount {
+      private double
+         labourAmount,
+         wageBill;
+      private int[]
+         records = new int[2];
+      private int
+         numberOfRecords;
+      
+      private void addRecord(final int record, final double amount, final double wage) {
+         if(numberOfRecords == records.length)
+            records = Arrays.copyOf(records, 2 * records.length);
+         records[numberOfRecords++] = record;
+         addAmount(amount, wage);
+      }
+      
+      private void addAmount(final double amount, final double wage) {
+         labourAmount += amount;
+         wageBill += amount * wage;
+      }
+      
+      private void removeRecord(final int record, final double amount, final double wage) {
+         for(int i = 0; i< numberOfRecords; ++i)
+            if(records[i] == record) {
+               records[i] = records[--numberOfRecords];
+               break;
+            }
+         if(numberOfRecords == 0) {                                // Avoid residues
+            labourAmount = 0.;
+            wageBill = 0.;
+         } else {
+            labourAmount -= amount;
+            wageBill -= amount * wage;
+         }
+      }
+      
+      private void renameRecord(final int oldIndex, final int newIndex) {
+         for(int i = 0; i< numberOfRecords; ++i)
+            if(records[i] == oldIndex) {
+               records[i] = newIndex;
+               return;
+            }
+      }
+   }
+   
+   private final SimState
+      simulationState;
+   private boolean
+      isScheduled;
+   
+   private Employer[]
+      employers;
+   private Employee[]
+      employees;
+   private Labour[]
+      contracts;
+   private Settlement[]
+      settlements;
+   private double[]
+      amounts,
+      wages;
+   private long[]
+      openingCycles,
+      expiryCycles,
+      lastPaymentCycles;
+   private boolean[]
+      paymentsStopped;
+   private int
+      numberOfRecords;
+   
+   private final Map<Employer, PartyAccount>
+      employerAccounts;
+   private final Map<Employee, PartyAccount>
+      employeeAccounts;
+   private final ArrayDeque<PartyAccount>
+      unusedAccounts;
+   
+   /**
+     * Get the {@link EmploymentLedger} for the active {@link SimulationContext}.
+     * A new (empty) ledger is created if no ledger exists for the simulation 
+     * registered with the context.
+     */
+   public static EmploymentLedger forCurrentContext() {
+      final SimulationContext context = SimulationContext.current();
+      EmploymentLedger result = (EmploymentLedger) context.getService(EmploymentLedger.class);
+      if(result == null || result.simulationState != context.getSimState()) {
+         result = new EmploymentLedger(context.getSimState());
+         context.putService(EmploymentLedger.class, result);
+      }
+      return result;
+   }
+   
+   private EmploymentLedger(final SimState simulationState) {
+      this.simulationState = simulationState;
+      this.employers = new Employer[INITIAL_CAPACITY];
+      this.employees = new Employee[INITIAL_CAPACITY];
+      this.contracts = new Labour[INITIAL_CAPACITY];
+      this.settlements = new Settlement[INITIAL_CAPACITY];
+      this.amounts = new double[INITIAL_CAPACITY];
+      this.wages = new double[INITIAL_CAPACITY];
+      this.openingCycles = new long[INITIAL_CAPACITY];
+      this.expiryCycles = new long[INITIAL_CAPACITY];
+      this.lastPaymentCycles = new long[INITIAL_CAPACITY];
+      this.paymentsStopped = new boolean[INITIAL_CAPACITY];
+      this.employerAccounts = new IdentityHashMap<Employer, PartyAccount>();
+      this.employeeAccounts = new IdentityHashMap<Employee, PartyAccount>();
+      this.unusedAccounts = new ArrayDeque<PartyAccount>();
+   }
+   
+   /**
+     * Discard all records and party accounts. This method should be called 
+     * whenever the MASON schedule is reset, as the events of this ledger are then
+     * void. Discarded contracts are not ended with their parties, and no further 
+     * wages are paid for them.
+     */
+   public void reset() {
+      for(int i = 0; i< numberOfRecords; ++i) {
+         contracts[i].setRecordIndex(-1);
+         employers[i] = null;
+         employees[i] = null;
+         contracts[i] = null;
+         settlements[i] = null;
+      }
+      numberOfRecords = 0;
+      employerAccounts.clear();
+      employeeAccounts.clear();
+      unusedAccounts.clear();
+      isScheduled = false;
+   }
+   
+   /*
+    * Events are scheduled when the first record is opened, so that a ledger can
+    * be queried before the simulation has started.
+    */
+   private void scheduleIfRequired() {
+      if(isScheduled) return;
+      Simulation.repeat(this, "closeExpiredContracts", NamedEventOrderings.BEFORE_ALL);
+      Simulation.repeat(this, "payWages", NamedEventOrderings.WAGE_PAYMENT);
+      isScheduled = true;
+   }
+   
+   /**
+     * Open (or aggregate) a labour contract. See {@link Labour#create}.
+     */
+   Labour open(
+      final Employer employer,
+      final Employee employee,
+      double quantity,
+      final int duration,
+      final double wage
+      ) throws DoubleEmploymentException {
+      final long
+         cycle = Simulation.getCycleIndex(),
+         expiry = cycle + duration;
+      final int existingRecord = findRecord(employer, employee, cycle, expiry);
+      final Settlement settlement;
+      try {
+         employee.disallocateLabour(quantity);
+         final double
+            maximumEmployerExpense = wage * quantity,
+            employerCanAfford = employer.getUnallocatedCash(),
+            maximumTransaction = Math.min(employerCanAfford, maximumEmployerExpense),
+            quantityRation = maximumTransaction / maximumEmployerExpense;
+         settlement = existingRecord >= 0 ?
+            settlements[existingRecord] :
+            SettlementFactory.createLabourSettlement(employer, employee);
+         settlement.transfer(maximumTransaction);
+         
+         Simulation.events().post(new WagePaymentEvent(employer, employee, maximumTransaction));
+         
+         quantity *= quantityRation;
+      } catch (final Exception failedTransaction) {
+         return null;
+      }
+      if(existingRecord < 0)
+         return openRecord(
+            employer, employee, settlement, quantity, duration, wage, cycle, expiry);
+      aggregateRecord(existingRecord, quantity, wage);
+      employee.notifyOutgoingEmployment(quantity, wage);
+      employer.registerIncomingEmployment(quantity, wage);
+      return contracts[existingRecord];
+   }
+   
+   private Labour openRecord(
+      final Employer employer,
+      final Employee employee,
+      final Settlement settlement,
+      final double quantity,
+      final int duration,
+      final double wage,
+      final long cycle,
+      final long expiry
+      ) throws DoubleEmploymentException {
+      final Labour contract =
+         Labour.releaseFromPool(employer, employee, quantity, duration, wage);
+      final int record = appendRecord(
+         employer, employee, contract, settlement, quantity, wage, cycle, expiry);
+      try {
+         employee.startContract(contract);
+      } catch (final DoubleEmploymentException e) {
+         removeRecord(record);
+         contract.returnToPool();
+         throw e;
+      }
+      employer.addLabour(contract);
+      employee.notifyOutgoingEmployment(quantity, wage);
+      employer.registerIncomingEmployment(quantity, wage);
+      scheduleIfRequired();
+      return contract;
+   }
+   
+   /*
+    * Find the record formed between the specified parties in the specified cycle
+    * with the specified expiry cycle. This method returns -1 if no such record
+    * exists.
+    */
+   private int findRecord(
+      final Employer employer,
+      final Employee employee,
+      final long openingCycle,
+      final long expiryCycle
+      ) {
+      final PartyAccount account = employeeAccounts.get(employee);
+      if(account == null) return -1;
+      for(int i = 0; i< account.numberOfRecords; ++i) {
+         final int record = account.records[i];
+         if(employers[record] == employer &&
+            openingCycles[record] == openingCycle &&
+            expiryCycles[record] == expiryCycle)
+            return record;
+      }
+      return -1;
+   }
+   
+   private int appendRecord(
+      final Employer employer,
+      final Employee employee,
+      final Labour contract,
+      final Settlement settlement,
+      final double quantity,
+      final double wage,
+      final long cycle,
+      final long expiry
+      ) {
+      if(numberOfRecords == amounts.length)
+         expandCapacity();
+      final int record = numberOfRecords++;
+      employers[record] = employer;
+      employees[record] = employee;
+      contracts[record] = contract;
+      settlements[record] = settlement;
+      amounts[record] = quantity;
+      wages[record] = wage;
+      openingCycles[record] = cycle;
+      expiryCycles[record] = expiry;
+      lastPaymentCycles[record] = cycle;
+      paymentsStopped[record] = false;
+      contract.setRecordIndex(record);
+      accountFor(employerAccounts, employer).addRecord(record, quantity, wage);
+      accountFor(employeeAccounts, employee).addRecord(record, quantity, wage);
+      return record;
+   }
+   
+   private void aggregateRecord(final int record, final double quantity, final double wage) {
+      final double
+         existingAmount = amounts[record],
+         aggregateAmount = existingAmount + quantity;
+      if(aggregateAmount > 0.)
+         wages[record] =
+            (existingAmount * wages[record] + quantity * wage) / aggregateAmount;
+      amounts[record] = aggregateAmount;
+      contracts[record].setTerms(aggregateAmount, wages[record]);
+      employerAccounts.get(employers[record]).addAmount(quantity, wage);
+      employeeAccounts.get(employees[record]).addAmount(quantity, wage);
+   }
+   
+   private void expandCapacity() {
+      final int capacity = 2 * amounts.length;
+      employers = Arrays.copyOf(employers, capacity);
+      employees = Arrays.copyOf(employees, capacity);
+      contracts = Arrays.copyOf(contracts, capacity);
+      settlements = Arrays.copyOf(settlements, capacity);
+      amounts = Arrays.copyOf(amounts, capacity);
+      wages = Arrays.copyOf(wages, capacity);
+      openingCycles = Arrays.copyOf(openingCycles, capacity);
+      expiryCycles = Arrays.copyOf(expiryCycles, capacity);
+      lastPaymentCycles = Arrays.copyOf(lastPaymentCycles, capacity);
+      paymentsStopped = Arrays.copyOf(paymentsStopped, capacity);
+   }
+   
+   private <T> PartyAccount accountFor(final Map<T, PartyAccount> accounts, final T party) {
+      PartyAccount result = accounts.get(party);
+      if(result == null) {
+         result = unusedAccounts.isEmpty() ? new PartyAccount() : unusedAccounts.poll();
+         accounts.put(party, result);
+      }
+      return result;
+   }
+   
+   private <T> void removeFromAccount(
+      final Map<T, PartyAccount> accounts,
+      final T party,
+      final int record
+      ) {
+      final PartyAccount account = accounts.get(party);
+      account.removeRecord(record, amounts[record], wages[record]);
+      if(account.numberOfRecords == 0)
+         unusedAccounts.add(accounts.remove(party));
+   }
+   
+   /*
+    * Remove a record. The last record in the ledger is moved into the vacated 
+    * slot.
+    */
+   private void removeRecord(final int record) {
+      removeFromAccount(employerAccounts, employers[record], record);
+      removeFromAccount(employeeAccounts, employees[record], record);
+      final int last = numberOfRecords - 1;
+      if(record != last) {
+         employerAccounts.get(employers[last]).renameRecord(last, record);
+         employeeAccounts.get(employees[last]).renameRecord(last, record);
+         employers[record] = employers[last];
+         employees[record] = employees[last];
+         contracts[record] = contracts[last];
+         settlements[record] = settlements[last];
+         amounts[record] = amounts[last];
+         wages[record] = wages[last];
+         openingCycles[record] = openingCycles[last];
+         expiryCycles[record] = expiryCycles[last];
+         lastPaymentCycles[record] = lastPaymentCycles[last];
+         paymentsStopped[record] = paymentsStopped[last];
+         contracts[record].setRecordIndex(record);
+      }
+      employers[last] = null;
+      employees[last] = null;
+      contracts[last] = null;
+      settlements[last] = null;
+      numberOfRecords = last;
+   }
+   
+   /**
+     * Terminate a labour contract before its expiry. The contract is removed
+     * from both parties and no further wages are paid.
+     */
+   void close(final Labour contract) {
+      Preconditions.checkArgument(contracts[contract.getRecordIndex()] == contract);
+      closeRecord(contract.getRecordIndex());
+   }
+   
+   private void closeRecord(final int record) {
+      final Labour contract = contracts[record];
+      boolean result = employers[record].removeLabour(contract);
+      if(!result)
+         throw new IllegalStateException(
+            "EmploymentLedger.closeRecord: employer does not recognize this contract.");
+      try {
+         employees[record].endContract(contract);
+      } catch (Exception e) {
+         throw new RuntimeException(
+            "EmploymentLedger.closeRecord: an exception was thrown " + 
+            "disallocating an instance of Labour from the " + 
+            "employee. Details follow.\n" + e.getMessage()); 
+      }
+      removeRecord(record);
+      contract.returnToPool();
+   }
+   
+   @SuppressWarnings("unused") // Scheduled
+   private void closeExpiredContracts() {
+      final long cycle = Simulation.getCycleIndex();
+      for(int i = numberOfRecords - 1; i >= 0; --i)
+         if(cycle >= expiryCycles[i])
+            closeRecord(i);
+   }
+   
+   @SuppressWarnings("unused") // Scheduled
+   private void payWages() {
+      final long cycle = Simulation.getCycleIndex();
+      for(int i = 0; i< numberOfRecords; ++i)
+         if(!paymentsStopped[i] && lastPaymentCycles[i] < cycle)
+            payRecord(i, cycle);
+   }
+   
+   /**
+     * Pay one wage installment for the specified contract now. If the payment
+     * succeeds, subsequent installments are paid as usual.
+     */
+   void payWage(final Labour contract) {
+      Preconditions.checkArgument(contracts[contract.getRecordIndex()] == contract);
+      payRecord(contract.getRecordIndex(), Simulation.getCycleIndex());
+   }
+   
+   private void payRecord(final int record, final long cycle) {
+      final double
+         wageToPay = wages[record] * amounts[record];
+      try {
+         settlements[record].transfer(wageToPay);
+         
+         Simulation.events().post(
+            new WagePaymentEvent(employers[record], employees[record], wageToPay));
+         
+         lastPaymentCycles[record] = cycle;
+         paymentsStopped[record] = false;
+      } catch (final InsufficientFundsException e) {
+         /*
+          * The installment is not paid, and no further installments are paid
+          * for this contract.
+          */
+         paymentsStopped[record] = true;
+      }
+   }
+   
+   /**
+     * Get the number of records (aggregated contracts) in this ledger.
+     */
+   public int getNumberOfRecords() {
+      return numberOfRecords;
+   }
+   
+   /**
+     * Get the total amount of labour employed by an {@link Employer}.
+     */
+   public double getLabourEmployedBy(final Employer employer) {
+      final PartyAccount account = employerAccounts.get(employer);
+      return account == null ? 0. : account.labourAmount;
+   }
+   
+   /**
+     * Get the total amount of labour supplied by an {@link Employee}.
+     */
+   public double getLabourSuppliedBy(final Employee employee) {
+      final PartyAccount account = employeeAccounts.get(employee);
+      return account == null ? 0. : account.labourAmount;
+   }
+   
+   /**
+     * Get the (contract-weighted) mean wage per unit labour paid to an {@link
+     * Employee}. This method returns zero if the {@link Employee} is not employed.
+     */
+   public double getMeanWagePerUnitLabourPaidTo(final Employee employee) {
+      final PartyAccount account = employeeAccounts.get(employee);
+      if(account == null || account.labourAmount == 0.) return 0.;
+      return account.wageBill / account.labourAmount;
+   }
+   
+   /**
+     * Get the number of records to which an {@link Employer} is a party.
+     */
+   public int getNumberOfContractsOfEmployer(final Employer employer) {
+      final PartyAccount account = employerAccounts.get(employer);
+      return account == null ? 0 : account.numberOfRecords;
+   }
+   
+   /**
+     * Get the number of records to which an {@link Employee} is a party.
+     */
+   public int getNumberOfContractsOfEmployee(final Employee employee) {
+      final PartyAccount account = employeeAccounts.get(employee);
+      return account == null ? 0 : account.numberOfRecords;
+   }
+   
+   /**
+     * Get the contracts to which an {@link Employee} is a party. Modifying the 
+     * return value will not affect this ledger.
+     */
+   public List<Labour> getContractsOfEmployee(final Employee employee) {
+      final PartyAccount account = employeeAccounts.get(employee);
+      final List<Labour> result = new ArrayList<Labour>();
+      if(account != null)
+         for(int i = 0; i< account.numberOfRecords; ++i)
+            result.add(contracts[account.records[i]]);
+      return result;
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public String toString() {
+      return "Employment ledger, records: " + numberOfRecords + ", employers: "
+           + employerAccounts.size() + ", employees: " + employeeAccounts.size() + ".";
+   }
+}
@@ -25,38 +25,48 @@ package eu.crisis_economics.abm.contracts;
 
 import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import eu.crisis_economics.abm.contracts.settlements.Settlement;
-import eu.crisis_economics.abm.contracts.settlements.SettlementFactory;
-import eu.crisis_economics.abm.events.WagePaymentEvent;
 import eu.crisis_economics.abm.simulation.CustomSimulationCycleOrdering;
 import eu.crisis_economics.abm.simulation.NamedEventOrderings;
 import eu.crisis_economics.abm.simulation.Simulation;
-import eu.crisis_economics.abm.simulation.Simulation.ScheduledMethodInvokation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
 
+/**
+  * A labour contract between an {@link Employer} and an {@link Employee}. The 
+  * terms of all active contracts are recorded in the {@link EmploymentLedger}
+  * for the current simulation context. Wage payments and contract termination
+  * are processed in bulk by the ledger.
+  */
 public class Labour implements Comparable<Labour> {
     
-    private Settlement settlement;
     private Employer employer;
     private Employee employee;
     private int 
         duration,
-        instanceUniqueIdentifier;
-    private static int
-        instancesInExistence;
+        instanceUniqueIdentifier,
+        recordIndex;
+    private static final AtomicInteger
+        instancesInExistence = new AtomicInteger();
     private double
         wage,
         quantity,
         creationTime;
-    private long
-        initialStep;
-    private boolean active; 
-    private ScheduledMethodInvokation
-       scheduleEvent;
-    
-    /** An object pool of Labour type instances. */
-    private enum ObjectPool { // Singleton, Object Pool
-        Instance (50);
+    
+    /** An object pool of Labour type instances. One pool exists for each simulation context. */
+    private static final class ObjectPool {
+        private static final int INITIAL_POOL_POPULATION = 50;
+        
+        /** Get the object pool for the active simulation context. */
+        private static ObjectPool forCurrentContext() {
+            final SimulationContext context = SimulationContext.current();
+            ObjectPool result = (ObjectPool) context.getService(ObjectPool.class);
+            if(result == null) {
+                result = new ObjectPool(INITIAL_POOL_POPULATION);
+                context.putService(ObjectPool.class, result);
+            }
+            return result;
+        }
         
         private Queue<Labour> 
             instancesInUse,
@@ -108,7 +118,18 @@ public class Labour implements Comparable<Labour> {
         }
     }
     
-    /** Return an instance of Labour. */
+    /**
+      * Form a labour contract. The first wage payment is made immediately. If 
+      * the {@link Employer} cannot afford the wage bill in full, the quantity of 
+      * labour employed is rationed accordingly. If the same parties have already
+      * formed a contract of the same maturity in this simulation cycle, the new
+      * contract is aggregated with the existing contract and the existing
+      * instance is returned.
+      * 
+      * @return
+      *        The (possibly aggregated) labour contract, or {@code null} if the 
+      *        contract could not be formed.
+      */
     public static Labour create(
         Employer employer,      // The employer
         Employee employee,      // The employee
@@ -116,45 +137,13 @@ public class Labour implements Comparable<Labour> {
         int duration,           // Contract maturity
         double wage             // Total employee remuneration
         ) throws DoubleEmploymentException {
-        Labour newInstance = Labour.ObjectPool.Instance.release();
-        try {
-            employee.disallocateLabour(quantity);
-            final double
-               maximumEmployerExpense = wage * quantity,
-               employerCanAfford = employer.getUnallocatedCash(),
-               maximumTransaction = Math.min(employerCanAfford, maximumEmployerExpense),
-               quantityRation = maximumTransaction / maximumEmployerExpense;
-            newInstance.settlement = SettlementFactory.createLabourSettlement(employer, employee);
-            newInstance.settlement.transfer(maximumTransaction);
-            
-            Simulation.events().post(new WagePaymentEvent(employer, employee, maximumTransaction));
-            
-            newInstance.employer = employer;
-            newInstance.employee = employee;
-            quantity *= quantityRation;
-            newInstance.quantity = quantity;
-            newInstance.duration = duration;
-            newInstance.wage = wage;
-            newInstance.initialStep = Simulation.getCycleIndex();
-            newInstance.creationTime = Simulation.getTime();
-        } catch (final Exception failedTransaction) {
-            newInstance.reset();
-            Labour.ObjectPool.Instance.reclaim(newInstance);
-            return null;
-        }
-        newInstance.employee.startContract(newInstance);
-        newInstance.employer.addLabour(newInstance);
-        employee.notifyOutgoingEmployment(quantity, wage);
-        employer.registerIncomingEmployment(quantity, wage);
-        newInstance.scheduleSelf();
-        newInstance.active = true;
-        return newInstance;
+        return EmploymentLedger.forCurrentContext().open(
+           employer, employee, quantity, duration, wage);
     }
     
     private Labour() { // Empty instance 
         this.reset();
-        this.instanceUniqueIdentifier = (++Labour.instancesInExistence);
-        this.scheduleEvent = null;
+        this.instanceUniqueIdentifier = Labour.instancesInExistence.incrementAndGet();
     }
     
     private void reset() { // Flush state
@@ -164,60 +153,52 @@ public class Labour implements Comparable<Labour> {
         wage        = 0.;
         creationTime = -1.;
         quantity    = 0.;
-        active      = false;
-        initialStep = 0L;
-    }
-    
-    private void scheduleSelf() {
-       Simulation.once(this, "step", NamedEventOrderings.BEFORE_ALL);
-       if(scheduleEvent == null)
-          scheduleEvent = Simulation.once(this, "payWage", NamedEventOrderings.HIRE_WORKERS);
-       else 
-          Simulation.enqueue(scheduleEvent);
-    }
-    
-    @SuppressWarnings("unused")
-    private void step() {
-       if (Simulation.getCycleIndex() < initialStep+duration)
-          Simulation.once(this, "step", NamedEventOrderings.BEFORE_ALL);
-       else
-          finishedWith();
-    }
-    
-    /** Call when the instance is no longer required. */
-    private void finishedWith() {
-        boolean result = employer.removeLabour(this);
-        if(!result)
-           throw new IllegalStateException();
-        try {
-            employee.endContract(this);
-        } catch (Exception e) {
-            throw new RuntimeException(
-                "Labour.removeLabour: an exception was thrown " + 
-                "disallocating an instance of Labour from the " + 
-                "employee. Details follow.\n" + e.getMessage()); 
-        }
-        Labour.ObjectPool.Instance.reclaim(this);
+        recordIndex = -1;
     }
     
+    /** Release an instance from the pool for the current simulation context. */
+    static Labour releaseFromPool(
+        final Employer employer,
+        final Employee employee,
+        final double quantity,
+        final int duration,
+        final double wage
+        ) {
+        final Labour result = Labour.ObjectPool.forCurrentContext().release();
+        result.employer = employer;
+        result.employee = employee;
+        result.quantity = quantity;
+        result.duration = duration;
+        result.wage = wage;
+        result.creationTime = Simulation.getTime();
+        return result;
+    }
+    
+    /** Return this instance to the pool for the current simulation context. */
+    void returnToPool() {
+        Labour.ObjectPool.forCurrentContext().reclaim(this);
+    }
     
+    /** Set the terms of this contract after aggregation. */
+    void setTerms(final double quantity, final double wage) {
+        this.quantity = quantity;
+        this.wage = wage;
+    }
+    
+    /** Get the index of the ledger record for this contract. */
+    int getRecordIndex() {
+        return recordIndex;
+    }
+    
+    /** Set the index of the ledger record for this contract. */
+    void setRecordIndex(final int recordIndex) {
+        this.recordIndex = recordIndex;
+    }
+    
+    /** Pay one installment of the wage for this contract now. */
     public void payWage(){
-        if(!active) return;
-        try {
-           final double
-              wageToPay = wage * quantity;
-           settlement.transfer(wageToPay);
-           
-           Simulation.events().post(new WagePaymentEvent(employer, employee, wageToPay));
-           
-           Simulation.enqueue(scheduleEvent);
-        } catch (final InsufficientFundsException e) {
-            /**
-              * XXX
-              * 
-              * Something should surely happen here.
-              */
-        }
+        if(recordIndex < 0) return;
+        EmploymentLedger.forCurrentContext().payWage(this);
     }
     
     
@@ -240,11 +221,15 @@ public class Labour implements Comparable<Labour> {
     public double getCreationTime() {
        return creationTime;
     }
+    
+    public int getDuration() {
+       return duration;
+    }
 
     public void fire() {
        // the fire function eliminates this contract from both employer and employee
-       this.employer.removeLabour(this);
-       this.employee.endContract(this);
+       if(recordIndex < 0) return;
+       EmploymentLedger.forCurrentContext().close(this);
     }
 
     @Override
@@ -20,8 +20,10 @@ package eu.crisis_economics.abm.contracts.settlements;
 
 import java.util.HashSet;
 
+import eu.crisis_economics.abm.simulation.SimulationContext;
+
 /**
- * SettlementListeners maintains a static reference to the sole singleton instance 
+ * SettlementListeners maintains one instance per simulation context 
  * and return a reference to that instance from a static instance() method. 
  * Note, it is not thread-safe.
  * @author bochmann
@@ -30,13 +32,15 @@ import java.util.HashSet;
 public final class SettlementListeners extends HashSet<SettlementListener> {
 
 	private static final long serialVersionUID = 1L;
-	private static SettlementListeners instance = null;
 	private SettlementListeners() {
 		// Exists only to defeat instantiation.
 	}
 	public static SettlementListeners getInstance() {
+		final SimulationContext context = SimulationContext.current();
+		SettlementListeners instance = (SettlementListeners) context.getService(SettlementListeners.class);
 		if(instance == null) {
 			instance = new SettlementListeners();
+			context.putService(SettlementListeners.class, instance);
 		}
 		return instance;
 	}
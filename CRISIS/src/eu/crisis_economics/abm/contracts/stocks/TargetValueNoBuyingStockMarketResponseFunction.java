@@ -19,6 +19,7 @@
 package eu.crisis_economics.abm.contracts.stocks;
 
 import eu.crisis_economics.abm.markets.clearing.heterogeneous.AbstractResponseFunction;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.VectorizedMarketResponseFunction;
 
 /**
   * An implementation of the {@link AbstractResponseFunction}.<br><br>
@@ -31,7 +32,7 @@ import eu.crisis_economics.abm.markets.clearing.heterogeneous.AbstractResponseFu
   * @author phillips
   */
 public final class TargetValueNoBuyingStockMarketResponseFunction
-   extends AbstractResponseFunction {
+   extends AbstractResponseFunction implements VectorizedMarketResponseFunction {
    
    private double
       desiredInvestmentValue,
@@ -65,17 +66,28 @@ public final class TargetValueNoBuyingStockMarketResponseFunction
    
    @Override
    public double[] getValue(final int[] queries, TradeOpportunity[] opportunities) {
+      final double[] result = new double[1];
+      getValue(queries, Util.toRateArray(opportunities), result);
+      return result;
+   }
+   
+   @Override
+   public boolean isVectorized() {
+      return true;
+   }
+   
+   @Override
+   public void getValue(final int[] queries, final double[] rates, final double[] result) {
       final int query = queries[0];
-      if(query > 0 || opportunities.length != 1)
+      if(query > 0 || rates.length != 1)
          throw new UnsupportedOperationException(
             "TargetValueNoBuyingStockMarketResponseFunction.getValue: this market response " +
             "function can be used only for clearing networks with one unique stock type."
             );
       final double
-         pricePerShare = opportunities[0].getRate(),
-         valueOfExistingShares = pricePerShare * numberOfSharesOwned,
-         responseToExistingPosition = Math.min(0., desiredInvestmentValue - valueOfExistingShares);
-      return new double[] { responseToExistingPosition };
+         pricePerShare = rates[0],
+         valueOfExistingShares = pricePerShare * numberOfSharesOwned;
+      result[0] = Math.min(0., desiredInvestmentValue - valueOfExistingShares);
    }
    
    /**
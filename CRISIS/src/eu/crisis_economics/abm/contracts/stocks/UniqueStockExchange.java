@@ -35,6 +35,7 @@ import eu.crisis_economics.abm.contracts.stocks.StockMarketDataLogger.StockRecor
 import eu.crisis_economics.abm.contracts.stocks.StockMarketDataLogger.TimestampedMarketRecord;
 import eu.crisis_economics.abm.simulation.NamedEventOrderings;
 import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
 import eu.crisis_economics.utilities.Pair;
 
 /**
@@ -47,35 +48,57 @@ public enum UniqueStockExchange implements StockExchange {
       NUMBER_OF_SHARES_PER_STOCK = 1.0,
       ZERO_INVESTMENT_PRICE_PER_SHARE = 1.e-6;
    
-   private Map<String, StockOwnershipTracker> stockOwnershipTrackers;
-   private Map<String, Double> stockPrices;
-   private StockMarketDataLogger stockMarketLogger;
-   
-   private UniqueStockExchange() { }
-   
-   public void initialize() {
-      this.stockOwnershipTrackers = new HashMap<String, StockOwnershipTracker>();
-      this.stockPrices = new HashMap<String, Double>();
-      this.stockMarketLogger = new StockMarketDataLogger(100.);         // 100 cycles of memory.
+   /*
+    * The state of the exchange. One such state exists for each SimulationContext.
+    */
+   private static final class ExchangeState {
+      private Map<String, StockOwnershipTracker> stockOwnershipTrackers;
+      private Map<String, Double> stockPrices;
+      private StockMarketDataLogger stockMarketLogger;
+      
+      private void initialize() {
+         this.stockOwnershipTrackers = new HashMap<String, StockOwnershipTracker>();
+         this.stockPrices = new HashMap<String, Double>();
+         this.stockMarketLogger = new StockMarketDataLogger(100.);      // 100 cycles of memory.
+         
+         scheduleSelf();
+      }
       
-      scheduleSelf();
+      private void scheduleSelf() {
+         Simulation.repeat(
+           this, "takeStockMarketSnapshot", NamedEventOrderings.POST_CLEARING_MARKET_MATCHING);
+      }
+      
+      @SuppressWarnings("unused")
+      /*
+       * Record a snapshot of the market.
+       */
+      private void takeStockMarketSnapshot() {
+         if(true) {
+            System.out.println();
+         }
+         for(final StockOwnershipTracker record : stockOwnershipTrackers.values())
+            stockMarketLogger.commitNewRecordFor(record.getStockReleaser());
+      }
    }
    
-   private void scheduleSelf() {
-      Simulation.repeat(
-        Instance, "takeStockMarketSnapshot", NamedEventOrderings.POST_CLEARING_MARKET_MATCHING);
-   }
+   private UniqueStockExchange() { }
    
-   @SuppressWarnings("unused")
    /*
-    * Record a snapshot of the market.
+    * Get the exchange state for the active SimulationContext.
     */
-   private void takeStockMarketSnapshot() {
-      if(true) {
-         System.out.println();
+   private ExchangeState state() {
+      final SimulationContext context = SimulationContext.current();
+      ExchangeState result = (ExchangeState) context.getService(this);
+      if(result == null) {
+         result = new ExchangeState();
+         context.putService(this, result);
       }
-      for(final StockOwnershipTracker record : stockOwnershipTrackers.values())
-         stockMarketLogger.commitNewRecordFor(record.getStockReleaser());
+      return result;
+   }
+   
+   public void initialize() {
+      state().initialize();
    }
    
    /**
@@ -85,7 +108,7 @@ public enum UniqueStockExchange implements StockExchange {
       final String stockUniqueName,
       final double timeCutoff
       ) {
-      return stockMarketLogger.getStockPricePerShareTimeSeries(stockUniqueName, timeCutoff);
+      return state().stockMarketLogger.getStockPricePerShareTimeSeries(stockUniqueName, timeCutoff);
    }
    
    /**
@@ -95,7 +118,7 @@ public enum UniqueStockExchange implements StockExchange {
       final String stockUniqueName,
       final double timeCutoff
       ) {
-      return stockMarketLogger.getDividendPerShareTimeSeries(stockUniqueName, timeCutoff);
+      return state().stockMarketLogger.getDividendPerShareTimeSeries(stockUniqueName, timeCutoff);
    }
    
    @Override
@@ -104,22 +127,22 @@ public enum UniqueStockExchange implements StockExchange {
       final double initialStockPrice
       ) {
       final String stockUniqueName = stockReleaser.getUniqueName();
-      if(stockOwnershipTrackers.containsKey(stockUniqueName))
+      if(state().stockOwnershipTrackers.containsKey(stockUniqueName))
          throw new IllegalArgumentException(
             "StockExchange: a stock of unique name " + stockUniqueName + " already exists.");
       final StockOwnershipTracker newStockTracker =
          new StockOwnershipTracker(
             stockUniqueName, NUMBER_OF_SHARES_PER_STOCK, stockReleaser);
-      this.stockOwnershipTrackers.put(
+      state().stockOwnershipTrackers.put(
          newStockTracker.getStockName(), newStockTracker);
-      this.stockPrices.put(newStockTracker.getStockName(), initialStockPrice);
+      state().stockPrices.put(newStockTracker.getStockName(), initialStockPrice);
    }
    
    @Override
    public boolean removeStock(final StockReleaser stockReleaser) {
       final String stockUniqueName = stockReleaser.getUniqueName();
-      stockOwnershipTrackers.remove(stockUniqueName);
-      return stockPrices.remove(stockUniqueName) != null;
+      state().stockOwnershipTrackers.remove(stockUniqueName);
+      return state().stockPrices.remove(stockUniqueName) != null;
    }
    
    /**
@@ -137,7 +160,7 @@ public enum UniqueStockExchange implements StockExchange {
    @Override
    public double getNumberOfEmittedSharesIn(final String stockUniqueName) {
       assertHasStock(stockUniqueName);
-      final StockOwnershipTracker tracker = stockOwnershipTrackers.get(stockUniqueName);
+      final StockOwnershipTracker tracker = state().stockOwnershipTrackers.get(stockUniqueName);
       return tracker.getTotalNumberOfSharesEmitted();
    }
    
@@ -178,7 +201,7 @@ public enum UniqueStockExchange implements StockExchange {
          numberOfSharesOwned = account.getQuantity();
       }
       final StockOwnershipTracker
-         participants = stockOwnershipTrackers.get(stockName);
+         participants = state().stockOwnershipTrackers.get(stockName);
       final int
          numberOfOtherParticipants = participants.getNumberOfStockHolders() -
          (numberOfSharesOwned > 0. ? 1 : 0);
@@ -197,7 +220,7 @@ public enum UniqueStockExchange implements StockExchange {
      */
    @Override
    public boolean hasStock(final String stockUniqueName) {
-      return stockOwnershipTrackers.containsKey(stockUniqueName);
+      return state().stockOwnershipTrackers.containsKey(stockUniqueName);
    }
    
    /**
@@ -208,12 +231,12 @@ public enum UniqueStockExchange implements StockExchange {
    @Override
    public StockReleaser getStockReleaser(final String uniqueStockName) {
       if(!hasStock(uniqueStockName)) return null;
-      return stockOwnershipTrackers.get(uniqueStockName).getStockReleaser();
+      return state().stockOwnershipTrackers.get(uniqueStockName).getStockReleaser();
    }
    
    public List<StockReleaser> getStockReleasers() {
       List<StockReleaser> result = new ArrayList<StockReleaser>();
-      for(final String stockName : stockPrices.keySet())
+      for(final String stockName : state().stockPrices.keySet())
          result.add(getStockReleaser(stockName));
       return result;
    }
@@ -233,7 +256,7 @@ public enum UniqueStockExchange implements StockExchange {
       if(stockName == null)
          throw new NullArgumentException();
       assertHasStock(stockName);
-      return stockPrices.get(stockName);
+      return state().stockPrices.get(stockName);
    }
    
    /**
@@ -247,7 +270,7 @@ public enum UniqueStockExchange implements StockExchange {
       final String stockName, 
       double positivePricePerShare
       ) {
-      if(!stockPrices.containsKey(stockName))
+      if(!state().stockPrices.containsKey(stockName))
          throw new IllegalArgumentException(
             "StockExchange: no stock of type " + stockName + " is known to this exchange.");
       if(positivePricePerShare < 0.)
@@ -261,7 +284,7 @@ public enum UniqueStockExchange implements StockExchange {
             ". New price per share has been revised to " + ZERO_INVESTMENT_PRICE_PER_SHARE + ".");
          positivePricePerShare = ZERO_INVESTMENT_PRICE_PER_SHARE;
       }
-      stockPrices.put(stockName, positivePricePerShare);
+      state().stockPrices.put(stockName, positivePricePerShare);
    }
    
    /**
@@ -317,7 +340,7 @@ public enum UniqueStockExchange implements StockExchange {
                record.getSecond() + ").");
       }
       final StockOwnershipTracker tracker = 
-         stockOwnershipTrackers.get(uniqueStockName);
+         state().stockOwnershipTrackers.get(uniqueStockName);
       tracker.terminateAllExistingShareAccountsWithoutCompensation();
       for(Pair<StockHolder, Double> record : stockOwnerships)
          StockAccount.create(record.getFirst(), tracker.getStockReleaser(), record.getSecond());
@@ -344,7 +367,7 @@ public enum UniqueStockExchange implements StockExchange {
             "price per share " + priceToPayPerShare + ".");
       assertHasStock(uniqueStockName);
       if(numberOfShares == 0) return;
-      final StockOwnershipTracker tracker = stockOwnershipTrackers.get(uniqueStockName);
+      final StockOwnershipTracker tracker = state().stockOwnershipTrackers.get(uniqueStockName);
       final double transactionValue = (priceToPayPerShare * numberOfShares);
       final Settlement settlement = 
          SettlementFactory.createDirectSettlement(stockHolder, tracker.getStockReleaser());
@@ -382,16 +405,17 @@ public enum UniqueStockExchange implements StockExchange {
      */
    @Override
    public StockOwnershipTracker getOwnershipTracker(final String uniqueStockName) {
-      return stockOwnershipTrackers.get(uniqueStockName); 
+      return state().stockOwnershipTrackers.get(uniqueStockName); 
    }
    
    public void flush() {
-      if(stockPrices != null)
-         stockPrices.clear();
-      if(stockOwnershipTrackers != null) {
-         for(final StockOwnershipTracker tracker : stockOwnershipTrackers.values())
+      final ExchangeState state = state();
+      if(state.stockPrices != null)
+         state.stockPrices.clear();
+      if(state.stockOwnershipTrackers != null) {
+         for(final StockOwnershipTracker tracker : state.stockOwnershipTrackers.values())
             tracker.terminateAllExistingShareAccountsWithoutCompensation();
-         stockOwnershipTrackers.clear();
+         state.stockOwnershipTrackers.clear();
       }
    }
    
@@ -407,7 +431,7 @@ public enum UniqueStockExchange implements StockExchange {
     */
    void notifyDividendPayment(final StockReleaser releaser, double dividendAmountPaid) {
       final TimestampedMarketRecord record =
-         stockMarketLogger.getEarliestRecordBeforeTime(Simulation.getTime());
+         state().stockMarketLogger.getEarliestRecordBeforeTime(Simulation.getTime());
       if(record == null) return;
       final StockRecord snapshot = record.getRecord(releaser.getUniqueName());
       if(snapshot == null) return;
@@ -35,6 +35,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -52,9 +53,12 @@ import ai.aitia.meme.database.Model;
 import ai.aitia.meme.database.Result;
 import ai.aitia.meme.database.Run;
 import ai.aitia.meme.utils.Utils;
+import eu.crisis_economics.abm.model.recording.ColumnarRecordReader;
+import eu.crisis_economics.abm.model.recording.ColumnarRecordWriter;
 
 /** The class represents a parser that parse a Repast result file and loads its content
- *  to the data base.
+ *  to the data base. Columnar records (see {@link ColumnarRecordWriter}) are also
+ *  accepted, and are read without conversion to text.
  */
 public class ResultParser {
 	
@@ -146,6 +150,10 @@ public class ResultParser {
 		maxRowsPerRun= 0;
 		warnings 	= "";
 
+		if (ColumnarRecordReader.isColumnarRecord(files[0])) {
+			readColumnarFile();
+			return;
+		}
 
 	    java.io.FileInputStream is	= new java.io.FileInputStream(files[fileIndex]);
 	    // BufferedReader miatt a buffermeret kozvetlen hatassal van a progressbar elorehaladasara
@@ -501,6 +509,55 @@ public class ResultParser {
 		in.close(); is.close();
 	}
 	
+	/** Reads a columnar record (see {@link ColumnarRecordWriter}) to the memory. The
+	 *  columns of the record are decoded directly; no text is formatted or parsed. */
+	private void readColumnarFile() throws Exception {
+		ColumnarRecordReader reader = new ColumnarRecordReader(files[0]);
+		try {
+			startTime = reader.getStartTime();
+			endTime = reader.getEndTime();
+
+			Columns fname = new Columns();
+			ArrayList<Object> fval = new ArrayList<Object>();
+			for (Map.Entry<String, String> parameter : reader.getParameters().entrySet()) {
+				ColumnType.TypeAndValue tv = ColumnType.parseValue(parameter.getValue());
+				fname.append(parameter.getKey(), tv.getType());
+				fval.add(tv.getValue());
+			}
+			fixedPar = new GeneralRow(fname);
+			for (int i = 0; i < fname.size(); ++i)
+				fixedPar.set(i, fval.get(i));
+
+			List<String> names = reader.getColumnNames();
+			double[][] columns = new double[names.size()][];
+			for (int i = 0; i < names.size(); ++i) {
+				columns[i] = reader.readColumn(i);
+				if (i < 2) continue;							// run, tick
+				otherPar.append(names.get(i), null);
+				otherPar.get(i-2).extendType(ColumnType.DOUBLE);
+			}
+			multiColNames = new ArrayList<String>();
+
+			Run lastRun = null;
+			for (int r = 0; r < reader.getNumberOfRows(); ++r) {
+				int run = (int) columns[0][r];
+				if (lastRun == null || lastRun.run != run) {
+					lastRun = new Run(run);
+					runs.add(lastRun);
+				}
+				Result.Row row = new Result.Row(otherPar, (int) columns[1][r]);
+				for (int i = 2; i < columns.length; ++i)
+					row.set(i-2, columns[i][r]);
+				lastRun.rows.add(row);
+				if (lastRun.rows.size() > maxRowsPerRun)
+					maxRowsPerRun = lastRun.rows.size();
+			}
+			java.util.Collections.sort(runs);
+		} finally {
+			reader.close();
+		}
+	}
+
 	private ColumnType.TypeAndValue parseValueOrNumberWithDotOrComma(String str, String delimiter) {
 		ColumnType.TypeAndValue tv = ColumnType.parseValue(str);
 		if (!",".equals(delimiter) && str.contains(",")) {
@@ -34,10 +34,12 @@ package eu.crisis_economics.abm.firm;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
 import com.google.inject.assistedinject.Assisted;
@@ -51,6 +53,7 @@ import eu.crisis_economics.abm.contracts.AllocationException;
 import eu.crisis_economics.abm.contracts.Contract;
 import eu.crisis_economics.abm.contracts.DepositHolder;
 import eu.crisis_economics.abm.contracts.Employer;
+import eu.crisis_economics.abm.contracts.EmploymentLedger;
 import eu.crisis_economics.abm.contracts.Labour;
 import eu.crisis_economics.abm.contracts.loans.Lender;
 import eu.crisis_economics.abm.contracts.loans.Loan;
@@ -206,6 +209,10 @@ public final class MacroFirm
          goodsAndProduction.selectGoodsAndLabourInputDemandsForProduction();
       }
       
+      /*
+       * Not an agent-local event: the pricing and production algorithms read 
+       * MacroFirm.getState(), which queries shared loan and goods market state.
+       */
       @SuppressWarnings("unused")   // Scheduled
       private void decideNextSellingPriceAndTargetProduction() {
          // Generate a new target production volume.
@@ -1328,7 +1335,9 @@ public final class MacroFirm
          labourWageSelectionAlgorithm;                      // Labour wage pricing algorithm
       
       private Bag
-         activeLabourOrders,
+         activeLabourOrders;
+      
+      private Set<Labour>
          labourAcquired;
       
       private double
@@ -1343,7 +1352,7 @@ public final class MacroFirm
          this.labourWageSelectionAlgorithm = labourWageSelectionAlgorithm;
          
          activeLabourOrders = new Bag();
-         labourAcquired = new Bag();
+         labourAcquired = Collections.newSetFromMap(new IdentityHashMap<Labour, Boolean>());
       }
       
       private void flushMemories() {
@@ -1402,12 +1411,14 @@ public final class MacroFirm
             System.err.println("MacroFirm.labour: [warning] zero demand for labour by this firm.");
       }
       
-      /** Remove a labour object. */
+      /** Install a labour object. The terms of the contract are recorded in the 
+       *  {@link EmploymentLedger}. */
       public void addLabourInstance(Labour labour) { 
          labourAcquired.add(labour); 
       }
       
-      /** Install a labour object. */
+      /** Remove a labour object. Returns {@code false} if the labour object was
+       *  not installed. */
       public boolean removeLabourInstance(Labour labour) {
          return labourAcquired.remove(labour);
       }
@@ -1419,12 +1430,12 @@ public final class MacroFirm
       
       /** Get the amount of labour employed now. */
       public double getLabourEmployedNow() {
-         double totalLabourAcquired = 0;
-         for(int i = 0; i< labourAcquired.size(); ++i) {
-            Labour labour = (Labour)labourAcquired.get(i);
-            totalLabourAcquired += labour.getQuantity();
-         }
-         return totalLabourAcquired;
+         return getEmploymentLedger().getLabourEmployedBy(MacroFirm.this);
+      }
+      
+      /** Get the ledger of active labour contracts. */
+      private EmploymentLedger getEmploymentLedger() {
+         return EmploymentLedger.forCurrentContext();
       }
       
       /** Get the labour desired for production. Note that some or all
@@ -2000,7 +2011,6 @@ public final class MacroFirm
     /** Add an instance of labour to this firm. */
     @Override
     public void addLabour(Labour labour) {
-       this.getLabourForce();
        labourAndWage.addLabourInstance(labour);
     }
     
@@ -115,7 +115,7 @@ public final class FollowAggregateMarketDemandTargetProductionAlgorithm
      * Get a random double in the range [0, 1).
      */
    private double getRandomUnitformDouble() {
-      return Simulation.getRunningModel().random.nextDouble();
+      return Simulation.random().nextDouble();
    }
    
    /**
@@ -25,10 +25,12 @@
 package eu.crisis_economics.abm.household;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
@@ -41,6 +43,7 @@ import eu.crisis_economics.abm.contracts.AllocationException;
 import eu.crisis_economics.abm.contracts.DepositHolder;
 import eu.crisis_economics.abm.contracts.DoubleEmploymentException;
 import eu.crisis_economics.abm.contracts.Employee;
+import eu.crisis_economics.abm.contracts.EmploymentLedger;
 import eu.crisis_economics.abm.contracts.InsufficientFundsException;
 import eu.crisis_economics.abm.contracts.Labour;
 import eu.crisis_economics.abm.fund.Fund;
@@ -60,6 +63,7 @@ import eu.crisis_economics.abm.markets.nonclearing.LabourMarketOrder;
 import eu.crisis_economics.abm.markets.nonclearing.Order;
 import eu.crisis_economics.abm.markets.nonclearing.OrderException;
 import eu.crisis_economics.abm.model.parameters.TimeseriesParameter;
+import eu.crisis_economics.abm.simulation.AgentLocalEvent;
 import eu.crisis_economics.abm.simulation.CustomSimulationCycleOrdering;
 import eu.crisis_economics.abm.simulation.NamedEventOrderings;
 import eu.crisis_economics.abm.simulation.Simulation;
@@ -112,6 +116,7 @@ public class MacroHousehold
       }
       
       @SuppressWarnings("unused") // Scheduled
+      @AgentLocalEvent
       private void consumptionBudgetDecision() {
          // Compute the next goods consumption budget.
          HouseholdDecisionRule consumptionBudgetAllocationAlgorithm =
@@ -410,8 +415,8 @@ public class MacroHousehold
       private Bag
          labourOrderList;                 // Bag (of SimpleLabourMarketOrder) active orders. 
       
-      private List<Labour>
-         labourEmployed;                  // List of active labour contracts.
+      private Set<Labour>
+         labourEmployed;                  // Set of active labour contracts.
       
       private HouseholdDecisionRule
          labourWageAlgorithm;             // Labour wage (unit ask price) selection algorithm.
@@ -435,7 +440,7 @@ public class MacroHousehold
          this.labourToOffer = labourToOffer;
          this.labourMarket = labourMarket;
          this.labourOrderList = new Bag();
-         this.labourEmployed = new LinkedList<Labour>();
+         this.labourEmployed = Collections.newSetFromMap(new IdentityHashMap<Labour, Boolean>());
          this.labourNotEmployed = labourToOffer.get();
          this.reservedLabourAmount = 0.;
          this.labourWageAlgorithm = labourWageAlgorithm;
@@ -534,7 +539,10 @@ public class MacroHousehold
          totalWagesReceivedThisCycle += totalPayment;
       }
       
-      // Record the establishment of a new labour contract.
+      /*
+       * Record the establishment of a new labour contract. The terms of the 
+       * contract are recorded in the EmploymentLedger.
+       */
       private void startNewLabourContract(Labour labour) {
          if(labour == null) return;
          labourEmployed.add(labour);
@@ -569,12 +577,7 @@ public class MacroHousehold
       
       /** Get the total amount of labour currently employed. */
       private double getTotalLabourCurrentlyEmployed() {
-         double totalLabourEmployedNow = 0.;
-         for(Object obj : labourEmployed) {
-            Labour labour = (Labour)obj;
-            totalLabourEmployedNow += labour.getQuantity();
-         }
-         return totalLabourEmployedNow;
+         return getEmploymentLedger().getLabourSuppliedBy(MacroHousehold.this);
       }
       
       /** Get the total wages received in this business cycle. */
@@ -584,16 +587,12 @@ public class MacroHousehold
       
       /** Get the (contract-weighted) mean labour wage received in this business cycle. */
       private double getMeanWagePerUnitLabourEmployed() {
-         double
-            totalLabourEmployedNow = 0.,
-            meanWage = 0.;
-         for(Object obj : labourEmployed) {
-            Labour labour = (Labour)obj;
-            totalLabourEmployedNow += labour.getQuantity();
-            meanWage += labour.getQuantity() * labour.getWage();
-         }
-         if(totalLabourEmployedNow == 0.) return 0.;
-         else return meanWage / totalLabourEmployedNow;
+         return getEmploymentLedger().getMeanWagePerUnitLabourPaidTo(MacroHousehold.this);
+      }
+      
+      /** Get the ledger of active labour contracts. */
+      private EmploymentLedger getEmploymentLedger() {
+         return EmploymentLedger.forCurrentContext();
       }
       
       /** Get the (contract-weighted) mean labour wage received in the last business cycle. */
@@ -643,11 +642,13 @@ public class MacroHousehold
             ++labourOrderIndex;
          }
          }
+         final List<Labour>
+            activeContracts = getEmploymentLedger().getContractsOfEmployee(MacroHousehold.this);
          result += 
-            "active labour contracts: " + (labourEmployed.size() == 0 ? "none." : "") + "\n";
+            "active labour contracts: " + (activeContracts.size() == 0 ? "none." : "") + "\n";
          {
          int labourContractIndex = 1;
-         for(Labour labour : labourEmployed) {
+         for(Labour labour : activeContracts) {
             result += String.format(
                "labour contract %3d, size: %16.10g, wage: %16.10g.\n",
                labourContractIndex, labour.getQuantity(), labour.getWage());
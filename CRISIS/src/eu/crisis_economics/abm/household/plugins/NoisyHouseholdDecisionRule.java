@@ -89,7 +89,7 @@ public final class NoisyHouseholdDecisionRule extends HouseholdDecisionRule {
    public double computeNext(final HouseholdState currentState) {
       final double
          baseValue = rule.computeNext(currentState),
-         noise = Simulation.getRunningModel().random.nextGaussian() * noiseAggressiveness,
+         noise = Simulation.random().nextGaussian() * noiseAggressiveness,
          clampedNoise = NumberUtil.clamp(noiseLowerBound, noise, noiseUpperBound),
          result = baseValue * (1. + clampedNoise);
       super.recordNewValue(result);
@@ -19,8 +19,6 @@
  */
 package eu.crisis_economics.abm.inventory.valuation;
 
-import java.util.List;
-
 import eu.crisis_economics.abm.HasAssets;
 import eu.crisis_economics.abm.inventory.goods.GoodsInventory;
 import eu.crisis_economics.abm.inventory.goods.DurableGoodsRepository;
@@ -66,9 +64,7 @@ public final class MarketPriceGoodsRepositoryValuation
          new MarketPriceInventoryValuation(new MarketPricePerUnitDelegate() {
             @Override
             public double getPricePerUnit() {
-               final List<Double>
-                  lastTradingPrices = market.getInstrument(key).getTradingPrices();
-               return lastTradingPrices.get(lastTradingPrices.size() - 1);
+               return market.getInstrument(key).getTradingPricesView().getLatest();
             }
          });
    }
@@ -28,11 +28,13 @@
 package eu.crisis_economics.abm.markets.clearing;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
@@ -42,11 +44,15 @@ import eu.crisis_economics.abm.bank.StrategyBank;
 import eu.crisis_economics.abm.contracts.loans.Borrower;
 import eu.crisis_economics.abm.contracts.loans.Lender;
 import eu.crisis_economics.abm.contracts.stocks.StockHolder;
+import eu.crisis_economics.abm.contracts.stocks.StockReleaser;
 import eu.crisis_economics.abm.firm.LoanStrategyFirm;
 import eu.crisis_economics.abm.fund.Fund;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.AbstractClearingMarket;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingAlgorithmMetrics;
 import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingInstrument;
 import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingMarket;
 import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingMarketParticipant;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ConcurrentClearingMarket;
 import eu.crisis_economics.abm.simulation.NamedEventOrderings;
 import eu.crisis_economics.abm.simulation.Simulation;
 import eu.crisis_economics.utilities.MapUtil;
@@ -77,6 +83,8 @@ public final class ClearingHouse {
     
     private Map<String, StockHolder>
        stockHolders;
+    private Map<String, Set<String>>
+       stockPurchaseOptIns;                        // Absent for unrestricted buyers
     private Map<String, Borrower>
        borrowers;
     private Map<String, Lender>
@@ -91,6 +99,9 @@ public final class ClearingHouse {
     private Map<String, ClearingMarketParticipant>
        allParticipants;
     
+    private ClearingMarketScheduler
+       scheduler;
+    
     /**
       * Create a {@link ClearingHouse} with no participants and no registered
       * {@link ClearingInstrument}{@code s}. <br><br>
@@ -104,12 +115,14 @@ public final class ClearingHouse {
     public ClearingHouse(){
        this.markets = new LinkedHashMap<String, ClearingMarket>();
        this.stockHolders = new LinkedHashMap<String, StockHolder>();
+       this.stockPurchaseOptIns = new HashMap<String, Set<String>>();
        this.borrowers = new LinkedHashMap<String, Borrower>();
        this.lenders = new LinkedHashMap<String, Lender>();
        this.firms = new LinkedHashMap<String, LoanStrategyFirm>();
        this.banks = new LinkedHashMap<String, StrategyBank>();
        this.funds = new LinkedHashMap<String, Fund>();
        this.allParticipants = new LinkedHashMap<String, ClearingMarketParticipant>();
+       this.scheduler = new ClearingMarketScheduler();
        
        scheduleSelf();
     }
@@ -130,12 +143,80 @@ public final class ClearingHouse {
     
     /**
       * Process all {@link ClearingMarket}{@code s} in the order they
-      * were installed.
+      * were installed. If more than one thread is available, the clearing 
+      * sessions of {@link ConcurrentClearingMarket}{@code s} with disjoint 
+      * participants are prepared concurrently (see {@link ClearingMarketScheduler}).
       */
     @SuppressWarnings("unused") // Scheduled
     private void processAllInstruments() {
-       for(final Entry<String, ClearingMarket> record : markets.entrySet())
-          record.getValue().process();
+       scheduler.processAll(markets.values());
+    }
+    
+    /**
+      * Set the number of threads used to process {@link ClearingMarket}{@code s}.
+      * By default, the number of threads is specified by the system property
+      * {@value ClearingMarketScheduler#NUMBER_OF_THREADS_PROPERTY}, or is 
+      * {@code 1} if this property is not set. A value of {@code 1} processes 
+      * markets in sequence.
+      * 
+      * @param numberOfThreads
+      *        The number of threads. This argument should be strictly positive.
+      */
+    public void setNumberOfMarketProcessingThreads(final int numberOfThreads) {
+       scheduler.setNumberOfThreads(numberOfThreads);
+    }
+    
+    /**
+      * Get the number of waves (groups of {@link ClearingMarket}{@code s} 
+      * processed together) in the most recent call to process all markets. With
+      * one thread, this is the number of markets.
+      */
+    public int getNumberOfMarketProcessingWaves() {
+       return scheduler.getNumberOfWaves();
+    }
+    
+    /**
+      * Get a summary of the {@link ClearingAlgorithmMetrics} of all clearing
+      * sessions to date. The summary contains one line for each {@link 
+      * AbstractClearingMarket} registered with this {@link ClearingHouse}, in the
+      * order in which markets were installed, and one line for all markets 
+      * combined. The exact details of the summary are subject to change, and 
+      * should not be regarded as fixed.
+      */
+    public String getClearingMetricsSummary() {
+       final StringBuilder result = new StringBuilder();
+       final ClearingAlgorithmMetrics total = new ClearingAlgorithmMetrics();
+       result.append(String.format(
+          "%-40s %8s %12s %14s %12s %12s %10s %8s  %s\n",
+          "Clearing Market", "Sessions", "Iterations", "Evaluations",
+          "Time (ms)", "Max Resid.", "Components", "Capped", "Algorithms"));
+       for(final AbstractClearingMarket market :
+           getMarketsOfType(AbstractClearingMarket.class)) {
+          final ClearingAlgorithmMetrics metrics = market.getCumulativeClearingMetrics();
+          appendMetricsSummaryLine(result, market.getMarketName(), metrics);
+          total.add(metrics);
+       }
+       appendMetricsSummaryLine(result, "[All Markets]", total);
+       return result.toString();
+    }
+    
+    private static void appendMetricsSummaryLine(
+       final StringBuilder result,
+       final String name,
+       final ClearingAlgorithmMetrics metrics
+       ) {
+       result.append(String.format(
+          "%-40s %8d %12d %14d %12.3f %12.4g %10d %8d  %s\n",
+          name,
+          metrics.getNumberOfSessions(),
+          metrics.getNumberOfIterations(),
+          metrics.getNumberOfResponseEvaluations(),
+          metrics.getWallTimeMillis(),
+          metrics.getMaximumFinalResidual(),
+          metrics.getNumberOfComponents(),
+          metrics.getNumberOfIterationCapStops(),
+          metrics.getAlgorithmSelectionsDescription()
+          ));
     }
     
     /**
@@ -191,6 +272,55 @@ public final class ClearingHouse {
        allParticipants.put(stockHolder.getUniqueName(), stockHolder);
     }
     
+    /**
+      * Add a {@link StockHolder} to this {@link ClearingHouse}, which opts in to
+      * buy shares only in the named {@link StockReleaser}{@code s}. Stock markets
+      * for other {@link StockReleaser}{@code s} query this participant only if
+      * it already holds shares in the {@link StockReleaser}, so that it can sell 
+      * them. If the {@link StockHolder} has already been added, no action is 
+      * taken.<br><br>
+      * 
+      * Stock markets whose participants do not overlap can be prepared 
+      * concurrently (see {@link ClearingMarketScheduler}). Stock holders added by
+      * {@link #addStockMarketParticipant(StockHolder)} are queried by every stock
+      * market.
+      * 
+      * @param stockHolder
+      *        The {@link StockHolder} to add.
+      * @param stockReleaserNames
+      *        The unique names of the {@link StockReleaser}{@code s} in which the
+      *        {@link StockHolder} may buy shares. This argument should not be 
+      *        {@code null}.
+      */
+    public <T extends StockHolder & ClearingMarketParticipant>
+       void addStockMarketParticipant(
+       final T stockHolder,
+       final Collection<String> stockReleaserNames
+       ) {
+       Preconditions.checkNotNull(stockReleaserNames);
+       if(stockHolders.containsKey(stockHolder.getUniqueName())) return;
+       addStockMarketParticipant(stockHolder);
+       stockPurchaseOptIns.put(
+          stockHolder.getUniqueName(), new HashSet<String>(stockReleaserNames));
+    }
+    
+    /**
+      * Does the named stock market participant opt in to buy shares in the named
+      * {@link StockReleaser}? This method returns {@code true} for participants
+      * added by {@link #addStockMarketParticipant(StockHolder)}, and {@code false}
+      * for names which are not stock market participants of this {@link 
+      * ClearingHouse}.
+      */
+    public boolean isStockPurchaseOptIn(
+       final String stockHolderName,
+       final String stockReleaserName
+       ) {
+       if(!stockHolders.containsKey(stockHolderName))
+          return false;
+       final Set<String> optIns = stockPurchaseOptIns.get(stockHolderName);
+       return (optIns == null || optIns.contains(stockReleaserName));
+    }
+    
     /**
       * Get a list of {@link StockHolder}{@code s} known to this {@link ClearingHouse}.
       * Adding or removing elements from the return value will not affect
@@ -207,6 +337,7 @@ public final class ClearingHouse {
       */
    public <T extends StockHolder & ClearingMarketParticipant>
       boolean removeStockMarketParticipant(final T stockHolder) {
+      stockPurchaseOptIns.remove(stockHolder.getUniqueName());
       return (stockHolders.remove(stockHolder.getUniqueName()) != null);
    }
 
@@ -391,6 +522,7 @@ public final class ClearingHouse {
       final boolean result =
          (allParticipants.remove(participant.getUniqueName()) != null);
       stockHolders.remove(participant.getUniqueName());
+      stockPurchaseOptIns.remove(participant.getUniqueName());
       borrowers.remove(participant.getUniqueName());
       lenders.remove(participant.getUniqueName());
       firms.remove(participant.getUniqueName());
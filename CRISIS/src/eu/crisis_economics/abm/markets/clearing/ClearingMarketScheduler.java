@@ -0,0 +1,182 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingMarket;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ConcurrentClearingMarket;
+import eu.crisis_economics.abm.simulation.SimulationContext;
+import eu.crisis_economics.abm.simulation.WorkerPool;
+
+/**
+  * A scheduler for the {@link ClearingMarket}{@code s} of a {@link ClearingHouse}.
+  * <br><br>
+  * 
+  * Markets are processed in the order in which they were installed. With one 
+  * thread, each market is processed in full before the next market begins. With 
+  * more than one thread, consecutive {@link ConcurrentClearingMarket}{@code s} are
+  * grouped into waves. A market joins the current wave if its footprint (see 
+  * {@link ConcurrentClearingMarket#getFootprint()}) is disjoint from the footprints
+  * of all markets already in the wave; otherwise, and for every market which is not
+  * a {@link ConcurrentClearingMarket}, a new wave is started. The markets in each 
+  * wave are prepared concurrently, and are then committed one at a time in 
+  * installation order.<br><br>
+  * 
+  * Markets in the same wave share no participants or resources, and waves 
+  * preserve installation order. The outcome of each clearing session, and the 
+  * order in which contracts are created, are therefore identical to sequential
+  * processing. Worker threads prepare markets within the {@link SimulationContext}
+  * of the calling thread.
+  * 
+  * @author phillips
+  */
+final class ClearingMarketScheduler {
+   
+   static final String
+      NUMBER_OF_THREADS_PROPERTY =
+         "eu.crisis_economics.abm.markets.clearing.clearingMarketThreads";
+   
+   private final WorkerPool
+      workers;
+   private int
+      numberOfWaves;
+   
+   /**
+     * Create a {@link ClearingMarketScheduler} with the number of threads specified 
+     * by the system property {@value #NUMBER_OF_THREADS_PROPERTY} (by default, 
+     * {@code 1}).
+     */
+   ClearingMarketScheduler() {
+      this(Math.max(1, Integer.getInteger(NUMBER_OF_THREADS_PROPERTY, 1)));
+   }
+   
+   /**
+     * Create a {@link ClearingMarketScheduler}.
+     * 
+     * @param numberOfThreads
+     *        The number of threads (including the calling thread) used to prepare
+     *        markets. This argument should be strictly positive. A value of 
+     *        {@code 1} processes markets in sequence.
+     */
+   ClearingMarketScheduler(final int numberOfThreads) {
+      Preconditions.checkArgument(numberOfThreads > 0);
+      this.workers = new WorkerPool("Clearing Market Worker", numberOfThreads);
+   }
+   
+   /**
+     * Process all markets in the specified collection, in iteration order.
+     */
+   void processAll(final Iterable<ClearingMarket> markets) {
+      numberOfWaves = 0;
+      if(getNumberOfThreads() == 1) {
+         for(final ClearingMarket market : markets) {
+            market.process();
+            ++numberOfWaves;
+         }
+         return;
+      }
+      final List<ConcurrentClearingMarket> wave = new ArrayList<ConcurrentClearingMarket>();
+      final Set<String> waveFootprint = new HashSet<String>();
+      for(final ClearingMarket market : markets) {
+         if(market instanceof ConcurrentClearingMarket) {
+            final ConcurrentClearingMarket concurrentMarket = (ConcurrentClearingMarket) market;
+            final Set<String> footprint = concurrentMarket.getFootprint();
+            if(!Collections.disjoint(waveFootprint, footprint))
+               processWave(wave, waveFootprint);
+            wave.add(concurrentMarket);
+            waveFootprint.addAll(footprint);
+         }
+         else {
+            processWave(wave, waveFootprint);
+            market.process();
+            ++numberOfWaves;
+         }
+      }
+      processWave(wave, waveFootprint);
+   }
+   
+   /*
+    * Prepare all markets in the wave concurrently, and then commit each market
+    * in order. The wave is cleared.
+    */
+   private void processWave(
+      final List<ConcurrentClearingMarket> wave,
+      final Set<String> waveFootprint
+      ) {
+      if(wave.isEmpty())
+         return;
+      ++numberOfWaves;
+      if(wave.size() == 1)
+         wave.get(0).process();
+      else {
+         final List<Runnable> tasks = new ArrayList<Runnable>();
+         for(final List<ConcurrentClearingMarket> task : 
+             WorkerPool.partition(wave, getNumberOfThreads()))
+            tasks.add(new Runnable() {
+               @Override
+               public void run() {
+                  prepareAll(task);
+               }
+            });
+         workers.executeAll(tasks);
+         for(final ConcurrentClearingMarket market : wave)
+            market.commit();
+      }
+      wave.clear();
+      waveFootprint.clear();
+   }
+   
+   private static void prepareAll(final List<ConcurrentClearingMarket> markets) {
+      for(final ConcurrentClearingMarket market : markets)
+         market.prepare();
+   }
+   
+   int getNumberOfThreads() {
+      return workers.getNumberOfThreads();
+   }
+   
+   /**
+     * Set the number of threads (including the calling thread) used to prepare
+     * markets. This argument should be strictly positive.
+     */
+   void setNumberOfThreads(final int numberOfThreads) {
+      workers.setNumberOfThreads(numberOfThreads);
+   }
+   
+   /**
+     * Get the number of waves (groups of markets processed together) in the 
+     * most recent call to {@link #processAll(Iterable)}.
+     */
+   int getNumberOfWaves() {
+      return numberOfWaves;
+   }
+   
+   @Override
+   public String toString() {
+      return "Clearing Market Scheduler, threads: " + getNumberOfThreads() 
+         + ", waves: " + numberOfWaves + ".";
+   }
+}
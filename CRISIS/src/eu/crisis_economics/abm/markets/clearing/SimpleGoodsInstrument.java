@@ -20,9 +20,7 @@
  */
 package eu.crisis_economics.abm.markets.clearing;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -32,8 +30,11 @@ import java.security.InvalidAlgorithmParameterException;
 
 import com.google.common.base.Preconditions;
 
+import eu.crisis_economics.abm.algorithms.matching.IndexedMatchingAlgorithm;
+import eu.crisis_economics.abm.algorithms.matching.MatchBuffer;
 import eu.crisis_economics.abm.algorithms.matching.Matching;
 import eu.crisis_economics.abm.algorithms.matching.MatchingAlgorithm;
+import eu.crisis_economics.abm.algorithms.matching.MatchingWorkspace;
 import eu.crisis_economics.abm.algorithms.matching.SimpleNode;
 import eu.crisis_economics.abm.contracts.settlements.GoodsForCashTransaction;
 import eu.crisis_economics.abm.markets.GoodsBuyer;
@@ -42,6 +43,7 @@ import eu.crisis_economics.abm.markets.Party;
 import eu.crisis_economics.abm.markets.clearing.SimpleGoodsMarketOrder.Side;
 import eu.crisis_economics.abm.simulation.NamedEventOrderings;
 import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.utilities.DoubleRingBuffer;
 
 /**
   * A simple instrument for trading (durable) goods.<br><br>
@@ -86,7 +88,7 @@ public final class SimpleGoodsInstrument {
       bidOrders,
       askOrders;
    
-   private Deque<Double>
+   private final DoubleRingBuffer
       historicalTradingPricesSeries,
       historicalTradingVolumeSeries;
    
@@ -100,6 +102,12 @@ public final class SimpleGoodsInstrument {
    private MatchingAlgorithm
       matchingAlgorithm;
    
+   private final MatchingWorkspace
+      matchingWorkspace;
+   
+   private final MatchBuffer
+      matchBuffer;
+   
    /**
      * Create a {@link SimpleGoodsInstrument} object. See also {@link SimpleGoodsInstrument}.
      * 
@@ -118,9 +126,13 @@ public final class SimpleGoodsInstrument {
       this.registeredSellers = new LinkedHashMap<String, GoodsSeller>();
       this.bidOrders = new LinkedHashMap<String, SimpleGoodsMarketOrder>();
       this.askOrders = new LinkedHashMap<String, SimpleGoodsMarketOrder>();
-      this.historicalTradingPricesSeries = new ArrayDeque<Double>();
-      this.historicalTradingVolumeSeries = new ArrayDeque<Double>();
+      this.historicalTradingPricesSeries =
+         new DoubleRingBuffer(TRADE_MEMORY_LENGTH_NUMBER_OF_SESSIONS);
+      this.historicalTradingVolumeSeries =
+         new DoubleRingBuffer(TRADE_MEMORY_LENGTH_NUMBER_OF_SESSIONS);
       this.matchingAlgorithm = matchingAlgorithm;
+      this.matchingWorkspace = new MatchingWorkspace();
+      this.matchBuffer = new MatchBuffer();
       this.lastMarketShareBySeller = new HashMap<String, Double>();
       
       historicalTradingPricesSeries.add(0.);
@@ -176,7 +188,25 @@ public final class SimpleGoodsInstrument {
       lastMarketShareBySeller.clear();
    }
    
+   /**
+     * Match bid orders to ask orders, and execute all resulting trades. If the
+     * {@link MatchingAlgorithm} of this instrument is an {@link 
+     * IndexedMatchingAlgorithm}, orders are matched in a {@link MatchingWorkspace}
+     * which is reused for every session. This method is equivalent to {@link 
+     * #prepareMatching()}, {@link #computeMatching()} and {@link #commitMatching()}
+     * in sequence.
+     */
    public void matchOrders() {
+      if(matchingAlgorithm instanceof IndexedMatchingAlgorithm) {
+         prepareMatching();
+         computeMatching();
+         commitMatching();
+      }
+      else
+         matchOrdersByNodes();
+   }
+   
+   private void matchOrdersByNodes() {
       List<SimpleNode> 
          sellers = new ArrayList<SimpleNode>(), 
          buyers = new ArrayList<SimpleNode>();
@@ -205,37 +235,113 @@ public final class SimpleGoodsInstrument {
             
          if(trade.matchAmount < 1.e-9) continue; // Weak Epsilon Test
          
-         setupContract(
-            (GoodsBuyer)buyer.getParty(), (GoodsSeller)seller.getParty(),
-            trade.matchAmount, trade.matchCost
-            );
+         commitTrade(buyer, seller, trade.matchAmount, trade.matchCost);
          
-         seller.execute(trade.matchAmount, trade.matchCost);
-         buyer.execute(trade.matchAmount, trade.matchCost);
+         meanTradeUnitPrice += trade.matchAmount * trade.matchCost;
+         totalTradeVolume += trade.matchAmount;
+      }
+      
+      recordTradeHistory(meanTradeUnitPrice, totalTradeVolume);
+   }
+   
+   /**
+     * Copy a snapshot of all orders to the {@link MatchingWorkspace} of this 
+     * instrument, and draw a seed for the workspace from the simulation random
+     * number generator. This method should be called on the simulation thread.
+     */
+   void prepareMatching() {
+      matchingWorkspace.clear();
+      matchBuffer.clear();
+      for(final SimpleGoodsMarketOrder order : bidOrders.values()) {
+         matchingWorkspace.addLeftNode(order.getPrice(), order.getOpenSize(), order);
+         aggreateDemandNow += order.getOpenSize();
+      }
+      for(final SimpleGoodsMarketOrder order : askOrders.values())
+         matchingWorkspace.addRightNode(order.getPrice(), order.getOpenSize(), order);
+      matchingWorkspace.setSeedFrom(Simulation.getSimState().random);
+   }
+   
+   /**
+     * Match the order snapshot taken by {@link #prepareMatching()}. This method 
+     * modifies no orders, no participants and no other instrument, and can 
+     * therefore be called concurrently for distinct instruments, provided that
+     * the {@link IndexedMatchingAlgorithm} of this instrument is safe for 
+     * concurrent use.
+     */
+   void computeMatching() {
+      try {
+         ((IndexedMatchingAlgorithm) matchingAlgorithm).matchNodes(
+            matchingWorkspace, matchBuffer);
+      } catch (final InvalidAlgorithmParameterException e) {                    // Failed. Abandon.
+         matchBuffer.clear();
+      }
+   }
+   
+   /**
+     * Execute all trades identified by {@link #computeMatching()}, in the order in 
+     * which they were identified, and record trade statistics for this session. 
+     * This method should be called on the simulation thread.
+     */
+   void commitMatching() {
+      double
+         meanTradeUnitPrice = 0,
+         totalTradeVolume = 0;
+      
+      // Commit
+      for(int i = 0; i< matchBuffer.size(); ++i) {
+         final SimpleGoodsMarketOrder
+            seller = (SimpleGoodsMarketOrder)
+               matchingWorkspace.getRightObjectReference(matchBuffer.getRightIndex(i)),
+            buyer = (SimpleGoodsMarketOrder)
+               matchingWorkspace.getLeftObjectReference(matchBuffer.getLeftIndex(i));
+         final double
+            matchAmount = matchBuffer.getMatchAmount(i),
+            matchCost = matchBuffer.getMatchCost(i);
          
-         {
-         final String
-            sellerName = seller.getParty().getUniqueName();
+         if(matchAmount < 1.e-9) continue; // Weak Epsilon Test
          
-         if(lastMarketShareBySeller.containsKey(sellerName))
-            lastMarketShareBySeller.put(sellerName,
-               lastMarketShareBySeller.get(sellerName) + trade.matchAmount);
-         else 
-            lastMarketShareBySeller.put(sellerName, trade.matchAmount);
-         }
+         commitTrade(buyer, seller, matchAmount, matchCost);
          
-         meanTradeUnitPrice += trade.matchAmount * trade.matchCost;
-         totalTradeVolume += trade.matchAmount;
+         meanTradeUnitPrice += matchAmount * matchCost;
+         totalTradeVolume += matchAmount;
       }
+      matchingWorkspace.clear();                                               // Release orders
+      matchBuffer.clear();
       
+      recordTradeHistory(meanTradeUnitPrice, totalTradeVolume);
+   }
+   
+   private void commitTrade(
+      final SimpleGoodsMarketOrder buyer,
+      final SimpleGoodsMarketOrder seller,
+      final double matchAmount,
+      final double matchCost
+      ) {
+      setupContract(
+         (GoodsBuyer)buyer.getParty(), (GoodsSeller)seller.getParty(),
+         matchAmount, matchCost
+         );
+      
+      seller.execute(matchAmount, matchCost);
+      buyer.execute(matchAmount, matchCost);
+      
+      final String
+         sellerName = seller.getParty().getUniqueName();
+      
+      if(lastMarketShareBySeller.containsKey(sellerName))
+         lastMarketShareBySeller.put(sellerName,
+            lastMarketShareBySeller.get(sellerName) + matchAmount);
+      else 
+         lastMarketShareBySeller.put(sellerName, matchAmount);
+   }
+   
+   private void recordTradeHistory(
+      double meanTradeUnitPrice,
+      final double totalTradeVolume
+      ) {
       meanTradeUnitPrice = (totalTradeVolume == 0. ? 0. : meanTradeUnitPrice / totalTradeVolume);
       historicalTradingPricesSeries.add(meanTradeUnitPrice);
       historicalTradingVolumeSeries.add(totalTradeVolume);
-      
-      if(historicalTradingPricesSeries.size() > TRADE_MEMORY_LENGTH_NUMBER_OF_SESSIONS) {
-         historicalTradingPricesSeries.pop();
-         historicalTradingVolumeSeries.pop();
-      }
    }
       
    private void setupContract(
@@ -371,7 +477,17 @@ public final class SimpleGoodsInstrument {
      * affect this object. The first element of the list is the oldest such record.
      */
    public List<Double> getTradingPrices() {
-      return new ArrayList<Double>(historicalTradingPricesSeries);
+      return new ArrayList<Double>(historicalTradingPricesSeries.getReadOnlyView());
+   }
+   
+   /**
+     * Get a read-only view of the historical trading prices returned by {@link 
+     * #getTradingPrices()}. The view is not a copy, and reflects subsequent 
+     * processing sessions. The view also provides the last, mean, minimum and 
+     * maximum trading prices without boxing.
+     */
+   public DoubleRingBuffer.ReadOnlyView getTradingPricesView() {
+      return historicalTradingPricesSeries.getReadOnlyView();
    }
    
    /** 
@@ -382,7 +498,16 @@ public final class SimpleGoodsInstrument {
      * affect this object. The first element of the list is the oldest such record.
      */
    public List<Double> getTradingVolumes() { 
-      return new ArrayList<Double>(historicalTradingVolumeSeries); 
+      return new ArrayList<Double>(historicalTradingVolumeSeries.getReadOnlyView()); 
+   }
+   
+   /**
+     * Get a read-only view of the historical trading volumes returned by {@link 
+     * #getTradingVolumes()}. The view is not a copy, and reflects subsequent 
+     * processing sessions.
+     */
+   public DoubleRingBuffer.ReadOnlyView getTradingVolumesView() {
+      return historicalTradingVolumeSeries.getReadOnlyView();
    }
    
    /** 
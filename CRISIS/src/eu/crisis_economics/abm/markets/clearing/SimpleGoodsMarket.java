@@ -28,6 +28,7 @@ import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+import eu.crisis_economics.abm.algorithms.matching.IndexedMatchingAlgorithm;
 import eu.crisis_economics.abm.algorithms.matching.MatchingAlgorithm;
 import eu.crisis_economics.abm.contracts.AllocationException;
 import eu.crisis_economics.abm.contracts.GoodHolder;
@@ -38,10 +39,36 @@ import eu.crisis_economics.abm.markets.Party;
 import eu.crisis_economics.abm.markets.nonclearing.OrderException;
 import eu.crisis_economics.abm.simulation.NamedEventOrderings;
 import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.abm.simulation.WorkerPool;
 import eu.crisis_economics.utilities.StateVerifier;
 
+/**
+  * A market for goods, with one {@link SimpleGoodsInstrument} for each type of goods.
+  * <br><br>
+  * 
+  * If the {@link MatchingAlgorithm} of this market is an {@link 
+  * IndexedMatchingAlgorithm}, all instruments are matched in two phases. In the
+  * first phase, a snapshot of the orders of every instrument is taken and each 
+  * instrument computes its trades. This phase modifies no orders and no market 
+  * participants, and is distributed over several threads if the system property
+  * {@value #NUMBER_OF_THREADS_PROPERTY} (see also {@link 
+  * #setNumberOfMatchingThreads(int)}) is greater than {@code 1}. In the second 
+  * phase, the trades of each instrument are committed on the calling thread, one
+  * instrument at a time, in a fixed order. The outcome does not depend on the 
+  * number of threads. The {@link MatchingAlgorithm} must be safe for concurrent 
+  * use with distinct workspaces if more than one thread is used.<br><br>
+  * 
+  * Otherwise, each instrument is matched and committed in full before the next
+  * instrument is processed.
+  * 
+  * @author phillips
+  */
 public class SimpleGoodsMarket implements Iterable<SimpleGoodsInstrument> {
     
+    static final String
+       NUMBER_OF_THREADS_PROPERTY =
+          "eu.crisis_economics.abm.markets.clearing.goodsMarketMatchingThreads";
+    
     private Map<String, SimpleGoodsInstrument>
        instruments;
     
@@ -51,6 +78,9 @@ public class SimpleGoodsMarket implements Iterable<SimpleGoodsInstrument> {
     private MatchingAlgorithm
        matchingAlgorithm;
     
+    private final WorkerPool
+       workers;
+    
     @Inject
     public SimpleGoodsMarket(
        final GoodsClassifier goodsClassifier,
@@ -61,6 +91,8 @@ public class SimpleGoodsMarket implements Iterable<SimpleGoodsInstrument> {
        this.instruments = new HashMap<String, SimpleGoodsInstrument>();
        this.goodsClassifier = goodsClassifier;
        this.matchingAlgorithm = matchingAlgorithm;
+       this.workers = new WorkerPool("Goods Market Matching Worker",
+          Math.max(1, Integer.getInteger(NUMBER_OF_THREADS_PROPERTY, 1)));
        
        ScheduleSelf();
     }
@@ -74,10 +106,65 @@ public class SimpleGoodsMarket implements Iterable<SimpleGoodsInstrument> {
            NamedEventOrderings.GOODS_CONSUMPTION_MARKET_MATCHING);
     }
     
-    @SuppressWarnings("unused") // Scheduled
-    private void matchAllOrders() {
-       for (final SimpleGoodsInstrument instrument : instruments.values())
-          instrument.matchOrders();
+    void matchAllOrders() {
+       if(!(matchingAlgorithm instanceof IndexedMatchingAlgorithm)) {
+          for (final SimpleGoodsInstrument instrument : instruments.values())
+             instrument.matchOrders();
+          return;
+       }
+       final List<SimpleGoodsInstrument>
+          session = new ArrayList<SimpleGoodsInstrument>(instruments.values());
+       for(final SimpleGoodsInstrument instrument : session)
+          instrument.prepareMatching();
+       computeAllMatchings(session);
+       for(final SimpleGoodsInstrument instrument : session)
+          instrument.commitMatching();
+    }
+    
+    /*
+     * Compute the matchings of all instruments. Instruments are divided into 
+     * contiguous blocks, one block per thread. The calling thread processes the
+     * first block. Worker threads run within the SimulationContext of the calling
+     * thread.
+     */
+    private void computeAllMatchings(final List<SimpleGoodsInstrument> session) {
+       final List<Runnable> tasks = new ArrayList<Runnable>();
+       for(final List<SimpleGoodsInstrument> task :
+           WorkerPool.partition(session, getNumberOfMatchingThreads()))
+          tasks.add(new Runnable() {
+             @Override
+             public void run() {
+                computeMatchings(task);
+             }
+          });
+       workers.executeAll(tasks);
+    }
+    
+    private static void computeMatchings(final List<SimpleGoodsInstrument> instruments) {
+       for(final SimpleGoodsInstrument instrument : instruments)
+          instrument.computeMatching();
+    }
+    
+    /**
+      * Set the number of threads used to compute goods instrument matchings. By
+      * default, the number of threads is specified by the system property 
+      * {@value #NUMBER_OF_THREADS_PROPERTY}, or is {@code 1} if this property is 
+      * not set. The outcome of goods market sessions does not depend on this 
+      * value.
+      * 
+      * @param numberOfThreads
+      *        The number of threads (including the calling thread). This argument
+      *        should be strictly positive.
+      */
+    public void setNumberOfMatchingThreads(final int numberOfThreads) {
+       workers.setNumberOfThreads(numberOfThreads);
+    }
+    
+    /**
+      * Get the number of threads used to compute goods instrument matchings.
+      */
+    public int getNumberOfMatchingThreads() {
+       return workers.getNumberOfThreads();
     }
     
     @SuppressWarnings("unused") // Scheduled
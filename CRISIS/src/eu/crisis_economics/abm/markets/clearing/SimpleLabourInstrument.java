@@ -21,7 +21,6 @@ package eu.crisis_economics.abm.markets.clearing;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +32,8 @@ import eu.crisis_economics.abm.contracts.DoubleEmploymentException;
 import eu.crisis_economics.abm.contracts.Employee;
 import eu.crisis_economics.abm.contracts.Employer;
 import eu.crisis_economics.abm.contracts.Labour;
+import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.utilities.DoubleRingBuffer;
 import eu.crisis_economics.utilities.EmpiricalDistribution;
 
 /**
@@ -42,6 +43,9 @@ import eu.crisis_economics.utilities.EmpiricalDistribution;
   */
 public final class SimpleLabourInstrument {
    
+   private static final int
+      TRADE_MEMORY_LENGTH_NUMBER_OF_SESSIONS = 50;
+   
    private final int 
       labourContractMaturity;
    
@@ -56,14 +60,19 @@ public final class SimpleLabourInstrument {
       totalLabourSupply,
       totalLabourDemand;
    
-   private ArrayList<Double> 
-      tradingPricesSeries;
-   private ArrayList<Integer>
+   private final DoubleRingBuffer
+      tradingPricesSeries,
       tradingVolumeSeries;
    
    MatchingAlgorithm                                  // Employee-Employer Matching Strategy
       matchingAlgorithm;
    
+   private final MatchingWorkspace
+      matchingWorkspace;
+   
+   private final MatchBuffer
+      matchBuffer;
+   
    /**
      * Create a {@link SimpleLabourInstrument} with a custom contract maturity and
      * a custom employer/employee {@link MatchingAlgorithm}.
@@ -87,16 +96,28 @@ public final class SimpleLabourInstrument {
       this.supplyWeightedMeanAskPrice = new EmpiricalDistribution(50);
       this.totalLabourSupply = new EmpiricalDistribution(50);
       this.totalLabourDemand = new EmpiricalDistribution(50);
-      this.tradingPricesSeries = new ArrayList<Double>();
-      this.tradingVolumeSeries = new ArrayList<Integer>();
+      this.tradingPricesSeries = new DoubleRingBuffer(TRADE_MEMORY_LENGTH_NUMBER_OF_SESSIONS);
+      this.tradingVolumeSeries = new DoubleRingBuffer(TRADE_MEMORY_LENGTH_NUMBER_OF_SESSIONS);
       this.labourContractMaturity = labourContractMaturity;
       this.matchingAlgorithm = matchingAlgorithm;
+      this.matchingWorkspace = new MatchingWorkspace();
+      this.matchBuffer = new MatchBuffer();
    }
    
    /** 
-     * Match {@link Employer}{@code s} to {@link Employee}{@code s}.
+     * Match {@link Employer}{@code s} to {@link Employee}{@code s}. If the {@link 
+     * MatchingAlgorithm} of this instrument is an {@link IndexedMatchingAlgorithm},
+     * orders are matched in a {@link MatchingWorkspace} which is reused for every
+     * session.
      */
    public void matchOrders() {
+      if(matchingAlgorithm instanceof IndexedMatchingAlgorithm)
+         matchOrdersInWorkspace((IndexedMatchingAlgorithm) matchingAlgorithm);
+      else
+         matchOrdersByNodes();
+   }
+   
+   private void matchOrdersByNodes() {
       // Call a matching algorithm
       final List<SimpleNode> 
          sellers = new ArrayList<SimpleNode>(), 
@@ -121,14 +142,7 @@ public final class SimpleLabourInstrument {
       try {
          match = matchingAlgorithm.matchNodes(sellers, buyers);
       } catch (final InvalidAlgorithmParameterException e) {
-         final String errMsg = 
-            "SimpleLabourMarketMatchingAlgorithm.matchParties: labour contracts matching" + 
-            " algorithm raised a fatal algorithm parameter exception. Labour market " + 
-            "processing cannot proceed. This behaviour is not expected and is indicative " +
-            "of a simulation error. Cause details follow: " + 
-            e.getMessage();
-         System.err.println(errMsg);
-         System.err.flush();
+         reportMatchingFailure(e);
          // Abandon
          match = new Matching.Builder().build();
       }
@@ -136,6 +150,7 @@ public final class SimpleLabourInstrument {
       // Commit labour contracts
       double
          employedLabourVolumeNow = 0,
+         totalWageBillNow = 0.,
          demandWeightedMeanBidPriceNow = 0.,
          supplyWeightedMeanAskPriceNow = 0.;
       for (Matching.OneToOneMatch trade : match) {
@@ -145,25 +160,125 @@ public final class SimpleLabourInstrument {
             buyOrder = 
                (SimpleLabourMarketOrder)trade.rightNode.getObjectReference();
             
-            setupContract(
-               (Employer) buyOrder.getParty(),
-               (Employee) sellerOrder.getParty(),
-               trade.matchAmount,
-               buyOrder.getPrice(),
-               sellerOrder.getPrice(),
-               trade.matchCost
-               );
+            commitTrade(sellerOrder, buyOrder, trade.matchAmount, trade.matchCost);
             
             employedLabourVolumeNow += trade.matchAmount;
+            totalWageBillNow += trade.matchAmount * trade.matchCost;
             demandWeightedMeanBidPriceNow +=
                trade.matchAmount * buyOrder.getPrice();
             supplyWeightedMeanAskPriceNow +=
                trade.matchAmount * sellerOrder.getPrice();
-            
-            sellerOrder.decrementOpenSize(trade.matchAmount);
-            buyOrder.decrementOpenSize(trade.matchAmount);
       }
       
+      recordSession(
+         totalLabourSupplyNow,
+         totalLabourDemandNow,
+         employedLabourVolumeNow,
+         totalWageBillNow,
+         demandWeightedMeanBidPriceNow,
+         supplyWeightedMeanAskPriceNow
+         );
+   }
+   
+   private void matchOrdersInWorkspace(final IndexedMatchingAlgorithm algorithm) {
+      matchingWorkspace.clear();
+      matchBuffer.clear();
+      double 
+         totalLabourSupplyNow = 0.,
+         totalLabourDemandNow = 0.;
+      for (SimpleLabourMarketOrder order : bidOrders.values()) {
+         totalLabourDemandNow += order.getOpenSize();
+         matchingWorkspace.addRightNode(order.getPrice(), order.getOpenSize(), order);
+      }
+      for (SimpleLabourMarketOrder order : askOrders.values()) {
+         totalLabourSupplyNow += order.getOpenSize();
+         matchingWorkspace.addLeftNode(order.getPrice(), order.getOpenSize(), order);
+      }
+      totalLabourSupply.add(totalLabourSupplyNow);
+      totalLabourDemand.add(totalLabourDemandNow);
+      
+      matchingWorkspace.setSeedFrom(Simulation.getSimState().random);
+      try {
+         algorithm.matchNodes(matchingWorkspace, matchBuffer);
+      } catch (final InvalidAlgorithmParameterException e) {
+         reportMatchingFailure(e);
+         // Abandon
+         matchBuffer.clear();
+      }
+      
+      // Commit labour contracts
+      double
+         employedLabourVolumeNow = 0,
+         totalWageBillNow = 0.,
+         demandWeightedMeanBidPriceNow = 0.,
+         supplyWeightedMeanAskPriceNow = 0.;
+      for (int i = 0; i< matchBuffer.size(); ++i) {
+         final SimpleLabourMarketOrder
+            sellerOrder = (SimpleLabourMarketOrder)
+               matchingWorkspace.getLeftObjectReference(matchBuffer.getLeftIndex(i)),
+            buyOrder = (SimpleLabourMarketOrder)
+               matchingWorkspace.getRightObjectReference(matchBuffer.getRightIndex(i));
+         final double
+            matchAmount = matchBuffer.getMatchAmount(i);
+         
+         commitTrade(sellerOrder, buyOrder, matchAmount, matchBuffer.getMatchCost(i));
+         
+         employedLabourVolumeNow += matchAmount;
+         totalWageBillNow += matchAmount * matchBuffer.getMatchCost(i);
+         demandWeightedMeanBidPriceNow += matchAmount * buyOrder.getPrice();
+         supplyWeightedMeanAskPriceNow += matchAmount * sellerOrder.getPrice();
+      }
+      matchingWorkspace.clear();                                               // Release orders
+      matchBuffer.clear();
+      
+      recordSession(
+         totalLabourSupplyNow,
+         totalLabourDemandNow,
+         employedLabourVolumeNow,
+         totalWageBillNow,
+         demandWeightedMeanBidPriceNow,
+         supplyWeightedMeanAskPriceNow
+         );
+   }
+   
+   private void reportMatchingFailure(final InvalidAlgorithmParameterException e) {
+      final String errMsg = 
+         "SimpleLabourMarketMatchingAlgorithm.matchParties: labour contracts matching" + 
+         " algorithm raised a fatal algorithm parameter exception. Labour market " + 
+         "processing cannot proceed. This behaviour is not expected and is indicative " +
+         "of a simulation error. Cause details follow: " + 
+         e.getMessage();
+      System.err.println(errMsg);
+      System.err.flush();
+   }
+   
+   private void commitTrade(
+      final SimpleLabourMarketOrder sellerOrder,
+      final SimpleLabourMarketOrder buyOrder,
+      final double matchAmount,
+      final double matchCost
+      ) {
+      setupContract(
+         (Employer) buyOrder.getParty(),
+         (Employee) sellerOrder.getParty(),
+         matchAmount,
+         buyOrder.getPrice(),
+         sellerOrder.getPrice(),
+         matchCost
+         );
+      
+      sellerOrder.decrementOpenSize(matchAmount);
+      buyOrder.decrementOpenSize(matchAmount);
+   }
+   
+   private void recordSession(
+      final double totalLabourSupplyNow,
+      final double totalLabourDemandNow,
+      final double employedLabourVolumeNow,
+      final double totalWageBillNow,
+      double demandWeightedMeanBidPriceNow,
+      double supplyWeightedMeanAskPriceNow
+      ) {
       if(totalLabourSupplyNow > 0.)
          supplyWeightedMeanAskPriceNow /= employedLabourVolumeNow;
       else
@@ -177,6 +292,9 @@ public final class SimpleLabourInstrument {
       employedLabourVolume.add(employedLabourVolumeNow);
       demandWeightedMeanBidPrice.add(demandWeightedMeanBidPriceNow);
       supplyWeightedMeanAskPrice.add(supplyWeightedMeanAskPriceNow);
+      tradingPricesSeries.add(
+         employedLabourVolumeNow > 0. ? totalWageBillNow / employedLabourVolumeNow : 0.);
+      tradingVolumeSeries.add(employedLabourVolumeNow);
    }
    
    /**
@@ -279,14 +397,47 @@ public final class SimpleLabourInstrument {
       orderList.remove(partyIdentifier);
    }
    
-   /** Get an unmodifiable list of historical trading prices. */
+   /**
+     * Get a list of historical trading prices. The trading price for each session
+     * is the mean wage per unit labour employed, weighted by the size of the labour
+     * contracts. Modifying the return value will not affect this object. The first
+     * element of the list is the oldest record.
+     */
    public List<Double> getTradingPrices() {
-      return Collections.unmodifiableList(tradingPricesSeries);
+      return new ArrayList<Double>(tradingPricesSeries.getReadOnlyView());
+   }
+   
+   /**
+     * Get a read-only view of the historical trading prices returned by {@link 
+     * #getTradingPrices()}. The view is not a copy, and reflects subsequent 
+     * processing sessions.
+     */
+   public DoubleRingBuffer.ReadOnlyView getTradingPricesView() {
+      return tradingPricesSeries.getReadOnlyView();
    }
    
-   /** Get an unmodifiable list of historical traded volumes. */
+   /**
+     * Get a list of historical traded volumes, each rounded to the nearest whole
+     * unit of labour. Modifying the return value will not affect this object. The
+     * first element of the list is the oldest record. See also {@link 
+     * #getTradingVolumeSeriesView()}.
+     */
    public List<Integer> getTradingVolumeSeries() {
-      return Collections.unmodifiableList(tradingVolumeSeries);
+      final DoubleRingBuffer.ReadOnlyView
+         volumes = tradingVolumeSeries.getReadOnlyView();
+      final List<Integer> result = new ArrayList<Integer>(volumes.size());
+      for(int i = 0; i< volumes.size(); ++i)
+         result.add((int) Math.round(volumes.getValue(i)));
+      return result;
+   }
+   
+   /**
+     * Get a read-only view of historical traded volumes, without rounding. The view
+     * is not a copy, and reflects subsequent processing sessions. The first element
+     * of the view is the oldest record.
+     */
+   public DoubleRingBuffer.ReadOnlyView getTradingVolumeSeriesView() {
+      return tradingVolumeSeries.getReadOnlyView();
    }
    
    /** Get the maturity of labour contracts belonging to this instrument. */
@@ -19,13 +19,19 @@
  */
 package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 
+import ai.aitia.meme.paramsweep.platform.mason.recording.annotation.RecorderSource;
 import eu.crisis_economics.abm.markets.clearing.ClearingHouse;
 import eu.crisis_economics.utilities.StateVerifier;
 
 /**
   * Base/simple implementation of a clearing instrument. This implementation
   * stores a reference to the clearing house with which the instrument is
-  * registered.
+  * registered.<br><br>
+  * 
+  * Implementations which clear {@link MixedClearingNetwork}{@code s} should pass the
+  * {@link ClearingAlgorithmMetrics} of each clearing session to {@link 
+  * #recordClearingMetrics(ClearingAlgorithmMetrics)}. The metrics of the last 
+  * clearing session are available as {@link RecorderSource}{@code s}.
   * 
   * @author phillips
   */
@@ -35,6 +41,10 @@ public abstract class AbstractClearingMarket implements ClearingMarket {
       marketName;
    private final ClearingHouse
       market;
+   private ClearingAlgorithmMetrics
+      lastClearingMetrics;
+   private final ClearingAlgorithmMetrics
+      cumulativeClearingMetrics;
    
    /**
      * Create a {@link ClearingMarket} with the specified name.
@@ -51,12 +61,15 @@ public abstract class AbstractClearingMarket implements ClearingMarket {
       StateVerifier.checkNotNull(marketName, market);
       this.marketName = marketName;
       this.market = market;
+      this.lastClearingMetrics = new ClearingAlgorithmMetrics();
+      this.cumulativeClearingMetrics = new ClearingAlgorithmMetrics();
    }
    
    @Override
    public abstract void process();
    
    @Override
+   @RecorderSource("MarketName")
    public final String getMarketName() {
       return marketName;
    }
@@ -76,6 +89,79 @@ public abstract class AbstractClearingMarket implements ClearingMarket {
       return null;
    }
    
+   /**
+     * Record the performance of the clearing algorithm used in the current 
+     * clearing session.
+     * 
+     * @param metrics
+     *        The {@link ClearingAlgorithmMetrics} of the current session. This 
+     *        argument should not be {@code null}.
+     */
+   protected final void recordClearingMetrics(final ClearingAlgorithmMetrics metrics) {
+      StateVerifier.checkNotNull(metrics);
+      lastClearingMetrics = metrics.copy();
+      cumulativeClearingMetrics.add(metrics);
+   }
+   
+   /**
+     * Get the {@link ClearingAlgorithmMetrics} of the last clearing session.
+     * Modifying the return value will not affect this object.
+     */
+   public final ClearingAlgorithmMetrics getLastClearingMetrics() {
+      return lastClearingMetrics.copy();
+   }
+   
+   /**
+     * Get the {@link ClearingAlgorithmMetrics} of all clearing sessions to date.
+     * Modifying the return value will not affect this object.
+     */
+   public final ClearingAlgorithmMetrics getCumulativeClearingMetrics() {
+      return cumulativeClearingMetrics.copy();
+   }
+   
+   @RecorderSource("ClearingIterations")
+   public final double getLastClearingIterations() {
+      return lastClearingMetrics.getNumberOfIterations();
+   }
+   
+   @RecorderSource("ClearingResponseEvaluations")
+   public final double getLastClearingResponseEvaluations() {
+      return lastClearingMetrics.getNumberOfResponseEvaluations();
+   }
+   
+   @RecorderSource("ClearingWallTimeMillis")
+   public final double getLastClearingWallTimeMillis() {
+      return lastClearingMetrics.getWallTimeMillis();
+   }
+   
+   @RecorderSource("ClearingResidual")
+   public final double getLastClearingResidual() {
+      return lastClearingMetrics.getFinalResidual();
+   }
+   
+   @RecorderSource("ClearingComponents")
+   public final double getLastClearingComponents() {
+      return lastClearingMetrics.getNumberOfComponents();
+   }
+   
+   /**
+     * Get the number of connected components of the last clearing session 
+     * which were stopped by an iteration cap rather than by the network residual.
+     */
+   @RecorderSource("ClearingIterationCapStops")
+   public final double getLastClearingIterationCapStops() {
+      return lastClearingMetrics.getNumberOfIterationCapStops();
+   }
+   
+   /**
+     * Get a description of the clearing algorithms selected by meta-algorithms 
+     * in the last clearing session (see {@link 
+     * ClearingAlgorithmMetrics#getAlgorithmSelectionsDescription()}).
+     */
+   @RecorderSource("ClearingAlgorithmSelections")
+   public final String getLastClearingAlgorithmSelections() {
+      return lastClearingMetrics.getAlgorithmSelectionsDescription();
+   }
    
    @Override
    public String toString() {
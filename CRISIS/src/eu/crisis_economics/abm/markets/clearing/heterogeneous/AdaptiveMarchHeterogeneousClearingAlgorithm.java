@@ -66,7 +66,7 @@ final class AdaptiveMarchHeterogeneousClearingAlgorithm
    protected void applyPreMarchingStep(final MixedClearingNetwork network) {
       for(final MixedClearingNetworkEdge edge : network.getEdges()) {
          final double testRate = edge.getMaximumRateAdmissibleByBothParties();
-         final MeritFunction costFunction = new MeritFunction(edge);
+         final MeritFunction costFunction = super.getMeritFunction(edge);
          final double
             costAtMinimumRate = costFunction.functionValue(0.),
             costAtMaximumRate = costFunction.functionValue(testRate);
@@ -74,6 +74,15 @@ final class AdaptiveMarchHeterogeneousClearingAlgorithm
       }
    }
    
+   /**
+     * This algorithm marches toward the root of each edge cost from either
+     * side, and can therefore march from arbitrary initial edge rates.
+     */
+   @Override
+   protected boolean isWarmStartAdmissible() {
+      return true;
+   }
+   
    @Override
    protected List<Double> attemptToFindSeedRates(final MixedClearingNetwork network) {
       final AscentMarchSeedObjectivesSelectionAlgorithm seedSelectionAlgorithm =
@@ -85,7 +94,7 @@ final class AdaptiveMarchHeterogeneousClearingAlgorithm
    protected void advanceOverEdge(
       final MixedClearingNetworkEdge edge) {
       final double existingEdgeRate = edge.getEdgeRate();
-      MeritFunction meritFunction = new MeritFunction(edge);
+      MeritFunction meritFunction = super.getMeritFunction(edge);
       {
          final double
             currentEvaluation = meritFunction.functionValue(existingEdgeRate);
@@ -95,8 +104,7 @@ final class AdaptiveMarchHeterogeneousClearingAlgorithm
                return;
             }
       }
-      ValueBisectorAlgorithm<MeritFunction> bisector = 
-         new ValueBisectorAlgorithm<MeritFunction>(super.getMaximumEdgeIterations());
+      final ValueBisectorAlgorithm<MeritFunction> bisector = super.getBisector();
       final double
          costAtCurrentRate = meritFunction.functionValue(existingEdgeRate);
       final boolean
@@ -123,13 +131,14 @@ final class AdaptiveMarchHeterogeneousClearingAlgorithm
          result = 0.;
       else if(marchTowardMaximumRate) {
          ValueBisectorAlgorithm.BisectionResult resultBracket = 
-            bisector.bisectInRange(
-               meritFunction, existingEdgeRate, maximumAdmissibleRate, 0.);
+            bisector.bisectInRange(meritFunction, existingEdgeRate, maximumAdmissibleRate, 0.,
+               super.getBisectionResult());
          result = resultBracket.getBracketLowerBound();
       }
       else {
          ValueBisectorAlgorithm.BisectionResult resultBracket = 
-            bisector.bisectInRange(meritFunction, 0., existingEdgeRate, 0.);
+            bisector.bisectInRange(
+               meritFunction, 0., existingEdgeRate, 0., super.getBisectionResult());
          result = resultBracket.getBracketUpperBound();
       }
       distanceTravelledAlongEdgeLastStep.put(edge, result - existingEdgeRate);
@@ -158,12 +167,9 @@ final class AdaptiveMarchHeterogeneousClearingAlgorithm
       final MultivariateFunction function = new MultivariateFunction() {
          @Override
          public double value(double[] x) {
-            for(int i = 0; i< edges.size(); ++i) {
-               edges.get(i).setEdgeRate(x[i]);
-               edges.get(i).flagNodesResponsesForUpdate();
-            }
             for(int i = 0; i< edges.size(); ++i)
-               edges.get(i).updateNodeResponses();
+               network.setEdgeRate(i, x[i]);
+            network.refreshVertexResponses();            // Only nodes with moved edges
             return network.getResidualCost();
          }
       };
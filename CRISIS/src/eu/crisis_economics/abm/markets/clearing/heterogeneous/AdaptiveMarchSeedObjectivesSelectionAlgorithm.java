@@ -43,9 +43,10 @@ final class AdaptiveMarchSeedObjectivesSelectionAlgorithm
    @Override
    public List<Double> findSeedRates(final MixedClearingNetwork network) {
       final List<Double> rateSeeds = new ArrayList<Double>();
+      final MeritFunction costFunction = new MeritFunction();
       for(final MixedClearingNetworkEdge edge : network.getEdges()) {
          final double testRate = edge.getMaximumRateAdmissibleByBothParties();
-         final MeritFunction costFunction = new MeritFunction(edge);
+         costFunction.setEdge(edge);
          final double
             costAtMinimumRate = costFunction.functionValue(0.),
             costAtMaximumRate = costFunction.functionValue(testRate);
@@ -0,0 +1,526 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ * 
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.exception.MathIllegalStateException;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * A {@link MixedClearingNetworkAlgorithm} which selects, or chains, clearing
+  * algorithms according to the structure of the network to be cleared and the
+  * past performance of each algorithm on similar networks.<br><br>
+  * 
+  * Clearing algorithms scale differently with the size of the network. Marching 
+  * algorithms are inexpensive per iteration, and are suitable for large networks,
+  * but may converge slowly on small, densely connected networks. The 
+  * {@link LevenbergMarquardtClearingAlgorithm} converges rapidly on small networks,
+  * however each iteration requires the network Jacobian (a dense matrix with 
+  * one row and one column per edge). This algorithm chooses between:
+  * <ul>
+  *   <li> {@link Strategy#MARCH}: a marching algorithm, as created by a 
+  *        {@link MixedClearingNetworkAlgorithmFactory} specified by the caller;
+  *   <li> {@link Strategy#LEVENBERG_MARQUARDT}: the Levenberg-Marquardt algorithm;
+  *   <li> {@link Strategy#MARCH_THEN_LEVENBERG_MARQUARDT}: a marching algorithm, 
+  *        followed by a Levenberg-Marquardt polish step starting from the marched 
+  *        edge rates if the marching algorithm does not reach the target residual.
+  * </ul>
+  * Networks with more than {@code maximumEdgesForLevenbergMarquardt} edges are
+  * always cleared by marching. Otherwise the first network of each class (the 
+  * number of edges, rounded down to a power of two, and whether or not the network
+  * contains a {@link HyperEdge}) is cleared by the Levenberg-Marquardt algorithm,
+  * if the network is small and contains no hyperedges, and is otherwise cleared by
+  * marching and polishing. Hyperedges aggregate the responses of many nodes, and
+  * are better seeded by marching. Subsequent networks of the same class are cleared
+  * by the least expensive strategy which reached the target residual when it was 
+  * last applied to a network of that class. If no such strategy exists, a 
+  * strategy which has not yet been applied to networks of that class is used.
+  * <br><br>
+  * 
+  * The expense of a strategy is measured by the number of response function
+  * evaluations (see {@link ClearingAlgorithmMetrics#getNumberOfResponseEvaluations()})
+  * rather than by wall time, so that the choice of strategy, and therefore the
+  * outcome of the simulation, does not depend on the load of the machine. Each 
+  * selection is recorded in the {@link ClearingAlgorithmMetrics} of the network
+  * (see {@link ClearingAlgorithmMetrics#getAlgorithmSelections()}). If the 
+  * Levenberg-Marquardt strategy fails and falls back to marching, the fallback is
+  * recorded as a separate selection ({@value #LEVENBERG_MARQUARDT_FALLBACK}), and
+  * the Levenberg-Marquardt strategy is deemed not to have cleared the network.
+  * <br><br>
+  * 
+  * This object retains its performance history between clearing sessions, and
+  * should therefore be created once per market. This object is also a {@link 
+  * MixedClearingNetworkAlgorithmFactory}, so that it can be applied to each 
+  * connected component of a network by a {@link 
+  * ConnectedComponentsClearingAlgorithm}, in which case {@link #create} returns 
+  * a separate algorithm for each component. Components may be cleared 
+  * concurrently. Strategies for the components of one network are selected using
+  * the performance history of earlier networks only, and the outcomes for these
+  * components are added to the history in component order once all components 
+  * have been cleared. The choice of strategy therefore does not depend on the 
+  * number of threads used to clear components.<br><br>
+  * 
+  * Markets which support adaptive algorithm selection use this algorithm if the
+  * system property {@value #ADAPTIVE_SELECTION_PROPERTY} is {@code true}. By 
+  * default, such markets use their own fixed clearing algorithm.
+  * 
+  * @author phillips
+  */
+final class AdaptiveSelectionClearingAlgorithm implements
+   MixedClearingNetworkAlgorithm,
+   MixedClearingNetworkAlgorithmFactory,
+   ConnectedComponentsClearingAlgorithm.ComponentsClearedListener {
+   
+   private static final Logger
+      LOG = Logger.getLogger(AdaptiveSelectionClearingAlgorithm.class);
+   
+   /**
+     * A clearing strategy available to the {@link AdaptiveSelectionClearingAlgorithm}.
+     */
+   enum Strategy {
+      MARCH,
+      LEVENBERG_MARQUARDT,
+      MARCH_THEN_LEVENBERG_MARQUARDT
+   }
+   
+   static final String
+      ADAPTIVE_SELECTION_PROPERTY =
+         "eu.crisis_economics.abm.markets.clearing.heterogeneous.adaptiveAlgorithmSelection",
+      LEVENBERG_MARQUARDT_FALLBACK = "LEVENBERG_MARQUARDT_FALLBACK_TO_MARCH";
+   
+   static final int
+      DEFAULT_MAXIMUM_EDGES_FOR_LEVENBERG_MARQUARDT = 64,
+      DEFAULT_MAXIMUM_EDGES_FOR_DIRECT_LEVENBERG_MARQUARDT = 8;
+   
+   private static final int
+      LEVENBERG_MARQUARDT_MAXIMUM_ITERATIONS = 100,
+      LEVENBERG_MARQUARDT_MAXIMUM_EVALUATIONS = 1000;
+   private static final double
+      LEVENBERG_MARQUARDT_ERROR_TARGET = 1.e-12,
+      COST_AVERAGING_WEIGHT = .25;
+   
+   /*
+    * The performance of one strategy on networks of one class.
+    */
+   private static final class StrategyRecord {
+      private int
+         numberOfSessions;
+      private double
+         meanCost,
+         lastResidual;
+      private boolean
+         isLastSessionConverged;
+      
+      private void record(
+         final long cost,
+         final double residual,
+         final boolean isConverged
+         ) {
+         meanCost = (numberOfSessions == 0) ? cost :
+            (1. - COST_AVERAGING_WEIGHT) * meanCost + COST_AVERAGING_WEIGHT * cost;
+         lastResidual = residual;
+         isLastSessionConverged = isConverged;
+         ++numberOfSessions;
+      }
+   }
+   
+   /*
+    * The outcome of one strategy applied to one network.
+    */
+   private static final class Outcome {
+      private final Integer
+         networkClass;
+      private final Strategy
+         strategy;
+      private final long
+         cost;
+      private final double
+         residual;
+      
+      private Outcome(
+         final Integer networkClass,
+         final Strategy strategy,
+         final long cost,
+         final double residual
+         ) {
+         this.networkClass = networkClass;
+         this.strategy = strategy;
+         this.cost = cost;
+         this.residual = residual;
+      }
+   }
+   
+   /*
+    * An algorithm for one connected component of a network. The outcomes of
+    * this algorithm are retained until all components have been cleared.
+    */
+   private final class ComponentClearingAlgorithm implements MixedClearingNetworkAlgorithm {
+      private final List<Outcome>
+         outcomes = new ArrayList<Outcome>(2);
+      
+      @Override
+      public double applyToNetwork(final MixedClearingNetwork network) {
+         return clear(network, outcomes);
+      }
+   }
+   
+   private final MixedClearingNetworkAlgorithmFactory
+      marchingAlgorithmFactory;
+   private final double
+      targetResidual;
+   private final int
+      maximumEdgesForLevenbergMarquardt,
+      maximumEdgesForDirectLevenbergMarquardt;
+   private final Map<Integer, Map<Strategy, StrategyRecord>>
+      history;
+   private final List<ComponentClearingAlgorithm>
+      pendingComponents;
+   
+   /**
+     * Create an {@link AdaptiveSelectionClearingAlgorithm} with default network
+     * size thresholds.
+     * 
+     * @param marchingAlgorithmFactory
+     *        A factory for the marching algorithm used by the {@link 
+     *        Strategy#MARCH} and {@link Strategy#MARCH_THEN_LEVENBERG_MARQUARDT}
+     *        strategies. This argument should not be {@code null}.
+     * @param targetResidual
+     *        The network residual below which a strategy is deemed to have 
+     *        cleared the network. This argument should be non-negative.
+     */
+   AdaptiveSelectionClearingAlgorithm(
+      final MixedClearingNetworkAlgorithmFactory marchingAlgorithmFactory,
+      final double targetResidual
+      ) {
+      this(
+         marchingAlgorithmFactory,
+         targetResidual,
+         DEFAULT_MAXIMUM_EDGES_FOR_LEVENBERG_MARQUARDT,
+         DEFAULT_MAXIMUM_EDGES_FOR_DIRECT_LEVENBERG_MARQUARDT
+         );
+   }
+   
+   /**
+     * Create an {@link AdaptiveSelectionClearingAlgorithm}.
+     * 
+     * @param marchingAlgorithmFactory
+     *        A factory for the marching algorithm used by the {@link 
+     *        Strategy#MARCH} and {@link Strategy#MARCH_THEN_LEVENBERG_MARQUARDT}
+     *        strategies. This argument should not be {@code null}.
+     * @param targetResidual
+     *        The network residual below which a strategy is deemed to have 
+     *        cleared the network. This argument should be non-negative.
+     * @param maximumEdgesForLevenbergMarquardt
+     *        Networks with more edges than this are always cleared by marching.
+     *        This argument should be non-negative.
+     * @param maximumEdgesForDirectLevenbergMarquardt
+     *        Networks with at most this many edges, and with no hyperedges, are
+     *        initially cleared by the Levenberg-Marquardt algorithm alone. This 
+     *        argument should be non-negative.
+     */
+   AdaptiveSelectionClearingAlgorithm(
+      final MixedClearingNetworkAlgorithmFactory marchingAlgorithmFactory,
+      final double targetResidual,
+      final int maximumEdgesForLevenbergMarquardt,
+      final int maximumEdgesForDirectLevenbergMarquardt
+      ) {
+      Preconditions.checkNotNull(marchingAlgorithmFactory);
+      Preconditions.checkArgument(targetResidual >= 0.);
+      Preconditions.checkArgument(maximumEdgesForLevenbergMarquardt >= 0);
+      Preconditions.checkArgument(maximumEdgesForDirectLevenbergMarquardt >= 0);
+      this.marchingAlgorithmFactory = marchingAlgorithmFactory;
+      this.targetResidual = targetResidual;
+      this.maximumEdgesForLevenbergMarquardt = maximumEdgesForLevenbergMarquardt;
+      this.maximumEdgesForDirectLevenbergMarquardt = maximumEdgesForDirectLevenbergMarquardt;
+      this.history = new HashMap<Integer, Map<Strategy, StrategyRecord>>();
+      this.pendingComponents = new ArrayList<ComponentClearingAlgorithm>();
+   }
+   
+   /**
+     * Is adaptive algorithm selection enabled by the system property {@value 
+     * #ADAPTIVE_SELECTION_PROPERTY}?
+     */
+   static boolean isEnabledBySystemProperty() {
+      return Boolean.parseBoolean(System.getProperty(ADAPTIVE_SELECTION_PROPERTY, "false"));
+   }
+   
+   /**
+     * Create an algorithm for one connected component of a network. The 
+     * outcome of this algorithm is added to the performance history of this 
+     * object when {@link #componentsCleared()} is called.
+     */
+   @Override
+   public synchronized MixedClearingNetworkAlgorithm create(
+      final MixedClearingNetwork network) {
+      final ComponentClearingAlgorithm result = new ComponentClearingAlgorithm();
+      pendingComponents.add(result);
+      return result;
+   }
+   
+   /**
+     * Add the outcomes of all components created by {@link #create} to the 
+     * performance history, in order of creation.
+     */
+   @Override
+   public synchronized void componentsCleared() {
+      for(final ComponentClearingAlgorithm component : pendingComponents)
+         for(final Outcome outcome : component.outcomes)
+            recordOutcome(outcome);
+      pendingComponents.clear();
+   }
+   
+   @Override
+   public double applyToNetwork(final MixedClearingNetwork network) {
+      final List<Outcome> outcomes = new ArrayList<Outcome>(2);
+      final double residual = clear(network, outcomes);
+      synchronized(this) {
+         for(final Outcome outcome : outcomes)
+            recordOutcome(outcome);
+      }
+      return residual;
+   }
+   
+   /*
+    * Select and apply a strategy to a network. The outcome of each strategy 
+    * applied is appended to the specified list.
+    */
+   private double clear(final MixedClearingNetwork network, final List<Outcome> outcomes) {
+      Preconditions.checkNotNull(network);
+      final int
+         numberOfEdges = network.getNumberOfEdges();
+      final boolean
+         hasHyperEdges = hasHyperEdges(network);
+      final Integer
+         networkClass = getNetworkClass(numberOfEdges, hasHyperEdges);
+      final Strategy strategy = 
+         selectStrategy(networkClass, getCandidateStrategies(numberOfEdges, hasHyperEdges));
+      network.getMetrics().recordAlgorithmSelection(strategy.name());
+      if(LOG.isDebugEnabled())
+         LOG.debug("Clearing network with " + numberOfEdges + " edges"
+            + (hasHyperEdges ? " (including hyperedges)" : "") + ": strategy " + strategy + ".");
+      
+      return applyStrategy(strategy, networkClass, network, outcomes);
+   }
+   
+   private static boolean hasHyperEdges(final MixedClearingNetwork network) {
+      for(final MixedClearingNetworkEdge edge : network.getEdges())
+         if(edge instanceof HyperEdge)
+            return true;
+      return false;
+   }
+   
+   /*
+    * Networks are classified by the number of edges, rounded down to a power 
+    * of two, and by whether or not the network contains hyperedges.
+    */
+   private static Integer getNetworkClass(
+      final int numberOfEdges,
+      final boolean hasHyperEdges
+      ) {
+      final int sizeClass = Integer.SIZE - Integer.numberOfLeadingZeros(numberOfEdges);
+      return 2 * sizeClass + (hasHyperEdges ? 1 : 0);
+   }
+   
+   /*
+    * Get the strategies admissible for a network. The first strategy is used 
+    * if there is no performance history for networks of this class. The 
+    * remaining strategies are listed in the order in which they should be tried
+    * if the first strategy fails to clear the network.
+    */
+   private List<Strategy> getCandidateStrategies(
+      final int numberOfEdges,
+      final boolean hasHyperEdges
+      ) {
+      if(numberOfEdges > maximumEdgesForLevenbergMarquardt)
+         return Arrays.asList(Strategy.MARCH);
+      if(numberOfEdges <= maximumEdgesForDirectLevenbergMarquardt && !hasHyperEdges)
+         return Arrays.asList(
+            Strategy.LEVENBERG_MARQUARDT,
+            Strategy.MARCH_THEN_LEVENBERG_MARQUARDT,
+            Strategy.MARCH
+            );
+      return Arrays.asList(
+         Strategy.MARCH_THEN_LEVENBERG_MARQUARDT,
+         Strategy.MARCH,
+         Strategy.LEVENBERG_MARQUARDT
+         );
+   }
+   
+   private synchronized Strategy selectStrategy(
+      final Integer networkClass,
+      final List<Strategy> candidates
+      ) {
+      final Map<Strategy, StrategyRecord> records = history.get(networkClass);
+      if(candidates.size() == 1 || records == null)
+         return candidates.get(0);
+      Strategy result = null;
+      double leastCost = Double.MAX_VALUE;
+      for(final Strategy candidate : candidates) {                 // Cheapest converged
+         final StrategyRecord record = records.get(candidate);
+         if(record != null && record.isLastSessionConverged && record.meanCost < leastCost) {
+            result = candidate;
+            leastCost = record.meanCost;
+         }
+      }
+      if(result != null)
+         return result;
+      for(final Strategy candidate : candidates)                   // Untried
+         if(!records.containsKey(candidate))
+            return candidate;
+      double leastResidual = Double.MAX_VALUE;
+      result = candidates.get(0);
+      for(final Strategy candidate : candidates) {                 // Best effort
+         final double residual = records.get(candidate).lastResidual;
+         if(residual < leastResidual) {
+            result = candidate;
+            leastResidual = residual;
+         }
+      }
+      return result;
+   }
+   
+   private synchronized void recordOutcome(final Outcome outcome) {
+      Map<Strategy, StrategyRecord> records = history.get(outcome.networkClass);
+      if(records == null) {
+         records = new EnumMap<Strategy, StrategyRecord>(Strategy.class);
+         history.put(outcome.networkClass, records);
+      }
+      StrategyRecord record = records.get(outcome.strategy);
+      if(record == null) {
+         record = new StrategyRecord();
+         records.put(outcome.strategy, record);
+      }
+      record.record(outcome.cost, outcome.residual, outcome.residual <= targetResidual);
+   }
+   
+   /*
+    * Apply a strategy to a network, and append the outcome of each strategy
+    * that was actually applied to the specified list. If the Levenberg-Marquardt
+    * strategy fails, it is recorded as not having cleared the network, and the
+    * network is marched instead.
+    */
+   private double applyStrategy(
+      final Strategy strategy,
+      final Integer networkClass,
+      final MixedClearingNetwork network,
+      final List<Outcome> outcomes
+      ) {
+      final long evaluationsBefore = network.countResponseEvaluations();
+      final double residual;
+      switch(strategy) {
+         case MARCH:
+            marchingAlgorithmFactory.create(network).applyToNetwork(network);
+            residual = network.getResidualCost();
+            break;
+         case LEVENBERG_MARQUARDT:
+            if(tryApplyLevenbergMarquardt(network)) {
+               residual = network.getResidualCost();
+               break;
+            }
+            outcomes.add(new Outcome(networkClass, strategy,
+               network.countResponseEvaluations() - evaluationsBefore, Double.POSITIVE_INFINITY));
+            network.getMetrics().recordAlgorithmSelection(LEVENBERG_MARQUARDT_FALLBACK);
+            return applyStrategy(Strategy.MARCH, networkClass, network, outcomes);
+         case MARCH_THEN_LEVENBERG_MARQUARDT:
+            marchingAlgorithmFactory.create(network).applyToNetwork(network);
+            residual = polish(network);
+            break;
+         default:
+            throw new IllegalStateException(
+               "AdaptiveSelectionClearingAlgorithm: unknown strategy: " + strategy + ".");
+      }
+      outcomes.add(new Outcome(networkClass, strategy,
+         network.countResponseEvaluations() - evaluationsBefore, residual));
+      return residual;
+   }
+   
+   /*
+    * Apply the Levenberg-Marquardt algorithm to a network, starting from the
+    * current edge rates, unless the network residual already satisfies the
+    * target. The resulting edge rates are kept only if they yield a smaller
+    * network residual than the current edge rates.
+    */
+   private double polish(final MixedClearingNetwork network) {
+      final double marchedResidual = network.getResidualCost();
+      if(marchedResidual <= targetResidual)
+         return marchedResidual;
+      final List<MixedClearingNetworkEdge> edges = network.getEdges();
+      final double[] marchedRates = new double[edges.size()];
+      for(int i = 0; i< marchedRates.length; ++i)
+         marchedRates[i] = edges.get(i).getEdgeRate();
+      final double[] offeredRates = network.getWarmStartRates();
+      network.setWarmStartRates(marchedRates);
+      final boolean isPolished;
+      try {
+         isPolished = tryApplyLevenbergMarquardt(network);
+      }
+      finally {
+         network.setWarmStartRates(offeredRates);
+      }
+      if(isPolished && network.getResidualCost() <= marchedResidual)
+         return network.getResidualCost();
+      for(int i = 0; i< marchedRates.length; ++i)
+         edges.get(i).setEdgeRate(marchedRates[i]);
+      network.updateAllVertexResponses();
+      return network.getResidualCost();
+   }
+   
+   /*
+    * Apply the Levenberg-Marquardt algorithm to a network. The algorithm may
+    * exceed its evaluation budget without converging, in which case this
+    * method returns false.
+    */
+   private boolean tryApplyLevenbergMarquardt(final MixedClearingNetwork network) {
+      try {
+         new LevenbergMarquardtClearingAlgorithm(
+            LEVENBERG_MARQUARDT_MAXIMUM_ITERATIONS,
+            LEVENBERG_MARQUARDT_MAXIMUM_EVALUATIONS,
+            LEVENBERG_MARQUARDT_ERROR_TARGET,
+            LEVENBERG_MARQUARDT_ERROR_TARGET
+            ).applyToNetwork(network);
+         return true;
+      }
+      catch(final MathIllegalStateException failure) {
+         if(LOG.isDebugEnabled())
+            LOG.debug("Levenberg-Marquardt clearing failed: " + failure.getMessage());
+         return false;
+      }
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public synchronized String toString() {
+      return "Adaptive Selection Clearing Algorithm, target residual: " + targetResidual 
+         + ", maximum edges for Levenberg-Marquardt: " + maximumEdgesForLevenbergMarquardt
+         + ", maximum edges for direct Levenberg-Marquardt: " 
+         + maximumEdgesForDirectLevenbergMarquardt + ", network classes seen: " 
+         + history.size() + ".";
+   }
+}
@@ -47,7 +47,7 @@ final class AscentMarchHeterogeneousClearingAlgorithm
    protected void advanceOverEdge(
       final MixedClearingNetworkEdge edge) {
       final double existingEdgeRate = edge.getEdgeRate();
-      MeritFunction meritFunction = new MeritFunction(edge);
+      MeritFunction meritFunction = super.getMeritFunction(edge);
       {
          final double
             currentEvaluation = meritFunction.functionValue(existingEdgeRate);
@@ -55,8 +55,7 @@ final class AscentMarchHeterogeneousClearingAlgorithm
             Math.abs(currentEvaluation) < super.getAccuracyGoalPerEdge())
             return;
       }
-      ValueBisectorAlgorithm<MeritFunction> bisector = 
-         new ValueBisectorAlgorithm<MeritFunction>(super.getMaximumEdgeIterations());
+      final ValueBisectorAlgorithm<MeritFunction> bisector = super.getBisector();
       // Edge cases
       double
          demandMaximumRate = edge.getMaximumRateInDemandDomain(),
@@ -99,8 +98,8 @@ final class AscentMarchHeterogeneousClearingAlgorithm
          }
          
          ValueBisectorAlgorithm.BisectionResult resultBracket = 
-            bisector.bisectInRange(
-               meritFunction, existingEdgeRate, maximumAdmissibleRate, 0.);
+            bisector.bisectInRange(meritFunction, existingEdgeRate, maximumAdmissibleRate, 0.,
+               super.getBisectionResult());
          result = resultBracket.getBracketLowerBound();
       }
       edge.setEdgeRate(result);
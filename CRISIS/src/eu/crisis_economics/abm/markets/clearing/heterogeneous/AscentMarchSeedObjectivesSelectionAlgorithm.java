@@ -71,10 +71,10 @@ final class AscentMarchSeedObjectivesSelectionAlgorithm
             edge.flagNodesResponsesForUpdate();
             rateSeeds.add(0.);
          }
+         final MeritFunction meritFunction = new MeritFunction();
          for(int i = 0; i< network.getNumberOfEdges(); ++i) {
             MixedClearingNetworkEdge edge = networkEdges.get(i);
-            MeritFunction meritFunction = new MeritFunction(edge);
-            double value = meritFunction.functionValue(rateSeeds.get(i));
+            double value = meritFunction.setEdge(edge).functionValue(rateSeeds.get(i));
             if(value < 0.) {
                return null;
             }
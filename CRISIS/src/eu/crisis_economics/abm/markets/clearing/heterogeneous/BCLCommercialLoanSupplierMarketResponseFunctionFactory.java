@@ -38,7 +38,9 @@ import eu.crisis_economics.abm.strategy.clearing.UncollateralizedReturnMaximizer
   * 
   * This algorithm will return a BCL {@link MarketResponseFunction} for 
   * a {@link CommercialBank} {@link Agent}. For any other type of market
-  * participant, this algorithm returns {@code null}.
+  * participant, this algorithm returns {@code null}. The portfolio
+  * optimization underlying the response function is memoized (see
+  * {@link MemoizingMarketResponseFunction}).
   * 
   * @author phillips
   */
@@ -175,7 +177,7 @@ public final class BCLCommercialLoanSupplierMarketResponseFunctionFactory
       builder.setParticipantCashToSpend(cashWillingToSpendFromReserves);
       builder.setParticipantEquity(loanAssetsIncrease);
       builder.setParticipantLeverage(1.0);
-      return builder.build();
+      return new MemoizingMarketResponseFunction(builder.build());
    }
    
    public double getLowRiskCommercialLoanPremium() {
@@ -28,6 +28,8 @@ import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
 import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
 import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.BOBYQAOptimizer;
 
+import org.apache.log4j.Logger;
+
 import com.google.common.base.Preconditions;
 
 import eu.crisis_economics.utilities.ArrayUtil;
@@ -35,6 +37,9 @@ import eu.crisis_economics.utilities.ArrayUtil;
 final class BoundedQuadraticEstimationClearingAlgorithm 
    extends NumericalDerivativeClearingAlgorithm {
    
+   private static final Logger
+      LOG = Logger.getLogger(BoundedQuadraticEstimationClearingAlgorithm.class);
+   
    private final int
       maximumEvaluations;
    
@@ -57,6 +62,7 @@ final class BoundedQuadraticEstimationClearingAlgorithm
       final RealVector
          start = new ArrayRealVector(network.getNumberOfEdges());
       start.set(1.0);                                       // Initial rate guess.
+      super.applyWarmStartRates(network, start, 0., 1.);    // Within optimizer bounds.
       
       final BOBYQAOptimizer optimizer = new BOBYQAOptimizer(2*dimension + 1, 1.2, 1.e-8);
       final PointValuePair result = optimizer.optimize(
@@ -68,7 +74,9 @@ final class BoundedQuadraticEstimationClearingAlgorithm
          );
       
       final double residualCost = result.getValue();
-      System.out.println("Network cleared: residual cost: " + residualCost + ".");
+      network.getMetrics().recordIterations(optimizer.getIterations());
+      if(LOG.isDebugEnabled())
+         LOG.debug("Network cleared: residual cost: " + residualCost + ".");
       
       return residualCost;
    }
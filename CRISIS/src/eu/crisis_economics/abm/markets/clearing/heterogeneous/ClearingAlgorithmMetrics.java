@@ -0,0 +1,356 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * Performance measurements for {@link MixedClearingNetworkAlgorithm}{@code s}.<br><br>
+  * 
+  * A {@link ClearingAlgorithmMetrics} object is created by a {@link 
+  * MixedClearingNetwork} each time a clearing algorithm is applied to the network
+  * (see {@link MixedClearingNetwork#applyClearingAlgorithm(MixedClearingNetworkAlgorithm)}).
+  * This object records:
+  * <ul>
+  *   <li> the number of clearing iterations (calls to {@link 
+  *        MixedClearingNetworkAlgorithmStoppingCondition#isStoppingConditionSatisfied},
+  *        or the number of optimizer iterations for algorithms which do not use a
+  *        stopping condition);
+  *   <li> the number of times the {@link MarketResponseFunction}{@code s} of 
+  *        network nodes were evaluated or differentiated;
+  *   <li> the wall time spent in the clearing algorithm;
+  *   <li> the residual cost of the network (see {@link 
+  *        MixedClearingNetwork#getResidualCost()}) when the algorithm terminated;
+  *   <li> the number of connected components cleared;
+  *   <li> whether the stopping condition of the algorithm was satisfied by the 
+  *        network residual or by the iteration cap;
+  *   <li> the clearing algorithms selected by meta-algorithms (such as {@link 
+  *        AdaptiveSelectionClearingAlgorithm}), if any.
+  * </ul>
+  * 
+  * Metrics for several clearing sessions can be accumulated using {@link 
+  * #add(ClearingAlgorithmMetrics)}. Components of a network may be cleared 
+  * concurrently, so all recording methods are synchronized.
+  * 
+  * @author phillips
+  */
+public final class ClearingAlgorithmMetrics {
+   
+   /**
+     * The reason for which a clearing algorithm terminated.
+     */
+   public enum StoppingCause {
+      /**
+        * The network residual reached the target residual.
+        */
+      RESIDUAL,
+      /**
+        * The maximum number of iterations elapsed before the network 
+        * residual reached the target residual.
+        */
+      ITERATION_CAP,
+      /**
+        * No stopping condition was satisfied. This is the case for algorithms
+        * which do not use a {@link MixedClearingNetworkAlgorithmStoppingCondition}.
+        */
+      NONE
+   }
+   
+   private int
+      numberOfSessions,
+      numberOfComponents,
+      numberOfResidualStops,
+      numberOfIterationCapStops;
+   private long
+      numberOfIterations,
+      numberOfResponseEvaluations,
+      wallTimeNanos;
+   private double
+      finalResidual,
+      maximumFinalResidual;
+   private final Map<String, Integer>
+      algorithmSelections;
+   
+   /**
+     * Create an empty {@link ClearingAlgorithmMetrics} object. This object 
+     * describes no clearing sessions.
+     */
+   public ClearingAlgorithmMetrics() {
+      this.finalResidual = Double.NaN;
+      this.maximumFinalResidual = Double.NaN;
+      this.algorithmSelections = new TreeMap<String, Integer>();
+   }
+   
+   /**
+     * Record one clearing iteration.
+     */
+   synchronized void recordIteration() {
+      ++numberOfIterations;
+   }
+   
+   /**
+     * Record several clearing iterations. This method is intended for algorithms
+     * which delegate to third party optimizers.
+     */
+   synchronized void recordIterations(final long iterations) {
+      Preconditions.checkArgument(iterations >= 0);
+      numberOfIterations += iterations;
+   }
+   
+   /**
+     * Record that a stopping condition was satisfied.
+     * 
+     * @param isResidualTargetReached
+     *        {@code true} if the stopping condition was satisfied because the 
+     *        network residual reached its target; {@code false} if the stopping 
+     *        condition was satisfied because the iteration cap was reached.
+     */
+   synchronized void recordStop(final boolean isResidualTargetReached) {
+      if(isResidualTargetReached)
+         ++numberOfResidualStops;
+      else
+         ++numberOfIterationCapStops;
+   }
+   
+   /**
+     * Record that a meta-algorithm selected the named clearing algorithm for
+     * one network (or connected component).
+     */
+   synchronized void recordAlgorithmSelection(final String algorithmName) {
+      Preconditions.checkNotNull(algorithmName);
+      addAlgorithmSelections(algorithmName, 1);
+   }
+   
+   private void addAlgorithmSelections(final String algorithmName, final int count) {
+      final Integer existing = algorithmSelections.get(algorithmName);
+      algorithmSelections.put(algorithmName, (existing == null ? 0 : existing) + count);
+   }
+   
+   /**
+     * Specify the number of connected components cleared in this session.
+     */
+   synchronized void setNumberOfComponents(final int value) {
+      Preconditions.checkArgument(value >= 0);
+      numberOfComponents = value;
+   }
+   
+   /**
+     * Record the end of a clearing session.
+     */
+   synchronized void recordSession(
+      final long responseEvaluations,
+      final long wallTimeNanos,
+      final double residual
+      ) {
+      this.numberOfSessions = 1;
+      this.numberOfResponseEvaluations = responseEvaluations;
+      this.wallTimeNanos = wallTimeNanos;
+      this.finalResidual = residual;
+      this.maximumFinalResidual = residual;
+   }
+   
+   /**
+     * Add the measurements of another {@link ClearingAlgorithmMetrics} object to 
+     * this object. Counts and times are summed. The final residual of this object
+     * becomes the final residual of the argument, if the argument describes at 
+     * least one clearing session.
+     * 
+     * @param other
+     *        The measurements to add. This argument should not be {@code null}.
+     */
+   public void add(final ClearingAlgorithmMetrics other) {
+      Preconditions.checkNotNull(other);
+      if(other == this)
+         throw new IllegalArgumentException(
+            "ClearingAlgorithmMetrics.add: cannot add metrics to themselves.");
+      final ClearingAlgorithmMetrics copy = other.copy();
+      synchronized(this) {
+         numberOfSessions += copy.numberOfSessions;
+         numberOfComponents += copy.numberOfComponents;
+         numberOfResidualStops += copy.numberOfResidualStops;
+         numberOfIterationCapStops += copy.numberOfIterationCapStops;
+         numberOfIterations += copy.numberOfIterations;
+         numberOfResponseEvaluations += copy.numberOfResponseEvaluations;
+         wallTimeNanos += copy.wallTimeNanos;
+         if(copy.numberOfSessions > 0) {
+            finalResidual = copy.finalResidual;
+            maximumFinalResidual = Double.isNaN(maximumFinalResidual) ?
+               copy.maximumFinalResidual :
+               Math.max(maximumFinalResidual, copy.maximumFinalResidual);
+         }
+         for(final Entry<String, Integer> record : copy.algorithmSelections.entrySet())
+            addAlgorithmSelections(record.getKey(), record.getValue());
+      }
+   }
+   
+   /**
+     * Create an independent copy of this object.
+     */
+   public synchronized ClearingAlgorithmMetrics copy() {
+      final ClearingAlgorithmMetrics result = new ClearingAlgorithmMetrics();
+      result.numberOfSessions = numberOfSessions;
+      result.numberOfComponents = numberOfComponents;
+      result.numberOfResidualStops = numberOfResidualStops;
+      result.numberOfIterationCapStops = numberOfIterationCapStops;
+      result.numberOfIterations = numberOfIterations;
+      result.numberOfResponseEvaluations = numberOfResponseEvaluations;
+      result.wallTimeNanos = wallTimeNanos;
+      result.finalResidual = finalResidual;
+      result.maximumFinalResidual = maximumFinalResidual;
+      result.algorithmSelections.putAll(algorithmSelections);
+      return result;
+   }
+   
+   /**
+     * Get the number of clearing sessions described by this object.
+     */
+   public synchronized int getNumberOfSessions() {
+      return numberOfSessions;
+   }
+   
+   /**
+     * Get the number of clearing iterations.
+     */
+   public synchronized long getNumberOfIterations() {
+      return numberOfIterations;
+   }
+   
+   /**
+     * Get the number of evaluations (or differentiations) of node response 
+     * functions. Batched evaluations count once per set of edge rates.
+     */
+   public synchronized long getNumberOfResponseEvaluations() {
+      return numberOfResponseEvaluations;
+   }
+   
+   /**
+     * Get the wall time spent in clearing algorithms, in nanoseconds.
+     */
+   public synchronized long getWallTimeNanos() {
+      return wallTimeNanos;
+   }
+   
+   /**
+     * Get the wall time spent in clearing algorithms, in milliseconds.
+     */
+   public synchronized double getWallTimeMillis() {
+      return wallTimeNanos * 1.e-6;
+   }
+   
+   /**
+     * Get the residual cost of the network at the end of the last clearing
+     * session, or {@code NaN} if no clearing sessions are described by this 
+     * object.
+     */
+   public synchronized double getFinalResidual() {
+      return finalResidual;
+   }
+   
+   /**
+     * Get the largest final residual cost over all clearing sessions, or 
+     * {@code NaN} if no clearing sessions are described by this object.
+     */
+   public synchronized double getMaximumFinalResidual() {
+      return maximumFinalResidual;
+   }
+   
+   /**
+     * Get the number of connected components cleared.
+     */
+   public synchronized int getNumberOfComponents() {
+      return numberOfComponents;
+   }
+   
+   /**
+     * Get the number of times a stopping condition was satisfied by the network
+     * residual. Each connected component is counted separately.
+     */
+   public synchronized int getNumberOfResidualStops() {
+      return numberOfResidualStops;
+   }
+   
+   /**
+     * Get the number of times a stopping condition was satisfied by the 
+     * iteration cap. Each connected component is counted separately.
+     */
+   public synchronized int getNumberOfIterationCapStops() {
+      return numberOfIterationCapStops;
+   }
+   
+   /**
+     * Get the number of times each clearing algorithm was selected by a 
+     * meta-algorithm, keyed by algorithm name in alphabetical order. The result
+     * is empty if no meta-algorithm was used. Modifying the return value will
+     * not affect this object.
+     */
+   public synchronized Map<String, Integer> getAlgorithmSelections() {
+      return Collections.unmodifiableMap(new TreeMap<String, Integer>(algorithmSelections));
+   }
+   
+   /**
+     * Get a brief description of the clearing algorithms selected by 
+     * meta-algorithms (Eg. {@code "LEVENBERG_MARQUARDT x2, MARCH x1"}), or an
+     * empty string if no meta-algorithm was used.
+     */
+   public synchronized String getAlgorithmSelectionsDescription() {
+      final StringBuilder result = new StringBuilder();
+      for(final Entry<String, Integer> record : algorithmSelections.entrySet()) {
+         if(result.length() > 0)
+            result.append(", ");
+         result.append(record.getKey()).append(" x").append(record.getValue());
+      }
+      return result.toString();
+   }
+   
+   /**
+     * Get the reason for which clearing terminated. If any component of any 
+     * session was stopped by the iteration cap, this method returns {@link 
+     * StoppingCause#ITERATION_CAP}.
+     */
+   public synchronized StoppingCause getStoppingCause() {
+      if(numberOfIterationCapStops > 0)
+         return StoppingCause.ITERATION_CAP;
+      if(numberOfResidualStops > 0)
+         return StoppingCause.RESIDUAL;
+      return StoppingCause.NONE;
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public synchronized String toString() {
+      return String.format(
+         "Clearing algorithm metrics, sessions: %d, iterations: %d, response evaluations:"
+       + " %d, wall time: %.3f ms, final residual: %g, maximum final residual: %g,"
+       + " components: %d, residual stops: %d, iteration cap stops: %d,"
+       + " algorithm selections: [%s].",
+         numberOfSessions, numberOfIterations, numberOfResponseEvaluations,
+         getWallTimeMillis(), finalResidual, maximumFinalResidual, numberOfComponents,
+         numberOfResidualStops, numberOfIterationCapStops,
+         getAlgorithmSelectionsDescription()
+         );
+   }
+}
@@ -89,6 +89,13 @@ public final class ClearingGiltsBondsAndCommercialLoansMarket
    private final Map<String, List<ClearingMarketParticipant>>
       commericalLoanClientRiskBuckets;
    
+   private final ClearingRateCache
+      clearingRateCache;
+   private final MixedClearingNetworkAlgorithmFactory
+      marchingAlgorithmFactory;
+   private final MixedClearingNetworkAlgorithm
+      clearingAlgorithm;                        // Null for a new algorithm per session
+   
    @Inject
    public ClearingGiltsBondsAndCommercialLoansMarket(
       @Assisted
@@ -106,6 +113,16 @@ public final class ClearingGiltsBondsAndCommercialLoansMarket
       this.lastTradeWeightedReturnRates = new HashMap<ClearingInstrument, Double>();
       this.commericalLoanClientRiskBuckets =
          new HashedMap<String, List<ClearingMarketParticipant>>();
+      this.clearingRateCache = new ClearingRateCache();
+      this.marchingAlgorithmFactory = new MixedClearingNetworkAlgorithmFactory() {
+            @Override
+            public MixedClearingNetworkAlgorithm create(
+               final MixedClearingNetwork component) {
+               return new AdaptiveMarchHeterogeneousClearingAlgorithm(
+                  60, 1.e-8, new OrderOrIterationsStoppingCondition(10, 30, component));
+            }
+         };
+      this.clearingAlgorithm = createClearingAlgorithm(marchingAlgorithmFactory);
       
       for(final String riskGrade : commercialLoanRiskGrades)
          addInstrument(riskGrade + " Commercial Loan", instruments);
@@ -117,6 +134,28 @@ public final class ClearingGiltsBondsAndCommercialLoansMarket
       }
    }
    
+   /**
+     * Implementation detail. Create the clearing algorithm used by every session
+     * of this market, as selected by the system properties {@value 
+     * AdaptiveSelectionClearingAlgorithm#ADAPTIVE_SELECTION_PROPERTY} and {@value 
+     * ConnectedComponentsClearingAlgorithm#COMPONENT_CLEARING_PROPERTY}. This 
+     * method returns {@code null} if neither property is set, in which case each
+     * session clears the whole network with a new marching algorithm.
+     */
+   private static MixedClearingNetworkAlgorithm createClearingAlgorithm(
+      final MixedClearingNetworkAlgorithmFactory marchingAlgorithmFactory) {
+      final boolean
+         doClearComponents = ConnectedComponentsClearingAlgorithm.isEnabledBySystemProperty();
+      if(AdaptiveSelectionClearingAlgorithm.isEnabledBySystemProperty()) {
+         final AdaptiveSelectionClearingAlgorithm adaptiveAlgorithm =
+            new AdaptiveSelectionClearingAlgorithm(marchingAlgorithmFactory, 1.e-10);
+         return doClearComponents ?
+            new ConnectedComponentsClearingAlgorithm(adaptiveAlgorithm) : adaptiveAlgorithm;
+      }
+      return doClearComponents ?
+         new ConnectedComponentsClearingAlgorithm(marchingAlgorithmFactory) : null;
+   }
+   
    /**
      * Implementation detail. Add a {@link ClearingInstrument} to this market.
      * 
@@ -257,11 +296,10 @@ public final class ClearingGiltsBondsAndCommercialLoansMarket
       
       // Build the network and apply a clearing algorithm.
       final MixedClearingNetwork network = networkBuilder.build();
-      final MixedClearingNetworkAlgorithm clearingAlgorithm =
-         new AdaptiveMarchHeterogeneousClearingAlgorithm(
-            60, 1.e-8, new OrderOrIterationsStoppingCondition(10, 30, network));
-      
-      network.applyClearingAlgorithm(clearingAlgorithm);
+      network.applyClearingAlgorithm(
+         clearingAlgorithm != null ? clearingAlgorithm : marchingAlgorithmFactory.create(network),
+         clearingRateCache);
+      recordClearingMetrics(network.getMetrics());
       
       network.createContracts();
       
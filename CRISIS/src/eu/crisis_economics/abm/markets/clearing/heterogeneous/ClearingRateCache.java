@@ -0,0 +1,187 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * A cache of converged edge rates for the {@link MixedClearingNetwork} of one
+  * {@link ClearingMarket}.<br><br>
+  * 
+  * The topology of a clearing network rarely changes much from one simulation
+  * cycle to the next. After a network has been cleared, its edge rates are stored
+  * in this cache by edge identity. When the next network of the same market is 
+  * cleared, the stored rates are offered to the clearing algorithm as an initial
+  * guess (see {@link MixedClearingNetwork#applyClearingAlgorithm(
+  * MixedClearingNetworkAlgorithm, ClearingRateCache)}).<br><br>
+  * 
+  * The identity of a {@link SingletonEdge} is the unique ID of its demand node, the 
+  * unique ID of its supply node, and its {@link ClearingInstrument}. The identity of
+  * a {@link HyperEdge} is the list of distinct {@link ClearingInstrument}{@code s} 
+  * of its components, so that the rate of a homogeneous subnetwork survives the 
+  * arrival and departure of individual participants.<br><br>
+  * 
+  * No initial guess is offered for edges whose identity is unknown to this cache,
+  * or for edges whose stored rate is outside the admissible domain of the edge in 
+  * the new network. Algorithms fall back to their usual starting rates for these
+  * edges. Each clearing session replaces the contents of this cache, so that rates
+  * for edges which no longer exist are discarded.<br><br>
+  * 
+  * Warm starts are enabled by setting the system property {@value 
+  * #WARM_START_PROPERTY} to {@code true}. By default, this cache offers no initial
+  * guesses, and clearing sessions start from the usual starting rates of each
+  * algorithm.
+  * 
+  * @author phillips
+  */
+final class ClearingRateCache {
+   
+   static final String
+      WARM_START_PROPERTY =
+         "eu.crisis_economics.abm.markets.clearing.heterogeneous.warmStart";
+   
+   private Map<List<Object>, Double>
+      convergedRates;
+   private final boolean
+      isEnabled;
+   private long
+      edgesWarmStarted,
+      edgesColdStarted;
+   
+   ClearingRateCache() {
+      this(Boolean.parseBoolean(System.getProperty(WARM_START_PROPERTY, "false")));
+   }
+   
+   ClearingRateCache(final boolean isEnabled) {
+      this.convergedRates = new HashMap<List<Object>, Double>();
+      this.isEnabled = isEnabled;
+   }
+   
+   /**
+     * Get initial edge rates for a network. The entry at index {@code i} in the
+     * resulting array is the initial rate for the {@code i}th edge in 
+     * {@link MixedClearingNetwork#getEdges()}, or {@link Double#NaN} if no initial 
+     * rate is known for this edge. If no initial rate is known for any edge, this 
+     * method returns {@code null}.
+     */
+   double[] getInitialRates(final MixedClearingNetwork network) {
+      Preconditions.checkNotNull(network);
+      final List<MixedClearingNetworkEdge> edges = network.getEdges();
+      if(!isEnabled || convergedRates.isEmpty()) {
+         edgesColdStarted += edges.size();
+         return null;
+      }
+      final double[] result = new double[edges.size()];
+      Arrays.fill(result, Double.NaN);
+      int numberOfEdgesFound = 0;
+      for(int i = 0; i< edges.size(); ++i) {
+         final MixedClearingNetworkEdge edge = edges.get(i);
+         final Double rate = convergedRates.get(getIdentity(edge));
+         if(rate == null || rate < 0. || rate > edge.getMaximumRateAdmissibleByBothParties())
+            continue;
+         result[i] = rate;
+         ++numberOfEdgesFound;
+      }
+      edgesWarmStarted += numberOfEdgesFound;
+      edgesColdStarted += edges.size() - numberOfEdgesFound;
+      return numberOfEdgesFound == 0 ? null : result;
+   }
+   
+   /**
+     * Store the edge rates of a cleared network, replacing all existing records.
+     * Rates which are not finite are not stored.
+     */
+   void store(final MixedClearingNetwork network) {
+      Preconditions.checkNotNull(network);
+      if(!isEnabled)
+         return;
+      final Map<List<Object>, Double> rates = new HashMap<List<Object>, Double>();
+      for(final MixedClearingNetworkEdge edge : network.getEdges()) {
+         final double rate = edge.getEdgeRate();
+         if(Double.isNaN(rate) || Double.isInfinite(rate))
+            continue;
+         rates.put(getIdentity(edge), rate);
+      }
+      convergedRates = rates;
+   }
+   
+   /**
+     * Discard all stored rates.
+     */
+   void clear() {
+      convergedRates = new HashMap<List<Object>, Double>();
+   }
+   
+   private static List<Object> getIdentity(final MixedClearingNetworkEdge edge) {
+      final List<Object> result = new ArrayList<Object>(3);
+      if(edge instanceof SingletonEdge) {
+         final SingletonEdge singleton = (SingletonEdge) edge;
+         result.add(singleton.getDemandSideNode().getUniqueID());
+         result.add(singleton.getSupplySideNode().getUniqueID());
+         result.add(singleton.getResource());
+      }
+      else if(edge instanceof HyperEdge) {
+         result.add(HyperEdge.class);
+         for(final SingletonEdge component : ((HyperEdge) edge).getComponents())
+            if(!result.contains(component.getResource()))
+               result.add(component.getResource());
+      }
+      else
+         result.add(edge);
+      return result;
+   }
+   
+   /**
+     * Get the number of records in this cache.
+     */
+   int size() {
+      return convergedRates.size();
+   }
+   
+   /**
+     * Get the total number of edges for which an initial rate has been offered.
+     */
+   long getNumberOfEdgesWarmStarted() {
+      return edgesWarmStarted;
+   }
+   
+   /**
+     * Get the total number of edges for which no initial rate was known.
+     */
+   long getNumberOfEdgesColdStarted() {
+      return edgesColdStarted;
+   }
+   
+   boolean isEnabled() {
+      return isEnabled;
+   }
+   
+   @Override
+   public String toString() {
+      return "Clearing Rate Cache, enabled: " + isEnabled + ", records: " + size()
+         + ", edges warm started: " + edgesWarmStarted + ", edges cold started: "
+         + edgesColdStarted + ".";
+   }
+}
@@ -113,6 +113,7 @@ public final class ClearingSimpleCommercialLoanMarket extends AbstractClearingMa
          network.matchAllOrders(100, 15);
       else
          network.matchAllOrders(100, 1);
+      recordClearingMetrics(network.getLastClearingMetrics());
       updatePortfolios(desiredTradesAggregator);
       lastTradeWeightedInterestRate =
          desiredTradesAggregator.getDesiredTradeWeightedRate();
@@ -22,6 +22,7 @@ package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -31,15 +32,24 @@ import com.google.common.base.Preconditions;
 
 import eu.crisis_economics.abm.contracts.stocks.UniqueStockExchange;
 import eu.crisis_economics.abm.contracts.stocks.StockHolder;
+import eu.crisis_economics.abm.contracts.stocks.StockOwnershipTracker;
 import eu.crisis_economics.abm.contracts.stocks.StockReleaser;
 import eu.crisis_economics.abm.markets.clearing.CentralPaymentShareDisributionAlgorithm;
 import eu.crisis_economics.abm.markets.clearing.ClearingHouse;
 import eu.crisis_economics.abm.simulation.Simulation;
 
 /**
+  * A {@link ClearingMarket} for shares in one {@link StockReleaser}. Stock 
+  * markets whose participants do not overlap can be prepared concurrently (see
+  * {@link ConcurrentClearingMarket}). The participants of this market are the 
+  * stock market participants of the {@link ClearingHouse} which either hold 
+  * shares in the {@link StockReleaser} or opt in to buy them (see {@link 
+  * ClearingHouse#isStockPurchaseOptIn}).
+  * 
   * @author phillips
   */
-public final class ClearingStockMarket extends AbstractClearingMarket {
+public final class ClearingStockMarket extends AbstractClearingMarket
+   implements ConcurrentClearingMarket {
    
    private final ClearingInstrument
       instrument;
@@ -49,6 +59,17 @@ public final class ClearingStockMarket extends AbstractClearingMarket {
       lastStockPrice,
       lastTotalStockTradeNumberOfShares;
    
+   private ResourceExchangeAggregator
+      pendingTrades;
+   private boolean
+      isPendingSessionTraded;
+   private double
+      pendingClearingPrice;
+   private int
+      pendingNumberOfParticipants;
+   private ClearingAlgorithmMetrics
+      pendingClearingMetrics;
+   
    /**
      * Create a {@link ClearingStockMarket} for the stated {@link StockReleaser},
      * belonging to the stated {@link ClearingHouse}.<br><br>
@@ -73,6 +94,17 @@ public final class ClearingStockMarket extends AbstractClearingMarket {
    
    @Override
    public void process() {
+      prepare();
+      commit();
+   }
+   
+   /**
+     * Query all participants for market responses and compute the clearing price
+     * and trades for this session. Stock holders, the stock price and the stock 
+     * exchange are not modified until {@link #commit()} is called.
+     */
+   @Override
+   public void prepare() {
       ResourceExchangeAggregator desiredTradesAggregator = 
          new AbstractResourceExchangeAggregator() {
             @Override
@@ -92,8 +124,41 @@ public final class ClearingStockMarket extends AbstractClearingMarket {
       CompleteNetworkMarket network =
          new PureHomogeneousNetworkMarket(
             instrument, desiredTradesAggregator);
-      if(addStockHoldersToNetwork(network) <= 1 || 
+      pendingTrades = desiredTradesAggregator;
+      pendingClearingMetrics = null;
+      pendingNumberOfParticipants = addStockHoldersToNetwork(network);
+      if(pendingNumberOfParticipants <= 1 || 
          UniqueStockExchange.Instance.getNumberOfEmittedSharesIn(stockReleaser) == 0.) {
+         isPendingSessionTraded = false;
+         return;
+      }
+      
+      addStockReleasersToNetwork(network);
+      network.matchAllOrders(75, 1);
+      pendingClearingMetrics = network.getLastClearingMetrics();
+      
+      pendingClearingPrice = 
+         desiredTradesAggregator.iterator().next().getSecond().getSecond();
+      isPendingSessionTraded = true;
+   }
+   
+   /**
+     * Commit the new stock price and the stock trades computed by the last call 
+     * to {@link #prepare()}.
+     */
+   @Override
+   public void commit() {
+      if(pendingTrades == null)
+         return;
+      final ResourceExchangeAggregator desiredTradesAggregator = pendingTrades;
+      pendingTrades = null;
+      if(pendingClearingMetrics != null)
+         recordClearingMetrics(pendingClearingMetrics);
+      pendingClearingMetrics = null;
+      System.out.printf("Stock Market Participants:\n");
+      if(pendingNumberOfParticipants == 0)
+         System.out.printf("[no participants]\n");
+      if(!isPendingSessionTraded) {
          System.out.printf(
             "---------------------------------------------\n" +
             "Stock Market Cleared [Time: %g]\n" +
@@ -109,12 +174,8 @@ public final class ClearingStockMarket extends AbstractClearingMarket {
          return;
       }
       
-      addStockReleasersToNetwork(network);
-      network.matchAllOrders(75, 1);
-      
       // Commit the new price per share.
-      final double clearingPricePreShare = 
-         desiredTradesAggregator.iterator().next().getSecond().getSecond();
+      final double clearingPricePreShare = pendingClearingPrice;
       
       lastTotalStockTradeNumberOfShares = desiredTradesAggregator.getTotalDesiredTrade();
       
@@ -147,14 +208,57 @@ public final class ClearingStockMarket extends AbstractClearingMarket {
       }
    }
    
+   /**
+     * The footprint of this market consists of the unique names of all current 
+     * holders of shares in the {@link StockReleaser}, all stock market participants
+     * which opt in to buy these shares, and the {@link StockReleaser} itself. 
+     * These are the participants queried, and the shareholdings modified, by the
+     * next clearing session.<br><br>
+     * 
+     * Stock market participants which do not restrict their purchases (see 
+     * {@link ClearingHouse#addStockMarketParticipant(StockHolder)}) opt in to
+     * every stock market, so stock markets which share such a participant are
+     * prepared in sequence.
+     */
+   @Override
+   public Set<String> getFootprint() {
+      final Set<String> result = new HashSet<String>(getParticipants().keySet());
+      final StockOwnershipTracker holders = 
+         UniqueStockExchange.Instance.getOwnershipTracker(stockReleaser.getUniqueName());
+      if(holders != null)
+         for(final StockHolder holder : holders)
+            result.add(holder.getUniqueName());
+      result.add(stockReleaser.getUniqueName());
+      return result;
+   }
+   
+   /*
+    * Get the stock market participants of the clearing house which hold shares in,
+    * or opt in to buy shares in, the stock releaser, in order of registration.
+    */
+   private Map<String, ClearingMarketParticipant> getParticipants() {
+      final Map<String, ClearingMarketParticipant> result =
+         new LinkedHashMap<String, ClearingMarketParticipant>();
+      final ClearingHouse house = getClearingHouse();
+      final StockOwnershipTracker holders = 
+         UniqueStockExchange.Instance.getOwnershipTracker(stockReleaser.getUniqueName());
+      for(final Entry<String, ClearingMarketParticipant> record : 
+         house.getStockMarketParticipants().entrySet()) {
+         final String name = record.getKey();
+         if(house.isStockPurchaseOptIn(name, stockReleaser.getUniqueName()) ||
+            (holders != null && holders.doesOwnShares(name)))
+            result.put(name, record.getValue());
+      }
+      return result;
+   }
+   
    private int addStockHoldersToNetwork(final CompleteNetworkMarket network) {
       final List<ClearingInstrument> resources =
          new ArrayList<ClearingInstrument>();
       resources.add(instrument);
       int numberOfParticipants = 0;
-      System.out.printf("Stock Market Participants:\n");
       for(final Entry<String, ClearingMarketParticipant> record : 
-         getClearingHouse().getStockMarketParticipants().entrySet()) {
+         getParticipants().entrySet()) {
          final MarketResponseFunction marketResponseFunction =
             record.getValue().getMarketResponseFunction(
                getSummaryInformation());
@@ -167,8 +271,6 @@ public final class ClearingStockMarket extends AbstractClearingMarket {
             );
          ++numberOfParticipants;
       }
-      if(numberOfParticipants == 0)
-         System.out.printf("[no participants]\n");
       return numberOfParticipants;
    }
    
@@ -0,0 +1,67 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Set;
+
+import eu.crisis_economics.abm.markets.clearing.ClearingHouse;
+
+/**
+  * A {@link ClearingMarket} whose clearing session can be processed concurrently
+  * with the sessions of other markets.<br><br>
+  * 
+  * The clearing session of a {@link ConcurrentClearingMarket} is divided into 
+  * two phases: {@link #prepare()} and {@link #commit()}. In the first phase, the
+  * market queries its participants for market responses and computes the outcome
+  * of the clearing session. The first phase must not modify the state of any 
+  * participant or of any simulation-wide service, and must not create contracts.
+  * In the second phase, the market applies the outcome of the clearing session
+  * (Eg. creates contracts, transfers cash and publishes prices). Calling
+  * {@link #process()} is equivalent to calling {@link #prepare()} followed by
+  * {@link #commit()}.<br><br>
+  * 
+  * Each {@link ConcurrentClearingMarket} declares the participants and resources
+  * it reads or writes during its clearing session (see {@link #getFootprint()}). 
+  * A {@link ClearingHouse} may execute the first phase of markets with disjoint
+  * footprints at the same time. Second phases are executed one at a time, in the
+  * order in which the markets were added to the {@link ClearingHouse}.
+  * 
+  * @author phillips
+  */
+public interface ConcurrentClearingMarket extends ClearingMarket {
+   /**
+     * Get the unique names of all participants and resources read or written
+     * by the next clearing session of this market. Two markets whose footprints
+     * have no element in common do not interact. Adding or removing elements 
+     * from the return value will not affect the state of this market.
+     */
+   public Set<String> getFootprint();
+   
+   /**
+     * Query participants and compute the outcome of the next clearing session,
+     * without modifying participants.
+     */
+   public void prepare();
+   
+   /**
+     * Apply the outcome computed by the last call to {@link #prepare()}. If no 
+     * such outcome exists, this method has no effect.
+     */
+   public void commit();
+}
@@ -0,0 +1,245 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+import eu.crisis_economics.abm.simulation.SimulationContext;
+import eu.crisis_economics.abm.simulation.WorkerPool;
+
+/**
+  * A {@link MixedClearingNetworkAlgorithm} which decomposes a network into 
+  * independent parts before clearing.<br><br>
+  * 
+  * A {@link MixedClearingNetwork} frequently consists of several connected 
+  * components (Eg. distinct groups of participants with no instrument in common).
+  * The rates of edges in distinct components do not interact, so each component
+  * can be cleared as a separate, smaller, optimization problem. This algorithm
+  * finds the connected components of the network (see {@link 
+  * MixedClearingNetworkIndex#getConnectedComponents()}), creates a new clearing 
+  * algorithm for each component using a {@link MixedClearingNetworkAlgorithmFactory},
+  * and applies each algorithm to its own component. If the network has only one
+  * component, the network is cleared as a whole.<br><br>
+  * 
+  * Components share no nodes, so components can be cleared concurrently. The 
+  * solution for each component does not depend on the number of threads or on 
+  * the order in which components are cleared. Edges retain their positions in the 
+  * original network, so the residual cost of the network and the {@link 
+  * MixedClearingNetworkResult}{@code s} created by {@link 
+  * MixedClearingNetwork#createContracts()} are reproducible.<br><br>
+  * 
+  * Concurrent clearing requires that the {@link MarketResponseFunction}{@code s} of
+  * nodes in distinct components can be evaluated concurrently. For this reason 
+  * components are cleared in sequence by default. The number of threads can be
+  * specified by the system property {@value #NUMBER_OF_THREADS_PROPERTY}. Worker
+  * threads clear components within the {@link SimulationContext} of the calling
+  * thread.<br><br>
+  * 
+  * The algorithms for all components are created, in component order, by the 
+  * calling thread before any component is cleared. If the factory is a {@link 
+  * ComponentsClearedListener}, it is notified on the calling thread once all 
+  * components have been cleared.<br><br>
+  * 
+  * Markets which support component clearing use this algorithm if the system 
+  * property {@value #COMPONENT_CLEARING_PROPERTY} is {@code true}. By default, 
+  * such markets clear the network as a whole.
+  * 
+  * @author phillips
+  */
+final class ConnectedComponentsClearingAlgorithm implements MixedClearingNetworkAlgorithm {
+   
+   /**
+     * A {@link MixedClearingNetworkAlgorithmFactory} which should be notified when
+     * the algorithms it created for the components of one network have been applied.
+     */
+   interface ComponentsClearedListener {
+      /**
+        * Called on the thread which cleared the network, once every algorithm 
+        * created for the components of the network has been applied, or once 
+        * clearing has failed.
+        */
+      void componentsCleared();
+   }
+   
+   static final String
+      COMPONENT_CLEARING_PROPERTY =
+         "eu.crisis_economics.abm.markets.clearing.heterogeneous.componentClearing",
+      NUMBER_OF_THREADS_PROPERTY =
+         "eu.crisis_economics.abm.markets.clearing.heterogeneous.componentClearingThreads";
+   
+   private final MixedClearingNetworkAlgorithmFactory
+      algorithmFactory;
+   private final WorkerPool
+      workers;
+   
+   private int
+      numberOfComponentsCleared;
+   
+   /**
+     * Create a {@link ConnectedComponentsClearingAlgorithm} with the number of
+     * threads specified by the system property {@value #NUMBER_OF_THREADS_PROPERTY}
+     * (by default, {@code 1}).
+     * 
+     * @param algorithmFactory
+     *        A factory for the algorithms to apply to each connected component.
+     *        This argument should not be {@code null}.
+     */
+   ConnectedComponentsClearingAlgorithm(
+      final MixedClearingNetworkAlgorithmFactory algorithmFactory) {
+      this(algorithmFactory, Math.max(1, Integer.getInteger(NUMBER_OF_THREADS_PROPERTY, 1)));
+   }
+   
+   /**
+     * Create a {@link ConnectedComponentsClearingAlgorithm}.
+     * 
+     * @param algorithmFactory
+     *        A factory for the algorithms to apply to each connected component.
+     *        This argument should not be {@code null}.
+     * @param numberOfThreads
+     *        The number of threads (including the calling thread) used to clear
+     *        components. This argument should be strictly positive. A value of
+     *        {@code 1} clears components in sequence.
+     */
+   ConnectedComponentsClearingAlgorithm(
+      final MixedClearingNetworkAlgorithmFactory algorithmFactory,
+      final int numberOfThreads
+      ) {
+      Preconditions.checkNotNull(algorithmFactory);
+      Preconditions.checkArgument(numberOfThreads > 0);
+      this.algorithmFactory = algorithmFactory;
+      this.workers = new WorkerPool("Clearing Component Worker", numberOfThreads);
+   }
+   
+   /**
+     * Is component clearing enabled by the system property {@value 
+     * #COMPONENT_CLEARING_PROPERTY}?
+     */
+   static boolean isEnabledBySystemProperty() {
+      return Boolean.parseBoolean(System.getProperty(COMPONENT_CLEARING_PROPERTY, "false"));
+   }
+   
+   @Override
+   public double applyToNetwork(final MixedClearingNetwork network) {
+      Preconditions.checkNotNull(network);
+      final int[][] components = network.getIndex().getConnectedComponents();
+      numberOfComponentsCleared = components.length;
+      network.getMetrics().setNumberOfComponents(components.length);
+      if(components.length <= 1) {
+         try {
+            algorithmFactory.create(network).applyToNetwork(network);
+         }
+         finally {
+            notifyComponentsCleared();
+         }
+         return network.getResidualCost();
+      }
+      final List<MixedClearingNetwork> subnetworks = 
+         new ArrayList<MixedClearingNetwork>(components.length);
+      for(final int[] component : components)
+         subnetworks.add(network.createSubnetwork(component));
+      
+      // Clear the largest components first, so that threads finish together.
+      final MixedClearingNetwork[] queue = 
+         subnetworks.toArray(new MixedClearingNetwork[subnetworks.size()]);
+      Arrays.sort(queue, new Comparator<MixedClearingNetwork>() {
+         @Override
+         public int compare(final MixedClearingNetwork first, final MixedClearingNetwork second) {
+            return Integer.valueOf(second.getNumberOfEdges()).compareTo(
+               first.getNumberOfEdges());
+         }
+      });
+      final MixedClearingNetworkAlgorithm[] algorithms =
+         new MixedClearingNetworkAlgorithm[queue.length];
+      for(int i = 0; i< queue.length; ++i)
+         algorithms[i] = algorithmFactory.create(queue[i]);
+      try {
+         clearAll(queue, algorithms);
+      }
+      finally {
+         notifyComponentsCleared();
+      }
+      return network.getResidualCost();
+   }
+   
+   private void notifyComponentsCleared() {
+      if(algorithmFactory instanceof ComponentsClearedListener)
+         ((ComponentsClearedListener) algorithmFactory).componentsCleared();
+   }
+   
+   /*
+    * Clear every network in the queue with the corresponding algorithm. Each 
+    * thread takes the next uncleared network from the queue until the queue is
+    * exhausted. If any thread fails, the remaining networks are abandoned.
+    */
+   private void clearAll(
+      final MixedClearingNetwork[] queue,
+      final MixedClearingNetworkAlgorithm[] algorithms
+      ) {
+      final AtomicInteger cursor = new AtomicInteger(0);
+      final Runnable worker = new Runnable() {
+         @Override
+         public void run() {
+            try {
+               for(int i = cursor.getAndIncrement(); i< queue.length; 
+                   i = cursor.getAndIncrement())
+                  algorithms[i].applyToNetwork(queue[i]);
+            }
+            catch(final RuntimeException failure) {
+               cursor.set(queue.length);                      // Abandon remaining components
+               throw failure;
+            }
+            catch(final Error failure) {
+               cursor.set(queue.length);
+               throw failure;
+            }
+         }
+      };
+      workers.executeAll(
+         Collections.nCopies(Math.min(getNumberOfThreads(), queue.length), worker));
+   }
+   
+   /**
+     * Get the number of connected components found by the most recent call to
+     * {@link #applyToNetwork(MixedClearingNetwork)}.
+     */
+   int getNumberOfComponentsCleared() {
+      return numberOfComponentsCleared;
+   }
+   
+   int getNumberOfThreads() {
+      return workers.getNumberOfThreads();
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public String toString() {
+      return "Connected Components Clearing Algorithm, threads: " + getNumberOfThreads() 
+         + ", components cleared: " + numberOfComponentsCleared + ".";
+   }
+}
@@ -47,7 +47,7 @@ final class DescentMarchHeterogeneousClearingAlgorithm
    protected void advanceOverEdge(
       final MixedClearingNetworkEdge edge) {
       final double existingEdgeRate = edge.getEdgeRate();
-      MeritFunction meritFunction = new MeritFunction(edge);
+      MeritFunction meritFunction = super.getMeritFunction(edge);
       {
          final double
             currentEvaluation = meritFunction.functionValue(existingEdgeRate);
@@ -55,10 +55,10 @@ final class DescentMarchHeterogeneousClearingAlgorithm
             Math.abs(currentEvaluation) < super.getAccuracyGoalPerEdge())
             return;
       }
-      ValueBisectorAlgorithm<MeritFunction> bisector = 
-         new ValueBisectorAlgorithm<MeritFunction>(super.getMaximumEdgeIterations());
+      final ValueBisectorAlgorithm<MeritFunction> bisector = super.getBisector();
       ValueBisectorAlgorithm.BisectionResult resultBracket = 
-         bisector.bisectInRange(meritFunction, 0., existingEdgeRate, 0.);
+         bisector.bisectInRange(
+            meritFunction, 0., existingEdgeRate, 0., super.getBisectionResult());
       double result = resultBracket.getBracketUpperBound();
       edge.setEdgeRate(result);
    }
@@ -55,12 +55,13 @@ final class DescentMarchSeedObjectivesSelectionAlgorithm
             preSeedRate = (1.-1.e-11) * Math.min(maximumDemandDomain, maximumSupplyDomain);
          edge.setEdgeRate(preSeedRate);
       }
+      final MeritFunction meritFunction = new MeritFunction();
       for(int i = 0; i< network.getNumberOfEdges(); ++i) {
          MixedClearingNetworkEdge edge = networkEdges.get(i);
          final double
             maximumDemandDomain = edge.getMaximumRateInDemandDomain(),
             maximumSupplyDomain = edge.getMaximumRateInSupplyDomain();
-         MeritFunction meritFunction = new MeritFunction(edge);
+         meritFunction.setEdge(edge);
          final double
             maximumDomain = Math.min(maximumDemandDomain, maximumSupplyDomain);
          boolean foundSeed = false;
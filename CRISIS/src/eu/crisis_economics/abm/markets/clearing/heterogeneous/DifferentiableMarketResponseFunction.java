@@ -0,0 +1,51 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+/**
+  * A {@link MarketResponseFunction} which can compute the derivatives of its
+  * response with respect to the rates of its trade opportunities.<br><br>
+  * 
+  * Clearing algorithms which require derivatives (Eg. the Jacobian of the 
+  * network cost) use these derivatives when they are available. Otherwise, 
+  * derivatives are estimated by finite differences (see {@link
+  * MarketResponseFunction.Util#getValues}).
+  * 
+  * @author phillips
+  */
+public interface DifferentiableMarketResponseFunction extends MarketResponseFunction {
+   /**
+     * Are derivatives available for this response function? If this method 
+     * returns {@code false}, the behaviour of {@link #getDerivatives} is 
+     * undefined. Decorators and composite response functions are differentiable
+     * only if their components are differentiable.
+     */
+   public boolean isDifferentiable();
+   
+   /**
+     * Compute the derivatives of this market response function for the given 
+     * arguments. The {@code [i][j]}th element of the result is the derivative of
+     * the response to trade opportunity {@code queries[i]} with respect to the rate
+     * of trade opportunity {@code j}. The result therefore has 
+     * {@code queries.length} rows and {@code opportunities.length} columns. See
+     * also {@link #getValue(int[], TradeOpportunity[])}.
+     */
+   public double[][] getDerivatives(
+      final int[] queries, final TradeOpportunity[] opportunities);
+}
@@ -25,11 +25,19 @@ import com.google.common.base.Preconditions;
   * An implementation of the exponential Intensity of Choice partition function.
   * For arguments (r_1, r_2, r_3 ... r_N), the jth coordinate of this partition
   * function has value <code>exp(+r_j * F) / \sum_{j = 1}^N exp(+r_j * F)</code>
-  * where <code>F</code> is a customizable normalization factor.
+  * where <code>F</code> is a customizable normalization factor. The derivative
+  * of the jth coordinate with respect to r_k is <code>F * p_j * (d_jk - p_k)</code>,
+  * where <code>p_j</code> is the value of the jth coordinate and <code>d_jk</code>
+  * is the Kronecker delta.<br><br>
+  * 
+  * Each exponential is evaluated once per evaluation. If every coordinate is 
+  * queried, in order, using {@link #getValue(int[], double[], double[])}, the
+  * evaluation does not allocate memory.
   * 
   * @author phillips
   */
-public final class ExpIOCPartitionFunction extends AbstractResponseFunction {
+public final class ExpIOCPartitionFunction extends AbstractResponseFunction
+   implements DifferentiableMarketResponseFunction, VectorizedMarketResponseFunction {
    
    private final static double
       DEFAULT_NORMALIZATION = 1.0;
@@ -62,13 +70,60 @@ public final class ExpIOCPartitionFunction extends AbstractResponseFunction {
       final int[] queries,
       final TradeOpportunity[] arguments
       ) {
+      final double[] result = new double[queries.length];
+      getValue(queries, MarketResponseFunction.Util.toRateArray(arguments), result);
+      return result;
+   }
+   
+   @Override
+   public boolean isVectorized() {
+      return true;
+   }
+   
+   @Override
+   public void getValue(
+      final int[] queries,
+      final double[] rates,
+      final double[] result
+      ) {
+      final double[] exponentials =
+         MarketResponseFunction.Util.isCompleteQuery(queries, rates.length) ?
+            result : new double[rates.length];
       double
          summand = 0.;
-      for(int i = 0; i< arguments.length; ++i)
-         summand += Math.exp(arguments[i].getRate() * normalization);
-      double[] result = new double[queries.length];
-      for(int i = 0; i< result.length; ++i) {
-         result[i] = Math.exp(arguments[queries[i]].getRate() * normalization) / summand;
+      for(int i = 0; i< rates.length; ++i) {
+         exponentials[i] = Math.exp(rates[i] * normalization);
+         summand += exponentials[i];
+      }
+      for(int i = 0; i< queries.length; ++i)
+         result[i] = exponentials[queries[i]] / summand;
+   }
+   
+   @Override
+   public boolean isDifferentiable() {
+      return true;
+   }
+   
+   @Override
+   public double[][] getDerivatives(
+      final int[] queries,
+      final TradeOpportunity[] arguments
+      ) {
+      final double[] partition = new double[arguments.length];
+      double
+         summand = 0.;
+      for(int k = 0; k< arguments.length; ++k) {
+         partition[k] = Math.exp(arguments[k].getRate() * normalization);
+         summand += partition[k];
+      }
+      for(int k = 0; k< arguments.length; ++k)
+         partition[k] /= summand;
+      final double[][] result = new double[queries.length][arguments.length];
+      for(int i = 0; i< queries.length; ++i) {
+         final double p = partition[queries[i]];
+         for(int k = 0; k< arguments.length; ++k)
+            result[i][k] = -normalization * p * partition[k];
+         result[i][queries[i]] += normalization * p;
       }
       return result;
    }
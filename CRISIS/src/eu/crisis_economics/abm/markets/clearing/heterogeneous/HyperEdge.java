@@ -42,44 +42,44 @@ public final class HyperEdge extends MixedClearingNetworkEdge {
    
    @Override
    public void setEdgeRate(double rate) {
-      for(SingletonEdge edge : singletonEdges)
-         edge.setEdgeRate(rate);
+      for(int i = 0; i< singletonEdges.size(); ++i)
+         singletonEdges.get(i).setEdgeRate(rate);
       super.setEdgeRate(rate);
    }
    
    @Override
    void flagNodesResponsesForUpdate() {
-      for(SingletonEdge edge : singletonEdges)
-         edge.flagNodesResponsesForUpdate();
+      for(int i = 0; i< singletonEdges.size(); ++i)
+         singletonEdges.get(i).flagNodesResponsesForUpdate();
    }
    
    @Override
    void updateNodeResponses() {
-      for(SingletonEdge edge : singletonEdges)
-         edge.updateNodeResponses();
+      for(int i = 0; i< singletonEdges.size(); ++i)
+         singletonEdges.get(i).updateNodeResponses();
    }
    
    @Override
    double getCost() {
       double result = 0.;
-      for(SingletonEdge edge : singletonEdges)
-         result += edge.getCost();
+      for(int i = 0; i< singletonEdges.size(); ++i)
+         result += singletonEdges.get(i).getCost();
       return result;
    }
    
    @Override
    double getDemandResponse() {
       double result = 0.;
-      for(SingletonEdge edge : singletonEdges)
-         result += edge.getDemandResponse();
+      for(int i = 0; i< singletonEdges.size(); ++i)
+         result += singletonEdges.get(i).getDemandResponse();
       return result;
    }
   
    @Override
    double getSupplyResponse() {
       double result = 0.;
-      for(SingletonEdge edge : singletonEdges)
-         result += edge.getSupplyResponse();
+      for(int i = 0; i< singletonEdges.size(); ++i)
+         result += singletonEdges.get(i).getSupplyResponse();
       return result;
    }
    
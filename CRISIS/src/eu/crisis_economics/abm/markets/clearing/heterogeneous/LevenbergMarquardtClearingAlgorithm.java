@@ -28,6 +28,8 @@ import org.apache.commons.math3.linear.RealVector;
 import org.apache.commons.math3.optim.ConvergenceChecker;
 import org.apache.commons.math3.optim.SimpleVectorValueChecker;
 
+import org.apache.log4j.Logger;
+
 import com.google.common.base.Preconditions;
 
 /**
@@ -39,6 +41,9 @@ import com.google.common.base.Preconditions;
 final class LevenbergMarquardtClearingAlgorithm 
    extends NumericalDerivativeClearingAlgorithm {
    
+   private static final Logger
+      LOG = Logger.getLogger(LevenbergMarquardtClearingAlgorithm.class);
+   
    private final int
       maximumIterations,
       maximumEvaluations;
@@ -71,6 +76,7 @@ final class LevenbergMarquardtClearingAlgorithm
       for(int i = 0; i< network.getNumberOfEdges(); ++i)
          start.setEntry(i, network.getEdges().get(i).getMaximumRateAdmissibleByBothParties());
       start.set(1.0);
+      super.applyWarmStartRates(network, start, 0., Double.MAX_VALUE);
       
       final ConvergenceChecker<LeastSquaresProblem.Evaluation> evaluationChecker =
          LeastSquaresFactory.evaluationChecker(
@@ -83,7 +89,9 @@ final class LevenbergMarquardtClearingAlgorithm
       final Optimum result = optimizer.optimize(problem);
       
       final double residualCost = result.getRMS();
-      System.out.println("Network cleared: residual cost: " + residualCost + ".");
+      network.getMetrics().recordIterations(result.getIterations());
+      if(LOG.isDebugEnabled())
+         LOG.debug("Network cleared: residual cost: " + residualCost + ".");
       
       return residualCost;
    }
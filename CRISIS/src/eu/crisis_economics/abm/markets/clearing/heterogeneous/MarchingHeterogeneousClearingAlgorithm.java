@@ -20,6 +20,8 @@ package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 
 import java.util.List;
 
+import org.apache.log4j.Logger;
+
 import com.google.common.base.Preconditions;
 
 import eu.crisis_economics.abm.algorithms.optimization.ValueBisectorAlgorithm;
@@ -30,20 +32,40 @@ import eu.crisis_economics.abm.algorithms.optimization.ValueBisectorAlgorithm;
 abstract class MarchingHeterogeneousClearingAlgorithm
    implements MixedClearingNetworkAlgorithm {
    
+   private static final Logger
+      LOG = Logger.getLogger(MarchingHeterogeneousClearingAlgorithm.class);
+   
    private final int
       maxIterationsPerEdge;
    private final double
       accuracyGoalPerEdge;
    private MixedClearingNetworkAlgorithmStoppingCondition
       stoppingCondition;
+   private final ValueBisectorAlgorithm<MeritFunction>
+      bisector;
+   private final MeritFunction
+      meritFunction;
+   private final ValueBisectorAlgorithm.BisectionResult
+      bisectionResult;
    
+   /**
+     * The sum of the demand and supply responses to one edge, as a function of
+     * the edge rate. The edge can be changed with {@link #setEdge}, so that one
+     * instance can be reused for every edge of a network.
+     */
    protected static class MeritFunction
       implements ValueBisectorAlgorithm.Bisectable {
       
       private MixedClearingNetworkEdge edge;
       
-      MeritFunction(final MixedClearingNetworkEdge edge) {
+      MeritFunction() { }
+      
+      /**
+        * Evaluate this function for the specified edge. Returns this object.
+        */
+      MeritFunction setEdge(final MixedClearingNetworkEdge edge) {
          this.edge = edge;
+         return this;
       }
       
       @Override
@@ -66,6 +88,9 @@ abstract class MarchingHeterogeneousClearingAlgorithm
       this.maxIterationsPerEdge = maxIterationsPerEdge;
       this.accuracyGoalPerEdge = accuracyGoalPerEdge;
       this.stoppingCondition = stoppingCondition;
+      this.bisector = new ValueBisectorAlgorithm<MeritFunction>(maxIterationsPerEdge);
+      this.meritFunction = new MeritFunction();
+      this.bisectionResult = new ValueBisectorAlgorithm.BisectionResult();
    }
    
    /**
@@ -90,17 +115,28 @@ abstract class MarchingHeterogeneousClearingAlgorithm
       }
       network.updateAllVertexResponses();
       double networkResidual = network.getResidualCost();
+      if(isWarmStartAdmissible() && network.hasWarmStartRates() &&
+         tryWarmStart(network, networkResidual)) {
+         networkResidual = network.getResidualCost();
+         /*
+          * Marching from an equilibrium state does not in general preserve 
+          * that state. If the initial rates already satisfy the stopping 
+          * condition, no further iterations are required.
+          */
+         if(stoppingCondition.isStoppingConditionSatisfied(network))
+            return networkResidual;
+      }
       { // Marching and iteration
          while(true) {
-            for(MixedClearingNetworkEdge edge : networkEdges)
-               advanceOverEdge(edge);
-            for(MixedClearingNetworkEdge edge : networkEdges)
-               edge.flagNodesResponsesForUpdate();
-            for(MixedClearingNetworkEdge edge : networkEdges)
-               edge.updateNodeResponses();
+            for(int i = 0; i< networkEdges.size(); ++i) {
+               advanceOverEdge(networkEdges.get(i));
+               network.markEdgeForRefresh(i);
+            }
+            network.refreshVertexResponses();           // Only nodes with moved edges
             applyPostMarchingStep(network);
             networkResidual = network.getResidualCost();
-            System.out.printf("Network residual: %16.10g\n", networkResidual);
+            if(LOG.isDebugEnabled())
+               LOG.debug(String.format("Network residual: %16.10g", networkResidual));
             if(stoppingCondition.isStoppingConditionSatisfied(network)) break;
          }
       }
@@ -109,6 +145,49 @@ abstract class MarchingHeterogeneousClearingAlgorithm
    
    protected void applyPreMarchingStep(MixedClearingNetwork network) { }
    
+   /**
+     * Can this algorithm march from arbitrary (non-seed) edge rates? If so,
+     * the initial rates offered by the network are used in place of seed 
+     * rates. By default, this method returns {@code false}.
+     */
+   protected boolean isWarmStartAdmissible() {
+      return false;
+   }
+   
+   /**
+     * Replace seed edge rates with the initial rates offered by the network.
+     * The initial rates are kept only if they yield a smaller network residual
+     * than the seed rates. Otherwise the seed rates are restored.
+     * 
+     * @return
+     *        {@code true} if the initial rates were kept.
+     */
+   private boolean tryWarmStart(
+      final MixedClearingNetwork network,
+      final double seedResidual
+      ) {
+      final List<MixedClearingNetworkEdge> networkEdges = network.getEdges();
+      final double[] seedRates = new double[networkEdges.size()];
+      for(int i = 0; i< networkEdges.size(); ++i) {
+         seedRates[i] = networkEdges.get(i).getEdgeRate();
+         final double warmStartRate = network.getWarmStartRate(i);
+         if(!Double.isNaN(warmStartRate))
+            networkEdges.get(i).setEdgeRate(warmStartRate);
+      }
+      network.updateAllVertexResponses();
+      final double warmStartResidual = network.getResidualCost();
+      if(warmStartResidual < seedResidual) {
+         if(stoppingCondition instanceof OrderOrIterationsStoppingCondition)
+            ((OrderOrIterationsStoppingCondition) stoppingCondition)
+               .setReferenceResidual(seedResidual);
+         return true;
+      }
+      for(int i = 0; i< networkEdges.size(); ++i)
+         networkEdges.get(i).setEdgeRate(seedRates[i]);
+      network.updateAllVertexResponses();
+      return false;
+   }
+   
    /**
      * Try to identify seed edge rates for the primary iteration of 
      * the algorithm. Candidate seeds will be evaluated within 1, 2 
@@ -136,6 +215,35 @@ abstract class MarchingHeterogeneousClearingAlgorithm
       return maxIterationsPerEdge;
    }
    
+   /**
+     * Get the (immutable) bisection algorithm used by this algorithm to
+     * advance over network edges. The bisector is limited to
+     * {@link #getMaximumEdgeIterations()} iterations.
+     */
+   protected final ValueBisectorAlgorithm<MeritFunction> getBisector() {
+      return bisector;
+   }
+   
+   /**
+     * Get the {@link MeritFunction} of the specified edge. The same (mutable)
+     * instance is returned for every edge, so that advancing over an edge does
+     * not allocate.
+     */
+   protected final MeritFunction getMeritFunction(final MixedClearingNetworkEdge edge) {
+      return meritFunction.setEdge(edge);
+   }
+   
+   /**
+     * Get a (mutable) {@link ValueBisectorAlgorithm.BisectionResult} to be 
+     * overwritten by {@link ValueBisectorAlgorithm#bisectInRange(
+     * ValueBisectorAlgorithm.Bisectable, double, double, double, 
+     * ValueBisectorAlgorithm.BisectionResult)}. The same instance is returned by 
+     * every call.
+     */
+   protected final ValueBisectorAlgorithm.BisectionResult getBisectionResult() {
+      return bisectionResult;
+   }
+   
    /**
      * Get the algorithm clearing accuracy goal per edge.
      */
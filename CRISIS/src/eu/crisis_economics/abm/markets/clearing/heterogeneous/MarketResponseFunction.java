@@ -149,6 +149,68 @@ public interface MarketResponseFunction extends BoundedDomainMixin {
            result[i] = candidates[i].getRate();
         return result;
       }
+      
+      /**
+        * Utility function. Does the query array {@code queries} list every
+        * trade opportunity in order (Ie. is {@code queries[i] == i} for all 
+        * {@code i}, and is the length of {@code queries} equal to {@code 
+        * numberOfOpportunities})?
+        */
+      static public boolean isCompleteQuery(
+         final int[] queries,
+         final int numberOfOpportunities
+         ) {
+         if(queries.length != numberOfOpportunities)
+            return false;
+         for(int i = 0; i< queries.length; ++i)
+            if(queries[i] != i)
+               return false;
+         return true;
+      }
+      
+      /**
+        * Utility function. Evaluate a market response function at several
+        * rate vectors. The {@code k}th row of the argument {@code rates}
+        * specifies the rate of each trade opportunity in {@code opportunities}
+        * for the {@code k}th evaluation. The {@code k}th row of the result is
+        * the value of {@code function.getValue(queries, ...)} at these rates.
+        * The argument {@code opportunities} is not modified.<br><br>
+        * 
+        * This method is used to estimate derivatives by finite differences.
+        * If the response function is a {@link VectorizedMarketResponseFunction},
+        * the rows of {@code rates} are passed to the response function directly.
+        * Otherwise the trade opportunities offered to the response function are 
+        * allocated once, and are reused for each rate vector.
+        */
+      static public double[][] getValues(
+         final MarketResponseFunction function,
+         final int[] queries,
+         final TradeOpportunity[] opportunities,
+         final double[][] rates
+         ) {
+         if(function instanceof VectorizedMarketResponseFunction &&
+            ((VectorizedMarketResponseFunction) function).isVectorized()) {
+            final double[][] result = new double[rates.length][queries.length];
+            for(int k = 0; k< rates.length; ++k)
+               ((VectorizedMarketResponseFunction) function).getValue(
+                  queries, rates[k], result[k]);
+            return result;
+         }
+         final TradeOpportunity[] arguments = new TradeOpportunity[opportunities.length];
+         for(int i = 0; i< opportunities.length; ++i)
+            arguments[i] = TradeOpportunity.create(
+               opportunities[i].getRate(),
+               opportunities[i].getInstrument(),
+               opportunities[i].getTradeParty()
+               );
+         final double[][] result = new double[rates.length][];
+         for(int k = 0; k< rates.length; ++k) {
+            for(int i = 0; i< arguments.length; ++i)
+               arguments[i].setRate(rates[k][i]);
+            result[k] = function.getValue(queries, arguments);
+         }
+         return result;
+      }
    }
    
    /**
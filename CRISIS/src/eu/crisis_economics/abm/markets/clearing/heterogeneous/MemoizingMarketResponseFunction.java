@@ -0,0 +1,397 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * A caching decorator for an expensive {@link MarketResponseFunction}, such as
+  * the portfolio optimization response function of a bank.<br><br>
+  * 
+  * Clearing algorithms evaluate the response function of each network node many
+  * times per clearing session, frequently at rates which have been queried before.
+  * This decorator stores the complete response (the response to every trade
+  * opportunity) of the underlying function in a least-recently-used (LRU) cache
+  * keyed by the vector of trade opportunity rates. Queries for any subset of trade 
+  * opportunities at a known rate vector are answered from the cache.<br><br>
+  * 
+  * Rates are quantised before lookup: two rate vectors are considered equal if 
+  * {@code Math.round(rate/quantum)} is equal for every trade opportunity. When the 
+  * quantum is nonzero, the underlying function is evaluated at the quantised
+  * rates, so that the result of a query does not depend on the order of earlier
+  * queries. A quantum of zero (the default) selects exact (bitwise) keys, in which 
+  * case this decorator does not modify the responses of the underlying function.
+  * <br><br>
+  * 
+  * Optionally, this decorator can also maintain a local surrogate of the 
+  * underlying function. The surrogate is linear in the rates, and is anchored at
+  * the most recent rate vector for which it was refreshed. The surrogate answers
+  * cache misses within a trust region (a maximum distance, in each rate, from its
+  * anchor). The surrogate is refreshed (re-anchored, at the cost of one evaluation
+  * of the underlying function per trade opportunity) when a query falls outside
+  * its trust region. Successive anchors form a piecewise linear approximation to
+  * the underlying function. The surrogate is disabled when the trust region radius
+  * is zero (the default).<br><br>
+  * 
+  * This decorator assumes that the underlying function solves the whole response
+  * problem for all trade opportunities when queried, so that the response to
+  * each trade opportunity does not depend on which other responses were requested.
+  * The trade opportunities offered to this function should not change identity 
+  * (instrument and trade party) between calls; if they do, the cache is cleared.
+  * <br><br>
+  * 
+  * This class is thread-safe.
+  * 
+  * @author phillips
+  */
+public final class MemoizingMarketResponseFunction implements MarketResponseFunction {
+   
+   public static final int
+      DEFAULT_CACHE_CAPACITY = 256;
+   
+   private final MarketResponseFunction
+      implementation;
+   private final double
+      quantum,
+      trustRegionRadius;
+   
+   private final LinkedHashMap<RateVector, double[]>
+      cache;
+   
+   private MarketResponseFunction.TradeOpportunity[]
+      knownOpportunities;
+   private int[]
+      allQueries;
+   
+   private double[]
+      surrogateAnchor,
+      surrogateValue;
+   private double[][]
+      surrogateJacobian;
+   
+   private long
+      cacheHits,
+      cacheMisses,
+      surrogateHits,
+      surrogateRefreshes,
+      implementationEvaluations;
+   
+   /**
+     * Create a {@link MemoizingMarketResponseFunction} with exact keys, the default
+     * cache capacity, and no surrogate.
+     * 
+     * @param implementation
+     *        The {@link MarketResponseFunction} to decorate. This argument should
+     *        not be {@code null}.
+     */
+   public MemoizingMarketResponseFunction(final MarketResponseFunction implementation) {
+      this(implementation, DEFAULT_CACHE_CAPACITY, 0., 0.);
+   }
+   
+   /**
+     * Create a custom {@link MemoizingMarketResponseFunction}.
+     * 
+     * @param implementation
+     *        The {@link MarketResponseFunction} to decorate. This argument should
+     *        not be {@code null}.
+     * @param cacheCapacity
+     *        The maximum number of rate vectors to remember. This argument should
+     *        be strictly positive.
+     * @param quantum
+     *        The rate quantum used to form cache keys. This argument should be
+     *        non-negative. If zero, keys are exact.
+     * @param trustRegionRadius
+     *        The trust region radius of the local linear surrogate. This argument
+     *        should be non-negative. If zero, no surrogate is used.
+     */
+   public MemoizingMarketResponseFunction(
+      final MarketResponseFunction implementation,
+      final int cacheCapacity,
+      final double quantum,
+      final double trustRegionRadius
+      ) {
+      Preconditions.checkNotNull(implementation);
+      Preconditions.checkArgument(cacheCapacity > 0);
+      Preconditions.checkArgument(quantum >= 0.);
+      Preconditions.checkArgument(trustRegionRadius >= 0.);
+      this.implementation = implementation;
+      this.quantum = quantum;
+      this.trustRegionRadius = trustRegionRadius;
+      this.cache = new LinkedHashMap<RateVector, double[]>(16, .75f, true) {
+         private static final long serialVersionUID = 1L;
+         @Override
+         protected boolean removeEldestEntry(final Map.Entry<RateVector, double[]> eldest) {
+            return size() > cacheCapacity;
+         }
+      };
+   }
+   
+   /*
+    * A quantised rate vector.
+    */
+   private static final class RateVector {
+      private final long[] keys;
+      private final int hash;
+      
+      RateVector(final long[] keys) {
+         this.keys = keys;
+         this.hash = Arrays.hashCode(keys);
+      }
+      
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+      
+      @Override
+      public boolean equals(final Object obj) {
+         if(this == obj)
+            return true;
+         if(!(obj instanceof RateVector))
+            return false;
+         return Arrays.equals(keys, ((RateVector) obj).keys);
+      }
+   }
+   
+   @Override
+   public synchronized double[] getValue(
+      final int[] queries,
+      final TradeOpportunity[] opportunities
+      ) {
+      checkOpportunityIdentities(opportunities);
+      final double[] rates = new double[opportunities.length];
+      final long[] keys = new long[opportunities.length];
+      for(int i = 0; i< opportunities.length; ++i) {
+         final double rate = opportunities[i].getRate();
+         if(quantum == 0.) {
+            keys[i] = Double.doubleToLongBits(rate);
+            rates[i] = rate;
+         } else {
+            keys[i] = Math.round(rate / quantum);
+            rates[i] = keys[i] * quantum;
+         }
+      }
+      final RateVector key = new RateVector(keys);
+      double[] response = cache.get(key);
+      if(response != null)
+         ++cacheHits;
+      else {
+         ++cacheMisses;
+         if(trustRegionRadius > 0.) {
+            if(!isWithinTrustRegion(rates))
+               refreshSurrogate(rates, opportunities);
+            else
+               ++surrogateHits;
+            response = evaluateSurrogate(rates);
+         }
+         else if(quantum == 0.) {
+            ++implementationEvaluations;
+            response = implementation.getValue(getAllQueries(opportunities.length), opportunities);
+         }
+         else
+            response = evaluateImplementation(rates, opportunities);
+         cache.put(key, response);
+      }
+      final double[] result = new double[queries.length];
+      for(int i = 0; i< queries.length; ++i)
+         result[i] = response[queries[i]];
+      return result;
+   }
+   
+   /*
+    * Clear the cache if the identities of the trade opportunities have changed.
+    */
+   private void checkOpportunityIdentities(final TradeOpportunity[] opportunities) {
+      if(knownOpportunities == opportunities)
+         return;
+      boolean isSame = (knownOpportunities != null &&
+         knownOpportunities.length == opportunities.length);
+      for(int i = 0; isSame && i< opportunities.length; ++i)
+         isSame = opportunities[i].getInstrument().equals(
+            knownOpportunities[i].getInstrument()) &&
+            opportunities[i].getTradeParty().equals(knownOpportunities[i].getTradeParty());
+      if(!isSame) {
+         cache.clear();
+         surrogateAnchor = null;
+      }
+      knownOpportunities = opportunities;
+   }
+   
+   /*
+    * Evaluate the underlying function for all trade opportunities at the 
+    * specified rates.
+    */
+   private double[] evaluateImplementation(
+      final double[] rates,
+      final TradeOpportunity[] opportunities
+      ) {
+      final TradeOpportunity[] arguments = new TradeOpportunity[opportunities.length];
+      for(int i = 0; i< opportunities.length; ++i)
+         arguments[i] = TradeOpportunity.create(
+            rates[i], opportunities[i].getInstrument(), opportunities[i].getTradeParty());
+      ++implementationEvaluations;
+      return implementation.getValue(getAllQueries(opportunities.length), arguments);
+   }
+   
+   private int[] getAllQueries(final int numberOfOpportunities) {
+      if(allQueries == null || allQueries.length != numberOfOpportunities) {
+         allQueries = new int[numberOfOpportunities];
+         for(int i = 0; i< numberOfOpportunities; ++i)
+            allQueries[i] = i;
+      }
+      return allQueries;
+   }
+   
+   private boolean isWithinTrustRegion(final double[] rates) {
+      if(surrogateAnchor == null)
+         return false;
+      for(int i = 0; i< rates.length; ++i)
+         if(Math.abs(rates[i] - surrogateAnchor[i]) > trustRegionRadius)
+            return false;
+      return true;
+   }
+   
+   /*
+    * Anchor the local linear surrogate at the specified rates. The Jacobian of 
+    * the underlying function is estimated by finite differences. Perturbations
+    * are directed into the domain of the function.
+    */
+   private void refreshSurrogate(
+      final double[] rates,
+      final TradeOpportunity[] opportunities
+      ) {
+      ++surrogateRefreshes;
+      final int dimension = rates.length;
+      surrogateAnchor = rates.clone();
+      surrogateValue = evaluateImplementation(rates, opportunities);
+      surrogateJacobian = new double[dimension][dimension];
+      final double
+         maximumRate = implementation.getMaximumInDomain();
+      for(int j = 0; j< dimension; ++j) {
+         double step = Math.sqrt(Math.ulp(1.)) * Math.max(Math.abs(rates[j]), 1.);
+         step = Math.min(step, trustRegionRadius);
+         if(rates[j] + step > maximumRate)
+            step = -step;
+         final double[] perturbed = rates.clone();
+         perturbed[j] += step;
+         final double[] perturbedValue = evaluateImplementation(perturbed, opportunities);
+         for(int i = 0; i< dimension; ++i)
+            surrogateJacobian[i][j] = (perturbedValue[i] - surrogateValue[i]) / step;
+      }
+   }
+   
+   private double[] evaluateSurrogate(final double[] rates) {
+      final double[] result = surrogateValue.clone();
+      for(int j = 0; j< rates.length; ++j) {
+         final double displacement = rates[j] - surrogateAnchor[j];
+         if(displacement == 0.)
+            continue;
+         for(int i = 0; i< result.length; ++i)
+            result[i] += surrogateJacobian[i][j] * displacement;
+      }
+      return result;
+   }
+   
+   @Override
+   public double getMinimumInDomain() {
+      return implementation.getMinimumInDomain();
+   }
+   
+   @Override
+   public double getMaximumInDomain() {
+      return implementation.getMaximumInDomain();
+   }
+   
+   /**
+     * Get the number of queries answered from the cache.
+     */
+   public synchronized long getNumberOfCacheHits() {
+      return cacheHits;
+   }
+   
+   /**
+     * Get the number of queries not answered from the cache.
+     */
+   public synchronized long getNumberOfCacheMisses() {
+      return cacheMisses;
+   }
+   
+   /**
+     * Get the fraction of queries answered from the cache, or zero if no 
+     * queries have been processed.
+     */
+   public synchronized double getCacheHitRate() {
+      final long total = cacheHits + cacheMisses;
+      return total == 0 ? 0. : cacheHits / (double) total;
+   }
+   
+   /**
+     * Get the number of cache misses answered by the local surrogate without
+     * refreshing the surrogate.
+     */
+   public synchronized long getNumberOfSurrogateHits() {
+      return surrogateHits;
+   }
+   
+   /**
+     * Get the number of times the local surrogate has been refreshed.
+     */
+   public synchronized long getNumberOfSurrogateRefreshes() {
+      return surrogateRefreshes;
+   }
+   
+   /**
+     * Get the number of evaluations of the underlying function.
+     */
+   public synchronized long getNumberOfImplementationEvaluations() {
+      return implementationEvaluations;
+   }
+   
+   /**
+     * Get the number of rate vectors currently held in the cache.
+     */
+   public synchronized int getCacheSize() {
+      return cache.size();
+   }
+   
+   public double getQuantum() {
+      return quantum;
+   }
+   
+   public double getTrustRegionRadius() {
+      return trustRegionRadius;
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public synchronized String toString() {
+      return "Memoizing Market Response Function, quantum: " + quantum
+         + ", trust region radius: " + trustRegionRadius + ", cache hits: " + cacheHits
+         + ", cache misses: " + cacheMisses + ", surrogate hits: " + surrogateHits
+         + ", surrogate refreshes: " + surrogateRefreshes + ", evaluations: " 
+         + implementationEvaluations + ", implementation: " + implementation + ".";
+   }
+}
@@ -20,10 +20,12 @@
 package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.commons.math3.exception.NullArgumentException;
 
@@ -36,11 +38,53 @@ final class MixedClearingNetwork {
       networkEdges;
    private final Map<String, HyperEdge>
       hyperEdgesByName;
+   private List<Node>
+      nodeEvaluationOrder;
+   private MixedClearingNetworkIndex
+      index;
+   private NodeResponseEvaluator
+      nodeResponseEvaluator;
+   private double[]
+      warmStartRates;
+   private ClearingAlgorithmMetrics
+      metrics;
+   
+   /*
+    * Nodes (by index) touching edges whose rates have been set by 
+    * setEdgeRate(int, double) since the last call to refreshVertexResponses().
+    */
+   private BitSet
+      dirtyNodes;
+   private final List<Node>
+      dirtyNodeBuffer;
+   
+   /*
+    * The running sum of the square costs of all edges. See getResidualCost().
+    */
+   private double[]
+      edgeSquareCosts;
+   private long[]
+      nodeResponseStamps;
+   private BitSet
+      staleEdges;
+   private double
+      residualSum,
+      residualErrorBound;
+   
+   /*
+    * The running residual sum is recomputed exactly whenever its accumulated
+    * rounding error may exceed this fraction of its value.
+    */
+   private static final double
+      RESIDUAL_RELATIVE_ACCURACY = 1.e-10;
    
    protected MixedClearingNetwork() {
-      this.networkNodes = new HashMap<String, Node>();
+      this.networkNodes = new LinkedHashMap<String, Node>();
       this.networkEdges = new ArrayList<MixedClearingNetworkEdge>();
       this.hyperEdgesByName = new HashMap<String, HyperEdge>();
+      this.nodeResponseEvaluator = NodeResponseEvaluator.getSharedInstance();
+      this.metrics = new ClearingAlgorithmMetrics();
+      this.dirtyNodeBuffer = new ArrayList<Node>();
    }
    
    static final class Builder {
@@ -61,6 +105,7 @@ final class MixedClearingNetwork {
          Node node = new MixedClearingNetworkNode(
             representedObject, responseFunction, uniqueID);
          network.networkNodes.put(uniqueID, node);
+         network.invalidateIndex();
       }
       
       void addEdge(
@@ -82,6 +127,7 @@ final class MixedClearingNetwork {
             resource
             );
          network.networkEdges.add(newEdge);
+         network.invalidateIndex();
       }
       
       void addHyperEdge(final String hyperEdgeName) {
@@ -98,6 +144,7 @@ final class MixedClearingNetwork {
          hyperedge = new HyperEdge();
          network.networkEdges.add(hyperedge);
          network.hyperEdgesByName.put(hyperEdgeName, hyperedge);
+         network.invalidateIndex();
       }
       
       void addToHyperEdge(
@@ -126,6 +173,7 @@ final class MixedClearingNetwork {
             resource
             );
          existingHyperedge.addEdge(newEdge);
+         network.invalidateIndex();
       }
       
       private Pair<Node, Node> tryGetDemandSupplyNodePair(
@@ -168,9 +216,140 @@ final class MixedClearingNetwork {
       return networkNodes.size();
    }
    
+   /*
+    * Update the responses of all nodes to all edges. Nodes are evaluated
+    * by the NodeResponseEvaluator for this network, which may evaluate
+    * distinct nodes concurrently.
+    */
    void updateAllVertexResponses() {
-      for(Entry<String, Node> record : networkNodes.entrySet())
-         record.getValue().updateAllEdgeResponses();
+      nodeResponseEvaluator.updateAllEdgeResponses(getNodeEvaluationOrder());
+   }
+   
+   /*
+    * Recompute the responses of all nodes to edges which have been flagged
+    * for update. See Node.recomputePendingEdgeResponses().
+    */
+   void recomputePendingVertexResponses() {
+      nodeResponseEvaluator.recomputePendingEdgeResponses(getNodeEvaluationOrder());
+   }
+   
+   /*
+    * Set the rate of the edge with the specified index, and mark the nodes 
+    * touching this edge for refresh. The responses of these nodes are brought 
+    * up to date by the next call to refreshVertexResponses().
+    */
+   void setEdgeRate(final int edgeIndex, final double rate) {
+      networkEdges.get(edgeIndex).setEdgeRate(rate);
+      markEdgeForRefresh(edgeIndex);
+   }
+   
+   /*
+    * Mark the nodes touching the edge with the specified index for refresh. 
+    * This method should be called for edges whose rates have been modified 
+    * without using setEdgeRate(int, double).
+    */
+   void markEdgeForRefresh(final int edgeIndex) {
+      final MixedClearingNetworkIndex index = getIndex();
+      if(dirtyNodes == null)
+         dirtyNodes = new BitSet(index.getNumberOfNodes());
+      for(int k = 0; k< index.getNumberOfNodesOfEdge(edgeIndex); ++k)
+         dirtyNodes.set(index.getNodeOfEdge(edgeIndex, k));
+   }
+   
+   /*
+    * Bring the responses of all nodes marked for refresh up to date with the
+    * current edge rates. Of these nodes, only those whose incident edge rates
+    * have changed since their responses were last computed are evaluated (see 
+    * Node.refreshEdgeResponses()). Nodes are refreshed in index order by the
+    * NodeResponseEvaluator for this network.
+    */
+   void refreshVertexResponses() {
+      if(dirtyNodes == null || dirtyNodes.isEmpty())
+         return;
+      final MixedClearingNetworkIndex index = getIndex();
+      dirtyNodeBuffer.clear();
+      for(int n = dirtyNodes.nextSetBit(0); n >= 0; n = dirtyNodes.nextSetBit(n + 1))
+         dirtyNodeBuffer.add(index.getNode(n));
+      dirtyNodes.clear();
+      nodeResponseEvaluator.refreshEdgeResponses(dirtyNodeBuffer);
+   }
+   
+   /*
+    * Get an immutable list of all network nodes, in the order in which 
+    * nodes were added to the network.
+    */
+   private List<Node> getNodeEvaluationOrder() {
+      if(nodeEvaluationOrder == null)
+         nodeEvaluationOrder = Collections.unmodifiableList(
+            new ArrayList<Node>(networkNodes.values()));
+      return nodeEvaluationOrder;
+   }
+   
+   /*
+    * Get the integer-indexed topology of this network. The index is
+    * computed when first requested, and is recomputed after the network
+    * is modified.
+    */
+   MixedClearingNetworkIndex getIndex() {
+      if(index == null)
+         index = new MixedClearingNetworkIndex(getNodeEvaluationOrder(), networkEdges);
+      return index;
+   }
+   
+   private void invalidateIndex() {
+      nodeEvaluationOrder = null;
+      index = null;
+      dirtyNodes = null;
+      edgeSquareCosts = null;
+   }
+   
+   /*
+    * Create a network consisting of a subset of the edges of this network,
+    * together with every node touched by these edges. The resulting network
+    * shares its nodes and edges with this network, so clearing the resulting
+    * network modifies the rates of the corresponding edges in this network.
+    * The subset of edges should be a connected component of this network (see
+    * MixedClearingNetworkIndex.getConnectedComponents()), so that every edge
+    * of every node in the resulting network is a member of the resulting 
+    * network. Initial rates offered by this network (if any) are offered by
+    * the resulting network for the same edges.
+    */
+   MixedClearingNetwork createSubnetwork(final int[] edgeIndices) {
+      final MixedClearingNetworkIndex index = getIndex();
+      final MixedClearingNetwork result = new MixedClearingNetwork();
+      final BitSet nodesInSubnetwork = new BitSet(index.getNumberOfNodes());
+      for(final int edgeIndex : edgeIndices) {
+         result.networkEdges.add(networkEdges.get(edgeIndex));
+         for(int k = 0; k< index.getNumberOfNodesOfEdge(edgeIndex); ++k)
+            nodesInSubnetwork.set(index.getNodeOfEdge(edgeIndex, k));
+      }
+      for(int n = nodesInSubnetwork.nextSetBit(0); n >= 0; 
+          n = nodesInSubnetwork.nextSetBit(n + 1)) {
+         final Node node = index.getNode(n);
+         result.networkNodes.put(node.getUniqueID(), node);
+      }
+      if(warmStartRates != null) {
+         final double[] rates = new double[edgeIndices.length];
+         boolean isAnyRateKnown = false;
+         for(int i = 0; i< edgeIndices.length; ++i) {
+            rates[i] = warmStartRates[edgeIndices[i]];
+            isAnyRateKnown |= !Double.isNaN(rates[i]);
+         }
+         result.warmStartRates = isAnyRateKnown ? rates : null;
+      }
+      result.nodeResponseEvaluator = nodeResponseEvaluator;
+      result.metrics = metrics;
+      return result;
+   }
+   
+   /*
+    * Specify the NodeResponseEvaluator used by this network. By default,
+    * the shared NodeResponseEvaluator is used.
+    */
+   void setNodeResponseEvaluator(final NodeResponseEvaluator evaluator) {
+      if(evaluator == null)
+         throw new NullArgumentException();
+      this.nodeResponseEvaluator = evaluator;
    }
    
    /**
@@ -182,19 +361,180 @@ final class MixedClearingNetwork {
       final MixedClearingNetworkAlgorithm clearingAlgorithm) {
       if(clearingAlgorithm == null)
          throw new NullArgumentException();
+      return applyAndMeasure(clearingAlgorithm);
+   }
+   
+   /**
+     * Apply a clearing algorithm to the network, offering the rates stored
+     * in a {@link ClearingRateCache} to the algorithm as an initial guess.
+     * If the algorithm completes, the resulting edge rates are stored in
+     * the cache.
+     */
+   public double applyClearingAlgorithm(
+      final MixedClearingNetworkAlgorithm clearingAlgorithm,
+      final ClearingRateCache clearingRateCache
+      ) {
+      if(clearingAlgorithm == null || clearingRateCache == null)
+         throw new NullArgumentException();
+      final double residualCost;
+      warmStartRates = clearingRateCache.getInitialRates(this);
+      try {
+         residualCost = applyAndMeasure(clearingAlgorithm);
+      }
+      finally {
+         warmStartRates = null;
+      }
+      clearingRateCache.store(this);
+      return residualCost;
+   }
+   
+   /*
+    * Apply a clearing algorithm to the network, and record the performance of
+    * the algorithm in a new ClearingAlgorithmMetrics object.
+    */
+   private double applyAndMeasure(final MixedClearingNetworkAlgorithm clearingAlgorithm) {
+      metrics = new ClearingAlgorithmMetrics();
+      metrics.setNumberOfComponents(1);
+      final long
+         evaluationsBefore = countResponseEvaluations(),
+         timeBefore = System.nanoTime();
       final double residualCost = clearingAlgorithm.applyToNetwork(this);
+      final long
+         timeAfter = System.nanoTime();
+      metrics.recordSession(
+         countResponseEvaluations() - evaluationsBefore,
+         timeAfter - timeBefore,
+         getResidualCost()
+         );
       return residualCost;
    }
    
+   /*
+    * Get the total number of response function evaluations of all nodes in
+    * this network (see Node.getNumberOfResponseEvaluations()).
+    */
+   long countResponseEvaluations() {
+      long result = 0L;
+      for(final Node node : networkNodes.values())
+         result += node.getNumberOfResponseEvaluations();
+      return result;
+   }
+   
+   /**
+     * Get the performance metrics of the clearing algorithm most recently 
+     * applied to this network. Subnetworks created by {@link #createSubnetwork}
+     * during a clearing session record their metrics in the same object. If
+     * no clearing algorithm has been applied to this network, the result 
+     * describes no clearing sessions.
+     */
+   public ClearingAlgorithmMetrics getMetrics() {
+      return metrics;
+   }
+   
+   /*
+    * Does this network offer an initial rate for at least one edge?
+    */
+   boolean hasWarmStartRates() {
+      return warmStartRates != null;
+   }
+   
+   /*
+    * Get the initial rates offered by this network, indexed by edge, or null
+    * if this network offers no initial rates. Unknown rates are NaN.
+    */
+   double[] getWarmStartRates() {
+      return warmStartRates;
+   }
+   
+   /*
+    * Replace the initial rates offered by this network. The argument should
+    * be indexed by edge, or be null, in which case no initial rates are 
+    * offered. This method allows a clearing algorithm to offer the result of 
+    * one algorithm as the initial guess for another.
+    */
+   void setWarmStartRates(final double[] rates) {
+      if(rates != null && rates.length != networkEdges.size())
+         throw new IllegalArgumentException(
+            "MixedClearingNetwork.setWarmStartRates: expected " + networkEdges.size()
+          + " rates, received " + rates.length + ".");
+      warmStartRates = rates;
+   }
+   
+   /*
+    * Get the initial rate offered for the edge with the specified index,
+    * or NaN if no initial rate is known for this edge. Clearing algorithms
+    * may use this rate as an initial guess.
+    */
+   double getWarmStartRate(final int edgeIndex) {
+      return warmStartRates == null ? Double.NaN : warmStartRates[edgeIndex];
+   }
+   
    /**
      * Get the residual cost of the network. If this method returns zero,
-     * then the heterogeneous network has been cleared.
+     * then the heterogeneous network has been cleared.<br><br>
+     * 
+     * The sum of square edge costs is kept as a running sum. When this method
+     * is called, only the costs of edges touching nodes whose responses have
+     * been recomputed since the last call (see {@link 
+     * Node#getNumberOfResponseEvaluations()}) are subtracted from, and added to,
+     * the running sum. If the rounding error accumulated in this way may exceed 
+     * a small fraction of the sum, the sum is recomputed exactly in the order in
+     * which edges were added to the network. The sequence of operations depends
+     * only on the sequence of node evaluations, and is performed by the calling
+     * thread whether or not node responses were evaluated concurrently. The 
+     * residual cost is therefore reproducible.
      */
    public final double getResidualCost() {
+      if(edgeSquareCosts == null) {
+         resynchronizeResidual();
+         return residualSum / networkEdges.size();
+      }
+      final MixedClearingNetworkIndex index = getIndex();
+      for(int n = 0; n< nodeResponseStamps.length; ++n) {
+         final long stamp = index.getNode(n).getNumberOfResponseEvaluations();
+         if(stamp == nodeResponseStamps[n])
+            continue;
+         nodeResponseStamps[n] = stamp;
+         for(int k = 0; k< index.getNumberOfEdgesOfNode(n); ++k)
+            staleEdges.set(index.getEdgeOfNode(n, k));
+      }
+      if(staleEdges.isEmpty())
+         return residualSum / networkEdges.size();
+      for(int e = staleEdges.nextSetBit(0); e >= 0; e = staleEdges.nextSetBit(e + 1)) {
+         final double
+            squareCost = networkEdges.get(e).getSquareCost(),
+            previousSquareCost = edgeSquareCosts[e],
+            largestTerm = Math.max(residualSum, Math.max(squareCost, previousSquareCost));
+         residualSum += squareCost - previousSquareCost;
+         residualErrorBound += 2. * Math.ulp(largestTerm);
+         edgeSquareCosts[e] = squareCost;
+      }
+      staleEdges.clear();
+      if(residualErrorBound > RESIDUAL_RELATIVE_ACCURACY * residualSum)
+         resynchronizeResidual();
+      return residualSum / networkEdges.size();
+   }
+   
+   /*
+    * Recompute the running sum of square edge costs exactly.
+    */
+   private void resynchronizeResidual() {
+      final MixedClearingNetworkIndex index = getIndex();
+      if(edgeSquareCosts == null) {
+         edgeSquareCosts = new double[networkEdges.size()];
+         nodeResponseStamps = new long[index.getNumberOfNodes()];
+         staleEdges = new BitSet(networkEdges.size());
+      }
+      for(int n = 0; n< nodeResponseStamps.length; ++n)
+         nodeResponseStamps[n] = index.getNode(n).getNumberOfResponseEvaluations();
       double summand = 0.;
-      for(MixedClearingNetworkEdge edge : networkEdges)
-         summand += edge.getSquareCost();
-      return summand / networkEdges.size();
+      for(int e = 0; e< edgeSquareCosts.length; ++e) {
+         edgeSquareCosts[e] = networkEdges.get(e).getSquareCost();
+         summand += edgeSquareCosts[e];
+      }
+      residualSum = summand;
+      residualErrorBound = 0.;
+      staleEdges.clear();
    }
    
    /**
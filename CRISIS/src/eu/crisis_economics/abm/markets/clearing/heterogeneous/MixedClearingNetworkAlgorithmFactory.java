@@ -0,0 +1,33 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+/**
+  * A factory for {@link MixedClearingNetworkAlgorithm}{@code s}. Clearing algorithms,
+  * and their stopping conditions, are typically used once per clearing session.
+  * This factory creates a new algorithm for each network to be cleared.
+  * 
+  * @author phillips
+  */
+interface MixedClearingNetworkAlgorithmFactory {
+   /**
+     * Create a new {@link MixedClearingNetworkAlgorithm} for the specified network.
+     */
+   MixedClearingNetworkAlgorithm create(MixedClearingNetwork network);
+}
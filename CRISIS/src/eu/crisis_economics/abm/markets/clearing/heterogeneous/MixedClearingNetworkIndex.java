@@ -0,0 +1,266 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+  * An immutable, integer-indexed representation of the topology of a 
+  * {@link MixedClearingNetwork}.<br><br>
+  * 
+  * Nodes are indexed in the order in which they were added to the network, and
+  * edges (including {@link HyperEdge}{@code s}) are indexed by their position in
+  * {@link MixedClearingNetwork#getEdges()}. Edge endpoints are resolved to node
+  * indices by unique ID. The incidence of nodes and edges is 
+  * stored in compressed sparse row (CSR) arrays: the nodes touched by edge 
+  * {@code e} are {@code edgeNodes[edgeNodeOffsets[e] ... edgeNodeOffsets[e+1]-1]},
+  * and the edges touching node {@code n} are {@code nodeEdges[nodeEdgeOffsets[n] 
+  * ... nodeEdgeOffsets[n+1]-1]}. Both lists are sorted and contain no duplicates.
+  * <br><br>
+  * 
+  * Topological queries such as {@link #getEdgesTouchingEdge(int)} are answered
+  * from these arrays without string comparisons and without allocating edge
+  * iterators.
+  * 
+  * @author phillips
+  */
+final class MixedClearingNetworkIndex {
+   private final Node[]
+      nodes;
+   private final int[]
+      edgeNodeOffsets,
+      edgeNodes,
+      nodeEdgeOffsets,
+      nodeEdges;
+   
+   /**
+     * Create an index for the specified nodes and edges.
+     * 
+     * @param nodes
+     *        The nodes of the network, in index order.
+     * @param edges
+     *        The edges of the network, in index order. Every node touched by these
+     *        edges must belong to {@code nodes}.
+     */
+   MixedClearingNetworkIndex(
+      final List<Node> nodes,
+      final List<MixedClearingNetworkEdge> edges
+      ) {
+      this.nodes = nodes.toArray(new Node[nodes.size()]);
+      final Map<String, Integer> indexOfNode = new HashMap<String, Integer>();
+      for(int i = 0; i< this.nodes.length; ++i)
+         indexOfNode.put(this.nodes[i].getUniqueID(), i);
+      
+      // Edge to node incidence
+      int[][] nodesOfEdge = new int[edges.size()][];
+      int numberOfIncidences = 0;
+      for(int e = 0; e< edges.size(); ++e) {
+         final List<SingletonEdge> components = getSingletonComponents(edges.get(e));
+         int[] incidentNodes = new int[2 * components.size()];
+         for(int k = 0; k< components.size(); ++k) {
+            final SingletonEdge component = components.get(k);
+            incidentNodes[2 * k] = indexOf(indexOfNode, component.getDemandSideNode());
+            incidentNodes[2 * k + 1] = indexOf(indexOfNode, component.getSupplySideNode());
+         }
+         incidentNodes = sortedDistinct(incidentNodes, incidentNodes.length);
+         nodesOfEdge[e] = incidentNodes;
+         numberOfIncidences += incidentNodes.length;
+      }
+      this.edgeNodeOffsets = new int[edges.size() + 1];
+      this.edgeNodes = new int[numberOfIncidences];
+      final int[] nodeDegrees = new int[this.nodes.length];
+      for(int e = 0, cursor = 0; e< edges.size(); ++e) {
+         edgeNodeOffsets[e] = cursor;
+         for(final int n : nodesOfEdge[e]) {
+            edgeNodes[cursor++] = n;
+            ++nodeDegrees[n];
+         }
+      }
+      edgeNodeOffsets[edges.size()] = numberOfIncidences;
+      
+      // Node to edge incidence (the transpose). Edges are visited in index order,
+      // so the edges touching each node are sorted.
+      this.nodeEdgeOffsets = new int[this.nodes.length + 1];
+      for(int n = 0; n< this.nodes.length; ++n)
+         nodeEdgeOffsets[n + 1] = nodeEdgeOffsets[n] + nodeDegrees[n];
+      this.nodeEdges = new int[numberOfIncidences];
+      final int[] cursors = Arrays.copyOf(nodeEdgeOffsets, this.nodes.length);
+      for(int e = 0; e< edges.size(); ++e)
+         for(final int n : nodesOfEdge[e])
+            nodeEdges[cursors[n]++] = e;
+   }
+   
+   private static List<SingletonEdge> getSingletonComponents(
+      final MixedClearingNetworkEdge edge) {
+      if(edge instanceof SingletonEdge)
+         return Arrays.asList((SingletonEdge) edge);
+      else if(edge instanceof HyperEdge)
+         return ((HyperEdge) edge).getComponents();
+      else throw new IllegalArgumentException(
+         "MixedClearingNetworkIndex: edge type " + edge.getClass().getSimpleName()
+       + " is not supported.");
+   }
+   
+   private static int indexOf(final Map<String, Integer> indexOfNode, final Node node) {
+      final Integer result = indexOfNode.get(node.getUniqueID());
+      if(result == null)
+         throw new IllegalStateException(
+            "MixedClearingNetworkIndex: edge is connected to node " + node.getUniqueID()
+          + ", which is not a member of the network.");
+      return result;
+   }
+   
+   /*
+    * Sort the first {@code length} elements of an array and remove duplicates.
+    */
+   private static int[] sortedDistinct(final int[] values, final int length) {
+      Arrays.sort(values, 0, length);
+      int distinct = 0;
+      for(int i = 0; i< length; ++i)
+         if(distinct == 0 || values[distinct - 1] != values[i])
+            values[distinct++] = values[i];
+      return distinct == values.length ? values : Arrays.copyOf(values, distinct);
+   }
+   
+   int getNumberOfNodes() {
+      return nodes.length;
+   }
+   
+   int getNumberOfEdges() {
+      return edgeNodeOffsets.length - 1;
+   }
+   
+   /**
+     * Get the node with the specified index.
+     */
+   Node getNode(final int nodeIndex) {
+      return nodes[nodeIndex];
+   }
+   
+   /**
+     * Get the number of distinct nodes touched by an edge.
+     */
+   int getNumberOfNodesOfEdge(final int edgeIndex) {
+      return edgeNodeOffsets[edgeIndex + 1] - edgeNodeOffsets[edgeIndex];
+   }
+   
+   /**
+     * Get the index of the {@code k}th node touched by an edge.
+     */
+   int getNodeOfEdge(final int edgeIndex, final int k) {
+      return edgeNodes[edgeNodeOffsets[edgeIndex] + k];
+   }
+   
+   /**
+     * Get the number of distinct edges touching a node.
+     */
+   int getNumberOfEdgesOfNode(final int nodeIndex) {
+      return nodeEdgeOffsets[nodeIndex + 1] - nodeEdgeOffsets[nodeIndex];
+   }
+   
+   /**
+     * Get the index of the {@code k}th edge touching a node.
+     */
+   int getEdgeOfNode(final int nodeIndex, final int k) {
+      return nodeEdges[nodeEdgeOffsets[nodeIndex] + k];
+   }
+   
+   /**
+     * Get the set of edges which share at least one node with the specified
+     * edge. The result includes the specified edge itself, unless that edge
+     * has no components.
+     */
+   BitSet getEdgesTouchingEdge(final int edgeIndex) {
+      final BitSet result = new BitSet(getNumberOfEdges());
+      for(int i = edgeNodeOffsets[edgeIndex]; i< edgeNodeOffsets[edgeIndex + 1]; ++i) {
+         final int node = edgeNodes[i];
+         for(int j = nodeEdgeOffsets[node]; j< nodeEdgeOffsets[node + 1]; ++j)
+            result.set(nodeEdges[j]);
+      }
+      return result;
+   }
+   
+   /**
+     * Partition the edges of the network into connected components. Two edges
+     * belong to the same component if and only if they are joined by a path of
+     * edges, consecutive edges sharing at least one node. Nodes with no edges
+     * belong to no component.<br><br>
+     * 
+     * Each component is returned as a sorted array of edge indices. Components
+     * are ordered by their smallest edge index, so the result depends only on the
+     * topology of the network.
+     */
+   int[][] getConnectedComponents() {
+      final int[] parent = new int[nodes.length];
+      for(int n = 0; n< nodes.length; ++n)
+         parent[n] = n;
+      for(int e = 0; e< getNumberOfEdges(); ++e)
+         for(int i = edgeNodeOffsets[e] + 1; i< edgeNodeOffsets[e + 1]; ++i) {
+            final int
+               first = findRoot(parent, edgeNodes[edgeNodeOffsets[e]]),
+               second = findRoot(parent, edgeNodes[i]);
+            if(first != second)
+               parent[Math.max(first, second)] = Math.min(first, second);
+         }
+      final int[] componentOfEdge = new int[getNumberOfEdges()];
+      final int[] componentOfRoot = new int[nodes.length];
+      Arrays.fill(componentOfRoot, -1);
+      int numberOfComponents = 0;
+      for(int e = 0; e< getNumberOfEdges(); ++e) {
+         if(edgeNodeOffsets[e] == edgeNodeOffsets[e + 1]) {        // No nodes
+            componentOfEdge[e] = numberOfComponents++;
+            continue;
+         }
+         final int root = findRoot(parent, edgeNodes[edgeNodeOffsets[e]]);
+         if(componentOfRoot[root] == -1)
+            componentOfRoot[root] = numberOfComponents++;
+         componentOfEdge[e] = componentOfRoot[root];
+      }
+      final int[] componentSizes = new int[numberOfComponents];
+      for(final int component : componentOfEdge)
+         ++componentSizes[component];
+      final int[][] result = new int[numberOfComponents][];
+      for(int c = 0; c< numberOfComponents; ++c)
+         result[c] = new int[componentSizes[c]];
+      Arrays.fill(componentSizes, 0);
+      for(int e = 0; e< getNumberOfEdges(); ++e) {
+         final int component = componentOfEdge[e];
+         result[component][componentSizes[component]++] = e;
+      }
+      return result;
+   }
+   
+   private static int findRoot(final int[] parent, int node) {
+      while(parent[node] != node) {
+         parent[node] = parent[parent[node]];
+         node = parent[node];
+      }
+      return node;
+   }
+   
+   @Override
+   public String toString() {
+      return "Mixed Clearing Network Index, nodes: " + getNumberOfNodes() 
+         + ", edges: " + getNumberOfEdges() + ", incidences: " + edgeNodes.length + ".";
+   }
+}
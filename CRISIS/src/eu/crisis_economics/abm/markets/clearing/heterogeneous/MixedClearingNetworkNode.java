@@ -20,6 +20,7 @@
 package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 
@@ -30,7 +31,22 @@ import org.apache.commons.math3.exception.NullArgumentException;
   * computes, and stores, the response of the node to the
   * connections (edges) between itself and neighbording nodes.
   * For nodes on the supply side, edges connect to a subset
-  * of nodes on the demand side. Conversely for demand nodes.
+  * of nodes on the demand side. Conversely for demand nodes.<br><br>
+  * 
+  * Responses are stored in a primitive array indexed by connection
+  * index. The {@link MarketResponseFunction.TradeOpportunity} buffers
+  * passed to the response function are created once per node and
+  * are updated in place when edge rates change. If the response function is a 
+  * {@link VectorizedMarketResponseFunction}, the response function is instead
+  * evaluated on primitive rate and response buffers, which are also created 
+  * once per node.<br><br>
+  * 
+  * The response of a node to one connection may depend on the rates of all of
+  * its connections. This node records whether its stored responses were last
+  * computed, for all connections, at the rates currently known to the node. If 
+  * so, the responses are said to be consistent, and the response function is not
+  * evaluated again until a connecting edge rate changes. See {@link 
+  * #refreshEdgeResponses()}.
   */
 class MixedClearingNetworkNode implements Node {
    private Object representedObject;
@@ -38,7 +54,12 @@ class MixedClearingNetworkNode implements Node {
    private String uniqueID;
    
    private List<SingletonEdge> edges;
-   private List<Double> edgeResponses;
+   private double[] edgeResponses;
+   private long numberOfResponseEvaluations;
+   private final boolean isResponseFunctionVectorized;
+   private double[] rateBuffer;
+   private double[] responseBuffer;
+   private boolean isResponseConsistent;
    
    protected MixedClearingNetworkNode(
       final Object representedObject,
@@ -55,15 +76,19 @@ class MixedClearingNetworkNode implements Node {
       this.representedObject = representedObject;
       this.responseFunction = responseFunction;
       this.edges = new ArrayList<SingletonEdge>();
-      this.edgeResponses = new ArrayList<Double>();
+      this.edgeResponses = new double[0];
       this.uniqueID = uniqueID;
+      this.isResponseFunctionVectorized =
+         responseFunction instanceof VectorizedMarketResponseFunction &&
+         ((VectorizedMarketResponseFunction) responseFunction).isVectorized();
    }
    
-   // Collect connected edge rates into an array.
+   // Collect connected edge rates into a new array.
    private MarketResponseFunction.TradeOpportunity[] collectEdgeRates() {
       final MarketResponseFunction.TradeOpportunity[] result =
          new MarketResponseFunction.TradeOpportunity[edges.size()];
-      if(edgeIndicesForCompleteResponseUpdate == null) {
+      if(edgeIndicesForCompleteResponseUpdate == null ||
+         edgeIndicesForCompleteResponseUpdate.length != edges.size()) {
          edgeIndicesForCompleteResponseUpdate = new int[edges.size()];
          for(int i = 0; i< edges.size(); ++i)
             edgeIndicesForCompleteResponseUpdate[i] = i;
@@ -103,21 +128,41 @@ class MixedClearingNetworkNode implements Node {
       final MarketResponseFunction.TradeOpportunity[] edgeRates
       ) {
       if(edgeIndicesToRecalculate.length == 0) return;
+      ++numberOfResponseEvaluations;
+      if(isResponseFunctionVectorized) {
+         if(rateBuffer == null || rateBuffer.length != edgeRates.length) {
+            rateBuffer = new double[edgeRates.length];
+            responseBuffer = new double[edgeRates.length];
+         }
+         for(int i = 0; i< edgeRates.length; ++i)
+            rateBuffer[i] = edgeRates[i].getRate();
+         ((VectorizedMarketResponseFunction) responseFunction).getValue(
+            edgeIndicesToRecalculate, rateBuffer, responseBuffer);
+         for(int i = 0; i< edgeIndicesToRecalculate.length; ++i)
+            edgeResponses[edgeIndicesToRecalculate[i]] = responseBuffer[i];
+         return;
+      }
       double[] result = responseFunction.getValue(edgeIndicesToRecalculate, edgeRates);
       for(int i = 0; i< edgeIndicesToRecalculate.length; ++i)
-         edgeResponses.set(
-            edgeIndicesToRecalculate[i],
-            result[i]
-            );
+         edgeResponses[edgeIndicesToRecalculate[i]] = result[i];
    }
    
+   /*
+    * The relative step used to estimate derivatives by central differences.
+    */
+   private static final double
+      FINITE_DIFFERENCE_STEP = Math.sqrt(5. * Math.ulp(1.));
+   
    private MarketResponseFunction.TradeOpportunity[] knownEdgeRates;
+   private MarketResponseFunction.TradeOpportunity[] currentEdgeRates;
    private int[] edgeIndicesForCompleteResponseUpdate;
+   private int[][] edgeIndicesForPartialResponseUpdate;
    private BitSet edgeRateIsUpdated;
    
    /**
      * Update (recalculate) the response of this node to a 
-     * given connecting edge.
+     * given connecting edge. If the responses of this node are consistent,
+     * and the rate of the edge is unchanged, no update is required.
      */
    @Override
    public final void flagEdgeResponseForUpdate(final SingletonEdge edge) {
@@ -128,8 +173,12 @@ class MixedClearingNetworkNode implements Node {
          edgeRateIsUpdated.flip(0, knownEdgeRates.length);
       }
       else {
-         knownEdgeRates[connectionIndex].setRate(getEdgeRate(edge));
+         final double rate = getEdgeRate(edge);
+         if(isResponseConsistent && knownEdgeRates[connectionIndex].getRate() == rate)
+            return;
+         knownEdgeRates[connectionIndex].setRate(rate);
          edgeRateIsUpdated.set(connectionIndex);
+         isResponseConsistent = false;
       }
    }
    
@@ -138,7 +187,16 @@ class MixedClearingNetworkNode implements Node {
      */
    @Override
    public final void recomputePendingEdgeResponses() {
-      int[] edgesToUpdate = new int[edgeRateIsUpdated.cardinality()];
+      if(edgeRateIsUpdated == null || edgeRateIsUpdated.isEmpty())
+         return;
+      final int numberOfEdgesToUpdate = edgeRateIsUpdated.cardinality();
+      if(numberOfEdgesToUpdate == edges.size()) {
+         updateResponseForEdges(edgeIndicesForCompleteResponseUpdate, knownEdgeRates);
+         edgeRateIsUpdated.clear();
+         isResponseConsistent = true;
+         return;
+      }
+      final int[] edgesToUpdate = getPartialResponseUpdateBuffer(numberOfEdgesToUpdate);
       int counter = 0;
       for(int nextConnection = edgeRateIsUpdated.nextSetBit(0);
           nextConnection >= 0; 
@@ -148,6 +206,24 @@ class MixedClearingNetworkNode implements Node {
       }
       updateResponseForEdges(edgesToUpdate, knownEdgeRates);
       edgeRateIsUpdated.clear();
+      isResponseConsistent = false;                 // Other connections may be stale
+   }
+   
+   /*
+    * Get a reusable array of the specified length for the connection indices 
+    * of a partial response update. Response functions infer the number of 
+    * queries from the length of this array, so one array is kept per length.
+    */
+   private int[] getPartialResponseUpdateBuffer(final int length) {
+      if(edgeIndicesForPartialResponseUpdate == null ||
+         edgeIndicesForPartialResponseUpdate.length != edges.size())
+         edgeIndicesForPartialResponseUpdate = new int[edges.size()][];
+      int[] result = edgeIndicesForPartialResponseUpdate[length];
+      if(result == null) {
+         result = new int[length];
+         edgeIndicesForPartialResponseUpdate[length] = result;
+      }
+      return result;
    }
    
    /**
@@ -156,16 +232,112 @@ class MixedClearingNetworkNode implements Node {
      */
    @Override
    public final void updateAllEdgeResponses() {
-      MarketResponseFunction.TradeOpportunity[] edgeRates = collectEdgeRates();
-      updateResponseForEdges(edgeIndicesForCompleteResponseUpdate, edgeRates);
+      if(knownEdgeRates == null || knownEdgeRates.length != edges.size()) {
+         knownEdgeRates = collectEdgeRates();
+         edgeRateIsUpdated = new BitSet(knownEdgeRates.length);
+      }
+      else
+         for(int i = 0; i< knownEdgeRates.length; ++i)
+            knownEdgeRates[i].setRate(getEdgeRate(edges.get(i)));
+      updateResponseForEdges(edgeIndicesForCompleteResponseUpdate, knownEdgeRates);
+      edgeRateIsUpdated.clear();
+      isResponseConsistent = true;
+   }
+   
+   /**
+     * Bring the responses of this node to all connecting edges up to date 
+     * with the current edge rates. If the responses of this node are 
+     * consistent, and no connecting edge rate has changed, the response 
+     * function is not evaluated. Otherwise this method is equivalent to 
+     * {@link #updateAllEdgeResponses()}.
+     */
+   @Override
+   public final void refreshEdgeResponses() {
+      if(isResponseConsistent && knownEdgeRates.length == edges.size()) {
+         int i = 0;
+         while(i< knownEdgeRates.length &&
+               knownEdgeRates[i].getRate() == getEdgeRate(edges.get(i)))
+            ++i;
+         if(i == knownEdgeRates.length)
+            return;
+      }
+      updateAllEdgeResponses();
+   }
+   
+   private void refreshCurrentEdgeRates() {
+      if(currentEdgeRates == null || currentEdgeRates.length != edges.size())
+         currentEdgeRates = collectEdgeRates();
+      else
+         for(int i = 0; i< currentEdgeRates.length; ++i)
+            currentEdgeRates[i].setRate(getEdgeRate(edges.get(i)));
+   }
+   
+   /**
+     * Compute the derivatives of the response of this node to each connecting
+     * edge with respect to the rate of each connecting edge, at the current 
+     * edge rates. The {@code [k][l]}th element of the result is the derivative
+     * of the response to the edge with connection index {@code k} with respect 
+     * to the rate of the edge with connection index {@code l}.<br><br>
+     * 
+     * If the response function of this node is a differentiable {@link 
+     * DifferentiableMarketResponseFunction}, its derivatives are used. Otherwise
+     * derivatives are estimated by central differences, which requires two 
+     * evaluations of the response function per connecting edge. The stored
+     * responses of this node are not modified.
+     */
+   @Override
+   public final double[][] getResponseDerivatives() {
+      refreshCurrentEdgeRates();
+      if(responseFunction instanceof DifferentiableMarketResponseFunction &&
+         ((DifferentiableMarketResponseFunction) responseFunction).isDifferentiable()) {
+         ++numberOfResponseEvaluations;
+         return ((DifferentiableMarketResponseFunction) responseFunction).getDerivatives(
+            edgeIndicesForCompleteResponseUpdate, currentEdgeRates);
+      }
+      final int numberOfEdges = currentEdgeRates.length;
+      final double[]
+         rates = MarketResponseFunction.Util.toRateArray(currentEdgeRates),
+         steps = new double[numberOfEdges];
+      final double[][]
+         perturbedRates = new double[2 * numberOfEdges][];
+      for(int l = 0; l< numberOfEdges; ++l) {
+         final double
+            h = FINITE_DIFFERENCE_STEP * Math.max(Math.abs(rates[l]), 1.),
+            upper = Math.min(rates[l] + h, responseFunction.getMaximumInDomain()),
+            lower = Math.max(rates[l] - h, responseFunction.getMinimumInDomain());
+         perturbedRates[2 * l] = rates.clone();
+         perturbedRates[2 * l][l] = upper;
+         perturbedRates[2 * l + 1] = rates.clone();
+         perturbedRates[2 * l + 1][l] = lower;
+         steps[l] = upper - lower;
+      }
+      final double[][] values = MarketResponseFunction.Util.getValues(
+         responseFunction, edgeIndicesForCompleteResponseUpdate, currentEdgeRates,
+         perturbedRates);
+      numberOfResponseEvaluations += perturbedRates.length;
+      final double[][] result = new double[numberOfEdges][numberOfEdges];
+      for(int l = 0; l< numberOfEdges; ++l)
+         for(int k = 0; k< numberOfEdges; ++k)
+            result[k][l] = (values[2 * l][k] - values[2 * l + 1][k]) / steps[l];
+      return result;
+   }
+   
+   /**
+     * Get the number of times the response function of this node has been 
+     * evaluated or differentiated. A batched evaluation at several sets of 
+     * edge rates counts once for each set of edge rates.
+     */
+   @Override
+   public final long getNumberOfResponseEvaluations() {
+      return numberOfResponseEvaluations;
    }
    
    /**
      * Get the (stored) response of the node to the given edge.
      */
    @Override
-   public final Double getResponseToEdge(SingletonEdge edge) {
-      return edgeResponses.get(getConnectionIndexOfEdge(edge));
+   public final double getResponseToEdge(SingletonEdge edge) {
+      return edgeResponses[getConnectionIndexOfEdge(edge)];
    }
    
    /** Latch an edge to this node. */
@@ -174,7 +346,8 @@ class MixedClearingNetworkNode implements Node {
       if(edge == null)
          throw new NullArgumentException();
       edges.add(edge);
-      edgeResponses.add(0.);
+      if(edgeResponses.length < edges.size())
+         edgeResponses = Arrays.copyOf(edgeResponses, Math.max(4, 2 * edges.size()));
       return (edges.size() - 1);
    }
    
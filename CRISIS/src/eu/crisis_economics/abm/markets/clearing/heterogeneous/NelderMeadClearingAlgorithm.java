@@ -28,6 +28,8 @@ import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
 import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.NelderMeadSimplex;
 import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.SimplexOptimizer;
 
+import org.apache.log4j.Logger;
+
 import com.google.common.base.Preconditions;
 
 /**
@@ -39,6 +41,9 @@ import com.google.common.base.Preconditions;
 final class NelderMeadClearingAlgorithm 
    extends NumericalDerivativeClearingAlgorithm {
    
+   private static final Logger
+      LOG = Logger.getLogger(NelderMeadClearingAlgorithm.class);
+   
    private final int
       maximumIterations,
       maximumEvaluations;
@@ -70,6 +75,7 @@ final class NelderMeadClearingAlgorithm
       for(int i = 0; i< network.getNumberOfEdges(); ++i)
          start.setEntry(i, network.getEdges().get(i).getMaximumRateAdmissibleByBothParties());
       start.set(1.);
+      super.applyWarmStartRates(network, start, 0., Double.MAX_VALUE);
       
       final PointValuePair result = optimizer.optimize(
          new MaxEval(maximumEvaluations),
@@ -80,7 +86,9 @@ final class NelderMeadClearingAlgorithm
          );
       
       final double residualCost = result.getValue();
-      System.out.println("Network cleared: residual cost: " + residualCost + ".");
+      network.getMetrics().recordIterations(optimizer.getIterations());
+      if(LOG.isDebugEnabled())
+         LOG.debug("Network cleared: residual cost: " + residualCost + ".");
       
       return residualCost;
    }
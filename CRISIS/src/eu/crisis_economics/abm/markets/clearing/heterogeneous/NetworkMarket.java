@@ -85,10 +85,13 @@ abstract class NetworkMarket {
    private HashSet<NetworkMarket.Participant>
       buyerParticipants,
       sellerParticipants;
+   private ClearingAlgorithmMetrics
+      lastClearingMetrics;
    
    protected NetworkMarket() {
       this.buyerParticipants = new HashSet<NetworkMarket.Participant>();
       this.sellerParticipants = new HashSet<NetworkMarket.Participant>();
+      this.lastClearingMetrics = new ClearingAlgorithmMetrics();
    }
    
    public final void schedule(
@@ -152,6 +155,15 @@ abstract class NetworkMarket {
          new AscentMarchHeterogeneousClearingAlgorithm(
             maxIterationsPerEdge, 1.e-10, stoppingCondition);
       network.applyClearingAlgorithm(clearingAlgorithm);
+      lastClearingMetrics = network.getMetrics();
+   }
+   
+   /**
+     * Get the performance metrics of the last call to {@link #matchAllOrders}.
+     * If orders have not been matched, the result describes no clearing sessions.
+     */
+   public final ClearingAlgorithmMetrics getLastClearingMetrics() {
+      return lastClearingMetrics;
    }
    
    private final void clearParticipants() {
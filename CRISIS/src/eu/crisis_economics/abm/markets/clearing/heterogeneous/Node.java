@@ -31,7 +31,13 @@ interface Node {
    
    public void updateAllEdgeResponses();
    
-   public Double getResponseToEdge(final SingletonEdge edge);
+   public void refreshEdgeResponses();
+   
+   public double getResponseToEdge(final SingletonEdge edge);
+   
+   public double[][] getResponseDerivatives();
+   
+   public long getNumberOfResponseEvaluations();
    
    public int connectEdge(final SingletonEdge edge);
    
@@ -0,0 +1,199 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+import eu.crisis_economics.abm.simulation.SimulationContext;
+import eu.crisis_economics.abm.simulation.WorkerPool;
+
+/**
+  * A fork-join evaluator for the {@link MarketResponseFunction}{@code s} of the nodes
+  * of a {@link MixedClearingNetwork}.<br><br>
+  * 
+  * The response of each network node depends only on the rates of the edges incident
+  * to that node, and each node stores its responses in its own memory. The responses
+  * of distinct nodes can therefore be computed concurrently. When this evaluator is
+  * asked to update a list of nodes, the list is split into contiguous tasks of at
+  * least {@link #getParallelismThreshold()} nodes. All but the first task are
+  * forked to worker threads; the first task is executed by the calling thread, which
+  * then joins the remaining tasks. If the list is too short to be split, or if only
+  * one thread is configured, the nodes are updated in sequence by the calling thread.
+  * <br><br>
+  * 
+  * The tasks into which a list of nodes is split depend only on the length of the
+  * list, and every node is updated by exactly one task. The outcome of an evaluation
+  * therefore does not depend on the number of threads, and clearing results are
+  * bit-for-bit reproducible. Network residuals are summed by the calling thread in
+  * edge order (see {@link MixedClearingNetwork#getResidualCost()}).<br><br>
+  * 
+  * Parallel evaluation requires that the {@link MarketResponseFunction} of each node
+  * can be evaluated concurrently with the response functions of other nodes. For 
+  * this reason parallel evaluation is disabled by default. The number of threads 
+  * can be specified by the system property {@value #NUMBER_OF_THREADS_PROPERTY}, and
+  * the parallelism threshold by the system property {@value #THRESHOLD_PROPERTY}.
+  * Tasks are executed by a {@link WorkerPool}, within the {@link SimulationContext}
+  * of the calling thread.
+  * 
+  * @author phillips
+  */
+final class NodeResponseEvaluator {
+   
+   static final String
+      NUMBER_OF_THREADS_PROPERTY =
+         "eu.crisis_economics.abm.markets.clearing.heterogeneous.nodeEvaluationThreads",
+      THRESHOLD_PROPERTY =
+         "eu.crisis_economics.abm.markets.clearing.heterogeneous.nodeEvaluationThreshold";
+   
+   /*
+    * The default smallest number of nodes for which a worker thread is used.
+    */
+   static final int
+      DEFAULT_PARALLELISM_THRESHOLD = 32;
+   
+   private static final NodeResponseEvaluator
+      sharedInstance = new NodeResponseEvaluator(
+         Math.max(1, Integer.getInteger(NUMBER_OF_THREADS_PROPERTY, 1)),
+         Math.max(1, Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_PARALLELISM_THRESHOLD))
+         );
+   
+   private final WorkerPool
+      workers;
+   
+   private int
+      parallelismThreshold;
+   
+   NodeResponseEvaluator(final int numberOfThreads, final int parallelismThreshold) {
+      Preconditions.checkArgument(numberOfThreads > 0);
+      Preconditions.checkArgument(parallelismThreshold > 0);
+      this.workers = new WorkerPool("Clearing Node Worker", numberOfThreads);
+      this.parallelismThreshold = parallelismThreshold;
+   }
+   
+   /**
+     * Get the {@link NodeResponseEvaluator} shared by all {@link MixedClearingNetwork}
+     * {@code s}.
+     */
+   static NodeResponseEvaluator getSharedInstance() {
+      return sharedInstance;
+   }
+   
+   /**
+     * Update the responses of all nodes to all incident edges. See
+     * {@link Node#updateAllEdgeResponses()}.
+     */
+   void updateAllEdgeResponses(final List<Node> nodes) {
+      evaluate(nodes, Update.ALL);
+   }
+   
+   /**
+     * Recompute the responses of all nodes to incident edges which have been
+     * flagged for update. See {@link Node#recomputePendingEdgeResponses()}.
+     */
+   void recomputePendingEdgeResponses(final List<Node> nodes) {
+      evaluate(nodes, Update.PENDING);
+   }
+   
+   /**
+     * Bring the responses of all nodes up to date with the current edge rates,
+     * evaluating only those nodes whose incident edge rates have changed. See
+     * {@link Node#refreshEdgeResponses()}.
+     */
+   void refreshEdgeResponses(final List<Node> nodes) {
+      evaluate(nodes, Update.STALE);
+   }
+   
+   private enum Update {
+      ALL,
+      PENDING,
+      STALE
+   }
+   
+   private void evaluate(final List<Node> nodes, final Update update) {
+      final int numberOfTasks = 
+         Math.min(getNumberOfThreads(), nodes.size() / getParallelismThreshold());
+      if(numberOfTasks <= 1) {
+         evaluateInSequence(nodes, update);
+         return;
+      }
+      final List<Runnable> tasks = new ArrayList<Runnable>(numberOfTasks);
+      for(final List<Node> task : WorkerPool.partition(nodes, numberOfTasks))
+         tasks.add(new Runnable() {
+            @Override
+            public void run() {
+               evaluateInSequence(task, update);
+            }
+         });
+      workers.executeAll(tasks);
+   }
+   
+   private static void evaluateInSequence(final List<Node> nodes, final Update update) {
+      switch(update) {
+         case ALL:
+            for(final Node node : nodes)
+               node.updateAllEdgeResponses();
+            break;
+         case PENDING:
+            for(final Node node : nodes)
+               node.recomputePendingEdgeResponses();
+            break;
+         case STALE:
+            for(final Node node : nodes)
+               node.refreshEdgeResponses();
+            break;
+      }
+   }
+   
+   int getNumberOfThreads() {
+      return workers.getNumberOfThreads();
+   }
+   
+   /**
+     * Set the number of threads (including the calling thread) used to evaluate
+     * node responses. This argument should be strictly positive. A value of 
+     * {@code 1} disables parallel evaluation. Evaluations already in progress
+     * are completed by the existing worker threads.
+     */
+   void setNumberOfThreads(final int numberOfThreads) {
+      workers.setNumberOfThreads(numberOfThreads);
+   }
+   
+   synchronized int getParallelismThreshold() {
+      return parallelismThreshold;
+   }
+   
+   /**
+     * Set the smallest number of nodes evaluated by one task. Lists of nodes 
+     * shorter than twice this threshold are evaluated in sequence. This argument
+     * should be strictly positive.
+     */
+   synchronized void setParallelismThreshold(final int parallelismThreshold) {
+      Preconditions.checkArgument(parallelismThreshold > 0);
+      this.parallelismThreshold = parallelismThreshold;
+   }
+   
+   @Override
+   public String toString() {
+      return "Node Response Evaluator, threads: " + getNumberOfThreads() 
+         + ", parallelism threshold: " + getParallelismThreshold() + ".";
+   }
+}
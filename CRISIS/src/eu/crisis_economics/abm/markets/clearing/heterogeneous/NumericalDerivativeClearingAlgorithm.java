@@ -18,11 +18,16 @@
  */
 package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 
-import java.util.BitSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.math3.analysis.MultivariateFunction;
 import org.apache.commons.math3.analysis.MultivariateMatrixFunction;
 import org.apache.commons.math3.analysis.MultivariateVectorFunction;
+import org.apache.commons.math3.linear.RealVector;
 
 import com.google.common.base.Preconditions;
 
@@ -34,17 +39,36 @@ import com.google.common.base.Preconditions;
   */
 abstract class NumericalDerivativeClearingAlgorithm implements MixedClearingNetworkAlgorithm {
    /**
-     * Update the response of all network nodes to new edge states.
+     * Update the response of all network nodes to new edge states. Only
+     * nodes touching edges whose states have changed are evaluated.
      */
    protected final void updateNetworkReponses(
       final MixedClearingNetwork network,
       final double[] edgeStates
       ) {
-      for(int i = 0; i< edgeStates.length; ++i) {
-         final MixedClearingNetworkEdge edge = network.getEdges().get(i);
-         edge.setEdgeRate(edgeStates[i]);
+      for(int i = 0; i< edgeStates.length; ++i)
+         network.setEdgeRate(i, edgeStates[i]);
+      network.refreshVertexResponses();
+   }
+   
+   /**
+     * Replace entries in an initial guess with the initial edge rates offered
+     * by the network, where known. Initial rates outside the specified bounds
+     * are ignored.
+     */
+   protected final void applyWarmStartRates(
+      final MixedClearingNetwork network,
+      final RealVector start,
+      final double lowerBound,
+      final double upperBound
+      ) {
+      if(!network.hasWarmStartRates())
+         return;
+      for(int i = 0; i< start.getDimension(); ++i) {
+         final double rate = network.getWarmStartRate(i);
+         if(rate >= lowerBound && rate <= upperBound)
+            start.setEntry(i, rate);
       }
-      network.updateAllVertexResponses();
    }
    
    /**
@@ -68,6 +92,11 @@ abstract class NumericalDerivativeClearingAlgorithm implements MixedClearingNetw
       }
       
       public double[] value(double[] edgeStates) {
+         /*
+          * The least squares optimizer retains the returned array (without 
+          * copying) as part of its current evaluation, so a new array is 
+          * required for each call.
+          */
          double[] values = new double[network.getNumberOfEdges()];
          updateNetworkReponses(network, edgeStates);
          for (int i = 0; i < values.length; ++i)
@@ -101,72 +130,84 @@ abstract class NumericalDerivativeClearingAlgorithm implements MixedClearingNetw
       return new JacobianMatrixFunction(network);
    }
    
+   /**
+     * The Jacobian (derivative of edge costs with respect to edge rates) of a
+     * mixed clearing network. The {@code [i][j]}th element of the Jacobian is the
+     * derivative of the cost of edge {@code i} with respect to the rate of edge
+     * {@code j}.<br><br>
+     * 
+     * The Jacobian is assembled in one sweep over the network nodes. Each node
+     * reports the derivatives of its responses with respect to the rates of its
+     * own connecting edges (see {@link Node#getResponseDerivatives()}), and these
+     * derivatives are accumulated into the rows and columns of the edges to which
+     * the connections belong. Nodes with differentiable response functions are
+     * differentiated analytically; otherwise each node is evaluated twice per
+     * connecting edge. The number of response function evaluations per Jacobian
+     * is therefore proportional to the number of edges, rather than to the square
+     * of the number of edges.
+     */
    protected final class JacobianMatrixFunction implements MultivariateMatrixFunction {
       private final MixedClearingNetwork network;
-      private BitSet[] edgeIntersections;
+      private final Node[] nodes;
+      private final int[][] edgeOfConnection;
       
       private JacobianMatrixFunction(final MixedClearingNetwork mixedClearingNetwork) {
          Preconditions.checkNotNull(mixedClearingNetwork);
          this.network = mixedClearingNetwork;
-         cacheEdgeIntersections();
+         final MixedClearingNetworkIndex index = network.getIndex();
+         this.nodes = new Node[index.getNumberOfNodes()];
+         for(int n = 0; n< nodes.length; ++n)
+            nodes[n] = index.getNode(n);
+         this.edgeOfConnection = mapConnectionsToEdges();
       }
       
-      @Override
-      public double[][] value(final double[] point) {
-         for(int i = 0; i< point.length; ++i)
-            network.getEdges().get(i).setEdgeRate(point[i]);
-         return jacobian(network);
-      }
-      
-      private void cacheEdgeIntersections() {
-         edgeIntersections = new BitSet[network.getNumberOfEdges()];
-         for(int i = 0; i< network.getNumberOfEdges(); ++i) {
-            final MixedClearingNetworkEdge edge = network.getEdges().get(i);
-            edgeIntersections[i] = new BitSet();
-            for(int j = 0; j< network.getNumberOfEdges(); ++j) {
-               final MixedClearingNetworkEdge otherEdge = network.getEdges().get(j);
-               edgeIntersections[i].set(j, otherEdge.touchesEdge(edge));
+      /*
+       * For each node, find the index of the network edge to which each 
+       * connection (singleton edge) of the node belongs.
+       */
+      private int[][] mapConnectionsToEdges() {
+         final Map<Node, List<SingletonEdge>> connectionsOfNode = 
+            new IdentityHashMap<Node, List<SingletonEdge>>();
+         final Map<SingletonEdge, Integer> edgeOfSingleton =
+            new IdentityHashMap<SingletonEdge, Integer>();
+         for(final Node node : nodes)
+            connectionsOfNode.put(node, new ArrayList<SingletonEdge>());
+         for(int e = 0; e< network.getNumberOfEdges(); ++e) {
+            final MixedClearingNetworkEdge edge = network.getEdges().get(e);
+            final List<SingletonEdge> components = (edge instanceof HyperEdge) ?
+               ((HyperEdge) edge).getComponents() : 
+               Arrays.asList((SingletonEdge) edge);
+            for(final SingletonEdge component : components) {
+               edgeOfSingleton.put(component, e);
+               connectionsOfNode.get(component.getDemandSideNode()).add(component);
+               connectionsOfNode.get(component.getSupplySideNode()).add(component);
             }
          }
+         final int[][] result = new int[nodes.length][];
+         for(int n = 0; n< nodes.length; ++n) {
+            final List<SingletonEdge> connections = connectionsOfNode.get(nodes[n]);
+            result[n] = new int[connections.size()];
+            for(final SingletonEdge connection : connections)
+               result[n][nodes[n].getConnectionIndexOfEdge(connection)] =
+                  edgeOfSingleton.get(connection);
+         }
+         return result;
       }
       
-      /**
-       * Compute the Jacobian (derivative of edge costs with respect to edge rates)
-       * matrix for a mixed clearing network.
-       */
-      private final double[][] jacobian(final MixedClearingNetwork network) {
+      @Override
+      public double[][] value(final double[] point) {
+         for(int i = 0; i< point.length; ++i)
+            network.getEdges().get(i).setEdgeRate(point[i]);
          final int numberOfObjectives = network.getNumberOfEdges();
-         double[][] result = new double[numberOfObjectives][numberOfObjectives];
-         final double normalizedPert = Math.sqrt(5.*Math.ulp(1.0));
-         for(int i = 0; i< numberOfObjectives; ++i) {
-            for(int j = 0; j< numberOfObjectives; ++j) {
-               if(!edgeIntersections[j].get(i))
-                  continue;
-               final MixedClearingNetworkEdge
-                  edgeI = network.getEdges().get(i),
-                  edgeJ = network.getEdges().get(j);
-               final double
-                  currentRate = edgeJ.getEdgeRate(),
-                  hR = normalizedPert * currentRate,
-                  upperRate = currentRate + hR,
-                  lowerRate = currentRate - hR;
-               edgeJ.setEdgeRate(upperRate);
-               edgeJ.flagNodesResponsesForUpdate();
-               edgeJ.updateNodeResponses();
-               edgeI.flagNodesResponsesForUpdate();
-               edgeI.updateNodeResponses();
-               final double
-                  edgeCostUpper = edgeI.getCost();
-               edgeJ.setEdgeRate(lowerRate);
-               edgeJ.flagNodesResponsesForUpdate();
-               edgeJ.updateNodeResponses();
-               edgeI.flagNodesResponsesForUpdate();
-               edgeI.updateNodeResponses();
-               final double
-                  edgeCostLower = edgeI.getCost(),
-                  derivative = (edgeCostUpper - edgeCostLower) / (2. * hR);
-               result[j][i] = derivative;
-            }
+         final double[][] result = new double[numberOfObjectives][numberOfObjectives];
+         for(int n = 0; n< nodes.length; ++n) {
+            final int[] edges = edgeOfConnection[n];
+            if(edges.length == 0)
+               continue;
+            final double[][] derivatives = nodes[n].getResponseDerivatives();
+            for(int k = 0; k< edges.length; ++k)
+               for(int l = 0; l< edges.length; ++l)
+                  result[edges[k]][edges[l]] += derivatives[k][l];
          }
          return result;
       }
@@ -34,6 +34,7 @@ final class OrderOrIterationsStoppingCondition implements
    
    private TargetResidualOrMaximumIterationsStoppingCondition stoppingCondition;
    private double targetOrderOfMagnitudeReductionInResidual;
+   private boolean hasReferenceResidual;
    
    public OrderOrIterationsStoppingCondition(
       final double targetOrderOfMagnitudeReductionInResidual,
@@ -50,12 +51,27 @@ final class OrderOrIterationsStoppingCondition implements
    
    @Override
    public boolean isStoppingConditionSatisfied(final MixedClearingNetwork network) {
-      if(stoppingCondition.getNumberOfIterationsElapsed() == 0)
-         stoppingCondition.setTargetNetworkResidual(
-            network.getResidualCost()/Math.pow(10., targetOrderOfMagnitudeReductionInResidual));
+      if(stoppingCondition.getNumberOfIterationsElapsed() == 0 && !hasReferenceResidual)
+         setReferenceResidual(network.getResidualCost());
       return stoppingCondition.isStoppingConditionSatisfied(network);
    }
    
+   /**
+     * Specify the residual with respect to which the reduction in the network
+     * residual is measured. By default, the reference residual is the network
+     * residual when this stopping condition is first queried. Algorithms 
+     * which start from a warm (non-seed) state should specify the residual of
+     * the network at its seed rates instead. This method has no effect once
+     * the stopping condition has been queried.
+     */
+   void setReferenceResidual(final double residual) {
+      if(stoppingCondition.getNumberOfIterationsElapsed() != 0)
+         return;
+      stoppingCondition.setTargetNetworkResidual(
+         residual/Math.pow(10., targetOrderOfMagnitudeReductionInResidual));
+      hasReferenceResidual = true;
+   }
+   
    /**
      * Get the target network residual.
      */
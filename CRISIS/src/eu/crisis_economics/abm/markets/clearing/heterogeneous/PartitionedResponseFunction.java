@@ -21,10 +21,18 @@ package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 import org.apache.commons.math3.exception.NullArgumentException;
 
 /**
+  * A {@link MarketResponseFunction} whose response to trade opportunity {@code i}
+  * is {@code p_i(r) * u(r_i)}, where {@code p} is a partition function and
+  * {@code u} is a univariate trade demand. This response function is 
+  * differentiable if both {@code p} and {@code u} are differentiable, and is
+  * vectorized if {@code p} is vectorized. Vectorized evaluation writes the 
+  * partition response into the result buffer and scales it in place, so no 
+  * intermediate arrays are allocated.
+  * 
   * @author phillips
   */
 public final class PartitionedResponseFunction
-   implements MarketResponseFunction {
+   implements DifferentiableMarketResponseFunction, VectorizedMarketResponseFunction {
    
    private MarketResponseFunction partitionFunction;
    private BoundedUnivariateFunction univariateTradeDemand;
@@ -45,6 +53,11 @@ public final class PartitionedResponseFunction
       final int[] queries,
       final TradeOpportunity[] arguments
       ) {
+      if(isVectorized()) {
+         final double[] result = new double[queries.length];
+         getValue(queries, MarketResponseFunction.Util.toRateArray(arguments), result);
+         return result;
+      }
       final double[] partitionResponse =
          partitionFunction.getValue(queries, arguments);
       final double[] result = new double[queries.length];
@@ -54,6 +67,60 @@ public final class PartitionedResponseFunction
       return result;
    }
    
+   @Override
+   public boolean isVectorized() {
+      return partitionFunction instanceof VectorizedMarketResponseFunction
+         && ((VectorizedMarketResponseFunction) partitionFunction).isVectorized();
+   }
+   
+   @Override
+   public void getValue(
+      final int[] queries,
+      final double[] rates,
+      final double[] result
+      ) {
+      if(!isVectorized())
+         throw new UnsupportedOperationException(
+            "PartitionedResponseFunction.getValue: the partition function of this response "
+          + "function is not vectorized.");
+      ((VectorizedMarketResponseFunction) partitionFunction).getValue(queries, rates, result);
+      for(int i = 0; i< queries.length; ++i)
+         result[i] *= univariateTradeDemand.value(rates[queries[i]]);
+   }
+   
+   @Override
+   public boolean isDifferentiable() {
+      return partitionFunction instanceof DifferentiableMarketResponseFunction
+         && ((DifferentiableMarketResponseFunction) partitionFunction).isDifferentiable()
+         && univariateTradeDemand instanceof DifferentiableBoundedUnivariateFunction;
+   }
+   
+   @Override
+   public double[][] getDerivatives(
+      final int[] queries,
+      final TradeOpportunity[] arguments
+      ) {
+      if(!isDifferentiable())
+         throw new UnsupportedOperationException(
+            "PartitionedResponseFunction.getDerivatives: the partition function or the "
+          + "univariate trade demand of this response function is not differentiable.");
+      final double[]
+         partitionResponse = partitionFunction.getValue(queries, arguments);
+      final double[][]
+         result = ((DifferentiableMarketResponseFunction) partitionFunction)
+            .getDerivatives(queries, arguments);
+      final DifferentiableBoundedUnivariateFunction tradeDemand =
+         (DifferentiableBoundedUnivariateFunction) univariateTradeDemand;
+      for(int i = 0; i< result.length; ++i) {
+         final double rate = arguments[queries[i]].getRate();
+         final double demand = tradeDemand.value(rate);
+         for(int j = 0; j< result[i].length; ++j)
+            result[i][j] *= demand;
+         result[i][queries[i]] += partitionResponse[i] * tradeDemand.derivative(rate);
+      }
+      return result;
+   }
+   
    @Override
    public double getMinimumInDomain() {
       return Math.max(
@@ -23,7 +23,8 @@ package eu.crisis_economics.abm.markets.clearing.heterogeneous;
   * nodes in a heterogeneous clearing network.
   */
 public final class PolynomialDemandInnerResponse
-   extends AbstractBoundedUnivariateFunction {
+   extends AbstractBoundedUnivariateFunction
+   implements DifferentiableBoundedUnivariateFunction {
    
    private double
       exponent,
@@ -48,6 +49,16 @@ public final class PolynomialDemandInnerResponse
       return maxDemand*(1.-Math.pow(rate / super.getMaximumInDomain(), exponent));
    }
    
+   @Override
+   public double derivative(double rate) {
+      if(rate >= super.getMaximumInDomain()) return 0.;
+      else if(rate < 0.)
+         throw new IllegalArgumentException(
+            "PolynomialDemandResponse.derivative: argument " + rate + " is out of bounds. ");
+      return -maxDemand*exponent*Math.pow(rate / super.getMaximumInDomain(), exponent - 1.)
+         / super.getMaximumInDomain();
+   }
+   
    /**
      * Get the polynomial power of this demand function.
      */
@@ -23,7 +23,8 @@ package eu.crisis_economics.abm.markets.clearing.heterogeneous;
   * nodes in a heterogeneous clearing network.
   */
 public final class PolynomialSupplyInnerResponse
-   extends AbstractBoundedUnivariateFunction {
+   extends AbstractBoundedUnivariateFunction
+   implements DifferentiableBoundedUnivariateFunction {
    
    private double
       exponent,
@@ -54,6 +55,16 @@ public final class PolynomialSupplyInnerResponse
       return -maxSupply*Math.pow(rate / normalizationFactor, exponent);
    }
    
+   @Override
+   public double derivative(double rate) {
+      if(rate >= super.getMaximumInDomain()) return 0.;
+      else if(rate < 0.)
+         throw new IllegalArgumentException(
+            "PolynomialSupplyResponse.derivative: argument " + rate + " is out of bounds. ");
+      return -maxSupply*exponent*Math.pow(rate / normalizationFactor, exponent - 1.)
+         / normalizationFactor;
+   }
+   
    /**
      * Get the polynomial power of this supply function.
      */
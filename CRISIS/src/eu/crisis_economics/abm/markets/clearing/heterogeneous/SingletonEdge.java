@@ -88,6 +88,20 @@ final class SingletonEdge extends MixedClearingNetworkEdge {
       else throw new IllegalStateException();
    }
    
+   /**
+     * Get the node on the demand side of this edge.
+     */
+   Node getDemandSideNode() {
+      return demandSideNode;
+   }
+   
+   /**
+     * Get the node on the supply side of this edge.
+     */
+   Node getSupplySideNode() {
+      return supplySideNode;
+   }
+   
    @Override
    double getDemandResponse() {
       return demandSideNode.getResponseToEdge(this);
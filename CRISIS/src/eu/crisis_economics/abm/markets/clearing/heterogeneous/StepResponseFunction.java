@@ -31,11 +31,15 @@ import org.apache.commons.math3.analysis.function.StepFunction;
   * at any point p. The step function S is specified as a 
   * sequence of step coordinates x(i). At each x(i), the value
   * of S(p) decreases in equal fractions of the unit interval.
+  * The derivative of this function is R'(p)*S(p), which is exact 
+  * everywhere except at the step coordinates x(i). If R has no
+  * known derivative, R'(p) is estimated by central differences.
   * This class is used by heterogeneous clearing unit tests,
   * and should retain default privacy.
   */
 final class StepResponseFunction
-   extends AbstractBoundedUnivariateFunction {
+   extends AbstractBoundedUnivariateFunction
+   implements DifferentiableBoundedUnivariateFunction {
    
    private StepFunction stepFunction;
    private BoundedUnivariateFunction existingResponseFunction;
@@ -84,6 +88,28 @@ final class StepResponseFunction
       return existingResponseFunction.value(rate) * stepFunction.value(rate);
    }
    
+   @Override
+   public double derivative(double rate) {
+      if(rate >= super.getMaximumInDomain()) return 0.;
+      else if(rate < 0.)
+         throw new IllegalArgumentException(
+            "StepResponseFunction.derivative: argument " + rate + " is out of bounds. ");
+      final double existingDerivative;
+      if(existingResponseFunction instanceof DifferentiableBoundedUnivariateFunction)
+         existingDerivative = 
+            ((DifferentiableBoundedUnivariateFunction) existingResponseFunction)
+               .derivative(rate);
+      else {
+         final double
+            h = Math.sqrt(Math.ulp(1.)) * Math.max(rate, 1.),
+            lower = Math.max(rate - h, 0.),
+            upper = rate + h;
+         existingDerivative = (existingResponseFunction.value(upper) - 
+            existingResponseFunction.value(lower)) / (upper - lower);
+      }
+      return existingDerivative * stepFunction.value(rate);
+   }
+   
    /**
     * Returns a brief description of this object. The exact details of the
     * string are subject to change, and should not be regarded as fixed.
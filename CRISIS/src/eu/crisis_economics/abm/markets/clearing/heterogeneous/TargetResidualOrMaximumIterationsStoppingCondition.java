@@ -27,6 +27,8 @@ import com.google.common.base.Preconditions;
   *       value, or
   *   (b) the number of clearing iterations (calls to isStoppingConditionSatisfied)
   *       has reached a fixed value.
+  * Each call to isStoppingConditionSatisfied, and the cause of termination, is
+  * recorded in the {@link ClearingAlgorithmMetrics} of the network.
   * @author phillips
   */
 final class TargetResidualOrMaximumIterationsStoppingCondition extends
@@ -48,8 +50,17 @@ final class TargetResidualOrMaximumIterationsStoppingCondition extends
    @Override
    public boolean isStoppingConditionSatisfied(final MixedClearingNetwork network) {
       super.incrementNumberOfIterations();
-      return (network.getResidualCost() <= targetNetworkResidual) || 
-             (super.getNumberOfIterationsElapsed() >= maximumNumberOfIterations);
+      final ClearingAlgorithmMetrics metrics = network.getMetrics();
+      metrics.recordIteration();
+      if(network.getResidualCost() <= targetNetworkResidual) {
+         metrics.recordStop(true);
+         return true;
+      }
+      if(super.getNumberOfIterationsElapsed() >= maximumNumberOfIterations) {
+         metrics.recordStop(false);
+         return true;
+      }
+      return false;
    }
    
    /**
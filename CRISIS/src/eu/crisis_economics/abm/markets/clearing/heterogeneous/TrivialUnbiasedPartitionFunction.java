@@ -19,7 +19,8 @@
 package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 
 public final class TrivialUnbiasedPartitionFunction
-   extends AbstractResponseFunction {
+   extends AbstractResponseFunction
+   implements DifferentiableMarketResponseFunction, VectorizedMarketResponseFunction {
    @Override
    public double[] getValue(
       final int[] queries,
@@ -31,4 +32,37 @@ public final class TrivialUnbiasedPartitionFunction
          result[i] = value;
       return result;
    }
+   
+   @Override
+   public boolean isVectorized() {
+      return true;
+   }
+   
+   @Override
+   public void getValue(
+      final int[] queries,
+      final double[] rates,
+      final double[] result
+      ) {
+      final double value = 1./rates.length;
+      for(int i = 0; i< queries.length; ++i)
+         result[i] = value;
+   }
+   
+   @Override
+   public boolean isDifferentiable() {
+      return true;
+   }
+   
+   /**
+     * The value of this partition function does not depend on rates. All
+     * derivatives are zero.
+     */
+   @Override
+   public double[][] getDerivatives(
+      final int[] queries,
+      final TradeOpportunity[] arguments
+      ) {
+      return new double[queries.length][arguments.length];
+   }
 }
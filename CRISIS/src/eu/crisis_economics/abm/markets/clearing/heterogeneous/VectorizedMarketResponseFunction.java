@@ -0,0 +1,63 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+/**
+  * A {@link MarketResponseFunction} whose response depends only on the rates of 
+  * its trade opportunities, and not on the {@link ClearingInstrument} or trade 
+  * party of each opportunity. Such response functions can be evaluated on 
+  * primitive arrays of rates, writing their response into a buffer supplied by
+  * the caller.<br><br>
+  * 
+  * Network nodes use {@link #getValue(int[], double[], double[])} in place of 
+  * {@link #getValue(int[], TradeOpportunity[])} when it is available. Callers 
+  * may reuse the same rate and result buffers for any number of evaluations, so
+  * evaluation need not allocate memory. For any rates, both methods should return
+  * the same values.
+  * 
+  * @author phillips
+  */
+public interface VectorizedMarketResponseFunction extends MarketResponseFunction {
+   /**
+     * Can this response function be evaluated on primitive arrays of rates? If
+     * this method returns {@code false}, the behaviour of {@link 
+     * #getValue(int[], double[], double[])} is undefined. Decorators and composite
+     * response functions are vectorized only if their components are vectorized.
+     */
+   public boolean isVectorized();
+   
+   /**
+     * Compute the value of this market response function for the given rates.
+     * The {@code i}th element of {@code result} is set to the response to trade
+     * opportunity {@code queries[i]}, when the rate of the {@code j}th trade 
+     * opportunity is {@code rates[j]}. Elements of {@code result} with indices 
+     * greater than or equal to {@code queries.length} are not modified. See also
+     * {@link #getValue(int[], TradeOpportunity[])}.
+     * 
+     * @param queries
+     *        The indices of the trade opportunities for which to compute the
+     *        market response.
+     * @param rates
+     *        The rates of all trade opportunities. This array is not modified.
+     * @param result
+     *        The buffer into which to write the market response. The length of 
+     *        this array must be at least {@code queries.length}.
+     */
+   public void getValue(final int[] queries, final double[] rates, final double[] result);
+}
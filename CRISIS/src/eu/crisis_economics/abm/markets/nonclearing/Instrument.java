@@ -25,6 +25,7 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
@@ -55,6 +56,30 @@ public abstract class Instrument implements Serializable{
 	 * @author olaf
 	 */
 	public enum MatchingMode{ ASYNCHRONOUS, SYNCHRONOUS }
+	
+	/**
+	 * LIST: the list based {@link BookEngine}
+	 * PRICE_LEVEL: the price level indexed {@link PriceLevelBookEngine}
+	 */
+	public enum BookEngineType{ LIST, PRICE_LEVEL }
+	
+	/**
+	 * The name of the system property selecting the default {@link BookEngineType}.
+	 */
+	public static final String BOOK_ENGINE_PROPERTY =
+		"eu.crisis_economics.abm.markets.nonclearing.bookEngine";
+	
+	/**
+	 * Get the default {@link BookEngineType}. This is specified by the system property
+	 * {@link #BOOK_ENGINE_PROPERTY}, and is {@link BookEngineType#LIST} if the property
+	 * is not set.
+	 */
+	public static BookEngineType getDefaultBookEngineType() {
+		final String value = System.getProperty(BOOK_ENGINE_PROPERTY);
+		if (value == null || value.trim().isEmpty())
+			return BookEngineType.LIST;
+		return BookEngineType.valueOf(value.trim().toUpperCase());
+	}
 	/**
 	 * The lot size minimum $\sigma$ is the smallest amount of the asset that can be traded in the market. 
 	 * Sell orders must arrive with a size $\omega_x\in{\sigma+k\epsilon\for k=1,2,...}$.
@@ -143,6 +168,18 @@ public abstract class Instrument implements Serializable{
 	 * Asynchronous means new orders are tested for matching at the time of arrival.
 	 */
 	protected Instrument(final String tickerSymbol, final BlockingQueue<Order> updatedOrders, final MatchingMode matchingMode, final Set<InstrumentListener> listeners) {
+		this(tickerSymbol, updatedOrders, matchingMode, listeners, getDefaultBookEngineType());
+	}
+
+	/**
+	 * Creates an investment instrument with a given ticker symbol, matchingMode and order book implementation.
+	 * @param tickerSymbol
+	 * @param updatedOrders
+	 * @param matchingMode
+	 * @param listeners
+	 * @param bookEngineType The order book implementation. See {@link BookEngineType}.
+	 */
+	protected Instrument(final String tickerSymbol, final BlockingQueue<Order> updatedOrders, final MatchingMode matchingMode, final Set<InstrumentListener> listeners, final BookEngineType bookEngineType) {
 		
 		this.tickerSymbol = tickerSymbol;
 		if (matchingMode == MatchingMode.ASYNCHRONOUS) {
@@ -151,14 +188,22 @@ public abstract class Instrument implements Serializable{
 			this.setSynchronous();
 		}
 		
-		this.bidLimitOrders = new ArrayList<Order>();
-		this.askLimitOrders = new ArrayList<Order>();
 		this.filledOrders   = new ArrayList<Order>();
 		this.partiallyFilledOrders = new ArrayList<Order>();
 		this.listeners = listeners;
 		
 		//start a new book processing engine for this instrument
-		bookEngine = new BookEngine(bidLimitOrders, askLimitOrders, filledOrders, partiallyFilledOrders, updatedOrders, tickerSymbol);
+		if (bookEngineType == BookEngineType.PRICE_LEVEL) {
+			final PriceLevelBookEngine priceLevelBookEngine = 
+				new PriceLevelBookEngine(filledOrders, partiallyFilledOrders, updatedOrders, tickerSymbol);
+			this.bidLimitOrders = priceLevelBookEngine.getBidLimitOrders();
+			this.askLimitOrders = priceLevelBookEngine.getAskLimitOrders();
+			bookEngine = priceLevelBookEngine;
+		} else {
+			this.bidLimitOrders = new ArrayList<Order>();
+			this.askLimitOrders = new ArrayList<Order>();
+			bookEngine = new BookEngine(bidLimitOrders, askLimitOrders, filledOrders, partiallyFilledOrders, updatedOrders, tickerSymbol);
+		}
 		
 		//Make sure all variables are initialized to zero from the beginning
 		bidVolume = askVolume = buyVolume = sellVolume = 0;
@@ -698,12 +743,11 @@ public abstract class Instrument implements Serializable{
 	
 	protected double getCurrentAskLow() {
 		double min = 0;
-		if (askLimitOrders.size() > 0) {
-			min = askLimitOrders.get(0).getPrice();
-			for (int i=1;i<askLimitOrders.size();i++) {
-				if (askLimitOrders.get(i).getPrice() < min) {
-					min = askLimitOrders.get(i).getPrice();
-				}
+		boolean isFirst = true;
+		for (final Order order : askLimitOrders) {
+			if (isFirst || order.getPrice() < min) {
+				min = order.getPrice();
+				isFirst = false;
 			}
 		}
 		return min;
@@ -715,12 +759,11 @@ public abstract class Instrument implements Serializable{
 	
 	protected double getCurrentBidHigh() {
 		double max = 0;
-		if (bidLimitOrders.size() > 0) {
-			max = bidLimitOrders.get(0).getPrice();
-			for (int i=1;i<bidLimitOrders.size();i++) {
-				if (bidLimitOrders.get(i).getPrice() > max) {
-					max = bidLimitOrders.get(i).getPrice();
-				}
+		boolean isFirst = true;
+		for (final Order order : bidLimitOrders) {
+			if (isFirst || order.getPrice() > max) {
+				max = order.getPrice();
+				isFirst = false;
 			}
 		}
 		return max;
@@ -810,20 +853,7 @@ public abstract class Instrument implements Serializable{
 	 * @return
 	 */
 	protected double getBidPriceAtVolume(final double volume){
-		double remainingVolume = volume;
-		double price = 0;
-		int count = 0;
-		while (count  < bidLimitOrders.size()) {
-			double currentPrice  = this.getAskPriceAtDepth(count);
-			double currentVolume = this.getAskVolumeAtPrice(currentPrice);
-            if (currentVolume >= remainingVolume) {
-            	return price += currentPrice * remainingVolume;
-            }
-            price += currentPrice * currentVolume;
-            remainingVolume -= currentVolume;
-            count++;
-        }
-		return price;
+		return getPriceAtVolume(volume, askLimitOrders, bidLimitOrders.size());
 	}
 	
 	/**
@@ -832,12 +862,27 @@ public abstract class Instrument implements Serializable{
 	 * @return
 	 */
 	protected double getAskPriceAtVolume(final double volume){
+		return getPriceAtVolume(volume, bidLimitOrders, askLimitOrders.size());
+	}
+	
+	/*
+	 * Walk the price levels of a book, in order of priority, in one pass. Levels
+	 * beyond the given depth are not considered.
+	 */
+	private double getPriceAtVolume(
+		final double volume, final List<Order> book, final int maximumDepth){
 		double remainingVolume = volume;
 		double price = 0;
 		int count = 0;
-		while (count  < askLimitOrders.size()) {
-			double currentPrice  = this.getBidPriceAtDepth(count);
-			double currentVolume = this.getBidVolumeAtPrice(currentPrice);
+		final Iterator<Order> orders = book.iterator();
+		Order next = orders.hasNext() ? orders.next() : null;
+		while (count < maximumDepth && next != null) {
+			final double currentPrice = next.getPrice();
+			double currentVolume = 0;
+			while (next != null && next.getPrice() == currentPrice) {
+				currentVolume += next.getOpenSize();
+				next = orders.hasNext() ? orders.next() : null;
+			}
             if (currentVolume >= remainingVolume) {
             	return price += currentPrice * remainingVolume;
             }
@@ -85,32 +85,34 @@ public class InstrumentChart extends ScatterPlotGenerator {
 					setYAxisLabel("Voume");
 					setXAxisLabel("Price");
 				}
-				for (int i = 0; i < instrument.getAskLimitOrders().numObjs; i++) {
+				for (final Object o : instrument.getAskLimitOrders()) {
+					final Order order = (Order) o;
 					final double[][] values = new double[2][3];
-					final double price = ((Order) instrument.getAskLimitOrders().get(i)).getPrice();
-					final double size = ((Order) instrument.getAskLimitOrders().get(i)).getSize();
+					final double price = order.getPrice();
+					final double size = order.getSize();
 					values[0][0]= price;	// x1
 					values[0][1]= price;	// x2
 					values[0][2]= price;	// x3
 					values[1][0]= 0.0;		// y1			
 					values[1][1]= size;		// y2	
-					values[1][2]= ((Order) instrument.getAskLimitOrders().get(i)).getOpenSize();		// y3
+					values[1][2]= order.getOpenSize();		// y3
 					if (state.schedule.getTime() >= Schedule.EPOCH && state.schedule.getTime() < Schedule.AFTER_SIMULATION) {
-						addSeries(values, ((Order) instrument.getAskLimitOrders().get(i)).toString(), null);
+						addSeries(values, order.toString(), null);
 					}
 				}
-				for (int i = 0; i < instrument.getBidLimitOrders().numObjs; i++) {
+				for (final Object o : instrument.getBidLimitOrders()) {
+					final Order order = (Order) o;
 					final double[][] values = new double[2][3];
-					final double price = ((Order) instrument.getBidLimitOrders().get(i)).getPrice();
-					final double size = ((Order) instrument.getBidLimitOrders().get(i)).getSize();
+					final double price = order.getPrice();
+					final double size = order.getSize();
 					values[0][0]= price;	// x1
 					values[0][1]= price;	// x2
 					values[0][2]= price;	// x3
 					values[1][0]=0.0;		// y1			
 					values[1][1]= -size;	// y2					
-					values[1][2]= -((Order) instrument.getBidLimitOrders().get(i)).getOpenSize();		// y3
+					values[1][2]= -order.getOpenSize();		// y3
 					if (state.schedule.getTime() >= Schedule.EPOCH && state.schedule.getTime() < Schedule.AFTER_SIMULATION) {
-						addSeries(values, ((Order) instrument.getBidLimitOrders().get(i)).toString(), null);
+						addSeries(values, order.toString(), null);
 					}
 				}
 				
@@ -0,0 +1,662 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.nonclearing;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * A price level indexed implementation of {@link BookEngineInterface}.<br><br>
+  * 
+  * Each side of the book is a sorted map from prices to first-in-first-out queues
+  * of resting orders. For {@code P} distinct prices in the book, orders are inserted
+  * and cancelled in {@code O(log P)} time. Matching visits price levels from the
+  * best price and stops at the first price level which does not cross. Orders whose
+  * filters reject an incoming order are skipped without disturbing their queue
+  * position.<br><br>
+  * 
+  * Orders at the same price are matched in order of arrival (price-time priority).
+  * By contrast, {@link BookEngine} matches sell orders at the same price in reverse
+  * order of arrival. Otherwise the two engines produce the same trades.<br><br>
+  * 
+  * The bid and ask books of the {@link Instrument} are unmodifiable views
+  * ({@link #getBidLimitOrders()} and {@link #getAskLimitOrders()}) of this engine. 
+  * Resting market orders (whose prices are revised during matching) are handled by 
+  * the matching algorithms of {@link BookEngine}, applied to a snapshot of the book.
+  * 
+  * @author phillips
+  */
+public class PriceLevelBookEngine implements BookEngineInterface {
+   
+   private static final long serialVersionUID = -2393934802573385106L;
+   
+   private final String
+      tickerSymbol;
+   private final PriceLevelBook
+      bids,
+      asks;
+   private final List<Order>
+      filledOrders,
+      partiallyFilledOrders;
+   
+   /**
+     * Create a {@link PriceLevelBookEngine}.
+     * 
+     * @param filledOrders
+     *        The filled order book of the {@link Instrument}.
+     * @param partiallyFilledOrders
+     *        The partially filled order book of the {@link Instrument}.
+     * @param updatedOrders
+     *        The updated order queue of the {@link Instrument} (unused).
+     * @param tickerSymbol
+     *        The ticker symbol of the {@link Instrument}.
+     */
+   public PriceLevelBookEngine(
+      final List<Order> filledOrders,
+      final List<Order> partiallyFilledOrders,
+      final BlockingQueue<Order> updatedOrders,
+      final String tickerSymbol
+      ) {
+      this.tickerSymbol = tickerSymbol;
+      this.bids = new PriceLevelBook(true);
+      this.asks = new PriceLevelBook(false);
+      this.filledOrders = filledOrders;
+      this.partiallyFilledOrders = partiallyFilledOrders;
+   }
+   
+   /**
+     * Get an unmodifiable view of the bid book, in order of priority.
+     */
+   public List<Order> getBidLimitOrders() {
+      return bids.view;
+   }
+   
+   /**
+     * Get an unmodifiable view of the ask book, in order of priority.
+     */
+   public List<Order> getAskLimitOrders() {
+      return asks.view;
+   }
+   
+   public String getTickerSymbol() {
+      return tickerSymbol;
+   }
+   
+   /*
+    * One side of the book.
+    */
+   private static final class PriceLevelBook implements Serializable {
+      private static final long serialVersionUID = 6211071796453768183L;
+      
+      private final TreeMap<Double, LinkedHashSet<Order>>
+         levels;
+      private final Map<Order, Double>
+         levelOfOrder;
+      private int
+         numberOfMarketOrders;
+      private final List<Order>
+         view;
+      private transient Order[]
+         flattened;                                     // Book in order of priority, or null
+      
+      private PriceLevelBook(final boolean isDescending) {
+         this.levels = isDescending ? 
+            new TreeMap<Double, LinkedHashSet<Order>>(Collections.reverseOrder()) :
+            new TreeMap<Double, LinkedHashSet<Order>>();
+         this.levelOfOrder = new IdentityHashMap<Order, Double>();
+         this.view = new BookView();
+      }
+      
+      private void add(final Order order) {
+         final Double price = order.getPrice();
+         LinkedHashSet<Order> level = levels.get(price);
+         if(level == null) {
+            level = new LinkedHashSet<Order>();
+            levels.put(price, level);
+         }
+         level.add(order);
+         levelOfOrder.put(order, price);
+         flattened = null;
+         if(order.getType() == Order.Type.MARKET)
+            ++numberOfMarketOrders;
+      }
+      
+      private boolean remove(final Order order) {
+         final Double price = levelOfOrder.remove(order);
+         if(price == null)
+            return false;
+         final LinkedHashSet<Order> level = levels.get(price);
+         level.remove(order);
+         if(level.isEmpty())
+            levels.remove(price);
+         flattened = null;
+         if(order.getType() == Order.Type.MARKET)
+            --numberOfMarketOrders;
+         return true;
+      }
+      
+      /*
+       * Forget an order which has already been removed from its price level
+       * (by an iterator).
+       */
+      private void forget(final Order order) {
+         levelOfOrder.remove(order);
+         flattened = null;
+         if(order.getType() == Order.Type.MARKET)
+            --numberOfMarketOrders;
+      }
+      
+      private boolean isEmpty() {
+         return levels.isEmpty();
+      }
+      
+      private Order first() {
+         return levels.isEmpty() ? null : levels.firstEntry().getValue().iterator().next();
+      }
+      
+      /*
+       * The first order, in order of priority, which is not excluded. Returns null
+       * if there is no such order.
+       */
+      private Order firstExcept(final Set<Order> excluded) {
+         for(final LinkedHashSet<Order> level : levels.values())
+            for(final Order order : level)
+               if(!excluded.contains(order))
+                  return order;
+         return null;
+      }
+      
+      private void clear() {
+         levels.clear();
+         levelOfOrder.clear();
+         flattened = null;
+         numberOfMarketOrders = 0;
+      }
+      
+      /*
+       * Indexed access flattens the book once per modification, so index loops over 
+       * an unchanging book take O(1) time per element. Iteration does not flatten.
+       */
+      private final class BookView extends AbstractList<Order> implements Serializable {
+         private static final long serialVersionUID = -7036339829436785651L;
+         
+         @Override
+         public Order get(final int index) {
+            if(index < 0 || index >= size())
+               throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            if(flattened == null) {
+               final Order[] result = new Order[size()];
+               int position = 0;
+               for(final LinkedHashSet<Order> level : levels.values())
+                  for(final Order order : level)
+                     result[position++] = order;
+               flattened = result;
+            }
+            return flattened[index];
+         }
+         
+         @Override
+         public int size() {
+            return levelOfOrder.size();
+         }
+         
+         @Override
+         public Iterator<Order> iterator() {
+            return new Iterator<Order>() {
+               private final Iterator<LinkedHashSet<Order>>
+                  levelIter = levels.values().iterator();
+               private Iterator<Order>
+                  orderIter = Collections.<Order>emptyList().iterator();
+               
+               @Override
+               public boolean hasNext() {
+                  while(!orderIter.hasNext() && levelIter.hasNext())
+                     orderIter = levelIter.next().iterator();
+                  return orderIter.hasNext();
+               }
+               
+               @Override
+               public Order next() {
+                  if(!hasNext())
+                     throw new NoSuchElementException();
+                  return orderIter.next();
+               }
+               
+               @Override
+               public void remove() {
+                  throw new UnsupportedOperationException();
+               }
+            };
+         }
+      }
+   }
+   
+   @Override
+   public void processNewOrder(final Order o) {
+      final Instrument instrument = o.getInstrument();
+      
+      if(o.getSide() == Order.Side.BUY) {
+         if(o.getType() == Order.Type.MARKET) {
+            if(instrument.isSynchronous()) {
+               // Market orders have no meaning in synchronous mode
+               o.cancel();
+               o.setStatus(Order.Status.REJECTED);
+               return;
+            }
+            final Order bestAllowed = getFirstMutuallyAcceptable(o, asks);
+            if(bestAllowed == null) {
+               o.cancel();
+               o.setStatus(Order.Status.REJECTED);
+               return;
+            }
+            o.setPrice(bestAllowed.getPrice());
+         }
+         
+         instrument.updateBidVWAP(o.getSize(), o.getPrice());
+         instrument.updateBidHigh(o.getPrice());
+         instrument.updateBidLow(o.getPrice());
+         
+         if(instrument.isAsynchronous()) {
+            try {
+               matchIncomingBuyOrder(o);
+            } catch (final InstrumentException e) {
+               e.printStackTrace();
+            }
+         }
+         
+         if(o.isFilled())
+            o.setStatus(Order.Status.FILLED);
+         else
+            insertBuyOrder(o);
+      }
+      else {
+         if(o.getType() == Order.Type.MARKET) {
+            final Order bestAllowed = getFirstMutuallyAcceptable(o, bids);
+            if(bestAllowed == null) {
+               o.cancel();
+               o.setStatus(Order.Status.REJECTED);
+               return;
+            }
+            o.setPrice(bestAllowed.getPrice());
+         }
+         
+         instrument.updateAskVWAP(o.getSize(), o.getPrice());
+         instrument.updateAskHigh(o.getPrice());
+         instrument.updateAskLow(o.getPrice());
+         
+         if(instrument.isAsynchronous()) {
+            try {
+               matchIncomingSellOrder(o);
+            } catch (final InstrumentException e) {
+               e.printStackTrace();
+            }
+         }
+         
+         if(o.isFilled())
+            o.setStatus(Order.Status.FILLED);
+         else
+            insertSellOrder(o);
+      }
+      
+      cleanUpPartiallyFilledOrders();
+   }
+   
+   /*
+    * Find the first order, in order of priority, which accepts and is accepted by
+    * the evaluated order.
+    */
+   private static Order getFirstMutuallyAcceptable(
+      final Order evaluatedOrder,
+      final PriceLevelBook book
+      ) {
+      for(final Order order : book.view)
+         if(evaluatedOrder.accepts(order) && order.accepts(evaluatedOrder))
+            return order;
+      return null;
+   }
+   
+   /*
+    * Match a buy order, which is not resting in the bid book, against the ask 
+    * book. Trades are executed at the price of the resting order.
+    */
+   private void matchIncomingBuyOrder(final Order o) throws InstrumentException {
+      final Instrument instrument = o.getInstrument();
+      final Iterator<Entry<Double, LinkedHashSet<Order>>>
+         levelIter = asks.levels.entrySet().iterator();
+      while(o.getOpenSize() > 0 && levelIter.hasNext()) {
+         final Entry<Double, LinkedHashSet<Order>> level = levelIter.next();
+         final double price = level.getKey();
+         if(o.getType() == Order.Type.MARKET)
+            o.setPrice(price);
+         if(price > o.getPrice())
+            break;                                             // No further crossing prices.
+         final Iterator<Order> iter = level.getValue().iterator();
+         while(o.getOpenSize() > 0 && iter.hasNext()) {
+            final Order curOrder = iter.next();
+            if(!o.accepts(curOrder) || !curOrder.accepts(o))
+               continue;
+            final double quantity = Math.min(curOrder.getOpenSize(), o.getOpenSize());
+            
+            curOrder.execute(quantity, price);
+            o.execute(quantity, price);
+            
+            instrument.setupContract(o, curOrder, quantity, price);
+            
+            if(curOrder.isFilled()) {
+               iter.remove();
+               asks.forget(curOrder);
+               curOrder.setStatus(Order.Status.FILLED);
+            } else {
+               addToPartiallyFilledOrders(curOrder);
+               curOrder.setStatus(Order.Status.PARTIALLY_FILLED);
+            }
+            addToPartiallyFilledOrders(o);
+            
+            instrument.updateLastPrice(price);
+            instrument.updateAskVolume(-quantity);
+            instrument.updateBuyVolume(quantity);
+            instrument.updateAveragePrice(quantity, price);
+            instrument.updateAverageBuyPrice(quantity, price);
+         }
+         if(level.getValue().isEmpty())
+            levelIter.remove();
+      }
+   }
+   
+   /*
+    * Match a sell order, which is not resting in the ask book, against the bid 
+    * book. Trades are executed at the price of the resting order.
+    */
+   private void matchIncomingSellOrder(final Order o) throws InstrumentException {
+      final Instrument instrument = o.getInstrument();
+      final Iterator<Entry<Double, LinkedHashSet<Order>>>
+         levelIter = bids.levels.entrySet().iterator();
+      while(o.getOpenSize() > 0 && levelIter.hasNext()) {
+         final Entry<Double, LinkedHashSet<Order>> level = levelIter.next();
+         final double price = level.getKey();
+         if(price < o.getPrice())
+            break;                                             // No further crossing prices.
+         final Iterator<Order> iter = level.getValue().iterator();
+         while(o.getOpenSize() > 0 && iter.hasNext()) {
+            final Order curOrder = iter.next();
+            if(!o.accepts(curOrder) || !curOrder.accepts(o))
+               continue;
+            final double quantity = Math.min(curOrder.getOpenSize(), o.getOpenSize());
+            
+            curOrder.execute(quantity, price);
+            o.execute(quantity, price);
+            
+            instrument.setupContract(curOrder, o, quantity, price);
+            
+            addToPartiallyFilledOrders(o);
+            
+            if(curOrder.isFilled()) {
+               iter.remove();
+               bids.forget(curOrder);
+               curOrder.setStatus(Order.Status.FILLED);
+            } else {
+               addToPartiallyFilledOrders(curOrder);
+               curOrder.setStatus(Order.Status.PARTIALLY_FILLED);
+            }
+            
+            instrument.updateLastPrice(price);
+            instrument.updateBidVolume(-quantity);
+            instrument.updateSellVolume(quantity);
+            instrument.updateAveragePrice(quantity, price);
+            instrument.updateAverageSellPrice(quantity, price);
+         }
+         if(level.getValue().isEmpty())
+            levelIter.remove();
+      }
+   }
+   
+   private void addToPartiallyFilledOrders(final Order o) {
+      if(o.isFilled()) {
+         if(partiallyFilledOrders.remove(o))
+            o.setStatus(Order.Status.FILLED);
+      }
+      else if(!partiallyFilledOrders.contains(o)) {
+         partiallyFilledOrders.add(o);
+         o.setStatus(Order.Status.PARTIALLY_FILLED);
+      }
+   }
+   
+   private void cleanUpPartiallyFilledOrders() {
+      final Iterator<Order> iter = partiallyFilledOrders.iterator();
+      while(iter.hasNext())
+         if(iter.next().isFilled())
+            iter.remove();
+   }
+   
+   /**
+     * Match the best bid and best ask orders until prices no longer cross. The
+     * most recent of the two orders is the aggressor, and trades are executed
+     * at the price of the other order. An aggressor whose filters, or whose
+     * counterparties' filters, prevent any trade is skipped for the rest of the
+     * call, and matching continues with the next best order.
+     */
+   @Override
+   public void synchronizedOrderMatch() throws InstrumentException {
+      final Set<Order> blocked = Collections.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+      while(true) {
+         final Order
+            bestBid = bids.firstExcept(blocked),
+            bestAsk = asks.firstExcept(blocked);
+         if(bestBid == null || bestAsk == null || bestBid.getPrice() < bestAsk.getPrice())
+            break;
+         final boolean isBuyerAggressor;
+         if(bestBid.getEntryTime() > bestAsk.getEntryTime())
+            isBuyerAggressor = true;
+         else if(bestAsk.getEntryTime() > bestBid.getEntryTime())
+            isBuyerAggressor = false;
+         else
+            isBuyerAggressor = Simulation.getSimState().random.nextBoolean();
+         final double openSizeBefore;
+         if(isBuyerAggressor) {
+            openSizeBefore = bestBid.getOpenSize();
+            bids.remove(bestBid);
+            matchIncomingBuyOrder(bestBid);
+            if(!bestBid.isFilled())
+               bids.add(bestBid);
+            if(bestBid.getOpenSize() == openSizeBefore)
+               blocked.add(bestBid);                           // Filters prevent trade.
+         } else {
+            openSizeBefore = bestAsk.getOpenSize();
+            asks.remove(bestAsk);
+            matchIncomingSellOrder(bestAsk);
+            if(!bestAsk.isFilled())
+               asks.add(bestAsk);
+            if(bestAsk.getOpenSize() == openSizeBefore)
+               blocked.add(bestAsk);                           // Filters prevent trade.
+         }
+      }
+      cleanUpPartiallyFilledOrders();
+   }
+   
+   /**
+     * Match all orders (synchronous mode). Each bid, in order of priority, is
+     * matched against all crossing asks, in order of priority, at the ask price.
+     */
+   @Deprecated
+   @Override
+   public synchronized void matchOrders() throws InstrumentException {
+      if(bids.numberOfMarketOrders > 0 || asks.numberOfMarketOrders > 0) {
+         final List<Order>
+            bidSnapshot = new ArrayList<Order>(bids.view),
+            askSnapshot = new ArrayList<Order>(asks.view);
+         createSnapshotEngine(bidSnapshot, askSnapshot).matchOrders();
+         restoreFromSnapshot(bidSnapshot, askSnapshot);
+         return;
+      }
+      final Iterator<Entry<Double, LinkedHashSet<Order>>>
+         bidLevelIter = bids.levels.entrySet().iterator();
+      while(bidLevelIter.hasNext() && !asks.isEmpty()) {
+         final Entry<Double, LinkedHashSet<Order>> bidLevel = bidLevelIter.next();
+         if(bidLevel.getKey() < asks.levels.firstKey())
+            break;                                             // No further crossing prices.
+         final Iterator<Order> bidIter = bidLevel.getValue().iterator();
+         while(bidIter.hasNext()) {
+            final Order curBidOrder = bidIter.next();
+            matchRestingBuyOrder(curBidOrder);
+            if(curBidOrder.isFilled()) {
+               bidIter.remove();
+               bids.forget(curBidOrder);
+               curBidOrder.setStatus(Order.Status.FILLED);
+            }
+            else if(curBidOrder.getExecutedSize() > 0.)
+               curBidOrder.setStatus(Order.Status.PARTIALLY_FILLED);
+         }
+         if(bidLevel.getValue().isEmpty())
+            bidLevelIter.remove();
+      }
+      cleanUpPartiallyFilledOrders();
+   }
+   
+   /*
+    * Match a buy order resting in the bid book against the ask book, at the ask
+    * price.
+    */
+   private void matchRestingBuyOrder(final Order curBidOrder) throws InstrumentException {
+      final Instrument instrument = curBidOrder.getInstrument();
+      final Iterator<Entry<Double, LinkedHashSet<Order>>>
+         askLevelIter = asks.levels.entrySet().iterator();
+      while(curBidOrder.getOpenSize() > 0 && askLevelIter.hasNext()) {
+         final Entry<Double, LinkedHashSet<Order>> askLevel = askLevelIter.next();
+         final double priceAsk = askLevel.getKey();
+         if(priceAsk > curBidOrder.getPrice())
+            break;
+         final Iterator<Order> askIter = askLevel.getValue().iterator();
+         while(curBidOrder.getOpenSize() > 0 && askIter.hasNext()) {
+            final Order curAskOrder = askIter.next();
+            if(!curAskOrder.accepts(curBidOrder) || !curBidOrder.accepts(curAskOrder))
+               continue;
+            final double quantity = 
+               Math.min(curAskOrder.getOpenSize(), curBidOrder.getOpenSize());
+            
+            curAskOrder.execute(quantity, priceAsk);
+            curBidOrder.execute(quantity, priceAsk);
+            
+            instrument.setupContract(curBidOrder, curAskOrder, quantity, priceAsk);
+            
+            if(curAskOrder.isFilled()) {
+               askIter.remove();
+               asks.forget(curAskOrder);
+               curAskOrder.setStatus(Order.Status.FILLED);
+            } else {
+               addToPartiallyFilledOrders(curAskOrder);
+               curAskOrder.setStatus(Order.Status.PARTIALLY_FILLED);
+            }
+            addToPartiallyFilledOrders(curBidOrder);
+            
+            instrument.updateLastPrice(priceAsk);
+            instrument.updateAskVolume(-quantity);
+            instrument.updateBuyVolume(quantity);
+            instrument.updateAveragePrice(quantity, priceAsk);
+            instrument.updateAverageBuyPrice(quantity, priceAsk);
+         }
+         if(askLevel.getValue().isEmpty())
+            askLevelIter.remove();
+      }
+   }
+   
+   @Deprecated
+   @Override
+   public synchronized void matchOrdersBestBid() throws InstrumentException {
+      final List<Order>
+         bidSnapshot = new ArrayList<Order>(bids.view),
+         askSnapshot = new ArrayList<Order>(asks.view);
+      createSnapshotEngine(bidSnapshot, askSnapshot).matchOrdersBestBid();
+      restoreFromSnapshot(bidSnapshot, askSnapshot);
+   }
+   
+   @Deprecated
+   @Override
+   public synchronized void matchOrdersInterbank() throws InstrumentException {
+      final List<Order>
+         bidSnapshot = new ArrayList<Order>(bids.view),
+         askSnapshot = new ArrayList<Order>(asks.view);
+      createSnapshotEngine(bidSnapshot, askSnapshot).matchOrdersInterbank();
+      restoreFromSnapshot(bidSnapshot, askSnapshot);
+   }
+   
+   /*
+    * A list based engine operating on a snapshot of this book.
+    */
+   private BookEngine createSnapshotEngine(
+      final List<Order> bidSnapshot,
+      final List<Order> askSnapshot
+      ) {
+      return new BookEngine(
+         bidSnapshot, askSnapshot, filledOrders, partiallyFilledOrders, null, tickerSymbol);
+   }
+   
+   /*
+    * Rebuild both sides of the book from (modified) snapshots. The prices of market 
+    * orders may have been revised, so all orders are reindexed.
+    */
+   private void restoreFromSnapshot(
+      final List<Order> bidSnapshot,
+      final List<Order> askSnapshot
+      ) {
+      bids.clear();
+      for(final Order order : bidSnapshot)
+         bids.add(order);
+      asks.clear();
+      for(final Order order : askSnapshot)
+         asks.add(order);
+   }
+   
+   @Override
+   public Order processCancelOrder(final Order o) {
+      final boolean removed =
+         (o.getSide() == Order.Side.BUY) ? bids.remove(o) : asks.remove(o);
+      if(removed) {
+         o.cancel();
+         o.setStatus(Order.Status.CANCELLED);
+         return o;
+      }
+      return null;
+   }
+   
+   @Override
+   public void insertBuyOrder(final Order o) {
+      o.getInstrument().updateBidVolume(o.getOpenSize());
+      bids.add(o);
+   }
+   
+   @Override
+   public void insertSellOrder(final Order o) {
+      o.getInstrument().updateAskVolume(o.getOpenSize());
+      asks.add(o);
+   }
+}
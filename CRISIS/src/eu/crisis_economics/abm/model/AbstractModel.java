@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.commons.math3.stat.descriptive.rank.Median;
+import org.apache.log4j.Logger;
 import org.javatuples.Triplet;
 
 import com.google.common.eventbus.Subscribe;
@@ -71,6 +72,7 @@ import eu.crisis_economics.abm.household.Household;
 import eu.crisis_economics.abm.household.MacroHousehold;
 import eu.crisis_economics.abm.markets.clearing.ClearingHouse;
 import eu.crisis_economics.abm.markets.clearing.SimpleLabourMarket;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.AbstractClearingMarket;
 import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingLoanMarket;
 import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingMarketUtils;
 import eu.crisis_economics.abm.markets.nonclearing.CommercialLoanMarket;
@@ -191,6 +193,19 @@ import eu.crisis_economics.utilities.Pair;
       "CBLoanVolume",
       "CBovernightDepositRate",
       "CBrefinancingRate", 
+      
+      "clearingMarketMarketName",
+      "clearingMarketClearingIterations",
+      "sum(clearingMarketClearingIterations)",
+      "clearingMarketClearingResponseEvaluations",
+      "sum(clearingMarketClearingResponseEvaluations)",
+      "clearingMarketClearingResidual",
+      "max(clearingMarketClearingResidual)",
+      "clearingMarketClearingComponents",                       // LP
+      "clearingMarketClearingIterationCapStops",
+      "sum(clearingMarketClearingIterationCapStops)",
+      "clearingMarketClearingAlgorithmSelections",
+      
       "CommercialLoansToGDPratio",
       
       "dividendPriceRatio",                                     // C
@@ -462,6 +477,9 @@ public abstract class AbstractModel extends Simulation {
    
    private static final long serialVersionUID = -5386104326393190433L;
    
+   private static final Logger
+      LOG = Logger.getLogger(AbstractModel.class);
+   
    /*             *
     * Population  *
     *             */
@@ -558,6 +576,22 @@ public abstract class AbstractModel extends Simulation {
       return Math.max(1, firms.size());
    }
    
+   @RecorderSource(
+      value="clearingMarket",
+      collectionLengthMember="getNumberOfClearingMarketsForRecorderSampling()",
+      innerType=AbstractClearingMarket.class
+      )
+   protected Bag clearingMarkets = new Bag();
+   
+   int getNumberOfClearingMarketsForRecorderSampling() {
+      /**
+        * XXX
+        * 
+        * @Recorder sources are currently not compatible with empty collections.
+        */
+      return Math.max(1, clearingMarkets.size());
+   }
+   
    /*          *
     * Ctors    *
     *          */
@@ -610,6 +644,10 @@ public abstract class AbstractModel extends Simulation {
       households = new Bag(population.getAgentsOfType(Household.class));
       governments = new Bag(population.getAgentsOfType(Government.class));
       firms = new Bag(population.getAgentsOfType(Firm.class));
+      clearingMarkets = new Bag();
+      if(getClearingHouse() != null)
+         clearingMarkets.addAll(
+            getClearingHouse().getMarketsOfType(AbstractClearingMarket.class));
       
       System.out.printf(
          "---------------------------------------------\n" + 
@@ -638,6 +676,26 @@ public abstract class AbstractModel extends Simulation {
       printer.print(population);
    }
    
+   /**
+     * Log a summary of the performance of all clearing markets (at {@code INFO}
+     * level), and then terminate the simulation.
+     */
+   @Override
+   public void finish() {
+      final ClearingHouse clearingHouse = getClearingHouse();
+      if(clearingHouse != null && LOG.isInfoEnabled())
+         LOG.info(String.format(
+            "\n" +
+            "---------------------------------------------\n" + 
+            "Clearing Algorithm Summary                   \n" +
+            "---------------------------------------------\n" +
+            "%s" +
+            "---------------------------------------------",
+            clearingHouse.getClearingMetricsSummary()
+            ));
+      super.finish();
+   }
+   
    public final AgentGroup getPopulation() {
       return population;
    }
@@ -24,6 +24,7 @@ import com.google.inject.name.Names;
 
 import eu.crisis_economics.abm.algorithms.matching.CallAuction;
 import eu.crisis_economics.abm.algorithms.matching.MatchingAlgorithm;
+import eu.crisis_economics.abm.algorithms.matching.SortedCallAuction;
 import eu.crisis_economics.abm.model.Layout;
 import eu.crisis_economics.abm.model.Parameter;
 
@@ -53,11 +54,38 @@ public final class CallAuctionMatchingAlgorithmConfiguration
       this.supplyDemandRationingAlgorithm = supplyDemandRationingAlgorithm;
    }
    
+   public final static boolean
+      DO_USE_SORTED_PRICE_DISCOVERY = false;
+   
+   @Layout(
+      Order = 1,
+      FieldName = "Use Sorted Price Discovery?"
+      )
+   @Parameter(
+      ID = "CALL_AUCTION_USE_SORTED_PRICE_DISCOVERY"
+      )
+   private boolean
+      doUseSortedPriceDiscovery = DO_USE_SORTED_PRICE_DISCOVERY;
+   
+   /**
+     * Whether the call auction should find its clearing price by sorting the 
+     * order books once ({@link SortedCallAuction}), rather than by scanning the 
+     * order books for every candidate price ({@link CallAuction}).
+     */
+   public boolean isDoUseSortedPriceDiscovery() {
+      return doUseSortedPriceDiscovery;
+   }
+   
+   public void setDoUseSortedPriceDiscovery(
+      final boolean doUseSortedPriceDiscovery) {
+      this.doUseSortedPriceDiscovery = doUseSortedPriceDiscovery;
+   }
+   
    @Override
    protected void addBindings() {
       bind(
          MatchingAlgorithm.class)
          .annotatedWith(Names.named(getScopeString()))
-         .to(CallAuction.class);
+         .to(doUseSortedPriceDiscovery ? SortedCallAuction.class : CallAuction.class);
    }
 }
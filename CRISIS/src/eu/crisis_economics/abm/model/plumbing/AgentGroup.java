@@ -26,15 +26,15 @@ import eu.crisis_economics.abm.model.Scoped;
 public interface AgentGroup extends Scoped {
    /**
      * Get the collection of {@link Agent}{@code s} in this subeconomy.
-     * Removing or adding elements to the returned collection will have
-     * no effect on this {@link AgentGroup}.
+     * The returned collection may be unmodifiable. Changes to this
+     * {@link AgentGroup} do not affect a previously returned collection.
      */
    public Map<Class<?>, List<Object>> getAgents();
    
    /**
      * Get a list of {@link Agent}{@code s} in this subeconomy with the 
-     * specified type. Removing or adding elements to the returned collection
-     * will have no effect on this {@link AgentGroup}.
+     * specified type. The returned collection may be unmodifiable. Changes to
+     * this {@link AgentGroup} do not affect a previously returned collection.
      */
    public <T> List<T> getAgentsOfType(Class<T> token);
    
@@ -49,15 +49,15 @@ public interface AgentGroup extends Scoped {
    
    /**
      * Get the collection of {@link Market} structures in this subeconomy.
-     * Removing or adding elements to the returned collection will have
-     * no effect on this {@link AgentGroup}.
+     * The returned collection may be unmodifiable. Changes to this
+     * {@link AgentGroup} do not affect a previously returned collection.
      */
    public Map<Class<?>, List<Object>> getMarkets();
    
    /**
      * Get a list of {@link Markets}{@code s} in this subeconomy with the 
-     * specified type. Removing or adding elements to the returned collection
-     * will have no effect on this {@link AgentGroup}.
+     * specified type. The returned collection may be unmodifiable. Changes to
+     * this {@link AgentGroup} do not affect a previously returned collection.
      */
    public <T> List<T> getMarketsOfType(Class<T> token);
    
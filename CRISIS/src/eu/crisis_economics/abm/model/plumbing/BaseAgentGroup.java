@@ -19,6 +19,7 @@
    package eu.crisis_economics.abm.model.plumbing;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,7 +29,14 @@ import eu.crisis_economics.abm.model.Scoped;
 import eu.crisis_economics.abm.model.SimpleScoped;
 
 /**
-  * A skeletal implementation of the {@link AgentGroup} interface.
+  * A skeletal implementation of the {@link AgentGroup} interface.<br><br>
+  * 
+  * Queries by type, and queries for the complete agent and market structure
+  * collections, are indexed. The index is built lazily, one type at a time, and 
+  * is discarded whenever an agent or market structure is added to this group 
+  * (or to any group it contains). Collections returned by this group are 
+  * therefore unmodifiable, and repeated queries with no intervening additions 
+  * return the same collection without copying.
   * 
   * @author phillips
   */
@@ -49,6 +57,14 @@ public class BaseAgentGroup implements AgentGroup {
    private Scoped
       scoped;
    
+   private transient Map<Class<?>, List<?>>
+      agentsByType,
+      marketsByType;
+   
+   private transient Map<Class<?>, List<Object>>
+      agentsView,
+      marketsView;
+   
    /**
     * Create an {@link BaseConfigurationComponent} object with no specified
     * container {@link AgentGroup} and no specified scope.
@@ -62,44 +78,60 @@ public class BaseAgentGroup implements AgentGroup {
    
    /**
      * Get the collection of {@link Agent}{@code s} in this subeconomy.
-     * Removing or adding elements to the returned collection will have
-     * no effect on this {@link AgentGroup}.
+     * The returned collection is unmodifiable, and is not affected by
+     * subsequent changes to this {@link AgentGroup}.
      */
    @Override
    public Map<Class<?>, List<Object>> getAgents() {
-      final Map<Class<?>, List<Object>>
-         result = new HashMap<Class<?>, List<Object>>(populance);
-      for(final AgentGroup component : nodes) {
-         final Map<Class<?>, List<Object>>
-            subModelAgents = component.getAgents();
-         for(final Entry<Class<?>, List<Object>> record : subModelAgents.entrySet()) {
-            if(!result.containsKey(record.getKey()))
-                result.put(record.getKey(), new ArrayList<Object>());
-            result.get(record.getKey()).addAll(record.getValue());
-         }
+      if(agentsView == null) {
+         final List<Map<Class<?>, List<Object>>>
+            subModelAgents = new ArrayList<Map<Class<?>, List<Object>>>();
+         for(final AgentGroup component : nodes)
+            subModelAgents.add(component.getAgents());
+         agentsView = mergeRecords(populance, subModelAgents);
       }
-      return result;
+      return agentsView;
    }
    
    /**
      * Get the collection of {@link Market} structures in this subeconomy.
-     * Removing or adding elements to the returned collection will have
-     * no effect on this {@link AgentGroup}.
+     * The returned collection is unmodifiable, and is not affected by
+     * subsequent changes to this {@link AgentGroup}.
      */
    @Override
    public Map<Class<?>, List<Object>> getMarkets() {
+      if(marketsView == null) {
+         final List<Map<Class<?>, List<Object>>>
+            subModelMarkets = new ArrayList<Map<Class<?>, List<Object>>>();
+         for(final AgentGroup component : nodes)
+            subModelMarkets.add(component.getMarkets());
+         marketsView = mergeRecords(marketStructures, subModelMarkets);
+      }
+      return marketsView;
+   }
+   
+   /**
+     * Merge the records of this group with the records of its components,
+     * and return an unmodifiable copy of the result.
+     */
+   private static Map<Class<?>, List<Object>> mergeRecords(
+      final Map<Class<?>, List<Object>> local,
+      final List<Map<Class<?>, List<Object>>> components
+      ) {
       final Map<Class<?>, List<Object>>
-      result = new HashMap<Class<?>, List<Object>>(marketStructures);
-      for(final AgentGroup component : nodes) {
-         final Map<Class<?>, List<Object>>
-            subModelAgents = component.getMarkets();
-         for(final Entry<Class<?>, List<Object>> record : subModelAgents.entrySet()) {
+         result = new HashMap<Class<?>, List<Object>>();
+      for(final Entry<Class<?>, List<Object>> record : local.entrySet())
+         result.put(record.getKey(), new ArrayList<Object>(record.getValue()));
+      for(final Map<Class<?>, List<Object>> component : components) {
+         for(final Entry<Class<?>, List<Object>> record : component.entrySet()) {
             if(!result.containsKey(record.getKey()))
                result.put(record.getKey(), new ArrayList<Object>());
             result.get(record.getKey()).addAll(record.getValue());
          }
       }
-      return result;
+      for(final Entry<Class<?>, List<Object>> record : result.entrySet())
+         record.setValue(Collections.unmodifiableList(record.getValue()));
+      return Collections.unmodifiableMap(result);
    }
    
    /**
@@ -114,6 +146,7 @@ public class BaseAgentGroup implements AgentGroup {
       if(populance.get(token) == null)
          populance.put(token, new ArrayList<Object>());
       populance.get(token).add(element);
+      discardIndex();
    }
    
    /**
@@ -128,6 +161,20 @@ public class BaseAgentGroup implements AgentGroup {
       if(marketStructures.get(token) == null)
          marketStructures.put(token, new ArrayList<Object>());
       marketStructures.get(token).add(element);
+      discardIndex();
+   }
+   
+   /**
+     * Discard all indexed queries for this group, and for every group 
+     * containing this group.
+     */
+   private void discardIndex() {
+      agentsByType = null;
+      marketsByType = null;
+      agentsView = null;
+      marketsView = null;
+      if(container instanceof BaseAgentGroup)
+         ((BaseAgentGroup) container).discardIndex();
    }
    
    /**
@@ -157,19 +204,27 @@ public class BaseAgentGroup implements AgentGroup {
    }
    
    /**
-     * See {@link AgentGroup.getAgentsOfType(Class<T> token)}.
+     * See {@link AgentGroup.getAgentsOfType(Class<T> token)}. The returned
+     * {@link List} is unmodifiable.
      */
    @SuppressWarnings("unchecked")
    public <T> List<T> getAgentsOfType(final Class<T> token) {
-      final List<T>
-         result = new ArrayList<T>();
-      for(final Entry<Class<?>, List<Object>> record : populance.entrySet())
-         if(token.isAssignableFrom(record.getKey()))
-            for(final Object obj : record.getValue())
-               result.add((T) obj);
-      for(final AgentGroup component : nodes)
-         result.addAll(component.getAgentsOfType(token));
-      return result;
+      if(agentsByType == null)
+         agentsByType = new HashMap<Class<?>, List<?>>();
+      List<?> result = agentsByType.get(token);
+      if(result == null) {
+         final List<T>
+            agents = new ArrayList<T>();
+         for(final Entry<Class<?>, List<Object>> record : populance.entrySet())
+            if(token.isAssignableFrom(record.getKey()))
+               for(final Object obj : record.getValue())
+                  agents.add((T) obj);
+         for(final AgentGroup component : nodes)
+            agents.addAll(component.getAgentsOfType(token));
+         result = Collections.unmodifiableList(agents);
+         agentsByType.put(token, result);
+      }
+      return (List<T>) result;
    }
    
    /**
@@ -193,19 +248,27 @@ public class BaseAgentGroup implements AgentGroup {
    }
    
    /**
-     * See {@link AgentGroup.getMarketsOfType(Class<T> token)}.
+     * See {@link AgentGroup.getMarketsOfType(Class<T> token)}. The returned
+     * {@link List} is unmodifiable.
      */
    @SuppressWarnings("unchecked")
    public <T> List<T> getMarketsOfType(final Class<T> token) {
-      final List<T>
-         result = new ArrayList<T>();
-      for(final Entry<Class<?>, List<Object>> record : marketStructures.entrySet())
-         if(token.isAssignableFrom(record.getKey()))
-            for(final Object obj : record.getValue())
-               result.add((T) obj);
-      for(final AgentGroup component : nodes)
-         result.addAll(component.getAgentsOfType(token));
-      return result;
+      if(marketsByType == null)
+         marketsByType = new HashMap<Class<?>, List<?>>();
+      List<?> result = marketsByType.get(token);
+      if(result == null) {
+         final List<T>
+            markets = new ArrayList<T>();
+         for(final Entry<Class<?>, List<Object>> record : marketStructures.entrySet())
+            if(token.isAssignableFrom(record.getKey()))
+               for(final Object obj : record.getValue())
+                  markets.add((T) obj);
+         for(final AgentGroup component : nodes)
+            markets.addAll(component.getMarketsOfType(token));
+         result = Collections.unmodifiableList(markets);
+         marketsByType.put(token, result);
+      }
+      return (List<T>) result;
    }
    
    @Override
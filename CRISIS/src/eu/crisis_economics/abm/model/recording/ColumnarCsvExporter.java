@@ -0,0 +1,168 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.model.recording;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * Exports a columnar simulation record (see {@link ColumnarRecordWriter}) to the
+  * text format written by the {@code @Recorder} CSV backend. The exported file
+  * can be read by the dashboard {@code ResultParser} and by other tools which 
+  * accept recorder CSV files. The layout of the exported file is:
+  * 
+  * <code><pre>
+  * Timestamp: &lt;start time&gt;
+  * &lt;parameter&gt;: &lt;value&gt;
+  * ...
+  * 
+  * 
+  * "run"|"tick"|"&lt;column&gt;"|...
+  * &lt;run&gt;|&lt;tick&gt;|&lt;value&gt;|...
+  * ...
+  * 
+  * End Time: &lt;end time&gt;
+  * </pre></code>
+  * 
+  * Every value is written as a {@code double}. Apart from the timestamps, the
+  * exported file is therefore identical to the file the CSV backend writes for
+  * the same run, provided that the recorder sources of the model are 
+  * {@code double}-valued.<br><br>
+  * 
+  * The record is exported one block at a time, so the memory required by this
+  * exporter does not depend on the length of the record.<br><br>
+  * 
+  * This exporter can also be run from the command line:
+  * <code>ColumnarCsvExporter &lt;record&gt; [&lt;output.csv&gt;]</code>.
+  * 
+  * @author phillips
+  */
+public final class ColumnarCsvExporter {
+   
+   public static final String
+      DEFAULT_DELIMITER = "|";
+   
+   private ColumnarCsvExporter() { }                         // Uninstantiatable
+   
+   /**
+     * Export the columnar record {@code record} to the text file {@code csv},
+     * using the default delimiter.
+     */
+   public static void export(final File record, final File csv) throws IOException {
+      final ColumnarRecordReader reader = new ColumnarRecordReader(record);
+      try {
+         final Writer writer = new BufferedWriter(new FileWriter(csv), 1 << 16);
+         try {
+            export(reader, writer, DEFAULT_DELIMITER);
+         }
+         finally {
+            writer.close();
+         }
+      }
+      finally {
+         reader.close();
+      }
+   }
+   
+   /**
+     * Export a columnar record to a {@link Writer}. The {@link Writer} is not
+     * closed by this method.
+     */
+   public static void export(
+      final ColumnarRecordReader reader,
+      final Writer writer,
+      final String delimiter
+      ) throws IOException {
+      Preconditions.checkNotNull(reader);
+      Preconditions.checkNotNull(writer);
+      Preconditions.checkNotNull(delimiter);
+      final DateFormat format = DateFormat.getDateTimeInstance();
+      final String newline = System.getProperty("line.separator");
+      writer.write("Timestamp: " + format.format(new Date(reader.getStartTime())));
+      writer.write(newline);
+      for(final Entry<String, String> record : reader.getParameters().entrySet()) {
+         writer.write(record.getKey() + ": " + record.getValue());
+         writer.write(newline);
+      }
+      writer.write(newline);
+      writer.write(newline);
+      final List<String> names = reader.getColumnNames();
+      for(int i = 0; i< names.size(); ++i) {
+         if(i > 0)
+            writer.write(delimiter);
+         writer.write("\"" + names.get(i) + "\"");
+      }
+      writer.write(newline);
+      final double[][] block = new double[names.size()][];
+      final StringBuilder line = new StringBuilder();
+      for(int b = 0; b< reader.getNumberOfBlocks(); ++b) {
+         final int numberOfRows = reader.getNumberOfRowsInBlock(b);
+         for(int j = 0; j< block.length; ++j) {
+            if(block[j] == null || block[j].length < numberOfRows)
+               block[j] = new double[numberOfRows];
+            reader.readBlock(b, j, block[j]);
+         }
+         for(int i = 0; i< numberOfRows; ++i) {
+            line.setLength(0);
+            line.append((long) block[0][i]).append(delimiter).append(block[1][i]);
+            for(int j = 2; j< block.length; ++j)
+               line.append(delimiter).append(block[j][i]);
+            line.append(newline);
+            writer.write(line.toString());
+         }
+      }
+      writer.write(newline);
+      writer.write("End Time: " + format.format(new Date(reader.getEndTime())));
+      writer.write(newline);
+      writer.flush();
+   }
+   
+   /**
+     * Command line entry point. The first argument is the columnar record to
+     * export. The optional second argument is the destination CSV file; by
+     * default, the extension of the record is replaced with {@code .csv}.
+     */
+   public static void main(final String[] args) throws IOException {
+      if(args.length < 1 || args.length > 2) {
+         System.err.println("Usage: ColumnarCsvExporter <record> [<output.csv>]");
+         System.exit(1);
+      }
+      final File record = new File(args[0]);
+      final File csv;
+      if(args.length == 2)
+         csv = new File(args[1]);
+      else {
+         final String path = record.getPath();
+         final int extension = path.lastIndexOf('.');
+         csv = new File(
+            (extension > path.lastIndexOf(File.separatorChar) ?
+               path.substring(0, extension) : path) + ".csv");
+      }
+      export(record, csv);
+   }
+}
@@ -0,0 +1,677 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.model.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+
+import sim.engine.SimState;
+import ai.aitia.meme.paramsweep.platform.mason.impl.IMasonGeneratedModel;
+import ai.aitia.meme.paramsweep.platform.mason.recording.annotation.Recorder;
+import ai.aitia.meme.paramsweep.platform.mason.recording.annotation.RecorderSource;
+import eu.crisis_economics.abm.simulation.CustomSimulationCycleOrdering;
+import eu.crisis_economics.abm.simulation.NamedEventOrderings;
+import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
+
+/**
+  * A columnar alternative to the {@code @Recorder} CSV backend.<br><br>
+  * 
+  * This recorder samples the sources listed in the {@link Recorder} annotation of
+  * a model class, once per simulation cycle after all other events in the cycle,
+  * and appends the sampled values to a {@link ColumnarRecordWriter}. Every source
+  * is stored as a fixed-width {@code double} column. Sources are interpreted as
+  * follows:
+  * 
+  * <ul>
+  *   <li> {@code name}, where the model has a no-argument method annotated with
+  *        {@link RecorderSource}{@code (name)} returning a number: one column named
+  *        {@code name};
+  *   <li> {@code name}, where the annotated method returns a {@link Collection} of
+  *        numbers or a {@code double[]}: one column for each element, named 
+  *        {@code nameMulti_0}, {@code nameMulti_1} and so on, as in the CSV backend.
+  *        The number of columns is fixed when the first row is sampled, using the
+  *        {@link RecorderSource#collectionLengthMember()} or 
+  *        {@link RecorderSource#collectionLength()} of the source. Missing elements
+  *        are recorded as {@link Double#NaN} and surplus elements are discarded;
+  *   <li> {@code prefixName}, where the model has a collection field annotated with
+  *        {@link RecorderSource}{@code (value = prefix, innerType = T)} and {@code T}
+  *        has a no-argument method annotated with {@link RecorderSource}{@code (Name)}:
+  *        a collection source whose elements are the values of that method for
+  *        each element of the field;
+  *   <li> {@code stat(name)}, where {@code stat} is one of {@code avg}, {@code mean},
+  *        {@code sd}, {@code variance}, {@code min}, {@code max}, {@code median} or
+  *        {@code sum}, and {@code name} is a collection source: one column named
+  *        {@code stat(name)}. The standard deviation and variance are sample
+  *        statistics.
+  * </ul>
+  * 
+  * Sources which cannot be interpreted are not recorded. A warning is printed for
+  * each such source, and these sources are available from 
+  * {@link #getUnresolvedSources()}. No source expression is compiled or generated
+  * at runtime; all source methods are resolved once, when this recorder is
+  * created.<br><br>
+  * 
+  * Each row is labelled with the run number and the cycle index. The run number,
+  * and the parameters stored in the record, are those the CSV backend would write:
+  * when the model is run by the MEME batch controller (that is, the model is an
+  * {@link IMasonGeneratedModel}), the run number and the constant parameters of 
+  * the batch run are used, and the mutable parameters of the batch run are 
+  * recorded as leading columns. Otherwise the run number is the
+  * {@link SimulationContext#getRunNumber() run number} of the current 
+  * {@link SimulationContext}, and no parameters are recorded.<br><br>
+  * 
+  * This recorder is enabled for a {@link Simulation} by setting the system property
+  * {@value #OUTPUT_PROPERTY} to the path of the columnar record to create. Each 
+  * run is recorded to its own file, named as described in 
+  * {@link #getRunFile(File, long)}. When this property is set, the CSV backend is
+  * not used. The resulting record can be converted to the CSV format with 
+  * {@link ColumnarCsvExporter}.
+  * 
+  * @author phillips
+  */
+public final class ColumnarModelRecorder {
+   
+   /**
+     * The system property which, if set, enables columnar recording. The value of
+     * this property is the path of the columnar record to create, before the run
+     * number is inserted. See {@link #getRunFile(File, long)}.
+     */
+   public static final String
+      OUTPUT_PROPERTY = "eu.crisis_economics.abm.model.recording.columnarOutput";
+   
+   private static final Pattern
+      STATISTIC_PATTERN = Pattern.compile("^\\s*(\\w+)\\((.+)\\)\\s*$");
+   
+   private enum Statistic {
+      MEAN, SD, VARIANCE, MIN, MAX, MEDIAN, SUM;
+      
+      static Statistic forName(final String name) {
+         if(name.equals("avg") || name.equals("mean")) return MEAN;
+         if(name.equals("sd")) return SD;
+         if(name.equals("variance")) return VARIANCE;
+         if(name.equals("min")) return MIN;
+         if(name.equals("max")) return MAX;
+         if(name.equals("median")) return MEDIAN;
+         if(name.equals("sum")) return SUM;
+         return null;
+      }
+      
+      double evaluate(final double[] values, final int size) {
+         if(size == 0)
+            return Double.NaN;
+         switch(this) {
+         case MIN: {
+            double result = values[0];
+            for(int i = 1; i< size; ++i) result = Math.min(result, values[i]);
+            return result;
+            }
+         case MAX: {
+            double result = values[0];
+            for(int i = 1; i< size; ++i) result = Math.max(result, values[i]);
+            return result;
+            }
+         case MEDIAN: {
+            final double[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return size % 2 == 1 ? sorted[size / 2] :
+               .5 * (sorted[size / 2 - 1] + sorted[size / 2]);
+            }
+         default:
+            double sum = 0.;
+            for(int i = 0; i< size; ++i) sum += values[i];
+            if(this == SUM) return sum;
+            final double mean = sum / size;
+            if(this == MEAN) return mean;
+            if(size == 1) return 0.;
+            double sumOfSquares = 0.;
+            for(int i = 0; i< size; ++i)
+               sumOfSquares += (values[i] - mean) * (values[i] - mean);
+            final double variance = sumOfSquares / (size - 1);
+            return this == VARIANCE ? variance : Math.sqrt(variance);
+         }
+      }
+   }
+   
+   /**
+     * One resolved {@link RecorderSource} of the model. A source is either a
+     * method of the model, or a named {@link RecorderSource} method of the elements
+     * of a collection field of the model (for fields which specify a
+     * {@link RecorderSource#innerType()}). In the latter case, the element method
+     * is resolved once for each distinct element type.
+     */
+   private static final class Source {
+      final Method
+         method;
+      final Field
+         field;
+      final String
+         elementSourceName;
+      final RecorderSource
+         annotation;
+      final Map<Class<?>, Method>
+         elementMethods = new HashMap<Class<?>, Method>();
+      double[]
+         values = new double[0];
+      int
+         size;
+      
+      Source(final Method method, final RecorderSource annotation) {
+         this.method = method;
+         this.field = null;
+         this.elementSourceName = null;
+         this.annotation = annotation;
+      }
+      
+      Source(final Field field, final String elementSourceName, final RecorderSource annotation) {
+         this.method = null;
+         this.field = field;
+         this.elementSourceName = elementSourceName;
+         this.annotation = annotation;
+      }
+      
+      /**
+        * Evaluate this source and store its numerical values in {@link #values}.
+        */
+      void sample(final Object model) {
+         size = 0;
+         if(field != null) {
+            final Object collection = get(field, model);
+            if(collection instanceof Collection<?>) {
+               final Collection<?> elements = (Collection<?>) collection;
+               ensureCapacity(elements.size());
+               for(final Object element : elements)
+                  values[size++] = evaluate(element);
+            }
+            return;
+         }
+         final Object result = invoke(method, model);
+         if(result instanceof double[]) {
+            final double[] array = (double[]) result;
+            ensureCapacity(array.length);
+            System.arraycopy(array, 0, values, 0, array.length);
+            size = array.length;
+         }
+         else if(result instanceof Collection<?>) {
+            final Collection<?> collection = (Collection<?>) result;
+            ensureCapacity(collection.size());
+            for(final Object element : collection)
+               values[size++] = toDouble(element);
+         }
+         else {
+            ensureCapacity(1);
+            values[size++] = toDouble(result);
+         }
+      }
+      
+      private double evaluate(final Object element) {
+         if(element == null)
+            return Double.NaN;
+         final Class<?> type = element.getClass();
+         Method elementMethod = elementMethods.get(type);
+         if(elementMethod == null && !elementMethods.containsKey(type)) {
+            for(Class<?> t = type; t != null && elementMethod == null; t = t.getSuperclass())
+               elementMethod = findSourceMethods(t).get(elementSourceName);
+            elementMethods.put(type, elementMethod);
+         }
+         return elementMethod == null ? Double.NaN : toDouble(invoke(elementMethod, element));
+      }
+      
+      private void ensureCapacity(final int capacity) {
+         if(values.length < capacity)
+            values = new double[Math.max(capacity, 2 * values.length)];
+      }
+      
+      boolean isCollection() {
+         if(field != null)
+            return true;
+         final Class<?> type = method.getReturnType();
+         return type == double[].class || Collection.class.isAssignableFrom(type);
+      }
+   }
+   
+   private static Object invoke(final Method method, final Object instance) {
+      try {
+         return method.invoke(instance);
+      }
+      catch(final IllegalAccessException e) {
+         throw new IllegalStateException(e);
+      }
+      catch(final InvocationTargetException e) {
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+   
+   private static Object get(final Field field, final Object instance) {
+      try {
+         return field.get(instance);
+      }
+      catch(final IllegalAccessException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+   
+   /**
+     * One recorded column, or one block of recorded columns (for collection
+     * sources).
+     */
+   private static final class Column {
+      final String
+         name;
+      final Source
+         source;
+      final Statistic
+         statistic;
+      int
+         width;
+      
+      Column(final String name, final Source source, final Statistic statistic) {
+         this.name = name;
+         this.source = source;
+         this.statistic = statistic;
+      }
+   }
+   
+   private final SimState
+      model;
+   private final long
+      runNumber;
+   private final File
+      file;
+   private final List<Source>
+      sources;
+   private final List<Column>
+      columns;
+   private final List<String>
+      unresolvedSources;
+   private ColumnarRecordWriter
+      writer;
+   private double[]
+      parameterValues,
+      row;
+   
+   /**
+     * Create a {@link ColumnarModelRecorder} for the {@link Recorder} sources of
+     * a model. No data is written until the first row is sampled.
+     * 
+     * @param model
+     *        The model to record. The class of this model must carry a
+     *        {@link Recorder} annotation.
+     * @param file
+     *        The first segment file of the columnar record to create.
+     */
+   public ColumnarModelRecorder(final SimState model, final File file) {
+      Preconditions.checkNotNull(model);
+      Preconditions.checkNotNull(file);
+      final Recorder recorder = findRecorder(model.getClass());
+      Preconditions.checkArgument(recorder != null,
+         "ColumnarModelRecorder: " + model.getClass().getSimpleName() 
+       + " has no @Recorder annotation.");
+      this.model = model;
+      this.runNumber = getRunNumber(model);
+      this.file = file;
+      this.sources = new ArrayList<Source>();
+      this.columns = new ArrayList<Column>();
+      this.unresolvedSources = new ArrayList<String>();
+      final Map<String, Source> bySourceName = findSources(model.getClass());
+      for(final String expression : recorder.sources()) {
+         final Matcher matcher = STATISTIC_PATTERN.matcher(expression);
+         Column column = null;
+         if(matcher.matches()) {
+            final Statistic statistic = Statistic.forName(matcher.group(1));
+            final Source source = findSource(bySourceName, matcher.group(2).trim());
+            if(statistic != null && source != null && source.isCollection())
+               column = new Column(expression, source, statistic);
+         }
+         else {
+            final Source source = findSource(bySourceName, expression.trim());
+            if(source != null)
+               column = new Column(expression.trim(), source, null);
+         }
+         if(column == null) {
+            unresolvedSources.add(expression);
+            System.err.println(
+               "ColumnarModelRecorder: the recorder source " + expression 
+             + " cannot be recorded and has been ignored.");
+            continue;
+         }
+         if(!sources.contains(column.source))
+            sources.add(column.source);
+         columns.add(column);
+      }
+   }
+   
+   /**
+     * Find the {@link Source} with the specified name, or {@code null} if no such
+     * source exists. Sources of collection elements are resolved on demand and 
+     * added to {@code bySourceName}.
+     */
+   private Source findSource(final Map<String, Source> bySourceName, final String name) {
+      Source result = bySourceName.get(name);
+      if(result == null) {
+         result = findElementSource(model.getClass(), name);
+         if(result != null)
+            bySourceName.put(name, result);
+      }
+      return result;
+   }
+   
+   /**
+     * Get the run number with which the rows of a model are labelled. If the model
+     * is run by the MEME batch controller, this is the batch run number. Otherwise
+     * this is the run number of the current {@link SimulationContext}.
+     */
+   public static long getRunNumber(final SimState model) {
+      if(model instanceof IMasonGeneratedModel)
+         return ((IMasonGeneratedModel) model).aitiaGenerated_getRun();
+      return SimulationContext.current().getRunNumber();
+   }
+   
+   /**
+     * Get the columnar record file for one run. The run number is inserted before
+     * the extension of {@code file}: for instance, run {@code 3} of 
+     * {@code output/Model.cols} is recorded to {@code output/Model-run3.cols}.
+     */
+   public static File getRunFile(final File file, final long run) {
+      final String name = file.getName();
+      final int extension = name.lastIndexOf('.');
+      final String runName = extension > 0 ?
+         name.substring(0, extension) + "-run" + run + name.substring(extension) :
+         name + "-run" + run;
+      return new File(file.getParentFile(), runName);
+   }
+   
+   /**
+     * Does the class of the specified model carry a {@link Recorder} annotation?
+     */
+   public static boolean hasRecorder(final SimState model) {
+      return model != null && findRecorder(model.getClass()) != null;
+   }
+   
+   private static Recorder findRecorder(final Class<?> type) {
+      for(Class<?> t = type; t != null; t = t.getSuperclass()) {
+         final Recorder result = t.getAnnotation(Recorder.class);
+         if(result != null)
+            return result;
+      }
+      return null;
+   }
+   
+   /**
+     * Find all {@link RecorderSource}{@code s} of a model type, keyed by source name.
+     * Members declared in subclasses take precedence over those declared in 
+     * superclasses.
+     */
+   private static Map<String, Source> findSources(final Class<?> type) {
+      final Map<String, Source> result = new HashMap<String, Source>();
+      for(Class<?> t = type; t != null; t = t.getSuperclass()) {
+         for(final Map.Entry<String, Method> record : findSourceMethods(t).entrySet())
+            if(!result.containsKey(record.getKey()))
+               result.put(record.getKey(), new Source(record.getValue(), 
+                  record.getValue().getAnnotation(RecorderSource.class)));
+      }
+      return result;
+   }
+   
+   /**
+     * Find a collection field of a model type, annotated with a {@link RecorderSource}
+     * specifying an {@link RecorderSource#innerType()}, whose source name is a proper
+     * prefix of {@code sourceName}. If several such fields exist, the longest prefix
+     * is used. The remainder of {@code sourceName} names a {@link RecorderSource}
+     * method of the elements of the field. Returns {@code null} if no such field
+     * exists.
+     */
+   private static Source findElementSource(final Class<?> type, final String sourceName) {
+      Field match = null;
+      RecorderSource matchAnnotation = null;
+      for(Class<?> t = type; t != null; t = t.getSuperclass()) {
+         for(final Field field : t.getDeclaredFields()) {
+            final RecorderSource annotation = field.getAnnotation(RecorderSource.class);
+            if(annotation == null || annotation.innerType() == Object.class
+               || !Collection.class.isAssignableFrom(field.getType()))
+               continue;
+            final String prefix = annotation.value();
+            if(sourceName.length() > prefix.length() && sourceName.startsWith(prefix)
+               && (match == null || prefix.length() > matchAnnotation.value().length())) {
+               match = field;
+               matchAnnotation = annotation;
+            }
+         }
+      }
+      if(match == null)
+         return null;
+      match.setAccessible(true);
+      return new Source(
+         match, sourceName.substring(matchAnnotation.value().length()), matchAnnotation);
+   }
+   
+   /**
+     * Find the no-argument {@link RecorderSource} methods declared by one type.
+     */
+   private static Map<String, Method> findSourceMethods(final Class<?> type) {
+      final Map<String, Method> result = new HashMap<String, Method>();
+      for(final Method method : type.getDeclaredMethods()) {
+         final RecorderSource annotation = method.getAnnotation(RecorderSource.class);
+         if(annotation == null || method.getParameterTypes().length != 0 
+            || method.getReturnType() == void.class)
+            continue;
+         method.setAccessible(true);
+         result.put(annotation.value(), method);
+      }
+      return result;
+   }
+   
+   /**
+     * Schedule this recorder to sample one row at the end of every simulation
+     * cycle.
+     */
+   public void scheduleRecording() {
+      Simulation.repeat(this, "sample",
+         CustomSimulationCycleOrdering.create(NamedEventOrderings.AFTER_ALL, 200));
+   }
+   
+   /**
+     * Sample all sources and append one row to the columnar record. The record is
+     * created when this method is first called.
+     */
+   public void sample() {
+      for(final Source source : sources)
+         source.sample(model);
+      try {
+         if(writer == null)
+            openWriter();
+         System.arraycopy(parameterValues, 0, row, 0, parameterValues.length);
+         int index = parameterValues.length;
+         for(final Column column : columns) {
+            final Source source = column.source;
+            if(column.statistic != null)
+               row[index++] = column.statistic.evaluate(source.values, source.size);
+            else {
+               for(int i = 0; i< column.width; ++i)
+                  row[index++] = i < source.size ? source.values[i] : Double.NaN;
+            }
+         }
+         writer.append(runNumber, (int) Simulation.getCycleIndex(), row);
+      }
+      catch(final IOException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+   
+   /**
+     * Evaluate the parameters of the run, fix the width of every column and create
+     * the {@link ColumnarRecordWriter}.
+     */
+   private void openWriter() throws IOException {
+      final Map<String, String> parameters = new LinkedHashMap<String, String>();
+      final List<String> names = new ArrayList<String>();
+      final List<Double> values = new ArrayList<Double>();
+      if(model instanceof IMasonGeneratedModel) {
+         final IMasonGeneratedModel batchModel = (IMasonGeneratedModel) model;
+         for(final Object record : batchModel.aitiaGenerated_getConstantParameterNames().entrySet()) {
+            final Map.Entry<?, ?> parameter = (Map.Entry<?, ?>) record;
+            parameters.put(getParameterLabel((String) parameter.getKey()), String.valueOf(
+               getParameterValue((String) parameter.getKey(), parameter.getValue())));
+         }
+         for(final Object record : batchModel.aitiaGenerated_getMutableParameterNames().entrySet()) {
+            final Map.Entry<?, ?> parameter = (Map.Entry<?, ?>) record;
+            names.add(getParameterLabel((String) parameter.getKey()));
+            values.add(toDouble(
+               getParameterValue((String) parameter.getKey(), parameter.getValue())));
+         }
+      }
+      this.parameterValues = new double[values.size()];
+      for(int i = 0; i< parameterValues.length; ++i)
+         parameterValues[i] = values.get(i);
+      for(final Column column : columns) {
+         if(column.statistic != null || !column.source.isCollection()) {
+            column.width = 1;
+            names.add(column.name);
+            continue;
+         }
+         column.width = getCollectionLength(column.source);
+         for(int i = 0; i< column.width; ++i)
+            names.add(column.name + "Multi_" + i);
+      }
+      this.writer = new ColumnarRecordWriter(file, names, parameters);
+      this.row = new double[names.size()];
+   }
+   
+   /**
+     * Get the label of a MEME batch parameter, as written by the CSV backend. The
+     * parameter key is the path of the parameter, for instance {@code Name} or
+     * {@code Submodel#Name}.
+     */
+   private static String getParameterLabel(final String key) {
+      return capitalize(key.startsWith("#") ? key.substring(1) : key);
+   }
+   
+   /**
+     * Get the value of a MEME batch parameter, as the CSV backend does: by calling
+     * the {@code get} or {@code is} accessor of the parameter on its owner.
+     */
+   private static Object getParameterValue(final String key, final Object owner) {
+      final int index = key.lastIndexOf('#');
+      final String name = index > 0 ? capitalize(key.substring(index + 1)) : key;
+      for(final String prefix : new String[] { "get", "is" }) {
+         try {
+            return invoke(owner.getClass().getMethod(prefix + name), owner);
+         }
+         catch(final NoSuchMethodException e) {
+            continue;
+         }
+      }
+      throw new IllegalStateException(
+         "ColumnarModelRecorder: the parameter " + key + " has no accessor.");
+   }
+   
+   private static String capitalize(final String name) {
+      return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+   }
+   
+   private int getCollectionLength(final Source source) {
+      final String member = source.annotation.collectionLengthMember();
+      if(member != null && !member.isEmpty()) {
+         final String methodName = member.endsWith("()") ?
+            member.substring(0, member.length() - 2) : member;
+         for(Class<?> t = model.getClass(); t != null; t = t.getSuperclass()) {
+            try {
+               final Method method = t.getDeclaredMethod(methodName);
+               method.setAccessible(true);
+               return ((Number) method.invoke(model)).intValue();
+            }
+            catch(final NoSuchMethodException e) {
+               continue;
+            }
+            catch(final Exception e) {
+               throw new IllegalStateException(e);
+            }
+         }
+      }
+      if(source.annotation.collectionLength() > 0)
+         return source.annotation.collectionLength();
+      return source.size;
+   }
+   
+   private static double toDouble(final Object value) {
+      if(value instanceof Number)
+         return ((Number) value).doubleValue();
+      if(value instanceof Boolean)
+         return ((Boolean) value) ? 1. : 0.;
+      return Double.NaN;
+   }
+   
+   /**
+     * Write all buffered rows and close the columnar record. Calling this method
+     * more than once has no further effect.
+     */
+   public void close() {
+      if(writer == null)
+         return;
+      try {
+         writer.close();
+      }
+      catch(final IOException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+   
+   /**
+     * Get the {@link Recorder} sources which could not be interpreted, and which
+     * are not recorded. The returned list is unmodifiable.
+     */
+   public List<String> getUnresolvedSources() {
+      return Collections.unmodifiableList(unresolvedSources);
+   }
+   
+   /**
+     * Get the run number with which the rows of this record are labelled.
+     */
+   public long getRunNumber() {
+      return runNumber;
+   }
+   
+   /**
+     * Get the first segment file of the columnar record.
+     */
+   public File getFile() {
+      return file;
+   }
+   
+   @Override
+   public String toString() {
+      return "Columnar Model Recorder, file: " + file + ", sources: " + sources.size()
+         + ", unresolved sources: " + unresolvedSources.size() + ".";
+   }
+}
@@ -0,0 +1,376 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.model.recording;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * A reader for columnar simulation records written by {@link ColumnarRecordWriter}.
+  * <br><br>
+  * 
+  * Each segment of the record is memory mapped when the reader is opened, and the
+  * positions of all blocks are indexed. Columns are decoded on demand: reading one
+  * column decompresses only the data belonging to that column. A truncated final
+  * block (for instance, the tail of a record written by a simulation which did not
+  * terminate normally) is ignored.<br><br>
+  * 
+  * This class is not thread-safe.
+  * 
+  * @author phillips
+  */
+public final class ColumnarRecordReader {
+   
+   private static final class Block {
+      final MappedByteBuffer
+         segment;
+      final int
+         numberOfRows;
+      final int[]
+         columnOffsets,
+         columnLengths;
+      
+      Block(final MappedByteBuffer segment, final int numberOfRows, final int numberOfColumns) {
+         this.segment = segment;
+         this.numberOfRows = numberOfRows;
+         this.columnOffsets = new int[numberOfColumns];
+         this.columnLengths = new int[numberOfColumns];
+      }
+   }
+   
+   private final File
+      file;
+   private final List<String>
+      columnNames;
+   private final Map<String, String>
+      parameters;
+   private final long
+      startTime,
+      endTime;
+   private final List<Block>
+      blocks;
+   private final int
+      numberOfRows;
+   private final Inflater
+      inflater;
+   private byte[]
+      compressed,
+      raw;
+   private boolean
+      isClosed;
+   
+   /**
+     * Open a columnar record.
+     * 
+     * @param file
+     *        The first segment of the record. Further segments, if any, are
+     *        located as described in {@link ColumnarRecordWriter}.
+     * @throws IOException
+     *         if the file does not exist, cannot be mapped, or is not a columnar
+     *         record.
+     */
+   public ColumnarRecordReader(final File file) throws IOException {
+      Preconditions.checkNotNull(file);
+      if(!isColumnarRecord(file))
+         throw new IOException(
+            "ColumnarRecordReader: " + file + " is not a columnar record.");
+      this.file = file;
+      this.blocks = new ArrayList<Block>();
+      List<String> names = null;
+      Map<String, String> parameters = null;
+      long startTime = 0L, endTime = 0L;
+      int numberOfRows = 0;
+      for(int i = 0; ; ++i) {
+         final File segmentFile = ColumnarRecordWriter.segmentFile(file, i);
+         if(!segmentFile.isFile())
+            break;
+         final RandomAccessFile access = new RandomAccessFile(segmentFile, "r");
+         final MappedByteBuffer segment;
+         try {
+            segment = access.getChannel().map(
+               FileChannel.MapMode.READ_ONLY, 0, access.length());
+         }
+         finally {
+            access.close();                       // The mapping remains valid.
+         }
+         endTime = Math.max(endTime, segmentFile.lastModified());
+         if(segment.getInt() != ColumnarRecordWriter.MAGIC)
+            throw new IOException(
+               "ColumnarRecordReader: " + segmentFile + " is not a columnar record.");
+         final int version = segment.getInt();
+         if(version != ColumnarRecordWriter.VERSION)
+            throw new IOException(
+               "ColumnarRecordReader: unsupported record version " + version + ".");
+         final long segmentStartTime = segment.getLong();
+         final Map<String, String> segmentParameters = new LinkedHashMap<String, String>();
+         for(int j = segment.getInt(); j> 0; --j)
+            segmentParameters.put(readUTF(segment), readUTF(segment));
+         final List<String> segmentNames = new ArrayList<String>();
+         for(int j = segment.getInt(); j> 0; --j)
+            segmentNames.add(readUTF(segment));
+         if(names == null) {
+            names = segmentNames;
+            parameters = segmentParameters;
+            startTime = segmentStartTime;
+         }
+         else if(!names.equals(segmentNames))
+            throw new IOException(
+               "ColumnarRecordReader: the columns of segment " + segmentFile 
+             + " do not match the columns of " + file + ".");
+         numberOfRows += indexBlocks(segment, names.size());
+      }
+      this.columnNames = Collections.unmodifiableList(names);
+      this.parameters = Collections.unmodifiableMap(parameters);
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.numberOfRows = numberOfRows;
+      this.inflater = new Inflater();
+      this.compressed = new byte[0];
+      this.raw = new byte[0];
+   }
+   
+   /**
+     * Index the complete blocks of one segment, and return the number of rows
+     * in those blocks.
+     */
+   private int indexBlocks(final MappedByteBuffer segment, final int numberOfColumns) {
+      int result = 0;
+      try {
+         while(segment.remaining() >= 4) {
+            final Block block = new Block(segment, segment.getInt(), numberOfColumns);
+            for(int i = 0; i< numberOfColumns; ++i) {
+               block.columnLengths[i] = segment.getInt();
+               block.columnOffsets[i] = segment.position();
+               if(block.columnLengths[i] < 0 || block.columnLengths[i] > segment.remaining())
+                  return result;
+               segment.position(segment.position() + block.columnLengths[i]);
+            }
+            blocks.add(block);
+            result += block.numberOfRows;
+         }
+      }
+      catch(final BufferUnderflowException truncated) { }
+      return result;
+   }
+   
+   private static String readUTF(final ByteBuffer buffer) throws IOException {
+      final int length = buffer.getShort() & 0xFFFF;
+      final byte[] encoded = new byte[length + 2];
+      encoded[0] = (byte) (length >>> 8);
+      encoded[1] = (byte) length;
+      buffer.get(encoded, 2, length);
+      return new DataInputStream(new ByteArrayInputStream(encoded)).readUTF();
+   }
+   
+   /**
+     * Does the specified file begin with a columnar record header?
+     */
+   public static boolean isColumnarRecord(final File file) {
+      if(file == null || !file.isFile() || file.length() < 8)
+         return false;
+      try {
+         final DataInputStream stream = new DataInputStream(new FileInputStream(file));
+         try {
+            return stream.readInt() == ColumnarRecordWriter.MAGIC;
+         }
+         finally {
+            stream.close();
+         }
+      }
+      catch(final IOException failure) {
+         return false;
+      }
+   }
+   
+   /**
+     * Read one column of this record in its entirety.
+     * 
+     * @param columnIndex
+     *        The index of the column, in the order of {@link #getColumnNames()}.
+     */
+   public double[] readColumn(final int columnIndex) throws IOException {
+      Preconditions.checkState(!isClosed, "ColumnarRecordReader: reader is closed.");
+      Preconditions.checkElementIndex(columnIndex, columnNames.size());
+      final double[] result = new double[numberOfRows];
+      int row = 0;
+      for(final Block block : blocks) {
+         decode(block, columnIndex, result, row);
+         row += block.numberOfRows;
+      }
+      return result;
+   }
+   
+   /**
+     * Read one column of this record, by name.
+     * 
+     * @throws IllegalArgumentException
+     *         if no such column exists.
+     */
+   public double[] readColumn(final String columnName) throws IOException {
+      final int index = columnNames.indexOf(columnName);
+      Preconditions.checkArgument(index >= 0, 
+         "ColumnarRecordReader: no column named " + columnName + " exists.");
+      return readColumn(index);
+   }
+   
+   /**
+     * Get the number of blocks in this record.
+     */
+   int getNumberOfBlocks() {
+      return blocks.size();
+   }
+   
+   /**
+     * Get the number of rows in the i<sup>th</sup> block of this record.
+     */
+   int getNumberOfRowsInBlock(final int blockIndex) {
+      return blocks.get(blockIndex).numberOfRows;
+   }
+   
+   /**
+     * Decode one column of one block of this record into {@code destination},
+     * starting at index {@code 0}.
+     */
+   void readBlock(
+      final int blockIndex,
+      final int columnIndex,
+      final double[] destination
+      ) throws IOException {
+      Preconditions.checkState(!isClosed, "ColumnarRecordReader: reader is closed.");
+      decode(blocks.get(blockIndex), columnIndex, destination, 0);
+   }
+   
+   private void decode(
+      final Block block,
+      final int columnIndex,
+      final double[] destination,
+      final int offset
+      ) throws IOException {
+      final int
+         length = block.columnLengths[columnIndex],
+         rawLength = block.numberOfRows * 8;
+      if(compressed.length < length)
+         compressed = new byte[length];
+      if(raw.length < rawLength)
+         raw = new byte[rawLength];
+      final ByteBuffer source = block.segment.duplicate();
+      source.position(block.columnOffsets[columnIndex]);
+      source.get(compressed, 0, length);
+      inflater.reset();
+      inflater.setInput(compressed, 0, length);
+      try {
+         int inflated = 0;
+         while(inflated < rawLength && !inflater.finished()) {
+            final int count = inflater.inflate(raw, inflated, rawLength - inflated);
+            if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+               break;
+            inflated += count;
+         }
+         if(inflated != rawLength)
+            throw new IOException(
+               "ColumnarRecordReader: block data for column " + columnNames.get(columnIndex)
+             + " is corrupt.");
+      }
+      catch(final DataFormatException failure) {
+         throw new IOException(failure.getMessage());
+      }
+      ByteBuffer.wrap(raw, 0, rawLength).asDoubleBuffer()
+         .get(destination, offset, block.numberOfRows);
+   }
+   
+   /**
+     * Get the names of all columns in this record, including the leading run
+     * and tick columns. The returned list is unmodifiable.
+     */
+   public List<String> getColumnNames() {
+      return columnNames;
+   }
+   
+   /**
+     * Get the named constant parameters stored with this record. The returned
+     * map is unmodifiable.
+     */
+   public Map<String, String> getParameters() {
+      return parameters;
+   }
+   
+   /**
+     * Get the number of complete rows in this record.
+     */
+   public int getNumberOfRows() {
+      return numberOfRows;
+   }
+   
+   /**
+     * Get the time, in milliseconds, at which recording began.
+     */
+   public long getStartTime() {
+      return startTime;
+   }
+   
+   /**
+     * Get the time, in milliseconds, at which the last segment of this record
+     * was last modified.
+     */
+   public long getEndTime() {
+      return endTime;
+   }
+   
+   /**
+     * Get the first segment file of this record.
+     */
+   public File getFile() {
+      return file;
+   }
+   
+   /**
+     * Release the resources held by this reader. Memory mappings are released
+     * when this reader is garbage collected.
+     */
+   public void close() {
+      if(isClosed)
+         return;
+      isClosed = true;
+      blocks.clear();
+      inflater.end();
+   }
+   
+   @Override
+   public String toString() {
+      return "Columnar Record Reader, file: " + file + ", columns: " 
+         + columnNames.size() + ", rows: " + numberOfRows + ".";
+   }
+}
@@ -0,0 +1,358 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.model.recording;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * An append-only writer for columnar simulation records.<br><br>
+  * 
+  * A columnar record is a table with one row per recorded simulation cycle. The
+  * first two columns of the table are the run number and the tick (the cycle
+  * index, counted from {@code 0}, as in the recorder CSV backend). The remaining columns are fixed-width 
+  * {@code double} values, one column per recorder source.<br><br>
+  * 
+  * Rows are buffered in memory and written in blocks. Each block is stored
+  * column by column, and each column in the block is compressed independently,
+  * so that a reader can decode one column without decoding the others. Blocks
+  * are appended to a segment file. When a segment reaches its size limit, a new
+  * segment is started. Segments are named as the recorder CSV parts are named:
+  * {@code base.ext}, {@code base-part1.ext}, {@code base-part2.ext} and so on.
+  * Segments are kept smaller than {@code 2GB} so that each segment can be memory
+  * mapped in its entirety by {@link ColumnarRecordReader}.<br><br>
+  * 
+  * The layout of one segment is as follows (all values big-endian):
+  * 
+  * <ul>
+  *   <li> {@code int} {@link #MAGIC}, {@code int} {@link #VERSION};
+  *   <li> {@code long} the time, in milliseconds, at which recording began;
+  *   <li> {@code int} the number of parameters, followed by one UTF-8 name and
+  *        one UTF-8 value for each parameter;
+  *   <li> {@code int} the number of columns (including the run and tick columns),
+  *        followed by one UTF-8 name for each column;
+  *   <li> zero or more blocks. Each block is an {@code int} number of rows, 
+  *        followed, for each column, by an {@code int} compressed length and the
+  *        compressed (deflated) column data.
+  * </ul>
+  * 
+  * A block is written to disk with one write operation, so a segment that was 
+  * truncated by an interrupted simulation is readable up to its last complete
+  * block.<br><br>
+  * 
+  * This class is not thread-safe.
+  * 
+  * @author phillips
+  */
+public final class ColumnarRecordWriter {
+   
+   static final int
+      MAGIC = 0x43524353,                                   // "CRCS"
+      VERSION = 1;
+   
+   /**
+     * The default maximum number of rows in one block, and the default target
+     * size, in bytes, of the uncompressed data in one block. Records with many
+     * columns are written in blocks of fewer rows.
+     */
+   public static final int
+      DEFAULT_MAXIMUM_ROWS_PER_BLOCK = 1024,
+      DEFAULT_BLOCK_SIZE = 1 << 22;
+   
+   public static final long
+      DEFAULT_MAXIMUM_SEGMENT_SIZE = 1L << 30;
+   
+   private final File
+      file;
+   private final List<String>
+      columnNames;
+   private final Map<String, String>
+      parameters;
+   private final long
+      startTime,
+      maximumSegmentSize;
+   private final double[][]
+      block;
+   private final Deflater
+      deflater;
+   private byte[]
+      rawColumn,
+      compressedColumn;
+   private int
+      rowsInBlock,
+      segmentIndex;
+   private long
+      rowsWritten,
+      segmentHeaderSize;
+   private final ByteArrayOutputStream
+      blockBytes;
+   private FileChannel
+      segment;
+   
+   /**
+     * Create a {@link ColumnarRecordWriter} with default block and segment sizes.
+     * See {@link #ColumnarRecordWriter(File, List, Map, int, long)}.
+     */
+   public ColumnarRecordWriter(
+      final File file,
+      final List<String> columnNames,
+      final Map<String, String> parameters
+      ) throws IOException {
+      this(file, columnNames, parameters, 
+         Math.max(1, Math.min(DEFAULT_MAXIMUM_ROWS_PER_BLOCK,
+            DEFAULT_BLOCK_SIZE / (8 * (columnNames.size() + 2)))),
+         DEFAULT_MAXIMUM_SEGMENT_SIZE);
+   }
+   
+   /**
+     * Create a {@link ColumnarRecordWriter}. Any existing segments of the
+     * specified file are replaced.
+     * 
+     * @param file
+     *        The first segment file. Further segments are created beside this file.
+     * @param columnNames
+     *        The names of the recorded columns, not including the run and tick
+     *        columns. Column names must be distinct.
+     * @param parameters
+     *        Named (constant) parameter values to store with the record. This 
+     *        argument may be empty.
+     * @param rowsPerBlock
+     *        The number of rows to buffer before a block is compressed and written.
+     *        This argument should be strictly positive.
+     * @param maximumSegmentSize
+     *        The size, in bytes, at which a new segment is started. This argument
+     *        should be strictly positive and less than {@code 2GB}.
+     */
+   public ColumnarRecordWriter(
+      final File file,
+      final List<String> columnNames,
+      final Map<String, String> parameters,
+      final int rowsPerBlock,
+      final long maximumSegmentSize
+      ) throws IOException {
+      Preconditions.checkNotNull(file);
+      Preconditions.checkArgument(rowsPerBlock > 0);
+      Preconditions.checkArgument(
+         maximumSegmentSize > 0 && maximumSegmentSize < Integer.MAX_VALUE);
+      this.file = file;
+      final List<String> names = new ArrayList<String>();
+      names.add("run");
+      names.add("tick");
+      names.addAll(columnNames);
+      Preconditions.checkArgument(
+         new HashSet<String>(names).size() == names.size(),
+         "ColumnarRecordWriter: column names are not distinct.");
+      this.columnNames = Collections.unmodifiableList(names);
+      this.parameters = new LinkedHashMap<String, String>(parameters);
+      this.startTime = System.currentTimeMillis();
+      this.maximumSegmentSize = maximumSegmentSize;
+      this.block = new double[names.size()][rowsPerBlock];
+      this.deflater = new Deflater(Deflater.BEST_SPEED);
+      this.rawColumn = new byte[rowsPerBlock * 8];
+      this.compressedColumn = new byte[rawColumn.length + 64];
+      this.blockBytes = new ByteArrayOutputStream();
+      for(int i = 1; ; ++i) {                   // Remove stale segments of a previous record
+         final File stale = segmentFile(file, i);
+         if(!stale.exists() || !stale.delete())
+            break;
+      }
+      openSegment();
+   }
+   
+   /**
+     * Get the file of the i<sup>th</sup> segment of a columnar record whose first
+     * segment is {@code file}.
+     */
+   static File segmentFile(final File file, final int index) {
+      if(index == 0)
+         return file;
+      final String
+         path = file.getPath();
+      final int
+         extension = path.lastIndexOf('.'),
+         separator = path.lastIndexOf(File.separatorChar);
+      if(extension <= separator)
+         return new File(path + "-part" + index);
+      return new File(
+         path.substring(0, extension) + "-part" + index + path.substring(extension));
+   }
+   
+   private void openSegment() throws IOException {
+      final FileOutputStream
+         stream = new FileOutputStream(segmentFile(file, segmentIndex), false);
+      final DataOutputStream
+         header = new DataOutputStream(stream);
+      header.writeInt(MAGIC);
+      header.writeInt(VERSION);
+      header.writeLong(startTime);
+      header.writeInt(parameters.size());
+      for(final Entry<String, String> record : parameters.entrySet()) {
+         header.writeUTF(record.getKey());
+         header.writeUTF(record.getValue());
+      }
+      header.writeInt(columnNames.size());
+      for(final String name : columnNames)
+         header.writeUTF(name);
+      header.flush();
+      segment = stream.getChannel();
+      segmentHeaderSize = segment.position();
+   }
+   
+   /**
+     * Append one row to this record.
+     * 
+     * @param run
+     *        The run number.
+     * @param tick
+     *        The tick (cycle index) at which the row was sampled.
+     * @param values
+     *        The row values. The length of this array must be equal to the number
+     *        of columns specified when this writer was created.
+     */
+   public void append(final long run, final int tick, final double[] values)
+      throws IOException {
+      Preconditions.checkState(segment != null, "ColumnarRecordWriter: writer is closed.");
+      Preconditions.checkArgument(values.length == block.length - 2);
+      block[0][rowsInBlock] = run;
+      block[1][rowsInBlock] = tick;
+      for(int i = 0; i< values.length; ++i)
+         block[i + 2][rowsInBlock] = values[i];
+      ++rowsWritten;
+      if(++rowsInBlock == block[0].length)
+         writeBlock();
+   }
+   
+   private void writeBlock() throws IOException {
+      if(rowsInBlock == 0)
+         return;
+      blockBytes.reset();
+      final DataOutputStream
+         output = new DataOutputStream(blockBytes);
+      output.writeInt(rowsInBlock);
+      final ByteBuffer
+         raw = ByteBuffer.wrap(rawColumn);
+      for(final double[] column : block) {
+         raw.clear();
+         raw.asDoubleBuffer().put(column, 0, rowsInBlock);
+         deflater.reset();
+         deflater.setInput(rawColumn, 0, rowsInBlock * 8);
+         deflater.finish();
+         int length = 0;
+         while(!deflater.finished()) {
+            if(length == compressedColumn.length)
+               compressedColumn = Arrays.copyOf(compressedColumn, 2 * compressedColumn.length);
+            length += deflater.deflate(
+               compressedColumn, length, compressedColumn.length - length);
+         }
+         output.writeInt(length);
+         output.write(compressedColumn, 0, length);
+      }
+      output.flush();
+      final long
+         position = segment.position();
+      if(position > segmentHeaderSize && position + blockBytes.size() > maximumSegmentSize) {
+         segment.close();
+         ++segmentIndex;
+         openSegment();
+      }
+      final ByteBuffer
+         bytes = ByteBuffer.wrap(blockBytes.toByteArray());
+      while(bytes.hasRemaining())
+         segment.write(bytes);
+      rowsInBlock = 0;
+   }
+   
+   /**
+     * Compress and write any buffered rows. Rows written by this method are
+     * visible to a {@link ColumnarRecordReader} opened after this method returns.
+     */
+   public void flush() throws IOException {
+      Preconditions.checkState(segment != null, "ColumnarRecordWriter: writer is closed.");
+      writeBlock();
+      segment.force(false);
+   }
+   
+   /**
+     * Write any buffered rows and close this writer. Calling this method more
+     * than once has no further effect.
+     */
+   public void close() throws IOException {
+      if(segment == null)
+         return;
+      try {
+         writeBlock();
+      }
+      finally {
+         segment.close();
+         segment = null;
+         deflater.end();
+      }
+   }
+   
+   /**
+     * Get the names of all columns in this record, including the leading run and
+     * tick columns. The returned list is unmodifiable.
+     */
+   public List<String> getColumnNames() {
+      return columnNames;
+   }
+   
+   /**
+     * Get the total number of rows appended to this record.
+     */
+   public long getNumberOfRows() {
+      return rowsWritten;
+   }
+   
+   /**
+     * Get the number of segments written so far.
+     */
+   public int getNumberOfSegments() {
+      return segmentIndex + 1;
+   }
+   
+   /**
+     * Get the first segment file of this record.
+     */
+   public File getFile() {
+      return file;
+   }
+   
+   @Override
+   public String toString() {
+      return "Columnar Record Writer, file: " + file + ", columns: " 
+         + columnNames.size() + ", rows: " + rowsWritten + ".";
+   }
+}
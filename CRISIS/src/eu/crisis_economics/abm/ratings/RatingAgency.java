@@ -29,6 +29,7 @@ import eu.crisis_economics.abm.Agent;
 import eu.crisis_economics.abm.algorithms.statistics.DiscreteTimeSeries;
 import eu.crisis_economics.abm.simulation.NamedEventOrderings;
 import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
 import eu.crisis_economics.utilities.Pair;
 import eu.crisis_economics.utilities.StateVerifier;
 
@@ -36,7 +37,8 @@ import eu.crisis_economics.utilities.StateVerifier;
   * A "rating agency" with no balance sheet and no market participation.
   * This entity periodically records measurements for other agents, and
   * makes these measurements available in the form of timeseries. This 
-  * object is currently implemented as a globally accessible singleton.
+  * object is currently implemented as a globally accessible singleton, whose
+  * state is stored in the active {@link SimulationContext}.
   * 
   * I. Adding measurements:
   * To enable a custom measurement, call RatingAgency.Instance.
@@ -130,45 +132,72 @@ public enum RatingAgency {
       }
    }
    
-   private Map<String, AgentMeasurements> records;
-   private Map<String, AgentTrackingMeasurement> measurements;
-   private final static double SIMULATION_TIME_TO_STORE_RECORDS = 500.;
-   
-   private RatingAgency() {
-      this.records = new HashMap<String, AgentMeasurements>();
-      this.measurements = new HashMap<String, AgentTrackingMeasurement>();
+   /*
+    * The state of the rating agency. One such state exists for each SimulationContext.
+    */
+   static private final class AgencyState {
+      private Map<String, AgentMeasurements> records;
+      private Map<String, AgentTrackingMeasurement> measurements;
+      
+      private AgencyState() {
+         this.records = new HashMap<String, AgentMeasurements>();
+         this.measurements = new HashMap<String, AgentTrackingMeasurement>();
+      }
+      
+      private void scheduleSelf() {
+         // Extract new measurements for all tracked agents.
+         Simulation.repeat(this, "queryAgentStates", NamedEventOrderings.BEFORE_ALL);
+         // Remove old records.
+         Simulation.repeat(this, "removeOldRecords", NamedEventOrderings.BEFORE_ALL);
+      }
+      
+      @SuppressWarnings("unused") // Scheduled
+      private void queryAgentStates() {
+         for(final AgentMeasurements record : records.values())
+            record.extractNewRecordsWithTimestamp(measurements);
+      }
       
-      scheduleSelf();
+      @SuppressWarnings("unused") // Scheduled
+      private void removeOldRecords() {
+         final double
+            simulationTime = Simulation.getTime(),
+            leastTimeToStoreRecords = simulationTime - SIMULATION_TIME_TO_STORE_RECORDS;
+         for(final AgentMeasurements record : records.values())
+            record.removeAllDataBeforeTime(leastTimeToStoreRecords);
+      }
    }
    
-   private void scheduleSelf() {
-      // Extract new measurements for all tracked agents.
-      Simulation.repeat(this, "queryAgentStates", NamedEventOrderings.BEFORE_ALL);
-      // Remove old records.
-      Simulation.repeat(this, "removeOldRecords", NamedEventOrderings.BEFORE_ALL);
-   }
+   private final static double SIMULATION_TIME_TO_STORE_RECORDS = 500.;
    
-   @SuppressWarnings("unused") // Scheduled
-   private void queryAgentStates() {
-      for(final AgentMeasurements record : records.values())
-         record.extractNewRecordsWithTimestamp(measurements);
+   private RatingAgency() { }
+   
+   /*
+    * Get the rating agency state for the active SimulationContext.
+    */
+   private AgencyState state() {
+      final SimulationContext context = SimulationContext.current();
+      AgencyState result = (AgencyState) context.getService(this);
+      if(result == null) {
+         result = new AgencyState();
+         context.putService(this, result);
+      }
+      return result;
    }
    
-   @SuppressWarnings("unused") // Scheduled
-   private void removeOldRecords() {
-      final double
-         simulationTime = Simulation.getTime(),
-         leastTimeToStoreRecords = simulationTime - SIMULATION_TIME_TO_STORE_RECORDS;
-      for(final AgentMeasurements record : records.values())
-         record.removeAllDataBeforeTime(leastTimeToStoreRecords);
+   /**
+     * Prepare the rating agency for a new simulation. This method schedules
+     * periodic measurements, for all tracked agents, in the running simulation.
+     */
+   public void initialize() {
+      state().scheduleSelf();
    }
    
    /**
      * Begin tracking, and recording data for, the given agent.
      */
    public void trackAgent(final Agent agent) {
-      if(records.containsKey(agent.getUniqueName())) return;
-      records.put(agent.getUniqueName(), new AgentMeasurements(agent));
+      if(state().records.containsKey(agent.getUniqueName())) return;
+      state().records.put(agent.getUniqueName(), new AgentMeasurements(agent));
    }
    
    /**
@@ -176,14 +205,14 @@ public enum RatingAgency {
      * given agent.
      */
    public void discontinueAgentTracking(final Agent agent) {
-      records.remove(agent.getUniqueName());
+      state().records.remove(agent.getUniqueName());
    }
    
    /**
      * Is the given agent currently being tracked?
      */
    public boolean isTrackingAgent(final Agent agent) {
-      return records.containsKey(agent.getUniqueName());
+      return state().records.containsKey(agent.getUniqueName());
    }
    
    /**
@@ -200,11 +229,11 @@ public enum RatingAgency {
       final AgentTrackingMeasurement measurement
       ) {
       StateVerifier.checkNotNull(measurementName, measurement);
-      if(measurements.containsKey(measurementName))
+      if(state().measurements.containsKey(measurementName))
          throw new IllegalStateException(
             "RatingsAgency.addTrackingMeasurement: a measurement with name "
            + measurementName + " already exists.");
-      measurements.put(measurementName, measurement);
+      state().measurements.put(measurementName, measurement);
    }
    
    /**
@@ -215,14 +244,14 @@ public enum RatingAgency {
      */
    public void removeTrackingMeasurement(final String measurementName) {
       if(!hasTrackingMeasurement(measurementName)) return;
-      measurements.remove(measurementName);
-      for(final AgentMeasurements record : records.values())
+      state().measurements.remove(measurementName);
+      for(final AgentMeasurements record : state().records.values())
          record.removeTimeSeries(measurementName);
    }
    
    public boolean hasTrackingMeasurement(final String measurementName) {
       Preconditions.checkNotNull(measurementName);
-      return measurements.containsKey(measurementName);
+      return state().measurements.containsKey(measurementName);
    }
    
    
@@ -238,7 +267,7 @@ public enum RatingAgency {
      */
    public DiscreteTimeSeries getTimeSeries(final String measurementName, final Agent agent) {
       if(!isTrackingAgent(agent)) return null;
-      final AgentMeasurements record = records.get(agent.getUniqueName());
+      final AgentMeasurements record = state().records.get(agent.getUniqueName());
       return record.getTimeSeries(measurementName);
    }
    
@@ -247,7 +276,7 @@ public enum RatingAgency {
      * known measurements and data from this object.
      */
    public void flush() {
-      this.records.clear();
-      this.measurements.clear();
+      state().records.clear();
+      state().measurements.clear();
    }
 }
@@ -0,0 +1,44 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+  * Marks a scheduled method as an agent-local event. An agent-local event reads
+  * shared simulation state, but modifies only the state of the agent to which it 
+  * belongs. Agent-local events do not trade, create contracts, transfer cash or 
+  * schedule further events.<br><br>
+  * 
+  * When phase batching is enabled (see {@link Simulation#setPhaseBatchingEnabled(boolean)}),
+  * agent-local events in the same phase are independent of one another and can be
+  * executed concurrently. Agent-local events which require random numbers should
+  * use {@link Simulation#random()}, which provides each such event with its own 
+  * deterministic random stream.
+  * 
+  * @author phillips
+  */
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Target(ElementType.METHOD)
+public @interface AgentLocalEvent { }
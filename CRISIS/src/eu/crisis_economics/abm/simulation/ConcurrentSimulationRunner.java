@@ -0,0 +1,159 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+import sim.engine.SimState;
+
+/**
+  * A utility for running several independent simulations concurrently in one JVM.<br><br>
+  *
+  * Each task submitted to this runner is executed on a worker thread with a fresh
+  * {@link SimulationContext} bound for the duration of the task. Models must be
+  * constructed inside the submitted task, so that all agents, contracts, events and
+  * schedules created by the model belong to the context of that task. Tasks are
+  * numbered in order of submission, starting from {@code 1}, and each context
+  * carries the number of its task as its {@link SimulationContext#getRunNumber()
+  * run number}. Concretely:<br><br>
+  *
+  * <code><pre>
+  * final ConcurrentSimulationRunner runner = new ConcurrentSimulationRunner(64);
+  * for(final long seed : seeds)
+  *    runner.submit(new Callable&lt;Double&gt;() {
+  *       public Double call() {
+  *          final MasterModel model = new MasterModel(seed);
+  *          ConcurrentSimulationRunner.runToTime(model, 1000.);
+  *          return model.getAggregateWealth();
+  *       }
+  *    });
+  * </pre></code>
+  *
+  * @author phillips
+  */
+public final class ConcurrentSimulationRunner {
+
+   private final ExecutorService
+      executor;
+   private final AtomicLong
+      runsSubmitted;
+
+   /**
+     * Create a {@link ConcurrentSimulationRunner} with the specified number
+     * of worker threads.
+     *
+     * @param numberOfThreads
+     *        The number of simulations to run concurrently. This argument
+     *        should be strictly positive.
+     */
+   public ConcurrentSimulationRunner(final int numberOfThreads) {
+      Preconditions.checkArgument(numberOfThreads > 0);
+      this.executor = Executors.newFixedThreadPool(numberOfThreads);
+      this.runsSubmitted = new AtomicLong();
+   }
+
+   /**
+     * Create a {@link ConcurrentSimulationRunner} with one worker thread for
+     * each available processor.
+     */
+   public ConcurrentSimulationRunner() {
+      this(Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+     * Submit a simulation task for execution in its own {@link SimulationContext}.
+     * The context is given the next run number.
+     */
+   public <T> Future<T> submit(final Callable<T> task) {
+      Preconditions.checkNotNull(task);
+      final long runNumber = runsSubmitted.incrementAndGet();
+      return executor.submit(new Callable<T>() {
+         @Override
+         public T call() throws Exception {
+            final SimulationContext context = new SimulationContext();
+            context.setRunNumber(runNumber);
+            return context.callWithin(task);
+         }
+      });
+   }
+
+   /**
+     * Submit several simulation tasks and wait for all of them to complete. The
+     * results are returned in the order in which the tasks were specified. If
+     * any task raised an exception, the first such exception (in task order) is
+     * rethrown, wrapped in an {@link ExecutionException}, once all tasks have
+     * completed.
+     */
+   public <T> List<T> invokeAll(final List<? extends Callable<T>> tasks)
+      throws InterruptedException, ExecutionException {
+      final List<Future<T>> futures = new ArrayList<Future<T>>();
+      for(final Callable<T> task : tasks)
+         futures.add(submit(task));
+      final List<T> result = new ArrayList<T>();
+      ExecutionException firstFailure = null;
+      for(final Future<T> future : futures) {
+         try {
+            result.add(future.get());
+         }
+         catch(final ExecutionException failure) {
+            if(firstFailure == null)
+               firstFailure = failure;
+            result.add(null);
+         }
+      }
+      if(firstFailure != null)
+         throw firstFailure;
+      return result;
+   }
+
+   /**
+     * Stop accepting new tasks. Tasks already submitted will run to completion.
+     */
+   public void shutdown() {
+      executor.shutdown();
+   }
+
+   /**
+     * Start a model, step its schedule until the given simulation time is reached
+     * (or until no further events are scheduled), and then finish the model. This
+     * method should be called from within the {@link SimulationContext} in which
+     * the model was constructed.
+     */
+   public static void runToTime(final SimState model, final double simulationTime) {
+      Preconditions.checkNotNull(model);
+      model.start();
+      try {
+         while(model.schedule.getTime() < simulationTime)
+            if(!model.schedule.step(model))
+               break;
+      }
+      finally {
+         model.finish();
+      }
+   }
+}
@@ -104,7 +104,19 @@ public final class CustomSimulationCycleOrdering implements SimulatedEventOrder
       final SimulatedEventOrder event,
       int cyclesToPostpone
       ) {
-      return Simulation.getFloorTime() + cyclesToPostpone + event.getUnitIntervalTime();
+      return toAbsoluteSimulationTime(Simulation.getFloorTime(), event, cyclesToPostpone);
+   }
+   
+   /** 
+     * Convert an SimulatedEventOrder and a delay period (number of cycles) to 
+     * an absolute simulation time, given the floor of the current simulation time.
+     */
+   static double toAbsoluteSimulationTime(
+      final double floorTime,
+      final SimulatedEventOrder event,
+      int cyclesToPostpone
+      ) {
+      return floorTime + cyclesToPostpone + event.getUnitIntervalTime();
    }
    
    @Override
@@ -0,0 +1,42 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ * 
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+/**
+  * A bound invocation of one (scheduled) method. Implementations of this
+  * interface are created by {@link MethodDispatchers} and are bound to exactly
+  * one method.
+  * 
+  * @author phillips
+  */
+public interface MethodDispatcher {
+   /**
+     * Invoke the bound method.
+     * 
+     * @param instance
+     *        The object on which to invoke the method.
+     * @param arguments
+     *        The method arguments. This argument may be {@code null} if the 
+     *        bound method accepts no arguments.
+     * @throws Throwable
+     *        Any exception raised by the bound method. Exceptions raised by the 
+     *        bound method are not wrapped.
+     */
+   public void invoke(Object instance, Object[] arguments) throws Throwable;
+}
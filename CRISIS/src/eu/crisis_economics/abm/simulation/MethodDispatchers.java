@@ -0,0 +1,96 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+  * A factory for {@link MethodDispatcher}{@code s}. Dispatchers are bound once
+  * for each reflected method and are then shared by all events which schedule
+  * that method.<br><br>
+  *
+  * Each dispatcher holds one reflected {@link Method}, made accessible once when
+  * the dispatcher is bound, and calls it with {@link Method#invoke(Object, 
+  * Object...)}. Scheduled methods are usually {@code private}, so that they 
+  * cannot be called by other agents, and this is the only mechanism available 
+  * to call such methods from another class. Binding the dispatcher once avoids
+  * the cost of looking up the method and checking its access on each call.
+  * <br><br>
+  *
+  * Dispatchers are also used outside the scheduler, for instance by the
+  * {@link eu.crisis_economics.abm.aspects.DataCollection} aspect to call
+  * collector methods.
+  *
+  * @author phillips
+  */
+public final class MethodDispatchers {
+
+   private static final ConcurrentMap<Method, MethodDispatcher>
+      dispatchers = new ConcurrentHashMap<Method, MethodDispatcher>();
+
+   private MethodDispatchers() { }   // Uninstantiatable
+
+   /**
+     * Get a {@link MethodDispatcher} for the specified method. This method is
+     * thread safe. At most one dispatcher is retained for each method.
+     */
+   public static MethodDispatcher forMethod(final Method method) {
+      MethodDispatcher result = dispatchers.get(method);
+      if(result != null)
+         return result;
+      result = createReflectiveDispatcher(method);
+      final MethodDispatcher existing = dispatchers.putIfAbsent(method, result);
+      return existing == null ? result : existing;
+   }
+
+   /**
+     * Create a {@link MethodDispatcher} which uses {@link Method#invoke(Object, Object...)}.
+     */
+   static MethodDispatcher createReflectiveDispatcher(final Method method) {
+      method.setAccessible(true);
+      return new ReflectiveDispatcher(method);
+   }
+
+   static final class ReflectiveDispatcher implements MethodDispatcher {
+      private final Method
+         method;
+
+      private ReflectiveDispatcher(final Method method) {
+         this.method = method;
+      }
+
+      @Override
+      public void invoke(final Object instance, final Object[] arguments) throws Throwable {
+         try {
+            method.invoke(instance, arguments);
+         }
+         catch(final InvocationTargetException unwrap) {
+            throw unwrap.getCause();
+         }
+      }
+
+      @Override
+      public String toString() {
+         return "Reflective Dispatcher, method: " + method + ".";
+      }
+   }
+}
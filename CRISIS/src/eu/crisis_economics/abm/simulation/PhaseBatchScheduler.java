@@ -0,0 +1,259 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import ec.util.MersenneTwisterFast;
+import eu.crisis_economics.abm.simulation.Simulation.ScheduledMethodInvokation;
+
+/**
+  * A phase-batching scheduler for {@link ScheduledMethodInvokation}{@code s}.<br><br>
+  * 
+  * By default, every scheduled event is committed to the MASON schedule as a 
+  * separate {@link Steppable}. When phase batching is enabled, all events due
+  * at the same simulation time and with the same priority (that is, all events in
+  * one phase of the simulation cycle) are instead collected into a single batch.
+  * Each batch is committed to the MASON schedule exactly once.<br><br>
+  * 
+  * When a batch is executed, its events are first shuffled using the simulation 
+  * random number generator. This mirrors the tie breaking performed by the MASON
+  * schedule. Consecutive runs of {@link AgentLocalEvent}{@code s} are then executed
+  * concurrently, if more than one thread is available, and all other events are 
+  * executed in sequence. Each agent-local event has its own random stream, which is
+  * seeded (in batch order) from the simulation random number generator. For this
+  * reason the outcome of a simulation does not depend on the number of threads used.
+  * <br><br>
+  * 
+  * One instance of this class exists for each {@link SimulationContext}. Phase 
+  * batching can be enabled by default with the system property 
+  * {@code eu.crisis_economics.abm.simulation.phaseBatching}, and the number of 
+  * threads used to execute agent-local events can be specified by the system 
+  * property {@code eu.crisis_economics.abm.simulation.phaseBatchThreads}.
+  * 
+  * @author phillips
+  */
+final class PhaseBatchScheduler {
+   
+   /*
+    * The smallest number of agent-local events for which a worker thread is used.
+    */
+   private static final int
+      MINIMUM_EVENTS_PER_TASK = 16;
+   
+   private boolean
+      isEnabled;
+   
+   private final WorkerPool
+      workers;
+   
+   private final Map<PhaseKey, PhaseBatch>
+      pendingBatches;
+   
+   PhaseBatchScheduler() {
+      this.isEnabled = 
+         Boolean.getBoolean("eu.crisis_economics.abm.simulation.phaseBatching");
+      this.workers = new WorkerPool("Phase Batch Worker", Math.max(1,
+         Integer.getInteger("eu.crisis_economics.abm.simulation.phaseBatchThreads", 1)));
+      this.pendingBatches = new HashMap<PhaseKey, PhaseBatch>();
+   }
+   
+   /**
+     * Get the {@link PhaseBatchScheduler} for the active {@link SimulationContext}.
+     */
+   static PhaseBatchScheduler forCurrentContext() {
+      return SimulationContext.current().getPhaseBatchScheduler();
+   }
+   
+   boolean isEnabled() {
+      return isEnabled;
+   }
+   
+   /**
+     * Enable or disable phase batching. Events already committed to the schedule
+     * are not affected. Repeating events are batched (or unbatched) when they are
+     * next rescheduled.
+     */
+   void setEnabled(final boolean isEnabled) {
+      this.isEnabled = isEnabled;
+   }
+   
+   int getNumberOfThreads() {
+      return workers.getNumberOfThreads();
+   }
+   
+   /**
+     * Set the number of threads used to execute agent-local events. This 
+     * argument should be strictly positive.
+     */
+   void setNumberOfThreads(final int numberOfThreads) {
+      workers.setNumberOfThreads(numberOfThreads);
+   }
+   
+   /**
+     * Commit an event to the batch for the specified simulation time and 
+     * priority. If no such batch exists, a new batch is created and committed to
+     * the MASON schedule.
+     */
+   void schedule(
+      final SimState state,
+      final double time,
+      final int priority,
+      final ScheduledMethodInvokation event
+      ) {
+      final PhaseKey key = new PhaseKey(time, priority);
+      PhaseBatch batch = pendingBatches.get(key);
+      if(batch == null) {
+         batch = new PhaseBatch(key);
+         pendingBatches.put(key, batch);
+         state.schedule.scheduleOnce(time, priority, batch);
+      }
+      batch.events.add(event);
+   }
+   
+   /**
+     * Discard all pending batches. This method should be called whenever the 
+     * MASON schedule is reset.
+     */
+   void reset() {
+      pendingBatches.clear();
+   }
+   
+   /**
+     * Release the threads used to execute agent-local events. Threads are 
+     * recreated on demand.
+     */
+   void shutdown() {
+      workers.shutdown();
+   }
+   
+   private static final class PhaseKey {
+      private final double
+         time;
+      private final int
+         priority;
+      
+      private PhaseKey(final double time, final int priority) {
+         this.time = time;
+         this.priority = priority;
+      }
+      
+      @Override
+      public int hashCode() {
+         final long bits = Double.doubleToLongBits(time);
+         return 31 * (int) (bits ^ (bits >>> 32)) + priority;
+      }
+      
+      @Override
+      public boolean equals(final Object obj) {
+         if(this == obj)
+            return true;
+         if(!(obj instanceof PhaseKey))
+            return false;
+         final PhaseKey other = (PhaseKey) obj;
+         return Double.doubleToLongBits(time) == Double.doubleToLongBits(other.time)
+             && priority == other.priority;
+      }
+   }
+   
+   @SuppressWarnings("serial")
+   private final class PhaseBatch implements Steppable {
+      private final PhaseKey
+         key;
+      private final List<ScheduledMethodInvokation>
+         events;
+      
+      private PhaseBatch(final PhaseKey key) {
+         this.key = key;
+         this.events = new ArrayList<ScheduledMethodInvokation>();
+      }
+      
+      @Override
+      public void step(final SimState state) {
+         pendingBatches.remove(key);
+         shuffle(events, state.random);
+         final int numberOfEvents = events.size();
+         int start = 0;
+         while(start < numberOfEvents) {
+            if(!events.get(start).isAgentLocal()) {
+               events.get(start++).step(state);
+               continue;
+            }
+            int end = start + 1;
+            while(end < numberOfEvents && events.get(end).isAgentLocal())
+               ++end;
+            executeAgentLocalEvents(events.subList(start, end), state);
+            start = end;
+         }
+      }
+   }
+   
+   /*
+    * Fisher-Yates shuffle using the simulation random number generator.
+    */
+   private static void shuffle(
+      final List<ScheduledMethodInvokation> events,
+      final MersenneTwisterFast random
+      ) {
+      for(int i = events.size() - 1; i > 0; --i) {
+         final int j = random.nextInt(i + 1);
+         final ScheduledMethodInvokation swap = events.get(i);
+         events.set(i, events.get(j));
+         events.set(j, swap);
+      }
+   }
+   
+   /*
+    * Execute a sequence of mutually independent agent-local events. Random streams
+    * are assigned, and repeating events are rescheduled, in batch order by the 
+    * calling thread.
+    */
+   private void executeAgentLocalEvents(
+      final List<ScheduledMethodInvokation> events,
+      final SimState state
+      ) {
+      for(final ScheduledMethodInvokation event : events)
+         event.prepareEventRandom(state.random);
+      final int numberOfTasks = 
+         Math.min(getNumberOfThreads(), events.size() / MINIMUM_EVENTS_PER_TASK);
+      if(numberOfTasks <= 1) {
+         for(final ScheduledMethodInvokation event : events)
+            event.executeAsAgentLocalEvent();
+      } else {
+         final List<Runnable> tasks = new ArrayList<Runnable>(numberOfTasks);
+         for(final List<ScheduledMethodInvokation> task : 
+             WorkerPool.partition(events, numberOfTasks))
+            tasks.add(new Runnable() {
+               @Override
+               public void run() {
+                  for(final ScheduledMethodInvokation event : task)
+                     event.executeAsAgentLocalEvent();
+               }
+            });
+         workers.executeAll(tasks);
+      }
+      for(final ScheduledMethodInvokation event : events)
+         event.rescheduleIfRepeating(state);
+   }
+}
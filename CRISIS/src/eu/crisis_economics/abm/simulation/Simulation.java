@@ -20,9 +20,13 @@
  */
 package eu.crisis_economics.abm.simulation;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.eventbus.EventBus;
 
@@ -33,15 +37,18 @@ import ai.aitia.meme.paramsweep.platform.mason.recording.RecordingHelper;
 import ec.util.MersenneTwisterFast;
 import eu.crisis_economics.abm.Agent;
 import eu.crisis_economics.abm.contracts.Contract;
+import eu.crisis_economics.abm.contracts.EmploymentLedger;
 import eu.crisis_economics.abm.contracts.stocks.UniqueStockExchange;
 import eu.crisis_economics.abm.model.Mark2Model;
+import eu.crisis_economics.abm.model.recording.ColumnarModelRecorder;
 import eu.crisis_economics.abm.ratings.RatingAgency;
 import eu.crisis_economics.utilities.CrisisTextBanner;
 
 /**
- * This is a helper class that maintains a single SimState instancePtr as a private static variable. This singleton SimState
- * object can be accessed by a public static getter method. The goal of this class is to enable any object to access the
- * SimState object of the simulation, and avoid having to pass this object to every object in need.
+ * This is a helper class that maintains the SimState of the active {@link SimulationContext}. This SimState object
+ * can be accessed by a public static getter method. The goal of this class is to enable any object to access the
+ * SimState object of the simulation, and avoid having to pass this object to every object in need. Distinct
+ * {@link SimulationContext}{@code s} may host distinct, concurrently running, simulations.
  * 
  * This class can be used in two ways. It is either sub-classed by the programmer instead of sub-classing the SimState class
  * directly, or an existing SimState object can be registered by the {@link #initSimulation(SimState)} static method.
@@ -71,30 +78,29 @@ public abstract class Simulation
      */
     private static final long serialVersionUID = 8687924062804654877L;
     
-    /**
-     * The singleton SimState object.
-     */
-    private static SimState simulationState = null;
-    
     /** See {@link #isRecordingContracts()}. */
     private boolean recordingContracts = false;
 
 	private RecordingHelper recordingHelper;
+	
+	/** See {@link ColumnarModelRecorder#OUTPUT_PROPERTY}. */
+	private transient ColumnarModelRecorder columnarRecorder;
     
 	/**
-     * This method can be used to obtain a reference to the singleton SimState object.
+     * This method can be used to obtain a reference to the SimState object of the
+     * active {@link SimulationContext}.
      * 
-     * @return the singleton SimState object.
+     * @return the SimState object of the active {@link SimulationContext}.
      */
     public static SimState getSimState() {
-        return simulationState;
+        return SimulationContext.current().getSimState();
     }
     
     /**
       * Get the current running simulation.
       */
     public static Simulation getRunningModel() { // TODO: not compatible with all models
-       return (Simulation)simulationState;
+       return (Simulation)getSimState();
     }
     
     public static double getTime() {
@@ -104,17 +110,18 @@ public abstract class Simulation
     }
     
     /**
-     * Registers the provided SimState object as the singleton SimState of the simulation. Displays a warning if another
-     * SimState is already registered.
+     * Registers the provided SimState object as the SimState of the active {@link SimulationContext}.
+     * Displays a warning if another SimState is already registered in this context.
      * 
      * @param simulationState
      */
     public static void initSimulation(final SimState simulationState) {
-        if ( Simulation.simulationState != null ) {
+        final SimulationContext context = SimulationContext.current();
+        if ( context.getSimState() != null ) {
             System.err.println( "The singleton SimState object has already been initialized, resetting simulation state." );
         }
         
-        Simulation.simulationState = simulationState;
+        context.setSimState(simulationState);
     }
     
     /**
@@ -125,7 +132,7 @@ public abstract class Simulation
      * killed or finished).
      */
     public static void unsetSimState() {
-        simulationState = null;
+        SimulationContext.current().setSimState(null);
     }
     
     
@@ -212,17 +219,80 @@ public abstract class Simulation
     }
     public String desRecordingContracts() {return "Toggle to export detailed contract information to the output.txt file.";}
     
+    /**
+     * Model parameter which determines if scheduled events are executed in phase batches.
+     * When phase batching is enabled, all events scheduled for the same phase of the
+     * simulation cycle are committed to the schedule as one batch, and
+     * {@link AgentLocalEvent}{@code s} in a batch may be executed concurrently. 
+     * 
+     * @return <code>true</code> if phase batching is enabled; <code>false</code> otherwise
+     */
+    public boolean isPhaseBatchingEnabled() {
+        return PhaseBatchScheduler.forCurrentContext().isEnabled();
+    }
+    
+    /**
+     * Enable or disable phase batching. See {@link #isPhaseBatchingEnabled()}. Phase batching
+     * should be enabled before the simulation is started. The outcome of a simulation 
+     * with phase batching enabled is reproducible, and does not depend on the number of
+     * threads used, but differs from the outcome of the same simulation with phase batching
+     * disabled.
+     */
+    public void setPhaseBatchingEnabled(final boolean isEnabled) {
+        PhaseBatchScheduler.forCurrentContext().setEnabled(isEnabled);
+    }
+    public String desPhaseBatchingEnabled() {return "Toggle to execute events in each phase of the simulation cycle as one batch.";}
+    
+    /**
+     * Get the number of threads used to execute {@link AgentLocalEvent}{@code s} when
+     * phase batching is enabled.
+     */
+    public int getPhaseBatchThreads() {
+        return PhaseBatchScheduler.forCurrentContext().getNumberOfThreads();
+    }
+    
+    /**
+     * Set the number of threads used to execute {@link AgentLocalEvent}{@code s} when
+     * phase batching is enabled. This argument should be strictly positive.
+     */
+    public void setPhaseBatchThreads(final int numberOfThreads) {
+        PhaseBatchScheduler.forCurrentContext().setNumberOfThreads(numberOfThreads);
+    }
+    public String desPhaseBatchThreads() {return "The number of threads used to execute agent-local events, when phase batching is enabled.";}
+    
     @Override
     public void start() {
         super.start();
+        // The schedule has been reset. Batches committed to the schedule are void.
+        PhaseBatchScheduler.forCurrentContext().reset();
+        // Labour contracts recorded in a previous run are void.
+        EmploymentLedger.forCurrentContext().reset();
         
         // When the GUI resets
-        if ( null == simulationState ) {
+        if ( null == getSimState() ) {
           initSimulationAndResetSchedule();
         }
-        recordingHelper = new RecordingHelper(simulationState);
-        
-        recordingHelper.scheduleRecording(simulationState);
+        if(columnarRecorder != null) {
+           columnarRecorder.close();
+           columnarRecorder = null;
+        }
+        final String columnarOutput = System.getProperty(ColumnarModelRecorder.OUTPUT_PROPERTY);
+        if(columnarOutput != null && !columnarOutput.isEmpty()
+           && ColumnarModelRecorder.hasRecorder(getSimState())) {
+           // Record to a columnar file, one file per run, in place of the @Recorder CSV file.
+           final File columnarFile = ColumnarModelRecorder.getRunFile(
+              new File(columnarOutput), ColumnarModelRecorder.getRunNumber(getSimState()));
+           columnarRecorder = new ColumnarModelRecorder(getSimState(), columnarFile);
+           columnarRecorder.scheduleRecording();
+           return;
+        }
+        // Recorders are generated, by name, in a JVM-wide class pool. Concurrent
+        // simulations must not generate recorders at the same time.
+        synchronized(RecordingHelper.class) {
+           recordingHelper = new RecordingHelper(getSimState());
+           
+           recordingHelper.scheduleRecording(getSimState());
+        }
     }
     
     private void initSimulationAndResetSchedule() {
@@ -234,9 +304,11 @@ public abstract class Simulation
         
         //super.start(); // Resets the schedule
         schedule.reset();
+        PhaseBatchScheduler.forCurrentContext().reset();
         UniqueStockExchange.Instance.flush();
         UniqueStockExchange.Instance.initialize();
         RatingAgency.Instance.flush();
+        RatingAgency.Instance.initialize();
     }
     
     /**
@@ -251,10 +323,16 @@ public abstract class Simulation
      */
     @Override
     public void kill() {
-    	recordingHelper.closeRecorder();
+    	if(recordingHelper != null)
+    		recordingHelper.closeRecorder();
+    	if(columnarRecorder != null) {
+    		columnarRecorder.close();
+    		columnarRecorder = null;
+    	}
        
         UniqueStockExchange.Instance.flush();
-        eventBus = new EventBus("Simulation Event Bus");
+        SimulationContext.current().resetEvents();
+        PhaseBatchScheduler.forCurrentContext().shutdown();
         super.kill();
         unsetSimState();
         
@@ -262,22 +340,41 @@ public abstract class Simulation
         Contract.resetInstanceCounterAndClearLogs();
     }
     
-    private static EventBus
-       eventBus = new EventBus("Simulation Event Bus");
-    
     /**
       * Get the active {@link EventBus} for this {@link Simulation}.
       */
     public static EventBus events() {
-       return eventBus;
+       return SimulationContext.current().events();
+    }
+    
+    /*
+     * The random stream of the agent-local event executing on this thread, if any.
+     */
+    private static final ThreadLocal<MersenneTwisterFast>
+       agentLocalEventRandom = new ThreadLocal<MersenneTwisterFast>();
+    
+    /**
+      * Get the random number generator for the event currently executing. For 
+      * {@link AgentLocalEvent}{@code s} executing in a phase batch, this is a random
+      * stream belonging to the event. Otherwise this is the random number generator
+      * of the running {@link SimState}.
+      */
+    public static MersenneTwisterFast random() {
+       final MersenneTwisterFast result = agentLocalEventRandom.get();
+       return result != null ? result : getSimState().random;
     }
     
     @SuppressWarnings("serial")
     public final static class ScheduledMethodInvokation implements Steppable {
-       private Object instancePtr;
-       private Method functionPtr;
-       private Object[] functionParams = null;
-       private AbsoluteEventOrder orderedEvent;
+       private final Object instancePtr;
+       private final Method functionPtr;
+       private final MethodDispatcher dispatcher;
+       private final Object[] functionParams;
+       private final AbsoluteEventOrder orderedEvent;
+       private final boolean isRepeating;
+       private final int priority;
+       private final boolean isAgentLocal;
+       private MersenneTwisterFast eventRandom;
        private ScheduledMethodInvokation(
           Object instance,
           Method functionPtr, 
@@ -286,22 +383,32 @@ public abstract class Simulation
           ) {
           this.instancePtr = instance;
           this.functionPtr = functionPtr;
+          this.dispatcher = MethodDispatchers.forMethod(functionPtr);
           this.functionParams = functionParams;
           this.orderedEvent = orderedEvent;
-          functionPtr.setAccessible(true);
+          this.isRepeating = orderedEvent.isRepeating();
+          this.priority = orderedEvent.getCycleOrder().getPriority();
+          this.isAgentLocal = functionPtr.isAnnotationPresent(AgentLocalEvent.class);
           commitSelf(getSimState());
        }
        @Override
        public void step(SimState simulationState) {
+          execute();
+          rescheduleIfRepeating(simulationState);
+       }
+       /*
+        * Invoke the scheduled method, without rescheduling.
+        */
+       private void execute() {
           try {
-             functionPtr.invoke(instancePtr, functionParams);
-             if(orderedEvent.isRepeating()) 
-                recommitSelf(simulationState);
+             dispatcher.invoke(instancePtr, functionParams);
           } catch(final IllegalAccessException accessException) {
              System.err.println(
                 "Simulation: access to " + functionPtr + " is forbidden.");
              throw new FatalSimulationException(accessException);
-          } catch (final Exception eventRaisedException) {
+          } catch (final Error error) {                  // Eg. OutOfMemoryError, AssertionError
+             throw error;
+          } catch (final Throwable eventRaisedException) {
              final String errMsg = 
                 "Simulation.ScheduledMethodInvokation.step: scheduled method has returned an "
                 + "exception to the event processing queue. The underlying cause of the exception"
@@ -313,34 +420,67 @@ public abstract class Simulation
              Throwable cause = eventRaisedException.getCause();
              if(cause == null)
                 throw new RuntimeException(eventRaisedException);
-             else {
-                if(cause.getCause() == null)
-                   throw new RuntimeException(cause);
-                else throw new RuntimeException(cause.getCause());
-             }
+             else
+                throw new RuntimeException(cause);
+          }
+       }
+       /** Get the {@link MethodDispatcher} bound to the scheduled method. */
+       MethodDispatcher getDispatcher() {
+          return dispatcher;
+       }
+       /** Is the scheduled method an {@link AgentLocalEvent}? */
+       boolean isAgentLocal() {
+          return isAgentLocal;
+       }
+       /*
+        * Assign a random stream to this agent-local event, if no stream has yet been
+        * assigned. The stream is seeded from the specified generator.
+        */
+       void prepareEventRandom(final MersenneTwisterFast seedSource) {
+          if(eventRandom == null)
+             eventRandom = new MersenneTwisterFast(seedSource.nextLong());
+       }
+       /*
+        * Invoke the scheduled method as an agent-local event. While the method is
+        * executing, Simulation.random() yields the random stream of this event.
+        */
+       void executeAsAgentLocalEvent() {
+          agentLocalEventRandom.set(eventRandom);
+          try {
+             execute();
+          } finally {
+             agentLocalEventRandom.remove();
           }
        }
+       void rescheduleIfRepeating(SimState simulationState) {
+          if(isRepeating)
+             recommitSelf(simulationState);
+       }
        private void commitSelf(SimState simulationState) {
            final double timeToSchedule =
               Math.max(0, 
               CustomSimulationCycleOrdering.toAbsoluteSimulationTime(
                  orderedEvent.getCycleOrder(), orderedEvent.getDelayPeriod()));
-           simulationState.schedule.scheduleOnce(
-                 timeToSchedule,
-                 orderedEvent.getCycleOrder().getPriority(),
-                 this
-                 );
+           commitAt(simulationState, timeToSchedule);
        }
        private void recommitSelf(SimState simulationState) {
            final double timeToSchedule = 
               CustomSimulationCycleOrdering.toAbsoluteSimulationTime(
+                 Math.floor(simulationState.schedule.getTime()),
                  orderedEvent.getCycleOrder(), orderedEvent.getSuccessiveExecutionInterval());
-           simulationState.schedule.scheduleOnce(
-              timeToSchedule,
-              orderedEvent.getCycleOrder().getPriority(), 
-              this
-              );
+           commitAt(simulationState, timeToSchedule);
         }
+       private void commitAt(SimState simulationState, double timeToSchedule) {
+           final PhaseBatchScheduler batchScheduler = PhaseBatchScheduler.forCurrentContext();
+           if(batchScheduler.isEnabled())
+              batchScheduler.schedule(simulationState, timeToSchedule, priority, this);
+           else
+              simulationState.schedule.scheduleOnce(
+                 timeToSchedule,
+                 priority, 
+                 this
+                 );
+       }
      }
     
     private final static void securityHalt(Exception e) {
@@ -443,6 +583,71 @@ public abstract class Simulation
         return null;
     }
     
+    /*
+     * Identifies the type of the object requesting that an event be scheduled. The
+     * class context of the execution stack is considerably cheaper to obtain than a
+     * stack trace.
+     */
+    private static final class CallerResolver extends SecurityManager {
+        /**
+          * Get the type executing at the specified depth of the call stack, 
+          * as seen by the method calling this method. The depth 0 refers to
+          * the method calling this method.
+          */
+        Class<?> getCallerType(final int depth) {
+            final Class<?>[] classContext = getClassContext();
+            return (depth + 1 < classContext.length) ? classContext[depth + 1] : null;
+        }
+    }
+    
+    private static final CallerResolver
+        CALLER_RESOLVER = new CallerResolver();
+    
+    /*
+     * A key for reflected methods. Methods are reflected once for each caller type,
+     * method name and argument type list.
+     */
+    private static final class ReflectedMethodKey {
+        private final Class<?> callerType;
+        private final String functionRefName;
+        private final Class<?>[] paramTypes;
+        private final int hashCode;
+        
+        private ReflectedMethodKey(
+           final Class<?> callerType,
+           final String functionRefName,
+           final Object[] paramList
+           ) {
+           this.callerType = callerType;
+           this.functionRefName = functionRefName;
+           this.paramTypes = new Class<?>[paramList.length];
+           for(int i = 0; i< paramList.length; ++i)
+              paramTypes[i] = paramList[i].getClass();
+           this.hashCode = 31 * (31 * callerType.hashCode() + functionRefName.hashCode())
+              + Arrays.hashCode(paramTypes);
+        }
+        
+        @Override
+        public int hashCode() {
+           return hashCode;
+        }
+        
+        @Override
+        public boolean equals(final Object obj) {
+           if(this == obj)
+              return true;
+           if(!(obj instanceof ReflectedMethodKey))
+              return false;
+           final ReflectedMethodKey other = (ReflectedMethodKey) obj;
+           return callerType == other.callerType
+               && functionRefName.equals(other.functionRefName)
+               && Arrays.equals(paramTypes, other.paramTypes);
+        }
+    }
+    
+    private static final ConcurrentMap<ReflectedMethodKey, Method>
+        reflectedMethods = new ConcurrentHashMap<ReflectedMethodKey, Method>();
+    
     // Enqueue a future event.
     private final static ScheduledMethodInvokation enqueue(   // TODO: Harden
         Object instancePtr, 
@@ -453,16 +658,22 @@ public abstract class Simulation
         if(instancePtr == null || eventOrdering == null)
             throw new IllegalArgumentException(
                 "Simulation.enqueue: null argument.");
-        Class<?> callerType = null;
-        try {
-            callerType = Class.forName(
-                Thread.currentThread().getStackTrace()[3].getClassName());
-        } catch (Exception reflSectException) {
-            Simulation.securityHalt(reflSectException);
+        if(agentLocalEventRandom.get() != null)
+            throw new IllegalStateException(
+                "Simulation.enqueue: agent-local events cannot schedule further events.");
+        final Class<?> callerType = CALLER_RESOLVER.getCallerType(2);
+        if(callerType == null)
+            Simulation.securityHalt(new SecurityException(
+                "Simulation.enqueue: the calling type could not be identified."));
+        final ReflectedMethodKey key =
+            new ReflectedMethodKey(callerType, functionRefName, paramList);
+        Method functionPtr = reflectedMethods.get(key);
+        if(functionPtr == null) {
+            functionPtr = Simulation.secureReflectMethod(
+                callerType, functionRefName, 
+                eventOrdering, paramList);
+            reflectedMethods.putIfAbsent(key, functionPtr);
         }
-        Method functionPtr = Simulation.secureReflectMethod(
-            callerType, functionRefName, 
-            eventOrdering, paramList);
         return new ScheduledMethodInvokation(
             instancePtr, functionPtr, 
             paramList, eventOrdering);
@@ -470,6 +681,7 @@ public abstract class Simulation
     
     public final static void enqueue(
        ScheduledMethodInvokation permittedMethod) {
+       final SimState simulationState = getSimState();
        if(simulationState != null) // Terminated
            permittedMethod.commitSelf(simulationState);
     }
@@ -0,0 +1,279 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.eventbus.EventBus;
+
+import sim.engine.SimState;
+import eu.crisis_economics.abm.contracts.Contract;
+
+/**
+  * Per-run simulation state. A {@link SimulationContext} owns everything that
+  * would otherwise be global to the JVM: the running {@link SimState}, the
+  * simulation {@link EventBus}, the {@link eu.crisis_economics.abm.Agent} and
+  * {@link Contract} instance counters, the agent naming counter, the contract log, and the per-run state
+  * of simulation-wide services (Eg. the stock exchange and the rating agency).<br><br>
+  *
+  * Static accessors such as {@link Simulation#getSimState()} and
+  * {@link Simulation#events()} resolve to the context returned by {@link #current()}.
+  * A context can be bound to the calling thread using {@link #callWithin(Callable)};
+  * while bound, all model construction and scheduling performed by that thread is
+  * confined to the bound context. Threads with no bound context share a single
+  * default context. This preserves the existing behaviour of single-run programs
+  * (including the MASON GUI, which constructs and steps models on distinct threads).<br><br>
+  *
+  * Several models can therefore run concurrently in one JVM, provided that each
+  * model is constructed and stepped by a thread to which its own context is bound.
+  * See {@link ConcurrentSimulationRunner}.<br><br>
+  *
+  * This class is thread-safe in the sense that distinct contexts can be used by
+  * distinct threads. A single context is not safe for concurrent use, except that
+  * the agent naming counter and the per-context state of services may be accessed
+  * by the worker threads of the context (Eg. during phase batches).
+  *
+  * @author phillips
+  */
+public final class SimulationContext {
+
+   private static final SimulationContext
+      sharedContext = new SimulationContext();
+
+   private static final ThreadLocal<SimulationContext>
+      boundContext = new ThreadLocal<SimulationContext>();
+
+   private SimState
+      simulationState;
+   private EventBus
+      eventBus;
+   private long
+      agentsCreated,
+      contractsCreated;
+   private final AtomicLong
+      agentNamesCreated;
+   private final List<Contract>
+      recordedContracts;
+   private final Map<Object, Object>
+      services;
+   private PhaseBatchScheduler
+      phaseBatchScheduler;
+   private volatile long
+      runNumber = 1L;
+
+   public SimulationContext() {
+      this.eventBus = new EventBus("Simulation Event Bus");
+      this.recordedContracts = new ArrayList<Contract>();
+      this.agentNamesCreated = new AtomicLong();
+      this.services = new ConcurrentHashMap<Object, Object>();
+   }
+
+   /**
+     * Get the {@link SimulationContext} for the calling thread. If a context has
+     * been bound to this thread, that context is returned. Otherwise the shared
+     * (default) context is returned. This method does not return {@code null}.
+     */
+   public static SimulationContext current() {
+      final SimulationContext result = boundContext.get();
+      return result == null ? sharedContext : result;
+   }
+
+   /**
+     * Does the calling thread have its own (non-default) {@link SimulationContext}?
+     */
+   public static boolean isBoundToCurrentThread() {
+      return boundContext.get() != null;
+   }
+
+   /**
+     * Execute a {@link Callable} with this context bound to the calling thread.
+     * Any context previously bound to the calling thread is restored when the
+     * {@link Callable} returns or raises an exception.
+     *
+     * @param task
+     *        The task to execute. This argument should not be {@code null}.
+     */
+   public <T> T callWithin(final Callable<T> task) throws Exception {
+      Preconditions.checkNotNull(task);
+      final SimulationContext previous = boundContext.get();
+      boundContext.set(this);
+      try {
+         return task.call();
+      }
+      finally {
+         if(previous == null)
+            boundContext.remove();
+         else
+            boundContext.set(previous);
+      }
+   }
+
+   /**
+     * Execute a {@link Runnable} with this context bound to the calling thread.
+     * See {@link #callWithin(Callable)}.
+     */
+   public void runWithin(final Runnable task) {
+      Preconditions.checkNotNull(task);
+      final SimulationContext previous = boundContext.get();
+      boundContext.set(this);
+      try {
+         task.run();
+      }
+      finally {
+         if(previous == null)
+            boundContext.remove();
+         else
+            boundContext.set(previous);
+      }
+   }
+
+   /**
+     * Get the {@link SimState} registered with this context, or {@code null} if
+     * no such simulation state exists.
+     */
+   public SimState getSimState() {
+      return simulationState;
+   }
+
+   void setSimState(final SimState simulationState) {
+      this.simulationState = simulationState;
+   }
+
+   /**
+     * Get the {@link EventBus} for this context.
+     */
+   public EventBus events() {
+      return eventBus;
+   }
+
+   /**
+     * Discard all event subscribers by replacing the {@link EventBus} for this
+     * context.
+     */
+   void resetEvents() {
+      this.eventBus = new EventBus("Simulation Event Bus");
+   }
+
+   /**
+     * Get the next (unique, in this context) {@link eu.crisis_economics.abm.Agent}
+     * serial number.
+     */
+   public long nextAgentSerial() {
+      return agentsCreated++;
+   }
+
+   /**
+     * Reset the {@link eu.crisis_economics.abm.Agent} serial number and the agent
+     * naming counter.
+     */
+   public void resetAgentSerial() {
+      agentsCreated = 0;
+      agentNamesCreated.set(0);
+   }
+   
+   /**
+     * Get the next (unique, in this context) agent naming serial number. See
+     * {@link eu.crisis_economics.abm.agent.InstanceIDAgentNameFactory}.
+     */
+   public long nextAgentNameSerial() {
+      return agentNamesCreated.getAndIncrement();
+   }
+
+   /**
+     * Get the run number of this context. Model recorders label their output with
+     * this number. The default run number is {@code 1}, as for a standalone run of
+     * the {@code @Recorder} CSV backend. See {@link ConcurrentSimulationRunner}.
+     */
+   public long getRunNumber() {
+      return runNumber;
+   }
+   
+   /**
+     * Set the run number of this context. See {@link #getRunNumber()}.
+     */
+   public void setRunNumber(final long runNumber) {
+      this.runNumber = runNumber;
+   }
+   
+   /**
+     * Get the next (unique, in this context) {@link Contract} serial number.
+     */
+   public long nextContractSerial() {
+      return contractsCreated++;
+   }
+
+   /**
+     * Get a modifiable list of all {@link Contract}{@code s} recorded in this context.
+     */
+   public List<Contract> getRecordedContracts() {
+      return recordedContracts;
+   }
+
+   public void resetContractSerialAndClearLogs() {
+      contractsCreated = 0;
+      recordedContracts.clear();
+   }
+
+   /**
+     * Get the {@link PhaseBatchScheduler} for this context.
+     */
+   PhaseBatchScheduler getPhaseBatchScheduler() {
+      if(phaseBatchScheduler == null)
+         phaseBatchScheduler = new PhaseBatchScheduler();
+      return phaseBatchScheduler;
+   }
+
+   /**
+     * Get the per-context state of a simulation-wide service. Services, such as
+     * the stock exchange, expose a static (singleton) interface but store their
+     * state in the active {@link SimulationContext}.
+     *
+     * @param key
+     *        The service key. This is typically the singleton service instance.
+     * @return
+     *        The state object stored for this key, or {@code null} if no such
+     *        state exists.
+     */
+   public Object getService(final Object key) {
+      return services.get(key);
+   }
+
+   /**
+     * Store the per-context state of a simulation-wide service. See
+     * {@link #getService(Object)}. Neither argument should be {@code null}. State
+     * stored by this method is visible to all threads running within this context.
+     */
+   public void putService(final Object key, final Object state) {
+      Preconditions.checkNotNull(key);
+      Preconditions.checkNotNull(state);
+      services.put(key, state);
+   }
+
+   @Override
+   public String toString() {
+      return "Simulation Context, simulation state: " + simulationState + ", agents created: "
+         + agentsCreated + ", contracts created: " + contractsCreated + ".";
+   }
+}
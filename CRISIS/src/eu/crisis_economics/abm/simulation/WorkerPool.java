@@ -0,0 +1,227 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * A pool of daemon worker threads for fork-join execution within one
+  * {@link SimulationContext}.<br><br>
+  * 
+  * When this pool is asked to execute a list of tasks, the first task is executed
+  * by the calling thread and all other tasks are submitted to worker threads. Each
+  * worker thread executes its task within the {@link SimulationContext} of the 
+  * calling thread. The calling thread then waits for all tasks to complete. If any
+  * task fails, the failure of the first such task (in task order) is rethrown to
+  * the caller once all tasks have completed.<br><br>
+  * 
+  * A pool configured with {@code N} threads has at most {@code N - 1} worker
+  * threads, as the calling thread counts as one thread. Worker threads are created
+  * on demand, and are released when idle. The number of threads can be changed
+  * while tasks are executing: tasks already submitted are completed by the 
+  * existing workers, which are then released.
+  * 
+  * @author phillips
+  */
+public final class WorkerPool {
+   
+   private static final long
+      IDLE_WORKER_KEEP_ALIVE_SECONDS = 60L;
+   
+   private final String
+      threadName;
+   private int
+      numberOfThreads;
+   private ThreadPoolExecutor
+      executor;
+   
+   /**
+     * Create a {@link WorkerPool}.
+     * 
+     * @param threadName
+     *        The name of worker threads. Worker threads are numbered in order of
+     *        creation.
+     * @param numberOfThreads
+     *        The number of threads (including the calling thread). This argument
+     *        should be strictly positive. A value of {@code 1} executes all 
+     *        tasks in sequence on the calling thread.
+     */
+   public WorkerPool(final String threadName, final int numberOfThreads) {
+      Preconditions.checkNotNull(threadName);
+      Preconditions.checkArgument(numberOfThreads > 0);
+      this.threadName = threadName;
+      this.numberOfThreads = numberOfThreads;
+   }
+   
+   /**
+     * Split a list into at most the specified number of contiguous blocks of
+     * (nearly) equal size. The blocks depend only on the length of the list and 
+     * the number of blocks requested. The blocks are views of the list.
+     */
+   public static <T> List<List<T>> partition(final List<T> list, final int numberOfBlocks) {
+      Preconditions.checkArgument(numberOfBlocks > 0);
+      final List<List<T>> result = new ArrayList<List<T>>(numberOfBlocks);
+      if(list.isEmpty())
+         return result;
+      final int elementsPerBlock = (list.size() + numberOfBlocks - 1) / numberOfBlocks;
+      for(int i = 0; i< list.size(); i += elementsPerBlock)
+         result.add(list.subList(i, Math.min(i + elementsPerBlock, list.size())));
+      return result;
+   }
+   
+   /**
+     * Execute all tasks in the list. The first task is executed by the calling 
+     * thread. This method returns when all tasks have completed. If any task
+     * failed, the failure of the first such task (in task order) is rethrown. 
+     * Checked exceptions are wrapped in a {@link FatalSimulationException}.
+     */
+   public void executeAll(final List<? extends Runnable> tasks) {
+      if(tasks.isEmpty())
+         return;
+      final List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size() - 1);
+      if(tasks.size() > 1) {
+         final SimulationContext context = SimulationContext.current();
+         synchronized(this) {                               // No shutdown while submitting
+            if(numberOfThreads > 1) {
+               final ThreadPoolExecutor executor = getExecutor();
+               for(final Runnable task : tasks.subList(1, tasks.size()))
+                  futures.add(executor.submit(new Runnable() {
+                     @Override
+                     public void run() {
+                        context.runWithin(task);
+                     }
+                  }));
+            }
+         }
+         if(futures.isEmpty()) {
+            for(final Runnable task : tasks)
+               task.run();
+            return;
+         }
+      }
+      Throwable firstFailure = null;
+      try {
+         tasks.get(0).run();
+      }
+      catch(final RuntimeException failure) {
+         firstFailure = failure;
+      }
+      catch(final Error failure) {
+         firstFailure = failure;
+      }
+      awaitAll(futures, firstFailure);
+   }
+   
+   /*
+    * Wait for all tasks to complete. If any task failed, the failure of the first
+    * such task (in task order) is rethrown.
+    */
+   private static void awaitAll(final List<Future<?>> futures, Throwable firstFailure) {
+      boolean isInterrupted = false;
+      for(final Future<?> future : futures) {
+         while(true) {
+            try {
+               future.get();
+               break;
+            }
+            catch(final InterruptedException interrupted) {
+               isInterrupted = true;
+            }
+            catch(final ExecutionException failure) {
+               if(firstFailure == null)
+                  firstFailure = failure.getCause();
+               break;
+            }
+         }
+      }
+      if(isInterrupted)
+         Thread.currentThread().interrupt();
+      if(firstFailure instanceof RuntimeException)
+         throw (RuntimeException) firstFailure;
+      if(firstFailure instanceof Error)
+         throw (Error) firstFailure;
+      if(firstFailure != null)
+         throw new FatalSimulationException(firstFailure);
+   }
+   
+   private ThreadPoolExecutor getExecutor() {
+      if(executor == null) {
+         executor = new ThreadPoolExecutor(
+            numberOfThreads - 1, numberOfThreads - 1, 
+            IDLE_WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+               private int
+                  numberOfThreadsCreated;
+               @Override
+               public synchronized Thread newThread(final Runnable runnable) {
+                  final Thread result = new Thread(
+                     runnable, threadName + " " + (++numberOfThreadsCreated));
+                  result.setDaemon(true);
+                  return result;
+               }
+            });
+         executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+   }
+   
+   public synchronized int getNumberOfThreads() {
+      return numberOfThreads;
+   }
+   
+   /**
+     * Set the number of threads (including the calling thread). This argument 
+     * should be strictly positive. Tasks already submitted to worker threads 
+     * are not affected: the existing workers complete these tasks and are then
+     * released. Subsequent tasks are submitted to new workers.
+     */
+   public synchronized void setNumberOfThreads(final int numberOfThreads) {
+      Preconditions.checkArgument(numberOfThreads > 0);
+      if(numberOfThreads == this.numberOfThreads)
+         return;
+      this.numberOfThreads = numberOfThreads;
+      shutdown();
+   }
+   
+   /**
+     * Release all worker threads once their tasks are complete. Worker threads are
+     * recreated on demand.
+     */
+   public synchronized void shutdown() {
+      if(executor != null)
+         executor.shutdown();
+      executor = null;
+   }
+   
+   @Override
+   public String toString() {
+      return "Worker Pool, thread name: " + threadName + ", threads: " 
+         + getNumberOfThreads() + ".";
+   }
+}
@@ -0,0 +1,355 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.utilities;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * A bounded first-in first-out buffer of primitive {@code double} values.<br><br>
+  * 
+  * This buffer stores at most {@link #capacity()} values. When a value is added to a 
+  * full buffer, the oldest value in the buffer is discarded. Values are indexed in 
+  * order of insertion: the value with index {@code 0} is the oldest value in the
+  * buffer, and the value with index {@code size() - 1} is the most recent.<br><br>
+  * 
+  * The mean, the minimum and the maximum of the values in the buffer are maintained
+  * as values are added, and can be queried in {@code O(1)} time. Adding a value 
+  * costs amortized {@code O(1)} time. The running sum of the buffer is recomputed 
+  * exactly once every {@link #capacity()} insertions, so that rounding errors do not 
+  * accumulate over long simulations. The minimum and maximum of the buffer are not 
+  * specified if the buffer contains {@code NaN} values.<br><br>
+  * 
+  * {@link #getReadOnlyView()} provides a read-only {@link java.util.List} view of 
+  * this buffer. The view does not copy the buffer, and reflects all subsequent
+  * changes to the buffer.<br><br>
+  * 
+  * This class is not synchronized.
+  * 
+  * @author phillips
+  */
+public final class DoubleRingBuffer {
+   
+   private final double[]
+      values;
+   
+   private int
+      size,
+      insertionsSinceSumRefresh;
+   
+   private long
+      numberOfInsertions;
+   
+   private double
+      sum;
+   
+   private final MonotonicWedge
+      minimumWedge,
+      maximumWedge;
+   
+   private final ReadOnlyView
+      view;
+   
+   /**
+     * Create an empty {@link DoubleRingBuffer} object.
+     * 
+     * @param capacity
+     *        The maximum number of values to store. This argument should be 
+     *        strictly positive.
+     */
+   public DoubleRingBuffer(final int capacity) {
+      Preconditions.checkArgument(capacity > 0,
+         "DoubleRingBuffer: capacity (value " + capacity + ") must be strictly positive.");
+      this.values = new double[capacity];
+      this.minimumWedge = new MonotonicWedge(capacity, true);
+      this.maximumWedge = new MonotonicWedge(capacity, false);
+      this.view = new ReadOnlyView();
+   }
+   
+   /**
+     * Add a value to this buffer. If the buffer is full, the oldest value in the
+     * buffer is discarded.
+     */
+   public void add(final double value) {
+      final int
+         position = (int) (numberOfInsertions % values.length);
+      if(size == values.length)
+         sum -= values[position];
+      else
+         ++size;
+      values[position] = value;
+      sum += value;
+      
+      final long
+         oldestInsertion = numberOfInsertions + 1 - size;
+      minimumWedge.expire(oldestInsertion);
+      maximumWedge.expire(oldestInsertion);
+      minimumWedge.add(numberOfInsertions, value);
+      maximumWedge.add(numberOfInsertions, value);
+      ++numberOfInsertions;
+      
+      if(++insertionsSinceSumRefresh >= values.length) {
+         sum = 0.;
+         for(long i = numberOfInsertions - size; i< numberOfInsertions; ++i)
+            sum += valueOf(i);
+         insertionsSinceSumRefresh = 0;
+      }
+   }
+   
+   /**
+     * Discard all values in this buffer.
+     */
+   public void clear() {
+      size = 0;
+      numberOfInsertions = 0;
+      sum = 0.;
+      insertionsSinceSumRefresh = 0;
+      minimumWedge.clear();
+      maximumWedge.clear();
+   }
+   
+   /**
+     * Get the maximum number of values this buffer can store.
+     */
+   public int capacity() {
+      return values.length;
+   }
+   
+   /**
+     * Get the number of values in this buffer.
+     */
+   public int size() {
+      return size;
+   }
+   
+   /**
+     * Returns {@code true} if this buffer contains no values.
+     */
+   public boolean isEmpty() {
+      return size == 0;
+   }
+   
+   /**
+     * Get the value with the specified index. The oldest value in the buffer has
+     * index {@code 0}.
+     * 
+     * @throws IndexOutOfBoundsException
+     *         if the index is negative or not less than {@link #size()}.
+     */
+   public double get(final int index) {
+      if(index < 0 || index >= size)
+         throw new IndexOutOfBoundsException(
+            "DoubleRingBuffer.get: index " + index + " is out of bounds (size " + size 
+          + ").");
+      return valueOf(numberOfInsertions - size + index);
+   }
+   
+   /**
+     * Get the most recent value in this buffer, or {@code NaN} if the buffer is
+     * empty.
+     */
+   public double getLatest() {
+      return size == 0 ? Double.NaN : valueOf(numberOfInsertions - 1);
+   }
+   
+   /**
+     * Get the oldest value in this buffer, or {@code NaN} if the buffer is empty.
+     */
+   public double getOldest() {
+      return size == 0 ? Double.NaN : valueOf(numberOfInsertions - size);
+   }
+   
+   /**
+     * Get the mean of the values in this buffer, or {@code NaN} if the buffer is
+     * empty.
+     */
+   public double getMean() {
+      return size == 0 ? Double.NaN : sum / size;
+   }
+   
+   /**
+     * Get the smallest value in this buffer, or {@code NaN} if the buffer is empty.
+     */
+   public double getMinimum() {
+      return size == 0 ? Double.NaN : valueOf(minimumWedge.front());
+   }
+   
+   /**
+     * Get the largest value in this buffer, or {@code NaN} if the buffer is empty.
+     */
+   public double getMaximum() {
+      return size == 0 ? Double.NaN : valueOf(maximumWedge.front());
+   }
+   
+   /**
+     * Copy the values in this buffer, oldest first, to a new array.
+     */
+   public double[] toArray() {
+      final double[] result = new double[size];
+      for(int i = 0; i< size; ++i)
+         result[i] = valueOf(numberOfInsertions - size + i);
+      return result;
+   }
+   
+   /**
+     * Get a read-only view of this buffer. The view does not copy the contents of
+     * this buffer, and reflects all subsequent changes to this buffer. The same
+     * view object is returned by every call to this method.
+     */
+   public ReadOnlyView getReadOnlyView() {
+      return view;
+   }
+   
+   private double valueOf(final long insertion) {
+      return values[(int) (insertion % values.length)];
+   }
+   
+   /**
+     * A read-only {@link java.util.List} view of a {@link DoubleRingBuffer}. In 
+     * addition to the {@link java.util.List} interface, this view provides 
+     * primitive access to the values, the mean, the minimum and the maximum of
+     * the underlying buffer. Methods which would modify the view throw {@link 
+     * UnsupportedOperationException}.
+     * 
+     * @author phillips
+     */
+   public final class ReadOnlyView extends AbstractList<Double> implements RandomAccess {
+      
+      private ReadOnlyView() { }
+      
+      @Override
+      public Double get(final int index) {
+         return DoubleRingBuffer.this.get(index);
+      }
+      
+      @Override
+      public int size() {
+         return size;
+      }
+      
+      /**
+        * Get the value with the specified index, without boxing. See {@link 
+        * DoubleRingBuffer#get(int)}.
+        */
+      public double getValue(final int index) {
+         return DoubleRingBuffer.this.get(index);
+      }
+      
+      /**
+        * See {@link DoubleRingBuffer#getLatest()}.
+        */
+      public double getLatest() {
+         return DoubleRingBuffer.this.getLatest();
+      }
+      
+      /**
+        * See {@link DoubleRingBuffer#getOldest()}.
+        */
+      public double getOldest() {
+         return DoubleRingBuffer.this.getOldest();
+      }
+      
+      /**
+        * See {@link DoubleRingBuffer#getMean()}.
+        */
+      public double getMean() {
+         return DoubleRingBuffer.this.getMean();
+      }
+      
+      /**
+        * See {@link DoubleRingBuffer#getMinimum()}.
+        */
+      public double getMinimum() {
+         return DoubleRingBuffer.this.getMinimum();
+      }
+      
+      /**
+        * See {@link DoubleRingBuffer#getMaximum()}.
+        */
+      public double getMaximum() {
+         return DoubleRingBuffer.this.getMaximum();
+      }
+      
+      /**
+        * See {@link DoubleRingBuffer#capacity()}.
+        */
+      public int capacity() {
+         return values.length;
+      }
+      
+      /**
+        * See {@link DoubleRingBuffer#toArray()}.
+        */
+      public double[] toDoubleArray() {
+         return DoubleRingBuffer.this.toArray();
+      }
+   }
+   
+   /**
+     * A monotonic double-ended queue of insertion numbers. The values of the 
+     * insertions in this queue are nondecreasing (for a minimum wedge) or 
+     * nonincreasing (for a maximum wedge) from front to back, so that the front 
+     * of the queue is the extremum of the buffer.
+     */
+   private final class MonotonicWedge {
+      private final long[]
+         insertions;
+      private final boolean
+         isMinimum;
+      private int
+         head,
+         length;
+      
+      private MonotonicWedge(final int capacity, final boolean isMinimum) {
+         this.insertions = new long[capacity];
+         this.isMinimum = isMinimum;
+      }
+      
+      private void add(final long insertion, final double value) {
+         while(length > 0) {
+            final double
+               back = valueOf(insertions[(head + length - 1) % insertions.length]);
+            if(isMinimum ? back >= value : back <= value)
+               --length;
+            else
+               break;
+         }
+         insertions[(head + length) % insertions.length] = insertion;
+         ++length;
+      }
+      
+      private void expire(final long oldestInsertion) {
+         while(length > 0 && insertions[head] < oldestInsertion) {
+            head = (head + 1) % insertions.length;
+            --length;
+         }
+      }
+      
+      private long front() {
+         return insertions[head];
+      }
+      
+      private void clear() {
+         head = 0;
+         length = 0;
+      }
+   }
+}
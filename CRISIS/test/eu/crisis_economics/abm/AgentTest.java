@@ -21,7 +21,11 @@
 package eu.crisis_economics.abm;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
+import java.util.List;
 import java.util.Set;
 
 import org.testng.annotations.AfterMethod;
@@ -29,6 +33,13 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import eu.crisis_economics.abm.agent.AgentOperation;
+import eu.crisis_economics.abm.bank.StrategyBank;
+import eu.crisis_economics.abm.bank.strategies.EmptyBankStrategy;
+import eu.crisis_economics.abm.contracts.Contract;
+import eu.crisis_economics.abm.contracts.FixedValueContract;
+import eu.crisis_economics.abm.contracts.loans.LenderInsufficientFundsException;
+import eu.crisis_economics.abm.contracts.loans.Loan;
+import eu.crisis_economics.abm.contracts.loans.LoanFactory;
 import eu.crisis_economics.abm.markets.nonclearing.CommercialLoanMarket;
 import eu.crisis_economics.abm.simulation.EmptySimulation;
 import eu.crisis_economics.abm.simulation.Simulation;
@@ -84,6 +95,61 @@ public class AgentTest {
         assertEquals(foundMarkets.iterator().next(), market);
     }
 
+    /**
+      * Test that the typed contract indices of an {@link Agent} are maintained
+      * as contracts are added and removed, that the views returned by the index
+      * are read-only snapshots, and that repeated queries return the same view.
+      */
+    @Test
+    public void testTypedContractIndices() throws LenderInsufficientFundsException {
+        System.out.println(this.getClass().getSimpleName() + 
+            ".testTypedContractIndices..");
+        final StrategyBank
+            lender = new StrategyBank(100., EmptyBankStrategy.factory()),
+            borrower = new StrategyBank(100., EmptyBankStrategy.factory());
+        final Contract
+            other = new FixedValueContract(Double.POSITIVE_INFINITY, 0., 5., 5.);
+        lender.addAsset(other);
+        final Loan
+            first = LoanFactory.createFixedRateMortgage(borrower, lender, 10., .01, 10),
+            second = LoanFactory.createFixedRateMortgage(borrower, lender, 20., .01, 10);
+        
+        final List<Contract> assets = lender.getAssets();
+        final List<Loan> loans = lender.getAssetLoans();
+        assertEquals(assets.size(), 4);                           // Cash, other, two loans
+        assertEquals(loans.size(), 2);
+        assertSame(loans.get(0), first);
+        assertSame(loans.get(1), second);
+        assertSame(lender.getAssetLoans(), loans);
+        assertSame(lender.getAssets(), assets);
+        assertEquals(borrower.getLiabilitiesLoans().size(), 2);
+        assertTrue(lender.getAssetDeposits().isEmpty());
+        
+        double expectedTotalAssets = 0.;
+        for(final Contract contract : assets)
+           expectedTotalAssets += contract.getValue();
+        assertEquals(lender.getTotalAssets(), expectedTotalAssets, 1.e-12);
+        
+        try {
+           loans.remove(0);
+           fail();
+        }
+        catch(final UnsupportedOperationException expected) { }
+        
+        // Existing views are snapshots:
+        assertTrue(lender.removeAsset((Contract) first));
+        assertEquals(loans.size(), 2);
+        assertEquals(assets.size(), 4);
+        assertEquals(lender.getAssetLoans().size(), 1);
+        assertSame(lender.getAssetLoans().get(0), second);
+        assertEquals(lender.getAssets().size(), 3);
+        assertTrue(!lender.removeAsset((Contract) first));
+        
+        assertTrue(lender.removeAsset(other));
+        assertEquals(lender.getAssetLoans().size(), 1);
+        assertEquals(lender.getAssets().size(), 2);
+    }
+
     // Standalone test
     static public void main(String args[]) {
         {
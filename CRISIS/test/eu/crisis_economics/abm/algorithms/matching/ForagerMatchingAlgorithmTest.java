@@ -0,0 +1,175 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import sim.engine.SimState;
+import ec.util.MersenneTwisterFast;
+import eu.crisis_economics.abm.algorithms.matching.Matching.OneToOneMatch;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+
+/**
+  * Unit tests for the {@link MatchingWorkspace} implementation of the 
+  * {@link ForagerMatchingAlgorithm}.
+  * 
+  * @author phillips
+  */
+public class ForagerMatchingAlgorithmTest {
+   private SimState state;
+   
+   @BeforeMethod
+   public void setUp() {
+      System.out.println("Testing ForagerMatchingAlgorithmTest..");
+      state = new EmptySimulation(0L);
+      state.start();
+   }
+   
+   /**
+     * Test that {@link ForagerMatchingAlgorithm#matchNodes(MatchingWorkspace, 
+     * MatchListener)} identifies exactly the same trades as {@link 
+     * ForagerMatchingAlgorithm#matchNodes(java.util.Collection, java.util.Collection)}
+     * when the workspace is seeded with the value drawn by the latter. This test 
+     * reuses one {@link MatchingWorkspace} and one {@link MatchBuffer} for 
+     * sessions of varying sizes.
+     */
+   @Test
+   public void testWorkspaceMatchingIsEquivalentToNodeMatching()
+      throws InvalidAlgorithmParameterException {
+      final ForagerMatchingAlgorithm algorithm =
+         new ForagerMatchingAlgorithm(new HomogeneousRationingAlgorithm());
+      final MatchingWorkspace workspace = new MatchingWorkspace();
+      final MatchBuffer buffer = new MatchBuffer();
+      final Random dice = new Random(1L);
+      
+      for(int session = 0; session< 50; ++session) {
+         final List<SimpleNode>
+            sellers = createNodes(dice, 1 + dice.nextInt(100)),
+            buyers = createNodes(dice, 1 + dice.nextInt(100));
+         
+         final long seed = ((MersenneTwisterFast) state.random.clone()).nextLong();
+         final Matching expected = algorithm.matchNodes(sellers, buyers);
+         
+         workspace.clear();
+         buffer.clear();
+         for(final SimpleNode node : sellers)
+            workspace.addLeftNode(
+               node.getPricePerUnit(), node.getVolume(), node.getObjectReference());
+         for(final SimpleNode node : buyers)
+            workspace.addRightNode(
+               node.getPricePerUnit(), node.getVolume(), node.getObjectReference());
+         workspace.setSeed(seed);
+         algorithm.matchNodes(workspace, buffer);
+         
+         int index = 0;
+         final Iterator<OneToOneMatch> trades = expected.iterator();
+         for(; trades.hasNext(); ++index) {
+            final OneToOneMatch trade = trades.next();
+            Assert.assertTrue(index < buffer.size());
+            Assert.assertSame(
+               workspace.getLeftObjectReference(buffer.getLeftIndex(index)),
+               trade.leftNode.getObjectReference());
+            Assert.assertSame(
+               workspace.getRightObjectReference(buffer.getRightIndex(index)),
+               trade.rightNode.getObjectReference());
+            Assert.assertEquals(buffer.getMatchAmount(index), trade.matchAmount, 0.);
+            Assert.assertEquals(buffer.getMatchCost(index), trade.matchCost, 0.);
+         }
+         Assert.assertEquals(buffer.size(), index);
+      }
+   }
+   
+   /**
+     * Test that a reused {@link MatchingWorkspace} rations supply and demand 
+     * homogeneously, and that every node trades exactly its rationed volume.
+     */
+   @Test
+   public void testReusedWorkspaceConservesRationedVolumes()
+      throws InvalidAlgorithmParameterException {
+      final ForagerMatchingAlgorithm algorithm =
+         new ForagerMatchingAlgorithm(new HomogeneousRationingAlgorithm());
+      final MatchingWorkspace workspace = new MatchingWorkspace();
+      final MatchBuffer buffer = new MatchBuffer();
+      final Random dice = new Random(2L);
+      
+      final int[][] sizes = { { 1000, 5 }, { 5, 1000 }, { 3, 3 }, { 200, 300 } };
+      for(final int[] size : sizes) {
+         workspace.clear();
+         buffer.clear();
+         final double[]
+            sellerVolumes = new double[size[0]],
+            buyerVolumes = new double[size[1]];
+         double
+            totalSupply = 0.,
+            totalDemand = 0.;
+         for(int i = 0; i< size[0]; ++i) {
+            sellerVolumes[i] = .5 + dice.nextDouble();
+            totalSupply += sellerVolumes[i];
+            workspace.addLeftNode(1., sellerVolumes[i], i);
+         }
+         for(int i = 0; i< size[1]; ++i) {
+            buyerVolumes[i] = .5 + dice.nextDouble();
+            totalDemand += buyerVolumes[i];
+            workspace.addRightNode(.5 + dice.nextDouble(), buyerVolumes[i], i);
+         }
+         workspace.setSeed(dice.nextLong());
+         algorithm.matchNodes(workspace, buffer);
+         
+         final double[]
+            supplyGiven = new double[size[0]],
+            demandTaken = new double[size[1]];
+         for(int i = 0; i< buffer.size(); ++i) {
+            supplyGiven[buffer.getLeftIndex(i)] += buffer.getMatchAmount(i);
+            demandTaken[buffer.getRightIndex(i)] += buffer.getMatchAmount(i);
+            Assert.assertEquals(
+               workspace.getLeftObjectReference(buffer.getLeftIndex(i)),
+               buffer.getLeftIndex(i));
+         }
+         final double
+            supplyRation = Math.min(totalDemand / totalSupply, 1.),
+            demandRation = Math.min(totalSupply / totalDemand, 1.);
+         for(int i = 0; i< size[0]; ++i)
+            Assert.assertEquals(supplyGiven[i], sellerVolumes[i] * supplyRation, 1.e-10);
+         for(int i = 0; i< size[1]; ++i)
+            Assert.assertEquals(demandTaken[i], buyerVolumes[i] * demandRation, 1.e-10);
+      }
+   }
+   
+   private static List<SimpleNode> createNodes(final Random dice, final int number) {
+      final List<SimpleNode> result = new ArrayList<SimpleNode>();
+      for(int i = 0; i< number; ++i)
+         result.add(new SimpleNode(
+            .5 + dice.nextDouble(), dice.nextInt(4) == 0 ? 0. : dice.nextDouble(), i));
+      return result;
+   }
+   
+   @AfterMethod
+   public void tearDown() {
+      state.finish();
+   }
+}
@@ -0,0 +1,326 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.algorithms.matching;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.algorithms.matching.Matching.OneToOneMatch;
+
+/**
+  * Unit tests for the {@link SortedCallAuction}.
+  * 
+  * @author phillips
+  */
+public class SortedCallAuctionTest {
+   
+   /**
+     * Test whether the {@link SortedCallAuction} finds the same auction price and
+     * the same auction volume as a {@link CallAuction}. This test generates random
+     * order books with integer volumes (so that cumulative volumes are exact) and
+     * a small number of distinct prices (so that many candidate prices yield the 
+     * same trade volume). The total volume traded by the {@link SortedCallAuction} 
+     * is expected to equal the auction volume, and no participant who is priced 
+     * out of the auction is expected to trade.
+     */
+   @Test
+   public void testPriceDiscoveryAgreesWithCallAuction()
+      throws InvalidAlgorithmParameterException {
+      final Random dice = new Random(1L);
+      for(int session = 0; session< 200; ++session) {
+         final List<SimpleNode>
+            sellers = createNodes(dice, 1 + dice.nextInt(40), true),
+            buyers = createNodes(dice, 1 + dice.nextInt(40), true);
+         final CallAuction expected = new CallAuction(new HomogeneousRationingAlgorithm());
+         expected.matchNodes(sellers, buyers);
+         final Matching result = 
+            new SortedCallAuction(new HomogeneousRationingAlgorithm()).matchNodes(sellers, buyers);
+         
+         double totalTrade = 0.;
+         for(final OneToOneMatch match : result) {
+            Assert.assertEquals(match.matchCost, expected.auctionPriceResult(), 0.);
+            Assert.assertTrue(match.leftNode.getPricePerUnit() <= match.matchCost);
+            Assert.assertTrue(match.rightNode.getPricePerUnit() >= match.matchCost);
+            totalTrade += match.matchAmount;
+         }
+         Assert.assertEquals(totalTrade, expected.auctionTotalTrade(), 1.e-9);
+      }
+   }
+   
+   /**
+     * Test whether the {@link SortedCallAuction} trades the same volume with each
+     * participant as a {@link CallAuction} when no participant is priced out of the
+     * auction. This test is repeated for {@link HomogeneousRationingAlgorithm} and 
+     * {@link WorstPropositionRationing}, and for an unknown {@link 
+     * RationingAlgorithm} (which cannot ration sorted books directly).
+     */
+   @Test
+   public void testParticipantVolumesAgreeWithCallAuction()
+      throws InvalidAlgorithmParameterException {
+      final Random dice = new Random(2L);
+      final RationingAlgorithm unknownRationing = new RationingAlgorithm() {
+         @Override
+         public void rationNodes(
+            final Collection<ComputeNode> leftNodes,
+            final Collection<ComputeNode> rightNodes
+            ) throws InvalidAlgorithmParameterException {
+            new WorstPropositionRationing().rationNodes(leftNodes, rightNodes);
+         }
+      };
+      for(int session = 0; session< 100; ++session) {
+         final List<SimpleNode>
+            sellers = createNodes(dice, 1 + dice.nextInt(30), false),
+            buyers = new ArrayList<SimpleNode>();
+         for(int i = 1 + dice.nextInt(30); i > 0; --i)                 // All buyers in market
+            buyers.add(new SimpleNode(2., 1. + 10. * dice.nextDouble(), buyers.size()));
+         
+         for(final RationingAlgorithm[] rationing : new RationingAlgorithm[][] {
+               { new HomogeneousRationingAlgorithm(), new HomogeneousRationingAlgorithm() },
+               { new WorstPropositionRationing(), new WorstPropositionRationing() },
+               { new WorstPropositionRationing(), unknownRationing } 
+               }) {
+            final Matching
+               expected = new CallAuction(rationing[0]).matchNodes(sellers, buyers),
+               result = new SortedCallAuction(rationing[1]).matchNodes(sellers, buyers);
+            assertArrayEquals(
+               getTradeVolumes(result, sellers.size(), true),
+               getTradeVolumes(expected, sellers.size(), true)
+               );
+            assertArrayEquals(
+               getTradeVolumes(result, buyers.size(), false),
+               getTradeVolumes(expected, buyers.size(), false)
+               );
+         }
+      }
+   }
+   
+   /**
+     * Document the allocation in which the {@link SortedCallAuction} differs from
+     * the {@link CallAuction}. One seller asks {@code 1.0} for {@code 10} units. 
+     * The first buyer bids {@code 0.5} for {@code 10} units, and is priced out of
+     * the auction. The second buyer bids {@code 2.0} for {@code 20} units. Both
+     * algorithms choose the auction price {@code 2.0} and trade {@code 10} units.
+     * The {@link CallAuction} rations both buyers to half of their volumes, so that
+     * the priced out buyer trades {@code 5} units, whereas the {@link 
+     * SortedCallAuction} rations only the second buyer, which trades {@code 10} 
+     * units.
+     */
+   @Test
+   public void testPricedOutParticipantsAreNotRationed()
+      throws InvalidAlgorithmParameterException {
+      final List<SimpleNode>
+         sellers = new ArrayList<SimpleNode>(),
+         buyers = new ArrayList<SimpleNode>();
+      sellers.add(new SimpleNode(1., 10., 0));
+      buyers.add(new SimpleNode(.5, 10., 0));                           // Priced out
+      buyers.add(new SimpleNode(2., 20., 1));
+      final CallAuction callAuction = new CallAuction(new HomogeneousRationingAlgorithm());
+      final Matching
+         expected = callAuction.matchNodes(sellers, buyers),
+         result = new SortedCallAuction(
+            new HomogeneousRationingAlgorithm()).matchNodes(sellers, buyers);
+      Assert.assertEquals(callAuction.auctionPriceResult(), 2., 0.);
+      Assert.assertEquals(callAuction.auctionTotalTrade(), 10., 0.);
+      for(final Matching matching : new Matching[] { expected, result })
+         for(final OneToOneMatch match : matching)
+            Assert.assertEquals(match.matchCost, 2., 0.);
+      assertArrayEquals(
+         getTradeVolumes(expected, buyers.size(), false), new double[] { 5., 5. });
+      assertArrayEquals(
+         getTradeVolumes(result, buyers.size(), false), new double[] { 0., 10. });
+      assertArrayEquals(
+         getTradeVolumes(expected, sellers.size(), true), new double[] { 10. });
+      assertArrayEquals(
+         getTradeVolumes(result, sellers.size(), true), new double[] { 10. });
+   }
+   
+   /**
+     * Test that the {@link SortedCallAuction} conserves volume with {@link 
+     * RandomDenyRationing}, and that a reused {@link MatchingWorkspace} yields the 
+     * same trades as the {@link Collection} interface when both are given the same
+     * seed.
+     */
+   @Test
+   public void testRandomDenyRationingConservesVolume()
+      throws InvalidAlgorithmParameterException {
+      final Random dice = new Random(3L);
+      final MatchingWorkspace workspace = new MatchingWorkspace();
+      final MatchBuffer buffer = new MatchBuffer();
+      final SortedCallAuction
+         first = new SortedCallAuction(new RandomDenyRationing(.5)),
+         second = new SortedCallAuction(new RandomDenyRationing(.5));
+      for(int session = 0; session< 100; ++session) {
+         final List<SimpleNode>
+            sellers = createNodes(dice, 1 + dice.nextInt(50), false),
+            buyers = createNodes(dice, 1 + dice.nextInt(50), false);
+         final Matching expected = first.matchNodes(sellers, buyers);
+         workspace.clear();
+         buffer.clear();
+         for(final SimpleNode node : sellers)
+            workspace.addLeftNode(node.getPricePerUnit(), node.getVolume(), null);
+         for(final SimpleNode node : buyers)
+            workspace.addRightNode(node.getPricePerUnit(), node.getVolume(), null);
+         workspace.setSeed(1L);
+         second.matchNodes(workspace, buffer);
+         
+         int index = 0;
+         double totalTrade = 0.;
+         for(final OneToOneMatch match : expected) {
+            Assert.assertTrue(index < buffer.size());
+            Assert.assertEquals(
+               buffer.getLeftIndex(index), match.leftNode.getObjectReference());
+            Assert.assertEquals(
+               buffer.getRightIndex(index), match.rightNode.getObjectReference());
+            Assert.assertEquals(buffer.getMatchAmount(index), match.matchAmount, 0.);
+            Assert.assertEquals(buffer.getMatchCost(index), match.matchCost, 0.);
+            totalTrade += match.matchAmount;
+            ++index;
+         }
+         Assert.assertEquals(index, buffer.size());
+         
+         final double[]
+            sold = getTradeVolumes(expected, sellers.size(), true),
+            bought = getTradeVolumes(expected, buyers.size(), false);
+         double totalSold = 0., totalBought = 0.;
+         for(int i = 0; i< sold.length; ++i) {
+            Assert.assertTrue(sold[i] <= sellers.get(i).getVolume() + 1.e-12);
+            totalSold += sold[i];
+         }
+         for(int i = 0; i< bought.length; ++i) {
+            Assert.assertTrue(bought[i] <= buyers.get(i).getVolume() + 1.e-12);
+            totalBought += bought[i];
+         }
+         Assert.assertEquals(totalSold, totalTrade, 1.e-9);
+         Assert.assertEquals(totalBought, totalTrade, 1.e-9);
+      }
+   }
+   
+   /**
+     * Test that one {@link SortedCallAuction} with {@link RandomDenyRationing}, 
+     * shared by several workspaces, yields the same trades whether the workspaces
+     * are processed in sequence on one thread or concurrently on several threads.
+     */
+   @Test
+   public void testRandomDenyRationingIsIndependentOfThreads()
+      throws Exception {
+      final int numberOfWorkspaces = 16;
+      final SortedCallAuction algorithm = 
+         new SortedCallAuction(new RandomDenyRationing(.5));
+      final List<MatchingWorkspace> workspaces = new ArrayList<MatchingWorkspace>();
+      final Random dice = new Random(5L);
+      for(int i = 0; i< numberOfWorkspaces; ++i) {
+         final MatchingWorkspace workspace = new MatchingWorkspace();
+         for(final SimpleNode node : createNodes(dice, 200, false))
+            workspace.addLeftNode(node.getPricePerUnit(), node.getVolume(), null);
+         for(final SimpleNode node : createNodes(dice, 200, false))
+            workspace.addRightNode(node.getPricePerUnit(), node.getVolume(), null);
+         workspaces.add(workspace);
+      }
+      final List<MatchBuffer> expected = new ArrayList<MatchBuffer>();
+      for(int i = 0; i< numberOfWorkspaces; ++i) {
+         final MatchBuffer buffer = new MatchBuffer();
+         workspaces.get(i).setSeed(i);
+         algorithm.matchNodes(workspaces.get(i), buffer);
+         expected.add(buffer);
+      }
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      final List<Future<MatchBuffer>> results = new ArrayList<Future<MatchBuffer>>();
+      for(int i = 0; i< numberOfWorkspaces; ++i) {
+         final MatchingWorkspace workspace = workspaces.get(i);
+         workspace.setSeed(i);
+         results.add(executor.submit(new Callable<MatchBuffer>() {
+            @Override
+            public MatchBuffer call() throws InvalidAlgorithmParameterException {
+               final MatchBuffer buffer = new MatchBuffer();
+               algorithm.matchNodes(workspace, buffer);
+               return buffer;
+            }
+         }));
+      }
+      try {
+         for(int i = 0; i< numberOfWorkspaces; ++i) {
+            final MatchBuffer
+               result = results.get(i).get(),
+               reference = expected.get(i);
+            Assert.assertEquals(result.size(), reference.size());
+            for(int k = 0; k< reference.size(); ++k) {
+               Assert.assertEquals(result.getLeftIndex(k), reference.getLeftIndex(k));
+               Assert.assertEquals(result.getRightIndex(k), reference.getRightIndex(k));
+               Assert.assertEquals(result.getMatchAmount(k), reference.getMatchAmount(k), 0.);
+               Assert.assertEquals(result.getMatchCost(k), reference.getMatchCost(k), 0.);
+            }
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+   
+   /**
+     * Create a list of nodes with random prices and volumes. The object reference
+     * of each node is its index in the list.
+     */
+   private static List<SimpleNode> createNodes(
+      final Random dice,
+      final int numberOfNodes,
+      final boolean isDiscrete
+      ) {
+      final List<SimpleNode> result = new ArrayList<SimpleNode>();
+      for(int i = 0; i< numberOfNodes; ++i) {
+         if(isDiscrete)
+            result.add(new SimpleNode(
+               1. + .25 * dice.nextInt(5), 1. + dice.nextInt(10), i));
+         else
+            result.add(new SimpleNode(
+               .5 + dice.nextDouble(), 1. + 10. * dice.nextDouble(), i));
+      }
+      return result;
+   }
+   
+   /**
+     * Get the total volume traded by each left (or right) node in a matching.
+     */
+   private static double[] getTradeVolumes(
+      final Matching matching,
+      final int numberOfNodes,
+      final boolean isLeft
+      ) {
+      final double[] result = new double[numberOfNodes];
+      for(final OneToOneMatch match : matching) {
+         final Node node = isLeft ? match.leftNode : match.rightNode;
+         result[(Integer) node.getObjectReference()] += match.matchAmount;
+      }
+      return result;
+   }
+   
+   private static void assertArrayEquals(final double[] actual, final double[] expected) {
+      Assert.assertEquals(actual.length, expected.length);
+      for(int i = 0; i< actual.length; ++i)
+         Assert.assertEquals(actual[i], expected[i], 1.e-9);
+   }
+}
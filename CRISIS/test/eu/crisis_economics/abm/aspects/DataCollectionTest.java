@@ -0,0 +1,214 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.aspects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+import eu.crisis_economics.abm.annotation.Collect;
+import eu.crisis_economics.abm.annotation.Collect.ChangeType;
+import eu.crisis_economics.abm.annotation.ReportKey;
+import eu.crisis_economics.abm.annotation.ReportSource;
+import eu.crisis_economics.abm.annotation.ReportValue;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.Simulation;
+import eu.crisis_economics.abm.simulation.SimulationContext;
+
+/**
+  * Unit tests for the {@link DataCollection} aspect. These tests call the aspect
+  * directly, and do not require load-time weaving.
+  * 
+  * @author phillips
+  */
+public class DataCollectionTest {
+   
+   static final class Collector {
+      @Collect("value")
+      List<Object> values = new ArrayList<Object>();
+      
+      @Collect("value")
+      int lastValue;
+      
+      @Collect("value")
+      Object lastNumber = Integer.valueOf(0);
+      
+      @Collect(value = "value", changeType = ChangeType.COLLECTION_ADD)
+      List<Object> additions = new ArrayList<Object>();
+      
+      final List<String> calls = new ArrayList<String>();
+      
+      @Collect("value")
+      void collect(
+         @ReportKey final String key,
+         @ReportValue final Object value,
+         @ReportSource final Object source
+         ) {
+         calls.add(key + ":" + value + ":" + source);
+      }
+   }
+   
+   /**
+     * Test that reports are delivered to collector fields and methods immediately
+     * when reports are not buffered, and that only mutable values are copied.
+     */
+   @Test
+   public void testImmediateDelivery() {
+      final DataCollection aspect = new DataCollection();
+      aspect.setReportBufferCapacity(0);
+      final Collector collector = new Collector();
+      aspect.findUseNewsFields(collector);
+      
+      final String immutable = new String("report");
+      aspect.report("value", 3, "source", ChangeType.CHANGE);
+      aspect.report("value", immutable, "source", ChangeType.CHANGE);
+      final List<Integer> mutable = new ArrayList<Integer>(Arrays.asList(1, 2));
+      aspect.report("value", mutable, "source", ChangeType.COLLECTION_ADD);
+      aspect.report("other", 4, "source", ChangeType.CHANGE);
+      
+      Assert.assertEquals(collector.values, Arrays.<Object>asList(3, "report", mutable));
+      Assert.assertSame(collector.values.get(1), immutable);
+      Assert.assertNotSame(collector.values.get(2), mutable);
+      Assert.assertEquals(collector.lastValue, 3);
+      Assert.assertEquals(collector.lastNumber, 3);
+      Assert.assertEquals(collector.additions, Arrays.<Object>asList(mutable));
+      Assert.assertNotSame(collector.additions.get(0), mutable);
+      Assert.assertEquals(collector.calls, Arrays.asList(
+         "value:3:source", "value:report:source", "value:[1, 2]:source"));
+   }
+   
+   /**
+     * Test that buffered reports are delivered once, at the end of the simulation 
+     * cycle, and that the oldest reports are discarded when a buffer is full.
+     */
+   @Test
+   public void testBufferedDelivery() {
+      final Simulation simulation = new EmptySimulation(1L);
+      simulation.start();
+      simulation.schedule.scheduleRepeating(new Steppable() {                // Keep time moving
+         private static final long serialVersionUID = 1L;
+         @Override
+         public void step(final SimState state) { }
+      });
+      try {
+         final DataCollection aspect = new DataCollection();
+         aspect.setReportBufferCapacity(3);
+         final Collector collector = new Collector();
+         aspect.findUseNewsFields(collector);
+         
+         for(int i = 0; i< 5; ++i)
+            aspect.report("value", i, "source", ChangeType.CHANGE);
+         Assert.assertTrue(collector.values.isEmpty());
+         Assert.assertEquals(aspect.getNumberOfDiscardedReports(), 2);
+         
+         runToEndOfCycle(simulation);
+         Assert.assertEquals(collector.values, Arrays.<Object>asList(2, 3, 4));
+         Assert.assertEquals(collector.lastValue, 4);
+         Assert.assertEquals(collector.calls.size(), 3);
+         
+         aspect.report("value", 5, "source", ChangeType.CHANGE);
+         Assert.assertEquals(collector.values.size(), 3);
+         runToEndOfCycle(simulation);
+         Assert.assertEquals(collector.values, Arrays.<Object>asList(2, 3, 4, 5));
+      }
+      finally {
+         simulation.finish();
+      }
+   }
+   
+   /**
+     * Test that a buffered mutable value is copied when it is reported, and that
+     * collectors do not share the buffered copy.
+     */
+   @Test
+   public void testBufferedValuesAreCopiedWhenReported() {
+      final Simulation simulation = new EmptySimulation(1L);
+      simulation.start();
+      simulation.schedule.scheduleRepeating(new Steppable() {                // Keep time moving
+         private static final long serialVersionUID = 1L;
+         @Override
+         public void step(final SimState state) { }
+      });
+      try {
+         final DataCollection aspect = new DataCollection();
+         aspect.setReportBufferCapacity(3);
+         final Collector
+            first = new Collector(),
+            second = new Collector();
+         aspect.findUseNewsFields(first);
+         aspect.findUseNewsFields(second);
+         
+         final List<Integer> mutable = new ArrayList<Integer>(Arrays.asList(1, 2));
+         aspect.report("value", mutable, "source", ChangeType.CHANGE);
+         mutable.add(3);
+         
+         runToEndOfCycle(simulation);
+         Assert.assertEquals(first.values, Arrays.<Object>asList(Arrays.asList(1, 2)));
+         Assert.assertEquals(second.values, first.values);
+         Assert.assertNotSame(second.values.get(0), first.values.get(0));
+         Assert.assertEquals(first.lastNumber, 0);
+      }
+      finally {
+         simulation.finish();
+      }
+   }
+   
+   /**
+     * Test that simulations running in different {@link SimulationContext}{@code s}
+     * have separate report buffers.
+     */
+   @Test
+   public void testReportBuffersArePerContext() throws Exception {
+      final DataCollection aspect = new DataCollection();
+      aspect.setReportBufferCapacity(1);
+      final Collector collector = new Collector();
+      aspect.findUseNewsFields(collector);
+      final List<Long> numberOfDiscardedReports = new ArrayList<Long>();
+      for(int run = 0; run< 2; ++run) {
+         final int numberOfReports = run + 1;
+         numberOfDiscardedReports.add(new SimulationContext().callWithin(new Callable<Long>() {
+            @Override
+            public Long call() {
+               final Simulation simulation = new EmptySimulation(1L);
+               simulation.start();
+               for(int i = 0; i< numberOfReports; ++i)
+                  aspect.report("value", i, "source", ChangeType.CHANGE);
+               simulation.finish();
+               return aspect.getNumberOfDiscardedReports();
+            }
+         }));
+      }
+      Assert.assertEquals(numberOfDiscardedReports, Arrays.asList(0L, 1L));
+      Assert.assertTrue(collector.values.isEmpty());
+   }
+   
+   private static void runToEndOfCycle(final Simulation simulation) {
+      final double end = Math.floor(Math.max(simulation.schedule.getTime(), 0.)) + 1.;
+      while(simulation.schedule.getTime() < end)
+         if(!simulation.schedule.step(simulation))
+            break;
+   }
+}
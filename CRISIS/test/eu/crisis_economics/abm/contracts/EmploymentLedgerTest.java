@@ -0,0 +1,303 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.contracts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.eventbus.Subscribe;
+
+import eu.crisis_economics.abm.events.WagePaymentEvent;
+import eu.crisis_economics.abm.firm.ExogenousEmployee;
+import eu.crisis_economics.abm.household.ExogenousEmployer;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.NamedEventOrderings;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Unit tests for the {@link EmploymentLedger}.
+  * 
+  * @author phillips
+  */
+public class EmploymentLedgerTest {
+   
+   private Simulation simState;
+   
+   private List<Double>
+      wagePaymentTimes,
+      wagePayments;
+   
+   @BeforeMethod
+   public void setUp() {
+      System.out.println("Test: " + this.getClass().getSimpleName() + " begins.");
+      simState = new EmptySimulation(1L);
+      simState.start();
+      wagePaymentTimes = new ArrayList<Double>();
+      wagePayments = new ArrayList<Double>();
+      Simulation.events().register(this);
+   }
+   
+   @Subscribe
+   public void listenForWagePaymentEvents(final WagePaymentEvent event) {
+      wagePaymentTimes.add(Simulation.getTime());
+      wagePayments.add(event.getCashFlow());
+   }
+   
+   /**
+     * Test that contracts formed between the same parties, in the same cycle and
+     * with the same maturity, are aggregated into one ledger record, and that the
+     * running totals of the ledger agree with the contracts held by each party.
+     */
+   @Test
+   public void testContractsBetweenTheSamePartiesAreAggregated()
+      throws DoubleEmploymentException {
+      final ExogenousEmployer
+         employer = new ExogenousEmployer();
+      final ExogenousEmployee
+         firstEmployee = new ExogenousEmployee(),
+         secondEmployee = new ExogenousEmployee();
+      final EmploymentLedger ledger = EmploymentLedger.forCurrentContext();
+      
+      final Labour
+         first = Labour.create(employer, firstEmployee, 1., 2, 10.),
+         second = Labour.create(employer, firstEmployee, 3., 2, 20.),
+         third = Labour.create(employer, secondEmployee, 2., 2, 5.),
+         fourth = Labour.create(employer, firstEmployee, 1., 3, 10.);
+      
+      Assert.assertSame(first, second);
+      Assert.assertNotSame(first, third);
+      Assert.assertNotSame(first, fourth);
+      Assert.assertEquals(ledger.getNumberOfRecords(), 3);
+      Assert.assertEquals(first.getQuantity(), 4., 1.e-12);
+      Assert.assertEquals(first.getWage(), 17.5, 1.e-12);
+      
+      Assert.assertEquals(ledger.getNumberOfContractsOfEmployer(employer), 3);
+      Assert.assertEquals(ledger.getNumberOfContractsOfEmployee(firstEmployee), 2);
+      Assert.assertEquals(ledger.getNumberOfContractsOfEmployee(secondEmployee), 1);
+      Assert.assertEquals(ledger.getLabourEmployedBy(employer), 7., 1.e-12);
+      Assert.assertEquals(employer.getLabourForce(), 7., 1.e-12);
+      Assert.assertEquals(ledger.getLabourSuppliedBy(firstEmployee), 5., 1.e-12);
+      Assert.assertEquals(firstEmployee.getLabourAmountEmployed(), 5., 1.e-12);
+      Assert.assertEquals(ledger.getMeanWagePerUnitLabourPaidTo(firstEmployee), 16., 1.e-12);
+      Assert.assertEquals(ledger.getMeanWagePerUnitLabourPaidTo(secondEmployee), 5., 1.e-12);
+      Assert.assertEquals(wagePayments.size(), 4);
+      
+      third.fire();
+      
+      Assert.assertEquals(ledger.getNumberOfRecords(), 2);
+      Assert.assertEquals(ledger.getNumberOfContractsOfEmployee(secondEmployee), 0);
+      Assert.assertEquals(ledger.getLabourSuppliedBy(secondEmployee), 0.);
+      Assert.assertEquals(secondEmployee.getLabourAmountEmployed(), 0.);
+      Assert.assertEquals(ledger.getLabourEmployedBy(employer), 5., 1.e-12);
+      Assert.assertEquals(ledger.getContractsOfEmployee(firstEmployee).size(), 2);
+   }
+   
+   /**
+     * Test that wage installments are paid once per cycle, in bulk, at {@link 
+     * NamedEventOrderings#WAGE_PAYMENT}, and that expired contracts are closed.
+     */
+   @Test
+   public void testWagesArePaidInBulkUntilExpiry() throws DoubleEmploymentException {
+      final ExogenousEmployer
+         employer = new ExogenousEmployer();
+      final ExogenousEmployee
+         employee = new ExogenousEmployee();
+      final EmploymentLedger ledger = EmploymentLedger.forCurrentContext();
+      
+      advanceUntilJustAfterTime(NamedEventOrderings.LABOUR_MARKET_MATCHING.getUnitIntervalTime());
+      Assert.assertEquals(Simulation.getCycleIndex(), 0L);
+      
+      Labour.create(employer, employee, 2., 3, 5.);                // Expires at cycle 3.
+      Labour.create(employer, new ExogenousEmployee(), 1., 1, 5.); // Expires at cycle 1.
+      
+      Assert.assertEquals(wagePayments.size(), 2);
+      
+      while(Simulation.getCycleIndex() < 4)
+         if(!simState.schedule.step(simState)) break;
+      
+      Assert.assertEquals(ledger.getNumberOfRecords(), 0);
+      Assert.assertEquals(ledger.getLabourEmployedBy(employer), 0.);
+      Assert.assertEquals(employer.getLabourForce(), 0.);
+      Assert.assertEquals(employee.getLabourAmountEmployed(), 0.);
+      
+      // Installments at cycles 1 and 2, in addition to the two initial payments.
+      Assert.assertEquals(wagePayments.size(), 4);
+      for(int i = 2; i< 4; ++i) {
+         Assert.assertEquals(wagePayments.get(i), 10., 1.e-12);
+         Assert.assertEquals(
+            wagePaymentTimes.get(i) - Math.floor(wagePaymentTimes.get(i)),
+            NamedEventOrderings.WAGE_PAYMENT.getUnitIntervalTime(), 1.e-12);
+      }
+   }
+   
+   /**
+     * Test that no further wage installments are paid for a contract once the 
+     * {@link Employer} has failed to afford an installment, even if the {@link 
+     * Employer} can afford subsequent installments.
+     */
+   @Test
+   public void testFailedInstallmentStopsFurtherInstallments()
+      throws DoubleEmploymentException {
+      final InsolventEmployer
+         employer = new InsolventEmployer();
+      final ExogenousEmployee
+         employee = new ExogenousEmployee();
+      final EmploymentLedger ledger = EmploymentLedger.forCurrentContext();
+      
+      advanceUntilJustAfterTime(NamedEventOrderings.LABOUR_MARKET_MATCHING.getUnitIntervalTime());
+      Labour.create(employer, employee, 2., 4, 5.);                // Expires at cycle 4.
+      Assert.assertEquals(wagePayments.size(), 1);
+      
+      employer.isInsolvent = true;
+      while(Simulation.getCycleIndex() < 2)                       // Installment fails.
+         if(!simState.schedule.step(simState)) break;
+      employer.isInsolvent = false;
+      while(Simulation.getCycleIndex() < 3)
+         if(!simState.schedule.step(simState)) break;
+      
+      Assert.assertEquals(wagePayments.size(), 1);
+      Assert.assertEquals(ledger.getNumberOfRecords(), 1);
+      Assert.assertEquals(employee.getLabourAmountEmployed(), 2., 1.e-12);
+   }
+   
+   /**
+     * Test that restarting a simulation discards the records of the previous run,
+     * and that wages are paid for contracts formed after the restart.
+     */
+   @Test
+   public void testLedgerIsClearedWhenTheSimulationRestarts()
+      throws DoubleEmploymentException {
+      final ExogenousEmployer
+         employer = new ExogenousEmployer();
+      Labour.create(employer, new ExogenousEmployee(), 1., 5, 5.);
+      Assert.assertEquals(EmploymentLedger.forCurrentContext().getNumberOfRecords(), 1);
+      
+      simState.finish();
+      simState.start();
+      Simulation.events().register(this);                           // The bus is replaced.
+      final EmploymentLedger ledger = EmploymentLedger.forCurrentContext();
+      Assert.assertEquals(ledger.getNumberOfRecords(), 0);
+      Assert.assertEquals(ledger.getLabourEmployedBy(employer), 0.);
+      
+      advanceUntilJustAfterTime(NamedEventOrderings.LABOUR_MARKET_MATCHING.getUnitIntervalTime());
+      final long cycle = Simulation.getCycleIndex();
+      Labour.create(employer, new ExogenousEmployee(), 1., 3, 5.);
+      wagePayments.clear();
+      while(Simulation.getCycleIndex() < cycle + 2)
+         if(!simState.schedule.step(simState)) break;
+      Assert.assertEquals(wagePayments.size(), 1);
+      Assert.assertEquals(ledger.getNumberOfRecords(), 1);
+   }
+   
+   /**
+     * An {@link Employer} which cannot pay wages while it is insolvent.
+     */
+   private static final class InsolventEmployer implements Employer {
+      private final ExogenousEmployer
+         implementation = new ExogenousEmployer();
+      private boolean
+         isInsolvent;
+      
+      @Override
+      public double credit(final double amount) throws InsufficientFundsException {
+         if(isInsolvent)
+            throw new InsufficientFundsException();
+         return implementation.credit(amount);
+      }
+      
+      @Override
+      public void debit(final double amount) {
+         implementation.debit(amount);
+      }
+      
+      @Override
+      public void cashFlowInjection(final double amount) {
+         implementation.cashFlowInjection(amount);
+      }
+      
+      @Override
+      public String getUniqueName() {
+         return implementation.getUniqueName();
+      }
+      
+      @Override
+      public double allocateCash(final double positiveAmount) {
+         return implementation.allocateCash(positiveAmount);
+      }
+      
+      @Override
+      public double disallocateCash(final double positiveAmount) {
+         return implementation.disallocateCash(positiveAmount);
+      }
+      
+      @Override
+      public double getAllocatedCash() {
+         return implementation.getAllocatedCash();
+      }
+      
+      @Override
+      public double getUnallocatedCash() {
+         return implementation.getUnallocatedCash();
+      }
+      
+      @Override
+      public void addLabour(final Labour labour) {
+         implementation.addLabour(labour);
+      }
+      
+      @Override
+      public boolean removeLabour(final Labour labour) {
+         return implementation.removeLabour(labour);
+      }
+      
+      @Override
+      public double getLabourForce() {
+         return implementation.getLabourForce();
+      }
+      
+      @Override
+      public void disallocateLabour(final double size) {
+         implementation.disallocateLabour(size);
+      }
+      
+      @Override
+      public void registerIncomingEmployment(
+         final double labourEmployed,
+         final double unitLabourWage
+         ) {
+         implementation.registerIncomingEmployment(labourEmployed, unitLabourWage);
+      }
+   }
+   
+   private void advanceUntilJustAfterTime(final double time) {
+      while(simState.schedule.getTime() <= time)
+         if(!simState.schedule.step(simState)) break;
+   }
+   
+   @AfterMethod
+   public void tearDown() {
+      simState.finish();
+      System.out.println("Test: " + this.getClass().getSimpleName() + " ends.");
+   }
+}
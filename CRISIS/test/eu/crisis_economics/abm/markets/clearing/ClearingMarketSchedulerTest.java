@@ -0,0 +1,183 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingInstrument;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingMarket;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingMarketInformation;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ConcurrentClearingMarket;
+
+/**
+  * Unit tests for the {@link ClearingMarketScheduler}.
+  * 
+  * @author phillips
+  */
+public final class ClearingMarketSchedulerTest {
+   
+   /*
+    * A mock clearing market which records the order in which its clearing
+    * phases are executed.
+    */
+   private static class MockMarket implements ClearingMarket {
+      final String name;
+      final List<String> log;
+      
+      MockMarket(final String name, final List<String> log) {
+         this.name = name;
+         this.log = log;
+      }
+      
+      @Override
+      public void process() {
+         log.add("process " + name);
+      }
+      
+      @Override
+      public String getMarketName() {
+         return name;
+      }
+      
+      @Override
+      public Set<ClearingInstrument> getInstruments() {
+         return new HashSet<ClearingInstrument>();
+      }
+      
+      @Override
+      public ClearingInstrument getInstrument(final String name) {
+         return null;
+      }
+      
+      @Override
+      public ClearingMarketInformation getSummaryInformation() {
+         return null;
+      }
+      
+      @Override
+      public ClearingHouse getClearingHouse() {
+         return null;
+      }
+   }
+   
+   private static class MockConcurrentMarket extends MockMarket
+      implements ConcurrentClearingMarket {
+      final Set<String> footprint;
+      private boolean isPrepared;
+      
+      MockConcurrentMarket(
+         final String name, final List<String> log, final String... footprint) {
+         super(name, log);
+         this.footprint = new HashSet<String>(Arrays.asList(footprint));
+      }
+      
+      @Override
+      public void process() {
+         prepare();
+         commit();
+      }
+      
+      @Override
+      public void prepare() {
+         isPrepared = true;
+      }
+      
+      @Override
+      public void commit() {
+         Assert.assertTrue(isPrepared);
+         isPrepared = false;
+         log.add("commit " + name);
+      }
+      
+      @Override
+      public Set<String> getFootprint() {
+         return new HashSet<String>(footprint);
+      }
+   }
+   
+   private static List<ClearingMarket> createMarkets(final List<String> log) {
+      final List<ClearingMarket> result = new ArrayList<ClearingMarket>();
+      result.add(new MockConcurrentMarket("A", log, "Holder 1", "Releaser A"));
+      result.add(new MockConcurrentMarket("B", log, "Holder 2", "Releaser B"));
+      result.add(new MockConcurrentMarket("C", log, "Holder 3", "Releaser C"));
+      result.add(new MockConcurrentMarket("D", log, "Holder 1", "Releaser D"));  // Conflict
+      result.add(new MockConcurrentMarket("E", log, "Holder 4", "Releaser E"));
+      result.add(new MockMarket("F", log));                                      // Barrier
+      result.add(new MockConcurrentMarket("G", log, "Holder 5", "Releaser G"));
+      return result;
+   }
+   
+   /**
+     * Assert that markets are grouped into waves of non-conflicting markets, 
+     * and that markets are committed in installation order.
+     */
+   @Test
+   public void testMarketsAreCommittedInInstallationOrder() {
+      final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+      final ClearingMarketScheduler scheduler = new ClearingMarketScheduler(4);
+      scheduler.processAll(createMarkets(log));
+      Assert.assertEquals(log, Arrays.asList(
+         "commit A", "commit B", "commit C", "commit D", "commit E", "process F", "commit G"));
+      Assert.assertEquals(scheduler.getNumberOfWaves(), 4);             // ABC, DE, F, G
+   }
+   
+   /**
+     * Assert that a single-threaded scheduler processes each market in turn.
+     */
+   @Test
+   public void testSequentialProcessing() {
+      final List<String> log = new ArrayList<String>();
+      final ClearingMarketScheduler scheduler = new ClearingMarketScheduler(1);
+      scheduler.processAll(createMarkets(log));
+      Assert.assertEquals(log, Arrays.asList(
+         "commit A", "commit B", "commit C", "commit D", "commit E", "process F", "commit G"));
+      Assert.assertEquals(scheduler.getNumberOfWaves(), 7);
+   }
+   
+   /**
+     * Assert that a failure to prepare a market on a worker thread is rethrown
+     * by the calling thread, and that no market in the failed wave is committed.
+     */
+   @Test
+   public void testPrepareFailureIsRethrown() {
+      final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+      final List<ClearingMarket> markets = new ArrayList<ClearingMarket>();
+      markets.add(new MockConcurrentMarket("A", log, "Holder 1"));
+      markets.add(new MockConcurrentMarket("B", log, "Holder 2") {
+         @Override
+         public void prepare() {
+            throw new IllegalStateException();
+         }
+      });
+      try {
+         new ClearingMarketScheduler(2).processAll(markets);
+         Assert.fail();
+      }
+      catch(final IllegalStateException expected) { }
+      Assert.assertTrue(log.isEmpty());
+   }
+}
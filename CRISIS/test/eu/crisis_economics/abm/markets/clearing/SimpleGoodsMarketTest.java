@@ -0,0 +1,149 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.algorithms.matching.ForagerMatchingAlgorithm;
+import eu.crisis_economics.abm.algorithms.matching.HomogeneousRationingAlgorithm;
+import eu.crisis_economics.abm.firm.ExogenousGoodsBuyer;
+import eu.crisis_economics.abm.household.ExogenousGoodsSeller;
+import eu.crisis_economics.abm.inventory.goods.DurableGoodsRepository.SimpleGoodsClassifier;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Unit tests for the {@link SimpleGoodsMarket}.
+  * 
+  * @author phillips
+  */
+public class SimpleGoodsMarketTest {
+   
+   private static final int
+      NUMBER_OF_GOODS_TYPES = 8,
+      NUMBER_OF_SELLERS_PER_TYPE = 5,
+      NUMBER_OF_BUYERS = 6;
+   
+   /**
+     * Test whether the outcome of goods market matching is independent of the 
+     * number of threads used to match goods instruments. This test creates
+     * several goods instruments with heterogeneous buy and sell prices (such 
+     * that the trade-weighted price in each instrument depends on the random 
+     * order in which orders are matched) and processes one matching session with
+     * one, two and four matching threads. The trading prices, trading volumes and
+     * final goods holdings of all participants are expected to be identical in 
+     * each case.
+     */
+   @Test
+   public void testMatchingIsIndependentOfNumberOfThreads() {
+      final double[]
+         expected = processGoodsMarketSession(1);
+      Assert.assertTrue(expected[0] > 0.);                              // Trade occurred
+      for(final int numberOfThreads : new int[] { 2, 4 }) {
+         final double[]
+            observed = processGoodsMarketSession(numberOfThreads);
+         Assert.assertEquals(observed.length, expected.length);
+         for(int i = 0; i< expected.length; ++i)
+            Assert.assertEquals(observed[i], expected[i], 0.);
+      }
+   }
+   
+   /**
+     * Process one simulation cycle, and return the trading volume histories,
+     * trading price histories and final goods holdings of all market participants.
+     */
+   private double[] processGoodsMarketSession(final int numberOfThreads) {
+      final Simulation simState = new EmptySimulation(1L);
+      simState.start();
+      try {
+         final SimpleGoodsMarket market = new SimpleGoodsMarket(
+            new SimpleGoodsClassifier(),
+            new ForagerMatchingAlgorithm(new HomogeneousRationingAlgorithm())
+            );
+         market.setNumberOfMatchingThreads(numberOfThreads);
+         Assert.assertEquals(market.getNumberOfMatchingThreads(), numberOfThreads);
+         
+         final Random dice = new Random(2L);
+         final List<String> goodsTypes = new ArrayList<String>();
+         final List<ExogenousGoodsSeller> sellers = new ArrayList<ExogenousGoodsSeller>();
+         final List<ExogenousGoodsBuyer> buyers = new ArrayList<ExogenousGoodsBuyer>();
+         for(int i = 0; i< NUMBER_OF_BUYERS; ++i)
+            buyers.add(new ExogenousGoodsBuyer(market));
+         for(int i = 0; i< NUMBER_OF_GOODS_TYPES; ++i) {
+            final String goodsType = "Goods " + i;
+            goodsTypes.add(goodsType);
+            market.addInstrument(goodsType);
+            for(int j = 0; j< NUMBER_OF_SELLERS_PER_TYPE; ++j) {
+               final ExogenousGoodsSeller seller = new ExogenousGoodsSeller(market);
+               seller.getGoodsRepository().push(goodsType, 1. + 10. * dice.nextDouble());
+               market.getInstrument(goodsType).registerSeller(seller);
+               market.addOrder(
+                  seller,
+                  goodsType,
+                  seller.getGoodsRepository().getStoredQuantity(goodsType),
+                  .5 + dice.nextDouble()
+                  );
+               sellers.add(seller);
+            }
+            for(final ExogenousGoodsBuyer buyer : buyers)
+               market.addOrder(
+                  buyer, goodsType, -(1. + 10. * dice.nextDouble()), .5 + dice.nextDouble());
+         }
+         
+         while(simState.schedule.getTime() < 1.)
+            simState.schedule.step(simState);
+         
+         final List<Double> result = new ArrayList<Double>();
+         double totalVolume = 0.;
+         for(final String goodsType : goodsTypes) {
+            final SimpleGoodsInstrument instrument = market.getInstrument(goodsType);
+            for(final double volume : instrument.getTradingVolumes()) {
+               totalVolume += volume;
+               result.add(volume);
+            }
+            result.addAll(instrument.getTradingPrices());
+            Assert.assertEquals(instrument.getTradingPrices(), instrument.getTradingPricesView());
+            Assert.assertEquals(instrument.getTradingVolumes(), instrument.getTradingVolumesView());
+            instrument.getTradingPrices().clear();                        // A copy.
+            Assert.assertFalse(instrument.getTradingPricesView().isEmpty());
+            for(final ExogenousGoodsBuyer buyer : buyers)
+               result.add(buyer.getGoodsRepository().getStoredQuantity(goodsType));
+            for(final ExogenousGoodsSeller seller : sellers)
+               result.add(seller.getGoodsRepository().getStoredQuantity(goodsType));
+         }
+         result.add(0, totalVolume);
+         
+         final double[] values = new double[result.size()];
+         for(int i = 0; i< values.length; ++i)
+            values[i] = result.get(i);
+         market.setNumberOfMatchingThreads(1);
+         return values;
+      } catch (final Exception e) {
+         Assert.fail(e.getMessage());
+         return null;
+      } finally {
+         simState.finish();
+      }
+   }
+}
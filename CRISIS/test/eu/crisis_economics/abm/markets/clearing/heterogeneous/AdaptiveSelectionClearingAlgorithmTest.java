@@ -0,0 +1,328 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.AdaptiveSelectionClearingAlgorithm.Strategy;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.MarketResponseFunction.TradeOpportunity;
+
+/**
+  * Unit tests for the {@link AdaptiveSelectionClearingAlgorithm}.
+  * 
+  * @author phillips
+  */
+public final class AdaptiveSelectionClearingAlgorithmTest {
+   
+   private static final ResourceExchangeDelegate
+      NO_EXCHANGE = new ResourceExchangeDelegate() {
+         @Override
+         public void commit(final MixedClearingNetworkResult result) { }
+      };
+   
+   private static final MixedClearingNetworkAlgorithmFactory
+      MARCH = new MixedClearingNetworkAlgorithmFactory() {
+         @Override
+         public MixedClearingNetworkAlgorithm create(final MixedClearingNetwork network) {
+            return new AdaptiveMarchHeterogeneousClearingAlgorithm(60, 1.e-12,
+               new TargetResidualOrMaximumIterationsStoppingCondition(1.e-12, 50));
+         }
+      };
+   
+   /*
+    * Create a network with the specified number of polynomial demand and supply
+    * nodes. Every demand node is connected to every supply node. If the 
+    * argument useHyperEdge is true, every second connection is a member of 
+    * one hyperedge.
+    */
+   private static MixedClearingNetwork createNetwork(
+      final long seed,
+      final int numDemandNodes,
+      final int numSupplyNodes,
+      final boolean useHyperEdge
+      ) {
+      return createNetwork(seed, 1, numDemandNodes, numSupplyNodes, useHyperEdge, false);
+   }
+   
+   /*
+    * Create a network consisting of the specified number of disconnected blocks.
+    * Each block is a network of the type created by createNetwork(long, int, int,
+    * boolean), with its own hyperedge. If the argument isResponseUndefined is 
+    * true, every node response is NaN.
+    */
+   private static MixedClearingNetwork createNetwork(
+      final long seed,
+      final int numBlocks,
+      final int numDemandNodes,
+      final int numSupplyNodes,
+      final boolean useHyperEdge,
+      final boolean isResponseUndefined
+      ) {
+      final Random dice = new Random(seed);
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      final ClearingInstrument
+         heterogeneous = new ClearingInstrument("Mock Market", "Loan"),
+         homogeneous = new ClearingInstrument("Mock Market", "Bond");
+      for(int b = 0; b< numBlocks; ++b) {
+         final List<MixedClearingTestNode>
+            demandNodes = new ArrayList<MixedClearingTestNode>(),
+            supplyNodes = new ArrayList<MixedClearingTestNode>();
+         for(int i = 0; i< numDemandNodes; ++i)
+            demandNodes.add(MixedClearingTestNode.createPolynomialDemandNode(dice, 1.));
+         for(int j = 0; j< numSupplyNodes; ++j)
+            supplyNodes.add(MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.));
+         for(int i = 0; i< demandNodes.size(); ++i)
+            builder.addNetworkNode(demandNodes.get(i), 
+               getResponseFunction(demandNodes.get(i), isResponseUndefined),
+               "Demand " + b + "." + i);
+         for(int j = 0; j< supplyNodes.size(); ++j)
+            builder.addNetworkNode(supplyNodes.get(j), 
+               getResponseFunction(supplyNodes.get(j), isResponseUndefined),
+               "Supply " + b + "." + j);
+         final String hyperEdgeName = "Bond " + b;
+         if(useHyperEdge)
+            builder.addHyperEdge(hyperEdgeName);
+         for(int i = 0; i< demandNodes.size(); ++i)
+            for(int j = 0; j< supplyNodes.size(); ++j) {
+               final String
+                  demandID = "Demand " + b + "." + i,
+                  supplyID = "Supply " + b + "." + j;
+               if(useHyperEdge && (i + j) % 2 == 1)
+                  builder.addToHyperEdge(
+                     demandID, supplyID, NO_EXCHANGE, hyperEdgeName, homogeneous);
+               else
+                  builder.addEdge(demandID, supplyID, NO_EXCHANGE, heterogeneous);
+            }
+      }
+      return builder.build();
+   }
+   
+   /*
+    * Get the response function of a node. If the argument isUndefined is true,
+    * the response function returns NaN for every query.
+    */
+   private static MarketResponseFunction getResponseFunction(
+      final MixedClearingTestNode node,
+      final boolean isUndefined
+      ) {
+      final MarketResponseFunction function = node.getResponseFunction();
+      if(!isUndefined)
+         return function;
+      return new MarketResponseFunction() {
+         @Override
+         public double[] getValue(
+            final int[] queries, final TradeOpportunity[] opportunities) {
+            final double[] result = function.getValue(queries, opportunities);
+            for(int i = 0; i< result.length; ++i)
+               result[i] = Double.NaN;
+            return result;
+         }
+         
+         @Override
+         public double getMinimumInDomain() {
+            return function.getMinimumInDomain();
+         }
+         
+         @Override
+         public double getMaximumInDomain() {
+            return function.getMaximumInDomain();
+         }
+      };
+   }
+   
+   /*
+    * Clear a network and return the single strategy selected for it.
+    */
+   private static Strategy clear(
+      final MixedClearingNetwork network,
+      final AdaptiveSelectionClearingAlgorithm algorithm
+      ) {
+      network.applyClearingAlgorithm(algorithm);
+      final Map<String, Integer> selections = network.getMetrics().getAlgorithmSelections();
+      Assert.assertEquals(selections.size(), 1);
+      Assert.assertEquals(selections.values().iterator().next().intValue(), 1);
+      return Strategy.valueOf(selections.keySet().iterator().next());
+   }
+   
+   /**
+     * Assert that a small network without hyperedges is first cleared by the
+     * Levenberg-Marquardt algorithm, that a network with hyperedges is first 
+     * cleared by marching and polishing, and that a network with more edges than
+     * the Levenberg-Marquardt threshold is cleared by marching. Assert that 
+     * each network clears.
+     */
+   @Test
+   public void testStructuralSelection() {
+      final AdaptiveSelectionClearingAlgorithm algorithm =
+         new AdaptiveSelectionClearingAlgorithm(MARCH, 1.e-10, 12, 6);
+      {
+         final MixedClearingNetwork network = createNetwork(1L, 2, 2, false);
+         Assert.assertEquals(clear(network, algorithm), Strategy.LEVENBERG_MARQUARDT);
+         Assert.assertTrue(network.getResidualCost() < 1.e-10);
+      }
+      {
+         final MixedClearingNetwork network = createNetwork(2L, 3, 3, true);
+         Assert.assertEquals(clear(network, algorithm), Strategy.MARCH_THEN_LEVENBERG_MARQUARDT);
+         Assert.assertTrue(network.getResidualCost() < 1.e-10);
+      }
+      {
+         final MixedClearingNetwork network = createNetwork(3L, 4, 4, false);
+         Assert.assertEquals(clear(network, algorithm), Strategy.MARCH);
+         Assert.assertTrue(network.getResidualCost() < 1.e-8);
+      }
+   }
+   
+   /**
+     * Assert that a strategy which clears networks of one class continues to 
+     * be selected for networks of the same class, and that the selection is 
+     * recorded in the cumulative metrics of a sequence of sessions.
+     */
+   @Test
+   public void testSuccessfulStrategyIsRetained() {
+      final AdaptiveSelectionClearingAlgorithm algorithm =
+         new AdaptiveSelectionClearingAlgorithm(MARCH, 1.e-10);
+      final ClearingAlgorithmMetrics total = new ClearingAlgorithmMetrics();
+      for(int session = 0; session< 3; ++session) {
+         final MixedClearingNetwork network = createNetwork(4L + session, 2, 2, false);
+         Assert.assertEquals(clear(network, algorithm), Strategy.LEVENBERG_MARQUARDT);
+         total.add(network.getMetrics());
+      }
+      Assert.assertEquals(total.getAlgorithmSelections().get("LEVENBERG_MARQUARDT"),
+         Integer.valueOf(3));
+      Assert.assertEquals(total.getAlgorithmSelectionsDescription(), "LEVENBERG_MARQUARDT x3");
+   }
+   
+   /**
+     * Assert that, if no strategy reaches the target residual, untried 
+     * strategies are selected for subsequent networks of the same class, and
+     * that each strategy reduces the network residual.
+     */
+   @Test
+   public void testUnsuccessfulStrategiesAreReplaced() {
+      final AdaptiveSelectionClearingAlgorithm algorithm =
+         new AdaptiveSelectionClearingAlgorithm(MARCH, 0.);
+      final List<Strategy> selections = new ArrayList<Strategy>();
+      for(int session = 0; session< 3; ++session) {
+         final MixedClearingNetwork network = createNetwork(7L, 3, 3, true);
+         selections.add(clear(network, algorithm));
+         Assert.assertTrue(network.getResidualCost() < 1.e-8);
+      }
+      Assert.assertEquals(selections.get(0), Strategy.MARCH_THEN_LEVENBERG_MARQUARDT);
+      Assert.assertEquals(selections.get(1), Strategy.MARCH);
+      Assert.assertEquals(selections.get(2), Strategy.LEVENBERG_MARQUARDT);
+   }
+   
+   /**
+     * Assert that the selector is also a factory, and can be applied to each 
+     * connected component of a network.
+     */
+   @Test
+   public void testComponentwiseSelection() {
+      final AdaptiveSelectionClearingAlgorithm algorithm =
+         new AdaptiveSelectionClearingAlgorithm(MARCH, 1.e-10);
+      final MixedClearingNetwork network = createNetwork(8L, 2, 2, false);
+      network.applyClearingAlgorithm(new ConnectedComponentsClearingAlgorithm(algorithm));
+      final ClearingAlgorithmMetrics metrics = network.getMetrics();
+      int numberOfSelections = 0;
+      for(final int count : metrics.getAlgorithmSelections().values())
+         numberOfSelections += count;
+      Assert.assertEquals(numberOfSelections, metrics.getNumberOfComponents());
+      Assert.assertTrue(network.getResidualCost() < 1.e-10);
+   }
+   
+   /*
+    * Clear a sequence of networks, each consisting of several disconnected 
+    * blocks of the same class, component by component with the specified number
+    * of threads. Returns the clearing algorithm selections and the edge rates of
+    * every network, in order.
+    */
+   private static List<Object> clearComponentwise(final int numberOfThreads) {
+      final AdaptiveSelectionClearingAlgorithm algorithm =
+         new AdaptiveSelectionClearingAlgorithm(MARCH, 1.e-10);
+      final ConnectedComponentsClearingAlgorithm componentwise =
+         new ConnectedComponentsClearingAlgorithm(algorithm, numberOfThreads);
+      final List<Object> result = new ArrayList<Object>();
+      for(int session = 0; session< 4; ++session) {
+         final MixedClearingNetwork network = 
+            createNetwork(10L + session, 8, 3, 3, true, false);
+         network.applyClearingAlgorithm(componentwise);
+         result.add(network.getMetrics().getAlgorithmSelections());
+         for(final MixedClearingNetworkEdge edge : network.getEdges())
+            result.add(edge.getEdgeRate());
+      }
+      return result;
+   }
+   
+   /**
+     * Clear a sequence of networks component by component, first with one thread
+     * and then with four threads. Assert that the same strategies are selected, 
+     * and that the resulting edge rates agree.<br><br>
+     * 
+     * Edge rates are compared to a relative tolerance rather than bit for bit.
+     * Interpreted and JIT-compiled {@link Math} functions may differ in the last
+     * bit, and the two runs execute at different stages of compilation.
+     */
+   @Test
+   public void testSelectionDoesNotDependOnNumberOfThreads() {
+      final List<Object>
+         concurrent = clearComponentwise(4),
+         sequential = clearComponentwise(1);
+      Assert.assertEquals(concurrent.size(), sequential.size());
+      for(int i = 0; i< sequential.size(); ++i) {
+         final Object expected = sequential.get(i);
+         if(expected instanceof Double) {
+            final double rate = (Double) expected;
+            Assert.assertEquals(
+               (Double) concurrent.get(i), rate, 1.e-9 * Math.max(1., Math.abs(rate)));
+         }
+         else
+            Assert.assertEquals(concurrent.get(i), expected);
+      }
+   }
+   
+   /**
+     * Clear a small network whose node responses are undefined, so that the
+     * Levenberg-Marquardt algorithm cannot converge. Assert that the 
+     * Levenberg-Marquardt strategy is selected, that the fallback to marching is
+     * recorded as a separate selection, and that the Levenberg-Marquardt strategy
+     * is not selected for the next network of the same class.
+     */
+   @Test
+   public void testLevenbergMarquardtFallbackIsRecorded() {
+      final AdaptiveSelectionClearingAlgorithm algorithm =
+         new AdaptiveSelectionClearingAlgorithm(MARCH, 1.e-10);
+      final MixedClearingNetwork network = createNetwork(11L, 1, 2, 2, false, true);
+      network.applyClearingAlgorithm(algorithm);
+      final Map<String, Integer> selections = network.getMetrics().getAlgorithmSelections();
+      Assert.assertEquals(selections.get(Strategy.LEVENBERG_MARQUARDT.name()), Integer.valueOf(1));
+      Assert.assertEquals(
+         selections.get(AdaptiveSelectionClearingAlgorithm.LEVENBERG_MARQUARDT_FALLBACK),
+         Integer.valueOf(1));
+      Assert.assertEquals(selections.size(), 2);
+      
+      final MixedClearingNetwork next = createNetwork(12L, 2, 2, false);
+      Assert.assertFalse(clear(next, algorithm) == Strategy.LEVENBERG_MARQUARDT);
+   }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.ClearingAlgorithmMetrics.StoppingCause;
+
+/**
+  * Unit tests for {@link ClearingAlgorithmMetrics}.
+  * 
+  * @author phillips
+  */
+public final class ClearingAlgorithmMetricsTest {
+   
+   private static final ResourceExchangeDelegate
+      NO_EXCHANGE = new ResourceExchangeDelegate() {
+         @Override
+         public void commit(final MixedClearingNetworkResult result) { }
+      };
+   
+   /*
+    * Create a mixed network consisting of the specified number of disconnected
+    * blocks. Each block has its own homogeneous subnetwork and a number of 
+    * heterogeneous edges.
+    */
+   private static MixedClearingNetwork createNetwork(
+      final long seed,
+      final int numberOfBlocks
+      ) {
+      final Random dice = new Random(seed);
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      final ClearingInstrument
+         heterogeneous = new ClearingInstrument("Mock Market", "Loan"),
+         homogeneous = new ClearingInstrument("Mock Market", "Bond");
+      for(int b = 0; b< numberOfBlocks; ++b) {
+         for(int i = 0; i< 3; ++i) {
+            final MixedClearingTestNode node =
+               MixedClearingTestNode.createPolynomialDemandNode(dice, 1.);
+            builder.addNetworkNode(node, node.getResponseFunction(), "Demand " + b + i);
+         }
+         for(int j = 0; j< 2; ++j) {
+            final MixedClearingTestNode node =
+               MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.);
+            builder.addNetworkNode(node, node.getResponseFunction(), "Supply " + b + j);
+         }
+         builder.addHyperEdge("Bond " + b);
+         for(int i = 0; i< 3; ++i)
+            for(int j = 0; j< 2; ++j) {
+               final String
+                  demandID = "Demand " + b + i,
+                  supplyID = "Supply " + b + j;
+               if((i + j) % 2 == 0)
+                  builder.addEdge(demandID, supplyID, NO_EXCHANGE, heterogeneous);
+               else
+                  builder.addToHyperEdge(
+                     demandID, supplyID, NO_EXCHANGE, "Bond " + b, homogeneous);
+            }
+      }
+      return builder.build();
+   }
+   
+   /**
+     * Clear a network to a tight residual target. Assert that the metrics of
+     * the network agree with the stopping condition and with the network 
+     * residual, and that the algorithm was stopped by the residual.
+     */
+   @Test
+   public void testMetricsOfResidualStop() {
+      final MixedClearingNetwork network = createNetwork(1L, 1);
+      final TargetResidualOrMaximumIterationsStoppingCondition stoppingCondition =
+         new TargetResidualOrMaximumIterationsStoppingCondition(1.e-12, 50);
+      network.applyClearingAlgorithm(
+         new AdaptiveMarchHeterogeneousClearingAlgorithm(60, 1.e-12, stoppingCondition));
+      final ClearingAlgorithmMetrics metrics = network.getMetrics();
+      Assert.assertEquals(metrics.getNumberOfSessions(), 1);
+      Assert.assertEquals(
+         metrics.getNumberOfIterations(), stoppingCondition.getNumberOfIterationsElapsed());
+      Assert.assertTrue(metrics.getNumberOfResponseEvaluations() > 0);
+      Assert.assertTrue(metrics.getWallTimeNanos() > 0);
+      Assert.assertEquals(metrics.getFinalResidual(), network.getResidualCost(), 0.);
+      Assert.assertTrue(metrics.getFinalResidual() <= 1.e-12);
+      Assert.assertEquals(metrics.getNumberOfComponents(), 1);
+      Assert.assertEquals(metrics.getNumberOfResidualStops(), 1);
+      Assert.assertEquals(metrics.getNumberOfIterationCapStops(), 0);
+      Assert.assertEquals(metrics.getStoppingCause(), StoppingCause.RESIDUAL);
+   }
+   
+   /**
+     * Clear a network with an unattainable residual target. Assert that the 
+     * algorithm is reported to have stopped on its iteration cap.
+     */
+   @Test
+   public void testMetricsOfIterationCapStop() {
+      final MixedClearingNetwork network = createNetwork(2L, 1);
+      network.applyClearingAlgorithm(
+         new AdaptiveMarchHeterogeneousClearingAlgorithm(
+            60, 1.e-12, new TargetResidualOrMaximumIterationsStoppingCondition(0., 3)));
+      final ClearingAlgorithmMetrics metrics = network.getMetrics();
+      Assert.assertEquals(metrics.getNumberOfIterations(), 3);
+      Assert.assertEquals(metrics.getNumberOfIterationCapStops(), 1);
+      Assert.assertEquals(metrics.getStoppingCause(), StoppingCause.ITERATION_CAP);
+   }
+   
+   /**
+     * Clear a network of several components, component by component. Assert that
+     * the metrics of all components are recorded in the metrics of the network, 
+     * and that metrics are accumulated correctly over sessions.
+     */
+   @Test
+   public void testMetricsOfComponentwiseClearing() {
+      final int numberOfBlocks = 3;
+      final ClearingAlgorithmMetrics total = new ClearingAlgorithmMetrics();
+      Assert.assertTrue(Double.isNaN(total.getFinalResidual()));
+      Assert.assertEquals(total.getStoppingCause(), StoppingCause.NONE);
+      for(int session = 0; session< 2; ++session) {
+         final MixedClearingNetwork network = createNetwork(3L, numberOfBlocks);
+         network.applyClearingAlgorithm(new ConnectedComponentsClearingAlgorithm(
+            new MixedClearingNetworkAlgorithmFactory() {
+               @Override
+               public MixedClearingNetworkAlgorithm create(
+                  final MixedClearingNetwork component) {
+                  return new AdaptiveMarchHeterogeneousClearingAlgorithm(60, 1.e-12,
+                     new TargetResidualOrMaximumIterationsStoppingCondition(1.e-12, 50));
+               }
+            }, 2));
+         final ClearingAlgorithmMetrics metrics = network.getMetrics();
+         Assert.assertEquals(metrics.getNumberOfComponents(), numberOfBlocks);
+         Assert.assertEquals(
+            metrics.getNumberOfResidualStops() + metrics.getNumberOfIterationCapStops(),
+            numberOfBlocks);
+         Assert.assertTrue(metrics.getNumberOfIterations() >= numberOfBlocks);
+         total.add(metrics);
+         Assert.assertEquals(total.getFinalResidual(), network.getResidualCost(), 0.);
+      }
+      final ClearingAlgorithmMetrics last = total.copy();
+      Assert.assertEquals(last.getNumberOfSessions(), 2);
+      Assert.assertEquals(last.getNumberOfComponents(), 2 * numberOfBlocks);
+      Assert.assertEquals(
+         last.getNumberOfResidualStops() + last.getNumberOfIterationCapStops(),
+         2 * numberOfBlocks);
+   }
+}
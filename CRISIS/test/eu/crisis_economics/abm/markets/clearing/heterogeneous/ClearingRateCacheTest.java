@@ -0,0 +1,163 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for the {@link ClearingRateCache}.
+  * 
+  * @author phillips
+  */
+public final class ClearingRateCacheTest {
+   
+   private static final ResourceExchangeDelegate
+      NO_EXCHANGE = new ResourceExchangeDelegate() {
+         @Override
+         public void commit(final MixedClearingNetworkResult result) { }
+      };
+   
+   /*
+    * Create a mixed network with one homogeneous subnetwork and a number of
+    * heterogeneous edges. The participants of the network are generated by a
+    * Random instance with the specified seed. Node IDs depend only on node
+    * indices. If numExtraNodes is positive, additional demand nodes are
+    * appended to the network.
+    */
+   private static MixedClearingNetwork createNetwork(
+      final long seed,
+      final int numExtraNodes
+      ) {
+      final Random dice = new Random(seed);
+      final List<MixedClearingTestNode>
+         demandNodes = new ArrayList<MixedClearingTestNode>(),
+         supplyNodes = new ArrayList<MixedClearingTestNode>();
+      for(int i = 0; i< 6; ++i)
+         demandNodes.add(MixedClearingTestNode.createPolynomialDemandNode(dice, 1.));
+      for(int j = 0; j< 4; ++j)
+         supplyNodes.add(MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.));
+      final Random extraDice = new Random(seed + 1L);
+      for(int k = 0; k< numExtraNodes; ++k)
+         demandNodes.add(MixedClearingTestNode.createPolynomialDemandNode(extraDice, 1.));
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      for(int i = 0; i< demandNodes.size(); ++i)
+         builder.addNetworkNode(
+            demandNodes.get(i), demandNodes.get(i).getResponseFunction(), "Demand " + i);
+      for(int j = 0; j< supplyNodes.size(); ++j)
+         builder.addNetworkNode(
+            supplyNodes.get(j), supplyNodes.get(j).getResponseFunction(), "Supply " + j);
+      final ClearingInstrument
+         heterogeneous = new ClearingInstrument("Mock Market", "Loan"),
+         homogeneous = new ClearingInstrument("Mock Market", "Bond");
+      builder.addHyperEdge("Bond");
+      for(int i = 0; i< demandNodes.size(); ++i)
+         for(int j = 0; j< supplyNodes.size(); ++j) {
+            final String
+               demandID = "Demand " + i,
+               supplyID = "Supply " + j;
+            if((i + j) % 2 == 0)
+               builder.addEdge(demandID, supplyID, NO_EXCHANGE, heterogeneous);
+            else
+               builder.addToHyperEdge(demandID, supplyID, NO_EXCHANGE, "Bond", homogeneous);
+         }
+      return builder.build();
+   }
+   
+   private static final class ClearingSession {
+      final double residual;
+      final int iterations;
+      final MixedClearingNetwork network;
+      
+      ClearingSession(
+         final MixedClearingNetwork network,
+         final ClearingRateCache cache
+         ) {
+         final TargetResidualOrMaximumIterationsStoppingCondition stoppingCondition =
+            new TargetResidualOrMaximumIterationsStoppingCondition(1.e-12, 50);
+         this.network = network;
+         this.residual = network.applyClearingAlgorithm(
+            new AdaptiveMarchHeterogeneousClearingAlgorithm(60, 1.e-12, stoppingCondition),
+            cache
+            );
+         this.iterations = stoppingCondition.getNumberOfIterationsElapsed();
+      }
+   }
+   
+   /**
+     * Clear a network, and then clear an identical network with the rates of 
+     * the first network offered as an initial guess. Assert that the second 
+     * clearing session requires fewer iterations, and that both networks clear
+     * to the same rates.
+     */
+   @Test
+   public void testWarmStartReducesIterations() {
+      final ClearingRateCache cache = new ClearingRateCache(true);
+      final ClearingSession
+         cold = new ClearingSession(createNetwork(1L, 0), cache);
+      Assert.assertEquals(cache.size(), 13);
+      Assert.assertEquals(cache.getNumberOfEdgesWarmStarted(), 0);
+      final ClearingSession
+         warm = new ClearingSession(createNetwork(1L, 0), cache);
+      Assert.assertEquals(cache.getNumberOfEdgesWarmStarted(), 13);
+      Assert.assertTrue(warm.iterations < cold.iterations,
+         "warm: " + warm.iterations + ", cold: " + cold.iterations);
+      Assert.assertTrue(warm.residual <= cold.residual);
+      for(int i = 0; i< cold.network.getNumberOfEdges(); ++i)
+         Assert.assertEquals(
+            warm.network.getEdges().get(i).getEdgeRate(),
+            cold.network.getEdges().get(i).getEdgeRate(),
+            1.e-5
+            );
+   }
+   
+   /**
+     * Clear a network, and then clear a larger network with the rates of the
+     * first network offered as an initial guess. Assert that initial rates
+     * are offered only for edges which exist in both networks, and that the 
+     * larger network clears.
+     */
+   @Test
+   public void testWarmStartFallsBackForNewEdges() {
+      final ClearingRateCache cache = new ClearingRateCache(true);
+      final ClearingSession
+         cold = new ClearingSession(createNetwork(2L, 0), cache),
+         warm = new ClearingSession(createNetwork(2L, 2), cache);
+      Assert.assertEquals(cache.getNumberOfEdgesWarmStarted(), 13);
+      Assert.assertEquals(cache.getNumberOfEdgesColdStarted(), 13 + 4);
+      Assert.assertTrue(cold.residual < 1.e-8);
+      Assert.assertTrue(warm.residual < 1.e-8);
+   }
+   
+   /**
+     * Assert that a disabled cache offers no initial rates.
+     */
+   @Test
+   public void testDisabledCacheOffersNoRates() {
+      final ClearingRateCache cache = new ClearingRateCache(false);
+      new ClearingSession(createNetwork(3L, 0), cache);
+      final MixedClearingNetwork network = createNetwork(3L, 0);
+      Assert.assertNull(cache.getInitialRates(network));
+      Assert.assertEquals(cache.size(), 0);
+   }
+}
@@ -19,6 +19,9 @@
  */
 package eu.crisis_economics.abm.markets.clearing.heterogeneous;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import org.testng.Assert;
@@ -30,6 +33,7 @@ import sim.engine.SimState;
 import eu.crisis_economics.abm.bank.StockReleasingBank;
 import eu.crisis_economics.abm.bank.StockTradingBank;
 import eu.crisis_economics.abm.contracts.InsufficientFundsException;
+import eu.crisis_economics.abm.contracts.stocks.StockReleaser;
 import eu.crisis_economics.abm.contracts.stocks.TargetValueStockMarketResponseFunction;
 import eu.crisis_economics.abm.contracts.stocks.UniqueStockExchange;
 import eu.crisis_economics.abm.markets.clearing.ClearingHouse;
@@ -201,6 +205,146 @@ public class ClearingStockMarketsTest {
          );
    }
    
+   /*
+    * A stock trading bank which bids only in the market for the shares it 
+    * already owns.
+    */
+   private static final class SingleStockBank extends StockTradingBank
+      implements ClearingMarketParticipant {
+      private final StockReleaser
+         stockReleaser;
+      private final double
+         targetStockInvestment;
+      SingleStockBank(
+         final double initialCash,
+         final StockReleaser stockReleaser,
+         final double targetStockInvestment
+         ) {
+         super(initialCash);
+         this.stockReleaser = stockReleaser;
+         this.targetStockInvestment = targetStockInvestment;
+      }
+      @Override
+      public MarketResponseFunction getMarketResponseFunction(
+         final ClearingMarketInformation marketInformation
+         ) {
+         if(!marketInformation.getMarketName().equals(
+            "Clearing Stock Market for " + stockReleaser.getUniqueName()))
+            return null;                                                       // Sit out.
+         return new TargetValueStockMarketResponseFunction(
+            super.getNumberOfSharesOwnedIn(stockReleaser.getUniqueName()), 
+            targetStockInvestment);
+      }
+      @Override
+      public void cashFlowInjection(double amount) { }                        // No CFIs.
+      @Override
+      public double credit(double amount) throws InsufficientFundsException {
+         if(amount <= 0.) return 0.;
+         if(amount > getCashReserveValue())
+            throw new InsufficientFundsException();
+         decreaseCashReserves(amount);
+         return amount;
+      }
+   }
+   
+   /*
+    * Create two stock markets whose stock holders do not overlap, and whose 
+    * holders opt in to buy shares only in the market for the shares they own. If
+    * doShareBuyer is true, one further participant, which does not restrict its
+    * purchases, is added to both markets. Process one clearing session with the 
+    * specified number of threads, check the number of waves, and return the stock
+    * prices, cash reserves and shareholdings which result.
+    */
+   private List<Double> processTwoStockMarkets(
+      final int numberOfThreads,
+      final boolean doShareBuyer
+      ) {
+      resetSimulation();
+      advanceToTimeZero();
+      final Random dice = new Random(1L);
+      final ClearingHouse clearingHouse = new ClearingHouse();
+      clearingHouse.setNumberOfMarketProcessingThreads(numberOfThreads);
+      final List<StockReleasingBank> releasers = new ArrayList<StockReleasingBank>();
+      final List<SingleStockBank> holders = new ArrayList<SingleStockBank>();
+      final List<ClearingStockMarket> markets = new ArrayList<ClearingStockMarket>();
+      final double[] initialPrices = new double[2];
+      for(int i = 0; i< 2; ++i) {
+         final StockReleasingBank releaser = new StockReleasingBank(100.);
+         initialPrices[i] = dice.nextDouble() * 1.e3 + 1.;
+         UniqueStockExchange.Instance.setStockPrice(releaser.getUniqueName(), initialPrices[i]);
+         final ClearingStockMarket market = new ClearingStockMarket(releaser, clearingHouse);
+         clearingHouse.addMarket(market);
+         releasers.add(releaser);
+         markets.add(market);
+         for(int j = 0; j< 10; ++j) {
+            final SingleStockBank holder = new SingleStockBank(
+               dice.nextDouble() * 1.e5 + 1., releaser, dice.nextDouble() * 1.e5 + 1.);
+            UniqueStockExchange.Instance.generateFreeSharesFor(
+               releaser.getUniqueName(), holder, dice.nextDouble() * .1);
+            clearingHouse.addStockMarketParticipant(
+               holder, Collections.singleton(releaser.getUniqueName()));
+            holders.add(holder);
+         }
+      }
+      final SingleStockBank buyer = doShareBuyer ?
+         new SingleStockBank(dice.nextDouble() * 1.e5 + 1., releasers.get(0), 1.e5) : null;
+      if(doShareBuyer) {
+         clearingHouse.addStockMarketParticipant(buyer);                       // Unrestricted
+         holders.add(buyer);
+      }
+      for(final SingleStockBank holder : holders)
+         for(int i = 0; i< markets.size(); ++i)
+            Assert.assertEquals(
+               markets.get(i).getFootprint().contains(holder.getUniqueName()),
+               holder == buyer || holder.stockReleaser == releasers.get(i));
+      Assert.assertTrue(markets.get(0).getFootprint().contains(releasers.get(0).getUniqueName()));
+      Assert.assertFalse(markets.get(0).getFootprint().contains(releasers.get(1).getUniqueName()));
+      
+      advanceUntilSampleTime();
+      advanceUntilSampleTime();
+      
+      Assert.assertEquals(
+         clearingHouse.getNumberOfMarketProcessingWaves(),
+         (numberOfThreads > 1 && !doShareBuyer) ? 1 : 2);
+      
+      final List<Double> result = new ArrayList<Double>();
+      for(int i = 0; i< releasers.size(); ++i) {
+         final StockReleasingBank releaser = releasers.get(i);
+         Assert.assertTrue(                                                     // Traded
+            UniqueStockExchange.Instance.getStockPrice(releaser) != initialPrices[i]);
+         result.add(UniqueStockExchange.Instance.getStockPrice(releaser));
+         result.add(releaser.getCashReserveValue());
+      }
+      for(final SingleStockBank holder : holders) {
+         result.add(holder.getCashReserveValue());
+         result.add(holder.getNumberOfSharesOwnedIn(holder.stockReleaser.getUniqueName()));
+      }
+      return result;
+   }
+   
+   /**
+     * Test that the footprint of a {@link ClearingStockMarket} consists of the 
+     * holders of its shares and the participants which opt in to buy them, that
+     * two stock markets with disjoint footprints are prepared in the same wave,
+     * that a participant which does not restrict its purchases places the markets
+     * in separate waves, and that processing the markets with two threads yields 
+     * exactly the same prices, cash reserves and shareholdings as processing the 
+     * markets with one thread.
+     */
+   @Test
+   public void testStockMarketsWithDisjointFootprintsShareAWave() {
+      for(final boolean doShareBuyer : new boolean[] { false, true }) {
+         final List<Double>
+            sequential = processTwoStockMarkets(1, doShareBuyer),
+            concurrent = processTwoStockMarkets(2, doShareBuyer);
+         Assert.assertEquals(concurrent.size(), sequential.size());
+         for(int i = 0; i< sequential.size(); ++i)
+            Assert.assertEquals(
+               Double.doubleToLongBits(concurrent.get(i).doubleValue()),
+               Double.doubleToLongBits(sequential.get(i).doubleValue()));
+      }
+   }
+   
    @AfterMethod
    public void tearDown() {
       System.out.println("TestClearingStockMarkets tests pass.");
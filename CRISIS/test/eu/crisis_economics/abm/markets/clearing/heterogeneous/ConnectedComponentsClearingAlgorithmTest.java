@@ -0,0 +1,160 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for the {@link ConnectedComponentsClearingAlgorithm}.
+  * 
+  * @author phillips
+  */
+public final class ConnectedComponentsClearingAlgorithmTest {
+   
+   private static final ResourceExchangeDelegate
+      NO_EXCHANGE = new ResourceExchangeDelegate() {
+         @Override
+         public void commit(final MixedClearingNetworkResult result) { }
+      };
+   
+   private static final int
+      NUMBER_OF_BLOCKS = 4;
+   
+   /*
+    * Create a mixed network consisting of several disconnected blocks. Each block
+    * has its own homogeneous subnetwork and a number of heterogeneous edges.
+    */
+   private static MixedClearingNetwork createNetwork(final long seed) {
+      final Random dice = new Random(seed);
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      final ClearingInstrument
+         heterogeneous = new ClearingInstrument("Mock Market", "Loan"),
+         homogeneous = new ClearingInstrument("Mock Market", "Bond");
+      for(int b = 0; b< NUMBER_OF_BLOCKS; ++b) {
+         for(int i = 0; i< 3; ++i) {
+            final MixedClearingTestNode node =
+               MixedClearingTestNode.createPolynomialDemandNode(dice, 1.);
+            builder.addNetworkNode(node, node.getResponseFunction(), "Demand " + b + i);
+         }
+         for(int j = 0; j< 2; ++j) {
+            final MixedClearingTestNode node =
+               MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.);
+            builder.addNetworkNode(node, node.getResponseFunction(), "Supply " + b + j);
+         }
+         builder.addHyperEdge("Bond " + b);
+         for(int i = 0; i< 3; ++i)
+            for(int j = 0; j< 2; ++j) {
+               final String
+                  demandID = "Demand " + b + i,
+                  supplyID = "Supply " + b + j;
+               if((i + j) % 2 == 0)
+                  builder.addEdge(demandID, supplyID, NO_EXCHANGE, heterogeneous);
+               else
+                  builder.addToHyperEdge(
+                     demandID, supplyID, NO_EXCHANGE, "Bond " + b, homogeneous);
+            }
+      }
+      return builder.build();
+   }
+   
+   private static final MixedClearingNetworkAlgorithmFactory
+      ADAPTIVE_MARCH = new MixedClearingNetworkAlgorithmFactory() {
+         @Override
+         public MixedClearingNetworkAlgorithm create(final MixedClearingNetwork network) {
+            return new AdaptiveMarchHeterogeneousClearingAlgorithm(
+               60, 1.e-12, new TargetResidualOrMaximumIterationsStoppingCondition(1.e-12, 50));
+         }
+      };
+   
+   /**
+     * Assert that the connected components of a network of disconnected blocks
+     * are the blocks themselves, ordered by their first edge.
+     */
+   @Test
+   public void testConnectedComponentsAreBlocks() {
+      final MixedClearingNetwork network = createNetwork(1L);
+      final int[][] components = network.getIndex().getConnectedComponents();
+      Assert.assertEquals(components.length, NUMBER_OF_BLOCKS);
+      final int edgesPerBlock = network.getNumberOfEdges() / NUMBER_OF_BLOCKS;
+      for(int b = 0; b< NUMBER_OF_BLOCKS; ++b) {
+         Assert.assertEquals(components[b].length, edgesPerBlock);
+         for(int k = 0; k< edgesPerBlock; ++k)
+            Assert.assertEquals(components[b][k], b * edgesPerBlock + k);
+         final MixedClearingNetwork subnetwork = network.createSubnetwork(components[b]);
+         Assert.assertEquals(subnetwork.getNumberOfNetworkNodes(), 5);
+         Assert.assertEquals(subnetwork.getNumberOfEdges(), edgesPerBlock);
+      }
+   }
+   
+   /**
+     * Clear identical networks component by component, (a) in sequence and (b)
+     * with several threads. Assert that both networks clear, that the results
+     * are bit-for-bit identical, and that the results agree with the rates 
+     * obtained by clearing the network as a whole.
+     */
+   @Test
+   public void testComponentwiseClearingIsReproducible() {
+      final MixedClearingNetwork
+         serial = createNetwork(2L),
+         parallel = createNetwork(2L),
+         whole = createNetwork(2L);
+      final ConnectedComponentsClearingAlgorithm
+         serialAlgorithm = new ConnectedComponentsClearingAlgorithm(ADAPTIVE_MARCH, 1),
+         parallelAlgorithm = new ConnectedComponentsClearingAlgorithm(ADAPTIVE_MARCH, 3);
+      final double
+         serialResidual = serial.applyClearingAlgorithm(serialAlgorithm),
+         parallelResidual = parallel.applyClearingAlgorithm(parallelAlgorithm);
+      whole.applyClearingAlgorithm(ADAPTIVE_MARCH.create(whole));
+      Assert.assertEquals(serialAlgorithm.getNumberOfComponentsCleared(), NUMBER_OF_BLOCKS);
+      Assert.assertTrue(serialResidual < 1.e-8, "residual: " + serialResidual);
+      Assert.assertEquals(
+         Double.doubleToLongBits(parallelResidual), Double.doubleToLongBits(serialResidual));
+      for(int i = 0; i< serial.getNumberOfEdges(); ++i) {
+         final double rate = serial.getEdges().get(i).getEdgeRate();
+         Assert.assertEquals(
+            Double.doubleToLongBits(parallel.getEdges().get(i).getEdgeRate()),
+            Double.doubleToLongBits(rate));
+         Assert.assertEquals(whole.getEdges().get(i).getEdgeRate(), rate, 1.e-4);
+      }
+   }
+   
+   /**
+     * Assert that a failure to clear a component on a worker thread is rethrown
+     * by the calling thread.
+     */
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testComponentFailureIsRethrown() {
+      final MixedClearingNetwork network = createNetwork(3L);
+      network.applyClearingAlgorithm(new ConnectedComponentsClearingAlgorithm(
+         new MixedClearingNetworkAlgorithmFactory() {
+            @Override
+            public MixedClearingNetworkAlgorithm create(final MixedClearingNetwork component) {
+               return new MixedClearingNetworkAlgorithm() {
+                  @Override
+                  public double applyToNetwork(final MixedClearingNetwork network) {
+                     throw new IllegalStateException();
+                  }
+               };
+            }
+         }, 3));
+   }
+}
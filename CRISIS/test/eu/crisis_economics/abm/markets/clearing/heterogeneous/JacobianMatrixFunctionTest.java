@@ -0,0 +1,197 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.MarketResponseFunction.TradeOpportunity;
+
+/**
+  * Unit tests for analytic response function derivatives, and for the network
+  * Jacobian assembled from them by {@link NumericalDerivativeClearingAlgorithm}.
+  * 
+  * @author phillips
+  */
+public final class JacobianMatrixFunctionTest {
+   
+   private static final ResourceExchangeDelegate
+      NO_EXCHANGE = new ResourceExchangeDelegate() {
+         @Override
+         public void commit(final MixedClearingNetworkResult result) { }
+      };
+   
+   /*
+    * A response function decorator which hides the derivatives of the 
+    * decorated function and counts evaluations.
+    */
+   private static final class CountingResponseFunction implements MarketResponseFunction {
+      private final MarketResponseFunction implementation;
+      private int numberOfEvaluations;
+      
+      CountingResponseFunction(final MarketResponseFunction implementation) {
+         this.implementation = implementation;
+      }
+      
+      @Override
+      public double[] getValue(final int[] queries, final TradeOpportunity[] opportunities) {
+         ++numberOfEvaluations;
+         return implementation.getValue(queries, opportunities);
+      }
+      
+      @Override
+      public double getMinimumInDomain() {
+         return implementation.getMinimumInDomain();
+      }
+      
+      @Override
+      public double getMaximumInDomain() {
+         return implementation.getMaximumInDomain();
+      }
+   }
+   
+   /*
+    * Create a network with one homogeneous subnetwork and a number of 
+    * heterogeneous edges. If isDifferentiable is false, the derivatives of
+    * all response functions are hidden.
+    */
+   private static MixedClearingNetwork createNetwork(
+      final long seed,
+      final boolean isDifferentiable,
+      final CountingResponseFunction[] counters
+      ) {
+      final Random dice = new Random(seed);
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      final int numberOfDemandNodes = 5, numberOfSupplyNodes = 3;
+      for(int i = 0; i< numberOfDemandNodes + numberOfSupplyNodes; ++i) {
+         final MixedClearingTestNode node = (i < numberOfDemandNodes) ?
+            MixedClearingTestNode.createPolynomialDemandNode(dice, 1.) :
+            MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.);
+         MarketResponseFunction function = node.getResponseFunction();
+         if(!isDifferentiable) {
+            counters[i] = new CountingResponseFunction(function);
+            function = counters[i];
+         }
+         builder.addNetworkNode(node, function, "Node " + i);
+      }
+      final ClearingInstrument
+         heterogeneous = new ClearingInstrument("Mock Market", "Loan"),
+         homogeneous = new ClearingInstrument("Mock Market", "Bond");
+      builder.addHyperEdge("Bond");
+      for(int i = 0; i< numberOfDemandNodes; ++i)
+         for(int j = 0; j< numberOfSupplyNodes; ++j) {
+            final String
+               demandID = "Node " + i,
+               supplyID = "Node " + (numberOfDemandNodes + j);
+            if((i + j) % 2 == 0)
+               builder.addEdge(demandID, supplyID, NO_EXCHANGE, heterogeneous);
+            else
+               builder.addToHyperEdge(demandID, supplyID, NO_EXCHANGE, "Bond", homogeneous);
+         }
+      return builder.build();
+   }
+   
+   /**
+     * Compare the analytic derivatives of partitioned response functions with
+     * central finite differences.
+     */
+   @Test
+   public void testAnalyticResponseDerivatives() {
+      final Random dice = new Random(1L);
+      final ClearingInstrument instrument = new ClearingInstrument("Mock Market", "Loan");
+      for(int trial = 0; trial< 10; ++trial) {
+         final MarketResponseFunction function = (trial % 2 == 0) ?
+            MixedClearingTestNode.createPolynomialDemandNode(dice, 1.).getResponseFunction() :
+            MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.).getResponseFunction();
+         Assert.assertTrue(function instanceof DifferentiableMarketResponseFunction);
+         final DifferentiableMarketResponseFunction differentiable =
+            (DifferentiableMarketResponseFunction) function;
+         Assert.assertTrue(differentiable.isDifferentiable());
+         final TradeOpportunity[] opportunities = new TradeOpportunity[4];
+         for(int k = 0; k< opportunities.length; ++k)
+            opportunities[k] = TradeOpportunity.create(
+               .2 + dice.nextDouble(), instrument, "Party " + k);
+         final int[] queries = { 0, 1, 2, 3 };
+         final double[][] derivatives = differentiable.getDerivatives(queries, opportunities);
+         final double h = 1.e-6;
+         for(int l = 0; l< opportunities.length; ++l) {
+            final double[][] rates = new double[2][];
+            rates[0] = MarketResponseFunction.Util.toRateArray(opportunities);
+            rates[1] = rates[0].clone();
+            rates[0][l] += h;
+            rates[1][l] -= h;
+            final double[][] values = 
+               MarketResponseFunction.Util.getValues(function, queries, opportunities, rates);
+            for(int k = 0; k< queries.length; ++k)
+               Assert.assertEquals(
+                  derivatives[k][l], (values[0][k] - values[1][k]) / (2. * h), 1.e-6);
+         }
+      }
+   }
+   
+   /**
+     * Assemble the network Jacobian (a) from analytic node derivatives and (b)
+     * from finite differences. Assert that the results agree, and that the 
+     * number of response function evaluations required by (b) is proportional to
+     * the number of node connections.
+     */
+   @Test
+   public void testNetworkJacobian() {
+      final CountingResponseFunction[] counters = new CountingResponseFunction[8];
+      final MixedClearingNetwork
+         analytic = createNetwork(2L, true, null),
+         numerical = createNetwork(2L, false, counters);
+      final LevenbergMarquardtClearingAlgorithm algorithm = 
+         new LevenbergMarquardtClearingAlgorithm(100, 1000, 1.e-12, 1.e-12);
+      final double[] point = new double[analytic.getNumberOfEdges()];
+      final Random dice = new Random(3L);
+      for(int i = 0; i< point.length; ++i)
+         point[i] = .5 + dice.nextDouble();
+      final double[][]
+         expected = algorithm.getJacobianMatrixFunction(analytic).value(point),
+         gained = algorithm.getJacobianMatrixFunction(numerical).value(point);
+      Assert.assertEquals(gained.length, point.length);
+      boolean isAnyDerivativeNonzero = false;
+      for(int i = 0; i< point.length; ++i)
+         for(int j = 0; j< point.length; ++j) {
+            Assert.assertEquals(gained[i][j], expected[i][j], 1.e-5);
+            isAnyDerivativeNonzero |= (expected[i][j] != 0.);
+         }
+      Assert.assertTrue(isAnyDerivativeNonzero);
+      int numberOfEvaluations = 0;
+      for(final CountingResponseFunction counter : counters)
+         numberOfEvaluations += counter.numberOfEvaluations;
+      Assert.assertEquals(numberOfEvaluations, 2 * 2 * 15);  // Two per node connection
+   }
+   
+   /**
+     * Assert that the Levenberg-Marquardt algorithm clears a network using the
+     * analytic network Jacobian.
+     */
+   @Test
+   public void testLevenbergMarquardtClearsNetwork() {
+      final MixedClearingNetwork network = createNetwork(4L, true, null);
+      network.applyClearingAlgorithm(
+         new LevenbergMarquardtClearingAlgorithm(200, 2000, 1.e-14, 1.e-14));
+      Assert.assertTrue(network.getResidualCost() < 1.e-10, 
+         "residual: " + network.getResidualCost());
+   }
+}
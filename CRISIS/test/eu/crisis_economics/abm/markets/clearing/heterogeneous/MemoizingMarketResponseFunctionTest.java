@@ -0,0 +1,176 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.MarketResponseFunction.TradeOpportunity;
+import eu.crisis_economics.abm.strategy.clearing.UncollateralizedReturnMaximizerMRFBuilder;
+
+/**
+  * Unit tests for the {@link MemoizingMarketResponseFunction}. These tests compare
+  * the decorated response function of a bank (a portfolio optimization) with the
+  * exact response function.
+  * 
+  * @author phillips
+  */
+public final class MemoizingMarketResponseFunctionTest {
+   
+   private static MarketResponseFunction createBankResponseFunction() {
+      final UncollateralizedReturnMaximizerMRFBuilder builder =
+         new UncollateralizedReturnMaximizerMRFBuilder();
+      builder.addAsset("Low Risk Commercial Loan", 1.10, -1.e-2, 0.);
+      builder.addAsset("Medium Risk Commercial Loan", 1.12, -2.e-2, 0.);
+      builder.addAsset("High Risk Commercial Loan", 1.14, -4.e-2, 0.);
+      builder.addLiability("Bank Bond", 1.05, 0., 0.);
+      builder.setParticipantCashToSpend(1.);
+      builder.setParticipantEquity(10.);
+      builder.setParticipantLeverage(1.);
+      return builder.build();
+   }
+   
+   private static TradeOpportunity[] createTradeOpportunities(final double[] rates) {
+      final String[] instruments = {
+         "Low Risk Commercial Loan", "Medium Risk Commercial Loan",
+         "High Risk Commercial Loan", "Bank Bond" };
+      final TradeOpportunity[] result = new TradeOpportunity[rates.length];
+      for(int i = 0; i< rates.length; ++i)
+         result[i] = TradeOpportunity.create(
+            rates[i], new ClearingInstrument("Test Market", instruments[i]), "Party " + i);
+      return result;
+   }
+   
+   private static final int[]
+      ALL_QUERIES = { 0, 1, 2, 3 };
+   
+   /**
+     * Assert that a memoizing decorator with exact keys reproduces the exact
+     * response function bit for bit, for complete and partial queries, and that
+     * repeated queries are answered from the cache.
+     */
+   @Test
+   public void testExactMemoizationIsTransparent() {
+      final MarketResponseFunction
+         exact = createBankResponseFunction();
+      final MemoizingMarketResponseFunction
+         memoized = new MemoizingMarketResponseFunction(createBankResponseFunction());
+      final Random dice = new Random(1L);
+      final double[][] rates = new double[20][];
+      for(int k = 0; k< rates.length; ++k)
+         rates[k] = new double[] {
+            .1 + .1 * dice.nextDouble(), .1 + .1 * dice.nextDouble(),
+            .1 + .1 * dice.nextDouble(), .05 * dice.nextDouble() };
+      for(int pass = 0; pass< 2; ++pass)
+         for(int k = 0; k< rates.length; ++k) {
+            final TradeOpportunity[] opportunities = createTradeOpportunities(rates[k]);
+            final double[]
+               expected = exact.getValue(ALL_QUERIES, opportunities),
+               gained = memoized.getValue(ALL_QUERIES, opportunities),
+               partial = memoized.getValue(new int[] { 3, 1 }, opportunities);
+            for(int i = 0; i< ALL_QUERIES.length; ++i)
+               Assert.assertEquals(
+                  Double.doubleToLongBits(gained[i]), Double.doubleToLongBits(expected[i]));
+            Assert.assertEquals(partial[0], expected[3]);
+            Assert.assertEquals(partial[1], expected[1]);
+         }
+      Assert.assertEquals(memoized.getNumberOfCacheMisses(), 20);
+      Assert.assertEquals(memoized.getNumberOfCacheHits(), 60);
+      Assert.assertEquals(memoized.getNumberOfImplementationEvaluations(), 20);
+      Assert.assertEquals(memoized.getCacheHitRate(), .75, 1.e-12);
+   }
+   
+   /**
+     * Assert that the least recently used rate vector is evicted when the cache
+     * is full, and that the cache is cleared when the trade opportunities change.
+     */
+   @Test
+   public void testLeastRecentlyUsedEviction() {
+      final MemoizingMarketResponseFunction
+         memoized = new MemoizingMarketResponseFunction(
+            createBankResponseFunction(), 2, 0., 0.);
+      final TradeOpportunity[]
+         first = createTradeOpportunities(new double[] { .10, .11, .12, .01 }),
+         second = createTradeOpportunities(new double[] { .11, .11, .12, .01 }),
+         third = createTradeOpportunities(new double[] { .12, .11, .12, .01 });
+      memoized.getValue(ALL_QUERIES, first);
+      memoized.getValue(ALL_QUERIES, second);
+      memoized.getValue(ALL_QUERIES, first);                  // Hit; second is now eldest
+      memoized.getValue(ALL_QUERIES, third);                  // Evicts second
+      memoized.getValue(ALL_QUERIES, first);                  // Hit
+      Assert.assertEquals(memoized.getNumberOfCacheHits(), 2);
+      memoized.getValue(ALL_QUERIES, second);                 // Miss
+      Assert.assertEquals(memoized.getNumberOfCacheMisses(), 4);
+      Assert.assertEquals(memoized.getCacheSize(), 2);
+      
+      final TradeOpportunity[] otherParties = {
+         TradeOpportunity.create(.10, first[0].getInstrument(), "Other Party"),
+         first[1], first[2], first[3] };
+      memoized.getValue(ALL_QUERIES, otherParties);
+      Assert.assertEquals(memoized.getCacheSize(), 1);
+   }
+   
+   /**
+     * Compare the local linear surrogate with the exact response function at
+     * random rates close to a fixed anchor. Assert that (a) the surrogate is
+     * refreshed only when queries leave the trust region, and (b) the error of
+     * the surrogate is small compared with the scale of the exact response.
+     */
+   @Test
+   public void testSurrogateErrorIsSmall() {
+      final MarketResponseFunction
+         exact = createBankResponseFunction();
+      final double trustRegionRadius = 1.e-3;
+      final MemoizingMarketResponseFunction
+         surrogate = new MemoizingMarketResponseFunction(
+            createBankResponseFunction(), 64, 1.e-9, trustRegionRadius);
+      final double[] anchor = { .12, .14, .16, .02 };
+      final Random dice = new Random(2L);
+      double
+         maximumError = 0.,
+         responseScale = 0.;
+      for(int k = 0; k< 50; ++k) {
+         final double[] rates = anchor.clone();
+         if(k > 0)
+            for(int i = 0; i< rates.length; ++i)
+               rates[i] += trustRegionRadius * (2. * dice.nextDouble() - 1.);
+         final TradeOpportunity[] opportunities = createTradeOpportunities(rates);
+         final double[]
+            expected = exact.getValue(ALL_QUERIES, opportunities),
+            gained = surrogate.getValue(ALL_QUERIES, opportunities);
+         for(int i = 0; i< ALL_QUERIES.length; ++i) {
+            maximumError = Math.max(maximumError, Math.abs(gained[i] - expected[i]));
+            responseScale = Math.max(responseScale, Math.abs(expected[i]));
+         }
+      }
+      Assert.assertEquals(surrogate.getNumberOfSurrogateRefreshes(), 1);
+      Assert.assertEquals(surrogate.getNumberOfSurrogateHits(), 49);
+      Assert.assertEquals(surrogate.getNumberOfImplementationEvaluations(), 5);
+      Assert.assertTrue(responseScale > 0.);
+      Assert.assertTrue(maximumError <= 1.e-2 * responseScale,
+         "surrogate error: " + maximumError + ", response scale: " + responseScale);
+      
+      // A query outside the trust region refreshes the surrogate.
+      final double[] distant = { .15, .14, .16, .02 };
+      surrogate.getValue(ALL_QUERIES, createTradeOpportunities(distant));
+      Assert.assertEquals(surrogate.getNumberOfSurrogateRefreshes(), 2);
+   }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for the {@link MixedClearingNetworkIndex}.
+  * 
+  * @author phillips
+  */
+public final class MixedClearingNetworkIndexTest {
+   
+   private static final ResourceExchangeDelegate
+      NO_EXCHANGE = new ResourceExchangeDelegate() {
+         @Override
+         public void commit(final MixedClearingNetworkResult result) { }
+      };
+   
+   /**
+     * Build a network with a random mixture of singleton edges and hyperedges.
+     * Assert that (a) the CSR incidence arrays of the index are consistent and 
+     * sorted, and (b) the edges touching each edge, according to the index, are
+     * exactly the edges for which {@link MixedClearingNetworkEdge#touchesEdge} is
+     * {@code true}.
+     */
+   @Test
+   public void testIndexAgreesWithEdgeIntersections() {
+      final Random dice = new Random(1L);
+      final List<MixedClearingTestNode>
+         demandNodes = new ArrayList<MixedClearingTestNode>(),
+         supplyNodes = new ArrayList<MixedClearingTestNode>();
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      for(int i = 0; i< 12; ++i) {
+         final MixedClearingTestNode node =
+            MixedClearingTestNode.createPolynomialDemandNode(dice, 1.);
+         demandNodes.add(node);
+         builder.addNetworkNode(node, node.getResponseFunction(), node.getUniqueID());
+      }
+      for(int j = 0; j< 8; ++j) {
+         final MixedClearingTestNode node =
+            MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.);
+         supplyNodes.add(node);
+         builder.addNetworkNode(node, node.getResponseFunction(), node.getUniqueID());
+      }
+      final ClearingInstrument resource = new ClearingInstrument("Mock Market", "Bond");
+      for(int k = 0; k< 10; ++k)
+         builder.addEdge(
+            demandNodes.get(dice.nextInt(demandNodes.size())).getUniqueID(),
+            supplyNodes.get(dice.nextInt(supplyNodes.size())).getUniqueID(),
+            NO_EXCHANGE,
+            resource
+            );
+      for(int h = 0; h< 3; ++h) {
+         final String name = "Hyperedge " + h;
+         builder.addHyperEdge(name);
+         for(int k = 0; k< 3; ++k)
+            builder.addToHyperEdge(
+               demandNodes.get(dice.nextInt(demandNodes.size())).getUniqueID(),
+               supplyNodes.get(dice.nextInt(supplyNodes.size())).getUniqueID(),
+               NO_EXCHANGE,
+               name,
+               resource
+               );
+      }
+      final MixedClearingNetwork network = builder.build();
+      final MixedClearingNetworkIndex index = network.getIndex();
+      final List<MixedClearingNetworkEdge> edges = network.getEdges();
+      
+      Assert.assertEquals(index.getNumberOfNodes(), 20);
+      Assert.assertEquals(index.getNumberOfEdges(), 13);
+      for(int e = 0; e< index.getNumberOfEdges(); ++e) {
+         for(int k = 1; k< index.getNumberOfNodesOfEdge(e); ++k)
+            Assert.assertTrue(index.getNodeOfEdge(e, k - 1) < index.getNodeOfEdge(e, k));
+         for(int k = 0; k< index.getNumberOfNodesOfEdge(e); ++k) {
+            final int node = index.getNodeOfEdge(e, k);
+            boolean isTransposed = false;
+            for(int m = 0; m< index.getNumberOfEdgesOfNode(node); ++m)
+               isTransposed |= (index.getEdgeOfNode(node, m) == e);
+            Assert.assertTrue(isTransposed);
+         }
+      }
+      for(int i = 0; i< edges.size(); ++i) {
+         final BitSet touching = index.getEdgesTouchingEdge(i);
+         for(int j = 0; j< edges.size(); ++j)
+            Assert.assertEquals(touching.get(j), edges.get(j).touchesEdge(edges.get(i)));
+      }
+      
+      // The index is recomputed when the network is modified.
+      builder.addEdge(
+         demandNodes.get(0).getUniqueID(), supplyNodes.get(0).getUniqueID(),
+         NO_EXCHANGE, resource);
+      Assert.assertEquals(network.getIndex().getNumberOfEdges(), 14);
+   }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for the lazy refresh of node responses in a {@link 
+  * MixedClearingNetwork}, and for the running network residual.
+  * 
+  * @author phillips
+  */
+public final class MixedClearingNetworkRefreshTest {
+   
+   /*
+    * Create a network in which every demand node is connected to every supply
+    * node. The network has numDemandNodes * numSupplyNodes edges.
+    */
+   private static MixedClearingNetwork createNetwork(
+      final int numDemandNodes,
+      final int numSupplyNodes,
+      final long seed
+      ) {
+      final Random dice = new Random(seed);
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      final List<String>
+         demandIDs = new ArrayList<String>(),
+         supplyIDs = new ArrayList<String>();
+      for(int i = 0; i< numDemandNodes; ++i) {
+         final MixedClearingTestNode node =
+            MixedClearingTestNode.createPolynomialDemandNode(dice, 1.);
+         builder.addNetworkNode(node, node.getResponseFunction(), node.getUniqueID());
+         demandIDs.add(node.getUniqueID());
+      }
+      for(int j = 0; j< numSupplyNodes; ++j) {
+         final MixedClearingTestNode node =
+            MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.);
+         builder.addNetworkNode(node, node.getResponseFunction(), node.getUniqueID());
+         supplyIDs.add(node.getUniqueID());
+      }
+      for(final String demandID : demandIDs)
+         for(final String supplyID : supplyIDs)
+            builder.addEdge(demandID, supplyID, new ResourceExchangeDelegate() {
+                  @Override
+                  public void commit(final MixedClearingNetworkResult result) { }
+               },
+               new ClearingInstrument("Mock Market", "Bond")
+               );
+      final MixedClearingNetwork result = builder.build();
+      for(int i = 0; i< result.getNumberOfEdges(); ++i)
+         result.getEdges().get(i).setEdgeRate(.2 + .5 * dice.nextDouble());
+      return result;
+   }
+   
+   private static double computeResidualExactly(final MixedClearingNetwork network) {
+      double result = 0.;
+      for(final MixedClearingNetworkEdge edge : network.getEdges())
+         result += edge.getSquareCost();
+      return result / network.getNumberOfEdges();
+   }
+   
+   /**
+     * Assert that refreshing a network evaluates only the nodes touching edges
+     * whose rates have changed, and that refreshing a network whose edge rates
+     * are unchanged evaluates no nodes.
+     */
+   @Test
+   public void testRefreshEvaluatesOnlyNodesWithMovedEdges() {
+      final MixedClearingNetwork network = createNetwork(4, 5, 1L);
+      network.updateAllVertexResponses();
+      long evaluations = network.countResponseEvaluations();
+      for(int i = 0; i< network.getNumberOfEdges(); ++i)
+         network.setEdgeRate(i, network.getEdges().get(i).getEdgeRate());
+      network.refreshVertexResponses();
+      Assert.assertEquals(network.countResponseEvaluations(), evaluations);
+      
+      final int movedEdge = 7;
+      for(int i = 0; i< network.getNumberOfEdges(); ++i)
+         network.setEdgeRate(i, network.getEdges().get(i).getEdgeRate() * 
+            (i == movedEdge ? 1.1 : 1.));
+      network.refreshVertexResponses();
+      Assert.assertEquals(network.countResponseEvaluations(), evaluations + 2);
+      evaluations = network.countResponseEvaluations();
+      
+      network.refreshVertexResponses();
+      Assert.assertEquals(network.countResponseEvaluations(), evaluations);
+   }
+   
+   /**
+     * Modify the edge rates of a network (a) through the network and (b) 
+     * directly through its edges, as marching algorithms do. Assert that the 
+     * refreshed node responses are identical to the responses of an identical
+     * network whose nodes are all evaluated, and that the running network 
+     * residual agrees with the residual computed exactly.
+     */
+   @Test
+   public void testRefreshAndRunningResidualAreExact() {
+      final MixedClearingNetwork
+         network = createNetwork(6, 5, 2L),
+         reference = createNetwork(6, 5, 2L);
+      network.updateAllVertexResponses();
+      final Random dice = new Random(3L);
+      for(int step = 0; step< 200; ++step) {
+         final int edgeIndex = dice.nextInt(network.getNumberOfEdges());
+         final double rate = .2 + .5 * dice.nextDouble();
+         if(step % 3 == 0) {
+            final MixedClearingNetworkEdge edge = network.getEdges().get(edgeIndex);
+            edge.setEdgeRate(rate);
+            edge.flagNodesResponsesForUpdate();
+            edge.updateNodeResponses();
+            network.markEdgeForRefresh(edgeIndex);
+         }
+         else
+            network.setEdgeRate(edgeIndex, rate);
+         if(step % 5 == 4) {
+            network.refreshVertexResponses();
+            for(int i = 0; i< network.getNumberOfEdges(); ++i)
+               reference.getEdges().get(i).setEdgeRate(network.getEdges().get(i).getEdgeRate());
+            reference.updateAllVertexResponses();
+            for(int i = 0; i< network.getNumberOfEdges(); ++i) {
+               Assert.assertEquals(
+                  Double.doubleToLongBits(network.getEdges().get(i).getCost()),
+                  Double.doubleToLongBits(reference.getEdges().get(i).getCost())
+                  );
+            }
+         }
+         final double expected = computeResidualExactly(network);
+         Assert.assertEquals(network.getResidualCost(), expected, 1.e-9 * expected);
+      }
+   }
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for the {@link NodeResponseEvaluator}. These tests check that
+  * clearing a {@link MixedClearingNetwork} whose node responses are evaluated
+  * concurrently yields exactly the same clearing rates, and the same residual,
+  * as clearing an identical network whose node responses are evaluated in
+  * sequence.
+  * 
+  * @author phillips
+  */
+public final class NodeResponseEvaluatorTest {
+   
+   private static MixedClearingNetwork createNetwork(
+      final int numDemandNodes,
+      final int numSupplyNodes,
+      final long seed
+      ) {
+      final List<MixedClearingTestNode>
+         demandNodes = new ArrayList<MixedClearingTestNode>(),
+         supplyNodes = new ArrayList<MixedClearingTestNode>();
+      final Random dice = new Random(seed);
+      for(int i = 0; i< numDemandNodes; ++i)
+         demandNodes.add(MixedClearingTestNode.createPolynomialDemandNode(dice, 1.));
+      for(int j = 0; j< numSupplyNodes; ++j)
+         supplyNodes.add(MixedClearingTestNode.createPolynomialSupplyNode(dice, 1.));
+      final MixedClearingNetwork.Builder builder = new MixedClearingNetwork.Builder();
+      final List<MixedClearingTestNode> allNodes = new ArrayList<MixedClearingTestNode>();
+      allNodes.addAll(demandNodes);
+      allNodes.addAll(supplyNodes);
+      for(final MixedClearingTestNode node : allNodes)
+         builder.addNetworkNode(node, node.getResponseFunction(), node.getUniqueID());
+      for(int i = 0; i< numDemandNodes; ++i)
+         for(int j = 0; j< numSupplyNodes; ++j)
+            builder.addEdge(
+               demandNodes.get(i).getUniqueID(),
+               supplyNodes.get(j).getUniqueID(),
+               new ResourceExchangeDelegate() {
+                  @Override
+                  public void commit(final MixedClearingNetworkResult result) { }
+               },
+               new ClearingInstrument("Mock Market", "Bond")
+               );
+      return builder.build();
+   }
+   
+   private static double clear(
+      final MixedClearingNetwork network,
+      final MixedClearingNetworkAlgorithm algorithm,
+      final NodeResponseEvaluator evaluator
+      ) {
+      network.setNodeResponseEvaluator(evaluator);
+      return network.applyClearingAlgorithm(algorithm);
+   }
+   
+   private static void assertIdenticalEdgeRates(
+      final MixedClearingNetwork first,
+      final MixedClearingNetwork second
+      ) {
+      final List<MixedClearingNetworkEdge>
+         firstEdges = first.getEdges(),
+         secondEdges = second.getEdges();
+      Assert.assertEquals(firstEdges.size(), secondEdges.size());
+      for(int i = 0; i< firstEdges.size(); ++i)
+         Assert.assertEquals(
+            Double.doubleToLongBits(firstEdges.get(i).getEdgeRate()),
+            Double.doubleToLongBits(secondEdges.get(i).getEdgeRate())
+            );
+   }
+   
+   /**
+     * Clear two identical, completely heterogeneous networks with a descending 
+     * march clearing algorithm. The responses of the nodes of the first network 
+     * are evaluated in sequence. The responses of the nodes of the second network
+     * are evaluated by four threads. This test asserts that the residual costs and
+     * the edge rates of both networks are identical.
+     */
+   @Test
+   public void testParallelMarchIsReproducible() {
+      final NodeResponseEvaluator
+         serial = new NodeResponseEvaluator(1, 1),
+         parallel = new NodeResponseEvaluator(4, 4);
+      try {
+         final MixedClearingNetwork
+            first = createNetwork(30, 30, 6L),
+            second = createNetwork(30, 30, 6L);
+         final double
+            firstResidual = clear(first, createMarchAlgorithm(), serial),
+            secondResidual = clear(second, createMarchAlgorithm(), parallel);
+         Assert.assertFalse(Double.isNaN(firstResidual));
+         Assert.assertEquals(
+            Double.doubleToLongBits(firstResidual), Double.doubleToLongBits(secondResidual));
+         Assert.assertEquals(
+            Double.doubleToLongBits(first.getResidualCost()),
+            Double.doubleToLongBits(second.getResidualCost())
+            );
+         assertIdenticalEdgeRates(first, second);
+      }
+      finally {
+         parallel.setNumberOfThreads(1);
+      }
+   }
+   
+   private static MixedClearingNetworkAlgorithm createMarchAlgorithm() {
+      return new DescentMarchHeterogeneousClearingAlgorithm(
+         15, 1.e-10, new TargetResidualOrMaximumIterationsStoppingCondition(1.e-10, 7));
+   }
+   
+   /**
+     * Assert that a failure raised by a node response function evaluated by a
+     * worker thread is rethrown by the calling thread.
+     */
+   @Test
+   public void testWorkerFailureIsRethrown() {
+      final NodeResponseEvaluator evaluator = new NodeResponseEvaluator(2, 1);
+      try {
+         final List<Node> nodes = new ArrayList<Node>();
+         final MixedClearingNetwork network = createNetwork(2, 2, 1L);
+         nodes.add(null);
+         nodes.add(null);
+         try {
+            evaluator.updateAllEdgeResponses(nodes);
+            Assert.fail();
+         }
+         catch(final NullPointerException expected) { }
+         network.setNodeResponseEvaluator(evaluator);
+         network.updateAllVertexResponses();
+      }
+      finally {
+         evaluator.setNumberOfThreads(1);
+      }
+   }
+   
+   /**
+     * Change the number of threads of a {@link NodeResponseEvaluator} repeatedly
+     * while another thread clears networks with it. Assert that no evaluation
+     * fails, and that every network clears to the same residual as a network
+     * whose node responses are evaluated in sequence.
+     */
+   @Test
+   public void testSetNumberOfThreadsDuringEvaluation() throws InterruptedException {
+      final NodeResponseEvaluator
+         serial = new NodeResponseEvaluator(1, 1),
+         parallel = new NodeResponseEvaluator(4, 2);
+      final double expectedResidual = 
+         clear(createNetwork(12, 12, 3L), createMarchAlgorithm(), serial);
+      final AtomicBoolean isClearing = new AtomicBoolean(true);
+      final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+      final List<Double> residuals = new CopyOnWriteArrayList<Double>();
+      final Thread clearingThread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               for(int i = 0; i< 20; ++i)
+                  residuals.add(
+                     clear(createNetwork(12, 12, 3L), createMarchAlgorithm(), parallel));
+            }
+            catch(final Throwable failure) {
+               failures.add(failure);
+            }
+            finally {
+               isClearing.set(false);
+            }
+         }
+      });
+      try {
+         clearingThread.start();
+         for(int i = 0; isClearing.get(); ++i)
+            parallel.setNumberOfThreads(2 + i % 3);
+         clearingThread.join();
+         Assert.assertTrue(failures.isEmpty(), failures.toString());
+         Assert.assertEquals(residuals.size(), 20);
+         for(final double residual : residuals)
+            Assert.assertEquals(
+               Double.doubleToLongBits(residual), Double.doubleToLongBits(expectedResidual));
+      }
+      finally {
+         parallel.setNumberOfThreads(1);
+      }
+   }
+}
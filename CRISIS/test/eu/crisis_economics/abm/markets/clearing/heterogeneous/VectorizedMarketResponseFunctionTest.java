@@ -0,0 +1,170 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.clearing.heterogeneous;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.contracts.stocks.TargetValueNoBuyingStockMarketResponseFunction;
+import eu.crisis_economics.abm.contracts.stocks.TargetValueStockMarketResponseFunction;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.MarketResponseFunction.TradeOpportunity;
+
+/**
+  * Unit tests for {@link VectorizedMarketResponseFunction}{@code s}.
+  * 
+  * @author phillips
+  */
+public final class VectorizedMarketResponseFunctionTest {
+   
+   private static final ClearingInstrument
+      INSTRUMENT = new ClearingInstrument("Mock Market", "Loan");
+   
+   private static TradeOpportunity[] createOpportunities(final double[] rates) {
+      final TradeOpportunity[] result = new TradeOpportunity[rates.length];
+      for(int i = 0; i< rates.length; ++i)
+         result[i] = TradeOpportunity.create(rates[i], INSTRUMENT, "Party " + i);
+      return result;
+   }
+   
+   private static double[] randomRates(final Random dice, final int size) {
+      final double[] result = new double[size];
+      for(int i = 0; i< size; ++i)
+         result[i] = dice.nextDouble() * .9;
+      return result;
+   }
+   
+   /*
+    * Assert that the vectorized evaluation of a response function is identical
+    * to its evaluation with trade opportunity objects, and that elements of the
+    * result buffer beyond the number of queries are not modified.
+    */
+   private static void assertVectorizedValueIsExact(
+      final VectorizedMarketResponseFunction function,
+      final int[] queries,
+      final double[] rates
+      ) {
+      Assert.assertTrue(function.isVectorized());
+      final double[]
+         expected = function.getValue(queries, createOpportunities(rates)),
+         result = new double[queries.length + 2];
+      Arrays.fill(result, -1.);
+      function.getValue(queries, rates, result);
+      for(int i = 0; i< queries.length; ++i)
+         Assert.assertEquals(result[i], expected[i], 0.);
+      Assert.assertEquals(result[queries.length], -1.);
+      Assert.assertEquals(result[queries.length + 1], -1.);
+   }
+   
+   /**
+     * Assert that the loan supply and loan demand response functions created by
+     * {@link LoanSupplierMarketResponseFunctionFactory} and {@link 
+     * LoanConsumerMarketResponseFunctionFactory} are vectorized, and that their 
+     * vectorized values are identical to their values for complete and partial
+     * queries.
+     */
+   @Test
+   public void testPartitionedResponseFunctionsAreExact() {
+      final Random dice = new Random(1L);
+      final PartitionedResponseFunction
+         supply = new PartitionedResponseFunction(
+            new ExpIOCPartitionFunction(1./.9),
+            new PolynomialSupplyInnerResponse(.2, .9, 100.)),
+         demand = new PartitionedResponseFunction(
+            new InverseExpIOCPartitionFunction(1./.9),
+            new PolynomialDemandInnerResponse(.2, .9, 100.)),
+         trivial = new PartitionedResponseFunction(
+            new TrivialUnbiasedPartitionFunction(),
+            new PolynomialSupplyInnerResponse(.2, .9, 100.));
+      for(int trial = 0; trial< 20; ++trial) {
+         final int size = dice.nextInt(8) + 1;
+         final double[] rates = randomRates(dice, size);
+         final int[]
+            complete = new int[size],
+            partial = new int[] { dice.nextInt(size), dice.nextInt(size) };
+         for(int i = 0; i< size; ++i)
+            complete[i] = i;
+         for(final PartitionedResponseFunction function :
+             new PartitionedResponseFunction[] { supply, demand, trivial }) {
+            assertVectorizedValueIsExact(function, complete, rates);
+            assertVectorizedValueIsExact(function, partial, rates);
+         }
+      }
+   }
+   
+   /**
+     * Assert that the stock market response functions are vectorized, and that
+     * their vectorized values are identical to their values.
+     */
+   @Test
+   public void testStockResponseFunctionsAreExact() {
+      final VectorizedMarketResponseFunction[] functions = {
+         new TargetValueStockMarketResponseFunction(10., 50.),
+         new TargetValueNoBuyingStockMarketResponseFunction(10., 50.)
+      };
+      for(final double price : new double[] { 0., 2., 5., 8. })
+         for(final VectorizedMarketResponseFunction function : functions)
+            assertVectorizedValueIsExact(function, new int[] { 0 }, new double[] { price });
+   }
+   
+   /**
+     * Assert that a partitioned response function with a partition function which
+     * is not vectorized is not vectorized, and that finite difference evaluations
+     * agree for vectorized and non-vectorized response functions.
+     */
+   @Test
+   public void testNonVectorizedPartitionFunction() {
+      final ExpIOCPartitionFunction partition = new ExpIOCPartitionFunction(2.);
+      final MarketResponseFunction opaquePartition = new AbstractResponseFunction() {
+         @Override
+         public double[] getValue(
+            final int[] queries, final TradeOpportunity[] opportunities) {
+            return partition.getValue(queries, opportunities);
+         }
+      };
+      final PartitionedResponseFunction
+         vectorized = new PartitionedResponseFunction(
+            partition, new PolynomialSupplyInnerResponse(.5, .9, 10.)),
+         opaque = new PartitionedResponseFunction(
+            opaquePartition, new PolynomialSupplyInnerResponse(.5, .9, 10.));
+      Assert.assertTrue(vectorized.isVectorized());
+      Assert.assertFalse(opaque.isVectorized());
+      final Random dice = new Random(2L);
+      final double[][] rates = new double[5][];
+      for(int k = 0; k< rates.length; ++k)
+         rates[k] = randomRates(dice, 4);
+      final int[] queries = { 0, 1, 2, 3 };
+      final TradeOpportunity[] opportunities = createOpportunities(rates[0]);
+      final double[][]
+         expected = MarketResponseFunction.Util.getValues(
+            opaque, queries, opportunities, rates),
+         result = MarketResponseFunction.Util.getValues(
+            vectorized, queries, opportunities, rates);
+      for(int k = 0; k< rates.length; ++k)
+         for(int i = 0; i< queries.length; ++i)
+            Assert.assertEquals(result[k][i], expected[k][i], 0.);
+      try {
+         opaque.getValue(queries, rates[0], new double[4]);
+         Assert.fail();
+      }
+      catch(final UnsupportedOperationException expectedFailure) { }
+   }
+}
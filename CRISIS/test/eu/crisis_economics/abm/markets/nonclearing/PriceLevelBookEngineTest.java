@@ -0,0 +1,431 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.markets.nonclearing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.markets.Party;
+import eu.crisis_economics.abm.markets.nonclearing.DefaultFilters.Filter;
+import eu.crisis_economics.abm.markets.nonclearing.Instrument.BookEngineType;
+import eu.crisis_economics.abm.markets.nonclearing.Instrument.MatchingMode;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Unit tests for {@link PriceLevelBookEngine}. The trades executed by this
+  * engine are compared to the trades executed by the legacy {@link BookEngine}.
+  * 
+  * @author phillips
+  */
+public class PriceLevelBookEngineTest {
+   
+   private Simulation state;
+   
+   @BeforeMethod
+   public void setUp() {
+      state = new EmptySimulation(1L);
+      state.start();
+   }
+   
+   @AfterMethod
+   public void tearDown() {
+      state.finish();
+   }
+   
+   private static final class TestParty implements Party {
+      private final String name;
+      TestParty(final String name) { this.name = name; }
+      @Override
+      public String getUniqueName() { return name; }
+      @Override
+      public void addOrder(final Order order) { }
+      @Override
+      public boolean removeOrder(final Order order) { return true; }
+      @Override
+      @Deprecated
+      public void updateState(final Order order) { }
+   }
+   
+   private static final class TestOrder extends Order {
+      private final String label;
+      TestOrder(
+         final String label,
+         final Party party,
+         final Instrument instrument,
+         final double size,
+         final double price,
+         final Filter filter
+         ) throws OrderException {
+         super(party, instrument, size, price, filter);
+         this.label = label;
+      }
+      @Override
+      protected void disallocatePartyAsset() { }
+      @Override
+      public boolean isRegisteredSeller(final Party party) { return true; }
+      @Override
+      public boolean isRegisteredBuyer(final Party party) { return true; }
+   }
+   
+   /*
+    * An instrument recording the trades it executes.
+    */
+   private static final class TestInstrument extends Instrument {
+      private static final long serialVersionUID = 1L;
+      private final List<String> trades = new ArrayList<String>();
+      TestInstrument(final MatchingMode mode, final BookEngineType type) {
+         super("TEST", new LinkedBlockingQueue<Order>(), mode,
+            new HashSet<InstrumentListener>(), type);
+      }
+      @Override
+      protected void setupContract(
+         final Order buyOrder,
+         final Order sellOrder,
+         final double quantity,
+         final double price
+         ) {
+         trades.add(buyOrder.getParty().getUniqueName() + " buys " + quantity + " from " + 
+            sellOrder.getParty().getUniqueName() + " at " + price);
+      }
+   }
+   
+   /*
+    * Submit a random stream of orders, with distinct prices, to an instrument.
+    */
+   private static List<String> submitRandomOrders(
+      final TestInstrument instrument,
+      final long seed,
+      final boolean useFilters
+      ) throws OrderException {
+      final Random random = new Random(seed);
+      final List<TestParty> parties = new ArrayList<TestParty>();
+      for(int i = 0; i< 10; ++i)
+         parties.add(new TestParty("Party" + i));
+      final HashSet<Double> pricesUsed = new HashSet<Double>();
+      for(int i = 0; i< 500; ++i) {
+         double price;
+         do {
+            price = 1. + random.nextInt(100000) / 1000.;
+         } while(!pricesUsed.add(price));
+         final double size = (1 + random.nextInt(20)) * (random.nextBoolean() ? 1 : -1);
+         final TestParty party = parties.get(random.nextInt(parties.size()));
+         final Filter filter = (useFilters && random.nextInt(4) == 0) ?
+            DefaultFilters.only(parties.get(random.nextInt(parties.size()))) :
+            DefaultFilters.any();
+         final Order order =
+            new TestOrder("Order" + i, party, instrument, size, price, filter);
+         if(random.nextInt(10) == 0)
+            order.cancel();
+      }
+      return instrument.trades;
+   }
+   
+   private static List<String> describeBook(final Collection<?> book) {
+      final List<String> result = new ArrayList<String>();
+      for(final Object element : book) {
+         final Order order = (Order) element;
+         result.add(((TestOrder) order).label + " " + order.getOpenSize() + "@" + order.getPrice());
+      }
+      return result;
+   }
+   
+   /**
+     * Test that the {@link PriceLevelBookEngine} and the {@link BookEngine} execute
+     * the same trades, and leave the same resting orders, when orders arrive
+     * asynchronously.
+     */
+   @Test
+   public void testAsynchronousMatchingAgreesWithListEngine() throws OrderException {
+      for(long seed = 0; seed< 10; ++seed) {
+         final TestInstrument
+            expected = new TestInstrument(MatchingMode.ASYNCHRONOUS, BookEngineType.LIST),
+            actual = new TestInstrument(MatchingMode.ASYNCHRONOUS, BookEngineType.PRICE_LEVEL);
+         final List<String>
+            expectedTrades = submitRandomOrders(expected, seed, seed % 2 == 0),
+            actualTrades = submitRandomOrders(actual, seed, seed % 2 == 0);
+         Assert.assertFalse(expectedTrades.isEmpty());
+         Assert.assertEquals(actualTrades, expectedTrades);
+         assertBooksAgree(expected, actual);
+      }
+   }
+   
+   /**
+     * Test that the {@link PriceLevelBookEngine} and the {@link BookEngine} execute
+     * the same trades when orders are matched synchronously.
+     */
+   @Test
+   @SuppressWarnings("deprecation")
+   public void testSynchronousMatchingAgreesWithListEngine() throws Exception {
+      for(long seed = 0; seed< 10; ++seed) {
+         final TestInstrument
+            expected = new TestInstrument(MatchingMode.SYNCHRONOUS, BookEngineType.LIST),
+            actual = new TestInstrument(MatchingMode.SYNCHRONOUS, BookEngineType.PRICE_LEVEL);
+         submitRandomOrders(expected, seed, seed % 2 == 0);
+         submitRandomOrders(actual, seed, seed % 2 == 0);
+         Assert.assertTrue(actual.trades.isEmpty());
+         expected.matchOrders();
+         actual.matchOrders();
+         Assert.assertFalse(expected.trades.isEmpty());
+         Assert.assertEquals(actual.trades, expected.trades);
+         assertBooksAgree(expected, actual);
+      }
+   }
+   
+   /**
+     * Test that the {@link PriceLevelBookEngine} and the {@link BookEngine} execute
+     * the same trades, at the same prices, for the loan order flow of 
+     * {@link MarketMatchingTest}, in both matching modes. One sell order and one
+     * crossing buy order arrive in each step.
+     */
+   @Test
+   @SuppressWarnings("deprecation")
+   public void testMarketMatchingOrderFlowAgreesWithListEngine() throws Exception {
+      final double[]
+         askSizes = new double[] { 10, 20, 30, 40 },
+         askPrices = new double[] { 1, 1.5, 3, 4 },
+         bidPrices = new double[] { 1, 2, 3.5, 4 },
+         expectedLastPrices = new double[] { 1., 1.5, 3., 4. };
+      for(final MatchingMode mode : MatchingMode.values()) {
+         final TestInstrument
+            expected = new TestInstrument(mode, BookEngineType.LIST),
+            actual = new TestInstrument(mode, BookEngineType.PRICE_LEVEL);
+         for(final TestInstrument instrument : Arrays.asList(expected, actual)) {
+            final TestParty
+               bank = new TestParty("Bank"),
+               firm = new TestParty("Firm");
+            for(int step = 0; step< askSizes.length; ++step) {
+               new TestOrder("Ask" + step, bank, instrument,
+                  askSizes[step], askPrices[step], DefaultFilters.any());
+               new TestOrder("Bid" + step, firm, instrument,
+                  -askSizes[step], bidPrices[step], DefaultFilters.any());
+               if(mode == MatchingMode.SYNCHRONOUS)
+                  instrument.matchOrders();
+               Assert.assertEquals(instrument.getLastPrice(), expectedLastPrices[step], 1.e-10);
+            }
+         }
+         Assert.assertEquals(expected.trades.size(), askSizes.length);
+         Assert.assertEquals(actual.trades, expected.trades);
+         assertBooksAgree(expected, actual);
+      }
+   }
+   
+   /**
+     * Test that, when filters prevent the best bid and ask orders from trading,
+     * synchronized matching skips the blocked order and continues to match the
+     * remaining crossing orders. The best bid and ask orders have the same entry
+     * time, so either may be the aggressor.
+     */
+   @Test
+   public void testSynchronizedOrderMatchSkipsBlockedOrders() throws Exception {
+      for(long seed = 0; seed< 10; ++seed) {
+         final TestInstrument instrument = 
+            new TestInstrument(MatchingMode.SYNCHRONOUS, BookEngineType.PRICE_LEVEL);
+         final TestParty
+            blockedBuyer = new TestParty("BlockedBuyer"),
+            buyer = new TestParty("Buyer"),
+            seller = new TestParty("Seller"),
+            other = new TestParty("Other");
+         new TestOrder("A", blockedBuyer, instrument, -1., 3., DefaultFilters.only(other));
+         new TestOrder("B", buyer, instrument, -1., 2.5, DefaultFilters.any());
+         new TestOrder("C", seller, instrument, 1., 1., DefaultFilters.any());
+         new TestOrder("D", seller, instrument, 1., 2., DefaultFilters.any());
+         state.random.setSeed(seed);
+         instrument.synchronizedOrderMatch();
+         Assert.assertEquals(instrument.trades.size(), 1);
+         Assert.assertTrue(instrument.trades.get(0).startsWith("Buyer buys 1.0 from Seller"));
+         Assert.assertEquals(
+            describeBook(instrument.getBidLimitOrders()), Arrays.asList("A 1.0@3.0"));
+         Assert.assertEquals(
+            describeBook(instrument.getAskLimitOrders()), Arrays.asList("D 1.0@2.0"));
+      }
+   }
+   
+   private static void assertBooksAgree(
+      final Instrument expected, final Instrument actual) {
+      Assert.assertEquals(
+         describeBook(actual.getBidLimitOrders()), describeBook(expected.getBidLimitOrders()));
+      Assert.assertEquals(
+         describeBook(actual.getAskLimitOrders()), describeBook(expected.getAskLimitOrders()));
+      Assert.assertEquals(actual.getBidVolume(), expected.getBidVolume(), 1.e-10);
+      Assert.assertEquals(actual.getAskVolume(), expected.getAskVolume(), 1.e-10);
+      Assert.assertEquals(actual.getBestBid(), expected.getBestBid());
+      Assert.assertEquals(actual.getBestAsk(), expected.getBestAsk());
+   }
+   
+   /**
+     * Test that resting orders at the same price are matched in order of arrival,
+     * and that orders whose filters reject the incoming order are skipped without
+     * losing their position in the queue.
+     */
+   @Test
+   public void testPriceTimePriorityAndFilters() throws OrderException {
+      final TestInstrument instrument = 
+         new TestInstrument(MatchingMode.ASYNCHRONOUS, BookEngineType.PRICE_LEVEL);
+      final TestParty
+         first = new TestParty("First"),
+         second = new TestParty("Second"),
+         third = new TestParty("Third"),
+         buyer = new TestParty("Buyer"),
+         other = new TestParty("Other");
+      new TestOrder("A", first, instrument, 1., 2., DefaultFilters.only(other));
+      new TestOrder("B", second, instrument, 1., 2., DefaultFilters.any());
+      new TestOrder("C", third, instrument, 1., 2., DefaultFilters.any());
+      new TestOrder("D", third, instrument, 1., 1.5, DefaultFilters.any());
+      Assert.assertEquals(instrument.getAskLimitOrders().size(), 4);
+      Assert.assertEquals(((TestOrder) instrument.getAskLimitOrders().get(0)).label, "D");
+      Assert.assertEquals(((TestOrder) instrument.getAskLimitOrders().get(1)).label, "A");
+      
+      new TestOrder("E", buyer, instrument, -2.5, 2., DefaultFilters.any());
+      Assert.assertEquals(instrument.trades.size(), 3);
+      Assert.assertEquals(instrument.trades.get(0), "Buyer buys 1.0 from Third at 1.5");
+      Assert.assertEquals(instrument.trades.get(1), "Buyer buys 1.0 from Second at 2.0");
+      Assert.assertEquals(instrument.trades.get(2), "Buyer buys 0.5 from Third at 2.0");
+      
+      Assert.assertEquals(
+         describeBook(instrument.getAskLimitOrders()), 
+         Arrays.asList("A 1.0@2.0", "C 0.5@2.0"));
+      Assert.assertTrue(instrument.getBidLimitOrders().isEmpty());
+   }
+   
+   /**
+     * Test that cancelled orders are removed from the book.
+     */
+   @Test
+   public void testCancelOrder() throws OrderException {
+      final TestInstrument instrument = 
+         new TestInstrument(MatchingMode.ASYNCHRONOUS, BookEngineType.PRICE_LEVEL);
+      final TestParty party = new TestParty("Party");
+      final Order
+         first = new TestOrder("A", party, instrument, -1., 1., DefaultFilters.any()),
+         second = new TestOrder("B", party, instrument, -1., 1., DefaultFilters.any()),
+         third = new TestOrder("C", party, instrument, -1., 0.5, DefaultFilters.any());
+      Assert.assertEquals(instrument.getBidLimitOrders().size(), 3);
+      second.cancel();
+      Assert.assertEquals(
+         describeBook(instrument.getBidLimitOrders()), 
+         Arrays.asList("A 1.0@1.0", "C 1.0@0.5"));
+      Assert.assertNull(instrument.processCancelOrder(second));
+      first.cancel();
+      third.cancel();
+      Assert.assertTrue(instrument.getBidLimitOrders().isEmpty());
+      Assert.assertEquals(instrument.getBidVolume(), 3., 1.e-10);
+   }
+   
+   /**
+     * Test that indexed access to the book views of a {@link PriceLevelBookEngine}
+     * agrees with iteration as orders are inserted and cancelled.
+     */
+   @Test
+   public void testIndexedAccessAgreesWithIteration() throws OrderException {
+      final TestInstrument instrument = 
+         new TestInstrument(MatchingMode.SYNCHRONOUS, BookEngineType.PRICE_LEVEL);
+      final PriceLevelBookEngine engine = new PriceLevelBookEngine(
+         new ArrayList<Order>(), new ArrayList<Order>(), null, "TEST");
+      final TestParty party = new TestParty("Party");
+      final Random random = new Random(1L);
+      final List<Order> orders = new ArrayList<Order>();
+      for(int i = 0; i< 200; ++i) {
+         final Order order = new TestOrder("Order" + i, party, instrument, 
+            -(1 + random.nextInt(5)), 1. + random.nextInt(10) / 10., DefaultFilters.any());
+         if(random.nextInt(3) == 0 && !orders.isEmpty())
+            engine.processCancelOrder(orders.remove(random.nextInt(orders.size())));
+         else {
+            engine.insertBuyOrder(order);
+            orders.add(order);
+         }
+         final List<Order> book = engine.getBidLimitOrders();
+         final List<Order> indexed = new ArrayList<Order>();
+         for(int j = 0; j< book.size(); ++j)
+            indexed.add(book.get(j));
+         Assert.assertEquals(indexed, new ArrayList<Order>(book));
+      }
+   }
+   
+   /**
+     * Test that the {@link PriceLevelBookEngine} and the {@link BookEngine} agree on
+     * the prices of market orders when several resting orders share a price.
+     */
+   @Test
+   public void testPriceAtVolumeAgreesWithListEngine() throws OrderException {
+      final TestInstrument
+         expected = new TestInstrument(MatchingMode.SYNCHRONOUS, BookEngineType.LIST),
+         actual = new TestInstrument(MatchingMode.SYNCHRONOUS, BookEngineType.PRICE_LEVEL);
+      for(final TestInstrument instrument : Arrays.asList(expected, actual)) {
+         final Random random = new Random(2L);
+         final TestParty party = new TestParty("Party");
+         for(int i = 0; i< 100; ++i) {
+            final boolean isBuy = random.nextBoolean();
+            final double price = isBuy ? 
+               .5 + random.nextInt(5) / 10. : 1.1 + random.nextInt(5) / 10.;
+            new TestOrder("Order" + i, party, instrument, 
+               (1 + random.nextInt(5)) * (isBuy ? -1 : 1), price, DefaultFilters.any());
+         }
+      }
+      Assert.assertTrue(actual.trades.isEmpty());
+      for(int depth = 0; depth< 6; ++depth) {
+         Assert.assertEquals(actual.getBidPriceAtDepth(depth), expected.getBidPriceAtDepth(depth));
+         Assert.assertEquals(actual.getAskPriceAtDepth(depth), expected.getAskPriceAtDepth(depth));
+      }
+      for(double volume = -10.; volume <= 400.; volume += 7.5) {
+         Assert.assertEquals(
+            actual.getBidPriceAtVolume(volume), expected.getBidPriceAtVolume(volume), 1.e-10);
+         Assert.assertEquals(
+            actual.getAskPriceAtVolume(volume), expected.getAskPriceAtVolume(volume), 1.e-10);
+         Assert.assertEquals(
+            actual.getBidPriceAtVolume(volume), getPriceAtVolumeByDepth(actual, volume, true), 1.e-10);
+         Assert.assertEquals(
+            actual.getAskPriceAtVolume(volume), getPriceAtVolumeByDepth(actual, volume, false), 1.e-10);
+      }
+   }
+   
+   /*
+    * Price a market order by querying the book one depth at a time.
+    */
+   private static double getPriceAtVolumeByDepth(
+      final Instrument instrument, final double volume, final boolean isBuy) {
+      double remainingVolume = volume;
+      double price = 0;
+      final int maximumDepth = isBuy ? 
+         instrument.getBidLimitOrders().size() : instrument.getAskLimitOrders().size();
+      for(int depth = 0; depth< maximumDepth; ++depth) {
+         final double
+            currentPrice = isBuy ? 
+               instrument.getAskPriceAtDepth(depth) : instrument.getBidPriceAtDepth(depth),
+            currentVolume = isBuy ? 
+               instrument.getAskVolumeAtPrice(currentPrice) : 
+               instrument.getBidVolumeAtPrice(currentPrice);
+         if(currentVolume >= remainingVolume)
+            return price + currentPrice * remainingVolume;
+         price += currentPrice * currentVolume;
+         remainingVolume -= currentVolume;
+      }
+      return price;
+   }
+}
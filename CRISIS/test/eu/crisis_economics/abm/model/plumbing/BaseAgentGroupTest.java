@@ -0,0 +1,81 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.model.plumbing;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for the type index of {@link BaseAgentGroup}.
+  * 
+  * @author phillips
+  */
+public class BaseAgentGroupTest {
+   
+   private static class Trader { }
+   private static final class Firm extends Trader { }
+   private static final class Bank extends Trader { }
+   
+   private static final class TestAgentGroup extends BaseAgentGroup {
+      private static final long serialVersionUID = 1L;
+      void add(final Object agent) {
+         addAgent(agent);
+      }
+   }
+   
+   /**
+     * Test that queries by type are cached, that cached queries are discarded
+     * when agents and markets are added, and that previously returned
+     * collections are unmodifiable and unaffected by subsequent additions.
+     */
+   @Test
+   public void testAgentsOfTypeIndex() {
+      final TestAgentGroup group = new TestAgentGroup();
+      final Firm firm = new Firm();
+      group.add(firm);
+      group.add(new Bank());
+      
+      final List<Trader> traders = group.getAgentsOfType(Trader.class);
+      Assert.assertEquals(traders.size(), 2);
+      Assert.assertSame(group.getAgentsOfType(Trader.class), traders);
+      Assert.assertEquals(group.getAgentsOfType(Firm.class).size(), 1);
+      Assert.assertSame(group.getAgentsOfType(Firm.class).get(0), firm);
+      Assert.assertSame(group.getAgents(), group.getAgents());
+      try {
+         traders.add(new Firm());
+         Assert.fail();
+      }
+      catch(final UnsupportedOperationException expected) { }
+      
+      group.add(new Firm());
+      Assert.assertEquals(traders.size(), 2);
+      Assert.assertEquals(group.getAgentsOfType(Trader.class).size(), 3);
+      Assert.assertEquals(group.getAgentsOfType(Firm.class).size(), 2);
+      Assert.assertEquals(group.getAgents().get(Firm.class).size(), 2);
+      Assert.assertEquals(group.getPopulation(), 3);
+      
+      Assert.assertTrue(group.getMarketsOfType(Object.class).isEmpty());
+      group.addMarketStructure("Market");
+      Assert.assertEquals(group.getMarketsOfType(String.class).size(), 1);
+      Assert.assertEquals(group.getMarkets().get(String.class).size(), 1);
+      Assert.assertEquals(group.getAgentsOfType(Trader.class).size(), 3);
+   }
+}
@@ -0,0 +1,571 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.model.recording;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import ai.aitia.meme.paramsweep.batch.IBatchListener;
+import ai.aitia.meme.paramsweep.platform.mason.impl.IMasonGeneratedModel;
+import ai.aitia.meme.paramsweep.platform.mason.impl.MasonRecorder;
+import ai.aitia.meme.paramsweep.platform.mason.impl.MasonRecorderListener;
+import ai.aitia.meme.paramsweep.platform.mason.recording.annotation.Recorder;
+import ai.aitia.meme.paramsweep.platform.mason.recording.annotation.Recorder.RecordTime;
+import ai.aitia.meme.paramsweep.platform.mason.recording.annotation.RecorderSource;
+import eu.crisis_economics.abm.markets.clearing.heterogeneous.AbstractClearingMarket;
+import eu.crisis_economics.abm.model.MasterModel;
+import eu.crisis_economics.abm.simulation.ConcurrentSimulationRunner;
+import eu.crisis_economics.abm.simulation.CustomSimulationCycleOrdering;
+import eu.crisis_economics.abm.simulation.EmptySimulation;
+import eu.crisis_economics.abm.simulation.NamedEventOrderings;
+import eu.crisis_economics.abm.simulation.Simulation;
+
+/**
+  * Unit tests for {@link ColumnarRecordWriter}, {@link ColumnarRecordReader},
+  * {@link ColumnarCsvExporter} and {@link ColumnarModelRecorder}.
+  * 
+  * @author phillips
+  */
+public class ColumnarRecordTest {
+   
+   private File
+      directory;
+   
+   @BeforeMethod
+   public void setUp() throws IOException {
+      directory = File.createTempFile("columnar", "");
+      directory.delete();
+      directory.mkdir();
+   }
+   
+   @AfterMethod
+   public void tearDown() {
+      for(final File file : directory.listFiles())
+         file.delete();
+      directory.delete();
+   }
+   
+   /**
+     * Write a record which spans several blocks and several segments, and test
+     * that every column is read back exactly. Then append an incomplete block to
+     * the last segment, and test that the incomplete block is ignored.
+     */
+   @Test
+   public void testWriteAndReadSegmentedRecord() throws IOException {
+      final File file = new File(directory, "Model.cols");
+      final Map<String, String> parameters = new LinkedHashMap<String, String>();
+      parameters.put("seed", "7");
+      final ColumnarRecordWriter writer = new ColumnarRecordWriter(
+         file, Arrays.asList("x", "y"), parameters, 16, 1024);
+      final int numberOfRows = 1000;
+      for(int i = 0; i< numberOfRows; ++i)
+         writer.append(1, i + 1, new double[] { Math.sqrt(i), i % 7 == 0 ? Double.NaN : -i });
+      writer.close();
+      Assert.assertTrue(writer.getNumberOfSegments() > 1);
+      Assert.assertTrue(ColumnarRecordWriter.segmentFile(file, 1).isFile());
+      Assert.assertEquals(
+         ColumnarRecordWriter.segmentFile(file, 2).getName(), "Model-part2.cols");
+      
+      ColumnarRecordReader reader = new ColumnarRecordReader(file);
+      Assert.assertEquals(reader.getColumnNames(), Arrays.asList("run", "tick", "x", "y"));
+      Assert.assertEquals(reader.getParameters(), parameters);
+      Assert.assertEquals(reader.getNumberOfRows(), numberOfRows);
+      final double[]
+         ticks = reader.readColumn("tick"),
+         x = reader.readColumn("x"),
+         y = reader.readColumn(3);
+      for(int i = 0; i< numberOfRows; ++i) {
+         Assert.assertEquals(ticks[i], i + 1.);
+         Assert.assertEquals(x[i], Math.sqrt(i));
+         if(i % 7 == 0)
+            Assert.assertTrue(Double.isNaN(y[i]));
+         else
+            Assert.assertEquals(y[i], -i + 0.);
+      }
+      reader.close();
+      
+      final File last = ColumnarRecordWriter.segmentFile(file, writer.getNumberOfSegments() - 1);
+      final FileOutputStream stream = new FileOutputStream(last, true);
+      stream.write(new byte[] { 0, 0, 0, 16, 0, 0, 1 });
+      stream.close();
+      reader = new ColumnarRecordReader(file);
+      Assert.assertEquals(reader.getNumberOfRows(), numberOfRows);
+      reader.close();
+      
+      Assert.assertFalse(ColumnarRecordReader.isColumnarRecord(new File(directory, "none")));
+   }
+   
+   /**
+     * Test that a columnar record is exported in the recorder CSV format.
+     */
+   @Test
+   public void testExportToCsv() throws IOException {
+      final File file = new File(directory, "Model.cols");
+      final Map<String, String> parameters = new LinkedHashMap<String, String>();
+      parameters.put("seed", "1");
+      final ColumnarRecordWriter writer = new ColumnarRecordWriter(
+         file, Arrays.asList("a", "bMulti_0", "bMulti_1"), parameters, 2, 1 << 20);
+      for(int i = 0; i< 5; ++i)
+         writer.append(1, i + 1, new double[] { i, 2. * i, .5 });
+      writer.close();
+      
+      final List<String> lines = exportToCsv(file);
+      Assert.assertEquals(lines.size(), 12);
+      Assert.assertTrue(lines.get(0).startsWith("Timestamp: "));
+      Assert.assertEquals(lines.get(1), "seed: 1");
+      Assert.assertEquals(lines.get(2), "");
+      Assert.assertEquals(lines.get(3), "");
+      Assert.assertEquals(lines.get(4), "\"run\"|\"tick\"|\"a\"|\"bMulti_0\"|\"bMulti_1\"");
+      Assert.assertEquals(lines.get(5), "1|1.0|0.0|0.0|0.5");
+      Assert.assertEquals(lines.get(9), "1|5.0|4.0|8.0|0.5");
+      Assert.assertEquals(lines.get(10), "");
+      Assert.assertTrue(lines.get(11).startsWith("End Time: "));
+   }
+   
+   private static List<String> exportToCsv(final File file) throws IOException {
+      final ColumnarRecordReader reader = new ColumnarRecordReader(file);
+      final StringWriter csv = new StringWriter();
+      ColumnarCsvExporter.export(reader, csv, "|");
+      reader.close();
+      return readLines(new BufferedReader(new StringReader(csv.toString())));
+   }
+   
+   private static List<String> readLines(final BufferedReader text) throws IOException {
+      final List<String> lines = new ArrayList<String>();
+      for(String line = text.readLine(); line != null; line = text.readLine())
+         lines.add(line);
+      text.close();
+      return lines;
+   }
+   
+   /**
+     * A minimal model with {@link Recorder} sources.
+     */
+   @Recorder(
+      value = "./RecordedSimulation.csv",
+      sources = {
+         "cycle",
+         "values",
+         "avg(values)",
+         "max(values)",
+         "sd(values)",
+         "noSuchSource"
+      })
+   public static class RecordedSimulation extends EmptySimulation {
+      private static final long serialVersionUID = 1L;
+      
+      public RecordedSimulation(final long seed) {
+         super(seed);
+      }
+      
+      @Override
+      public void start() {
+         super.start();
+         schedule.scheduleRepeating(new Steppable() {      // Keep the schedule alive
+            private static final long serialVersionUID = 1L;
+            @Override
+            public void step(final SimState state) { }
+         });
+      }
+      
+      @RecorderSource("cycle")
+      public double getCycle() {
+         return Simulation.getCycleIndex();
+      }
+      
+      public int getNumberOfValues() {
+         return 3;
+      }
+      
+      @RecorderSource(value = "values", collectionLengthMember = "getNumberOfValues()")
+      public List<Double> getValues() {
+         final double t = Simulation.getCycleIndex();
+         return Arrays.asList(t, 2. * t);
+      }
+   }
+   
+   /**
+     * Run a model with columnar recording enabled, and test the recorded columns.
+     */
+   @Test
+   public void testModelRecorder() throws IOException {
+      final File file = new File(directory, "RecordedSimulation-run1.cols");
+      System.setProperty(ColumnarModelRecorder.OUTPUT_PROPERTY,
+         new File(directory, "RecordedSimulation.cols").getPath());
+      try {
+         final RecordedSimulation model = new RecordedSimulation(1L);
+         ConcurrentSimulationRunner.runToTime(model, 5.);
+      }
+      finally {
+         System.clearProperty(ColumnarModelRecorder.OUTPUT_PROPERTY);
+      }
+      final ColumnarRecordReader reader = new ColumnarRecordReader(file);
+      Assert.assertEquals(reader.getColumnNames(), Arrays.asList(
+         "run", "tick", "cycle", "valuesMulti_0", "valuesMulti_1", "valuesMulti_2",
+         "avg(values)", "max(values)", "sd(values)"));
+      Assert.assertTrue(reader.getParameters().isEmpty());
+      final int numberOfRows = reader.getNumberOfRows();
+      Assert.assertTrue(numberOfRows >= 4);
+      final double[]
+         runs = reader.readColumn("run"),
+         ticks = reader.readColumn("tick"),
+         cycle = reader.readColumn("cycle"),
+         second = reader.readColumn("valuesMulti_1"),
+         third = reader.readColumn("valuesMulti_2"),
+         mean = reader.readColumn("avg(values)"),
+         max = reader.readColumn("max(values)"),
+         sd = reader.readColumn("sd(values)");
+      for(int i = 0; i< numberOfRows; ++i) {
+         final double t = cycle[i];
+         Assert.assertEquals(runs[i], 1.);
+         Assert.assertEquals(ticks[i], t);
+         Assert.assertEquals(second[i], 2. * t);
+         Assert.assertTrue(Double.isNaN(third[i]));
+         Assert.assertEquals(mean[i], 1.5 * t, 1.e-12);
+         Assert.assertEquals(max[i], 2. * t);
+         Assert.assertEquals(sd[i], t / Math.sqrt(2.), 1.e-12);
+      }
+      reader.close();
+   }
+   
+   /**
+     * Run several models concurrently with columnar recording enabled, and test 
+     * that each run is recorded to its own file, labelled with its own run number.
+     */
+   @Test
+   public void testEachRunIsRecordedToItsOwnFile() throws Exception {
+      final int numberOfRuns = 3;
+      final ConcurrentSimulationRunner runner = new ConcurrentSimulationRunner(numberOfRuns);
+      final List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+      for(int i = 0; i< numberOfRuns; ++i) {
+         final long seed = i;
+         tasks.add(new Callable<Long>() {
+            @Override
+            public Long call() {
+               ConcurrentSimulationRunner.runToTime(new RecordedSimulation(seed), 3.);
+               return ColumnarModelRecorder.getRunNumber(Simulation.getSimState());
+            }
+         });
+      }
+      System.setProperty(ColumnarModelRecorder.OUTPUT_PROPERTY,
+         new File(directory, "RecordedSimulation.cols").getPath());
+      final List<Long> runNumbers;
+      try {
+         runNumbers = runner.invokeAll(tasks);
+      }
+      finally {
+         System.clearProperty(ColumnarModelRecorder.OUTPUT_PROPERTY);
+         runner.shutdown();
+      }
+      Assert.assertEquals(runNumbers, Arrays.asList(1L, 2L, 3L));
+      for(final long run : runNumbers) {
+         final File file = new File(directory, "RecordedSimulation-run" + run + ".cols");
+         Assert.assertEquals(
+            ColumnarModelRecorder.getRunFile(new File(directory, "RecordedSimulation.cols"), run),
+            file);
+         final ColumnarRecordReader reader = new ColumnarRecordReader(file);
+         Assert.assertTrue(reader.getNumberOfRows() >= 3);
+         for(final double value : reader.readColumn("run"))
+            Assert.assertEquals(value, (double) run);
+         reader.close();
+      }
+   }
+   
+   /**
+     * A model with {@link Recorder} sources which can be recorded by both the
+     * CSV backend and the columnar backend.
+     */
+   @Recorder(
+      value = "ColumnarRecordTestComparedSimulation.csv",
+      recordAt = RecordTime.END_OF_ITERATION,
+      sources = {
+         "cycle",
+         "values",
+         "avg(values)",
+         "max(values)",
+         "sd(values)"
+      })
+   public static class ComparedSimulation extends RecordedSimulation {
+      private static final long serialVersionUID = 1L;
+      
+      public ComparedSimulation(final long seed) {
+         super(seed);
+      }
+   }
+   
+   /**
+     * Run a model once with the CSV backend and once with the columnar backend,
+     * export the columnar record to CSV, and test that the two CSV files agree
+     * (apart from timestamps). The CSV backend samples cycle {@code k} at time
+     * {@code k}, whereas the columnar backend samples cycle {@code k} at the end of
+     * the cycle. The columnar run therefore continues one cycle further.
+     */
+   @Test
+   public void testColumnarRecordAgreesWithCsvRecord() throws IOException {
+      final File csvFile = new File(
+         System.getProperty("java.io.tmpdir"), "ColumnarRecordTestComparedSimulation.csv");
+      final List<String> csv;
+      try {
+         ConcurrentSimulationRunner.runToTime(new ComparedSimulation(1L), 5.);
+         csv = readLines(new BufferedReader(new FileReader(csvFile)));
+      }
+      finally {
+         csvFile.delete();
+      }
+      System.setProperty(ColumnarModelRecorder.OUTPUT_PROPERTY,
+         new File(directory, "ComparedSimulation.cols").getPath());
+      try {
+         ConcurrentSimulationRunner.runToTime(new ComparedSimulation(1L), 6.);
+      }
+      finally {
+         System.clearProperty(ColumnarModelRecorder.OUTPUT_PROPERTY);
+      }
+      final List<String> columnar =
+         exportToCsv(new File(directory, "ComparedSimulation-run1.cols"));
+      Assert.assertTrue(csv.size() > 6);
+      assertSameRecord(columnar, csv);
+   }
+   
+   /**
+     * Assert that two recorder CSV files agree, ignoring the start and end time.
+     */
+   private static void assertSameRecord(final List<String> actual, final List<String> expected) {
+      Assert.assertEquals(actual.size(), expected.size());
+      for(int i = 0; i< actual.size(); ++i) {
+         if(expected.get(i).startsWith("Timestamp: ") || expected.get(i).startsWith("End Time: "))
+            Assert.assertEquals(
+               actual.get(i).substring(0, 5), expected.get(i).substring(0, 5));
+         else
+            Assert.assertEquals(actual.get(i), expected.get(i), "line " + i);
+      }
+   }
+   
+   /**
+     * A model which poses as a model run by the MEME batch controller, with one
+     * constant and one mutable batch parameter.
+     */
+   @Recorder(value = "BatchSimulation.csv", sources = { "cycle" })
+   public static class BatchSimulation extends RecordedSimulation implements IMasonGeneratedModel {
+      private static final long serialVersionUID = 1L;
+      
+      private long
+         run;
+      private MasonRecorder
+         csvRecorder;
+      private HashMap<String, Object>
+         constantParameters = new HashMap<String, Object>(),
+         mutableParameters = new HashMap<String, Object>();
+      
+      public BatchSimulation(final long seed, final long run) {
+         super(seed);
+         this.run = run;
+         constantParameters.put("NumberOfValues", this);
+         mutableParameters.put("Scale", this);
+      }
+      
+      public double getScale() {
+         return .5;
+      }
+      
+      /**
+        * Record this model with the CSV backend, after the columnar backend, at the
+        * end of every cycle.
+        */
+      void setCsvRecorder(final MasonRecorder csvRecorder) {
+         this.csvRecorder = csvRecorder;
+      }
+      
+      @Override
+      public void start() {
+         super.start();
+         Simulation.repeat(this, "recordCsv",
+            CustomSimulationCycleOrdering.create(NamedEventOrderings.AFTER_ALL, 300));
+      }
+      
+      @SuppressWarnings("unused")   // Scheduled
+      private void recordCsv() {
+         csvRecorder.record();
+      }
+      
+      @Override
+      public void aitiaGenerated_setRun(final long run) { this.run = run; }
+      
+      @Override
+      public long aitiaGenerated_getRun() { return run; }
+      
+      @SuppressWarnings({ "rawtypes", "unchecked" })
+      @Override
+      public void aitiaGenerated_setConstantParameterNames(final HashMap parameters) {
+         constantParameters = parameters;
+      }
+      
+      @SuppressWarnings("rawtypes")
+      @Override
+      public HashMap aitiaGenerated_getConstantParameterNames() { return constantParameters; }
+      
+      @SuppressWarnings({ "rawtypes", "unchecked" })
+      @Override
+      public void aitiaGenerated_setMutableParameterNames(final HashMap parameters) {
+         mutableParameters = parameters;
+      }
+      
+      @SuppressWarnings("rawtypes")
+      @Override
+      public HashMap aitiaGenerated_getMutableParameterNames() { return mutableParameters; }
+      
+      @Override
+      public double getCurrentTime() {                     // The columnar tick is the cycle index
+         return Simulation.getCycleIndex();
+      }
+      
+      @Override
+      public double getCurrentStep() { return schedule.getSteps(); }
+      
+      @Override
+      public Object getModel() { return this; }
+      
+      @Override
+      public void aitiaGenerated_addBatchListener(final IBatchListener listener) { }
+      @Override
+      public void aitiaGenerated_removeBatchListener(final IBatchListener listener) { }
+      @Override
+      public void aitiaGenerated_addRecorderListener(final MasonRecorderListener listener) { }
+      @Override
+      public void aitiaGenerated_removeRecorderListener(final MasonRecorderListener listener) { }
+      @Override
+      public void aitiaGenerated_writeEnd() { }
+      @Override
+      public void simulationStart() { }
+      @Override
+      public void simulationStop() { }
+      @Override
+      public void modelInitialization() { }
+      @Override
+      public void stepEnded() { }
+   }
+   
+   /**
+     * Run a batch model with columnar recording enabled, record the same run with
+     * the CSV backend, and test that the exported columnar record agrees with the
+     * CSV record: the run number, the constant parameters and the mutable 
+     * parameter columns are those of the batch run.
+     */
+   @Test
+   public void testBatchRunAgreesWithCsvRecord() throws IOException {
+      final File csvFile = new File(directory, "BatchSimulation.csv");
+      final BatchSimulation model = new BatchSimulation(1L, 7L);
+      final MasonRecorder csvRecorder = new MasonRecorder(csvFile.getPath(), model);
+      Assert.assertTrue(csvRecorder.addSource("cycle", "getCycle"));
+      model.setCsvRecorder(csvRecorder);
+      System.setProperty(ColumnarModelRecorder.OUTPUT_PROPERTY,
+         new File(directory, "BatchSimulation.cols").getPath());
+      try {
+         ConcurrentSimulationRunner.runToTime(model, 5.);
+      }
+      finally {
+         System.clearProperty(ColumnarModelRecorder.OUTPUT_PROPERTY);
+      }
+      csvRecorder.writeToFile();
+      csvRecorder.writeEnd();
+      final List<String>
+         csv = readLines(new BufferedReader(new FileReader(csvFile))),
+         columnar = exportToCsv(new File(directory, "BatchSimulation-run7.cols"));
+      Assert.assertEquals(columnar.get(1), "NumberOfValues: 3");
+      Assert.assertEquals(columnar.get(4), "\"run\"|\"tick\"|\"Scale\"|\"cycle\"");
+      Assert.assertTrue(columnar.get(5).startsWith("7|"));
+      assertSameRecord(columnar, csv);
+   }
+   
+   /**
+     * Run a {@link MasterModel} with columnar recording enabled, and test that the
+     * clearing metrics of every clearing market are recorded. Assert that the 
+     * last recorded row agrees with the metrics of the last clearing session of
+     * each market, and that aggregate columns agree with per-market columns.
+     */
+   @Test
+   public void testClearingMarketMetricsAreRecorded() throws IOException {
+      final File file = new File(directory, "MasterModel-run1.cols");
+      final MasterModel model = new MasterModel(1L);
+      System.setProperty(ColumnarModelRecorder.OUTPUT_PROPERTY,
+         new File(directory, "MasterModel.cols").getPath());
+      try {
+         ConcurrentSimulationRunner.runToTime(model, 5.);
+      }
+      finally {
+         System.clearProperty(ColumnarModelRecorder.OUTPUT_PROPERTY);
+      }
+      final List<AbstractClearingMarket> markets =
+         model.getClearingHouse().getMarketsOfType(AbstractClearingMarket.class);
+      Assert.assertFalse(markets.isEmpty());
+      final ColumnarRecordReader reader = new ColumnarRecordReader(file);
+      final int last = reader.getNumberOfRows() - 1;
+      Assert.assertTrue(last >= 3);
+      final double[]
+         totalIterations = reader.readColumn("sum(clearingMarketClearingIterations)"),
+         totalEvaluations = reader.readColumn("sum(clearingMarketClearingResponseEvaluations)"),
+         maximumResidual = reader.readColumn("max(clearingMarketClearingResidual)");
+      double
+         sumOfIterations = 0.,
+         sumOfEvaluations = 0.,
+         maxOfResiduals = Double.NEGATIVE_INFINITY;
+      for(int i = 0; i< markets.size(); ++i) {
+         final AbstractClearingMarket market = markets.get(i);
+         final double
+            iterations = reader.readColumn("clearingMarketClearingIterationsMulti_" + i)[last],
+            evaluations = 
+               reader.readColumn("clearingMarketClearingResponseEvaluationsMulti_" + i)[last],
+            residual = reader.readColumn("clearingMarketClearingResidualMulti_" + i)[last],
+            components = reader.readColumn("clearingMarketClearingComponentsMulti_" + i)[last];
+         Assert.assertEquals(iterations, market.getLastClearingIterations());
+         Assert.assertEquals(evaluations, market.getLastClearingResponseEvaluations());
+         Assert.assertEquals(components, market.getLastClearingComponents());
+         Assert.assertEquals(
+            Double.doubleToLongBits(residual),
+            Double.doubleToLongBits(market.getLastClearingResidual())
+            );
+         sumOfIterations += iterations;
+         sumOfEvaluations += evaluations;
+         maxOfResiduals = Math.max(maxOfResiduals, residual);
+      }
+      Assert.assertEquals(totalIterations[last], sumOfIterations);
+      Assert.assertEquals(totalEvaluations[last], sumOfEvaluations);
+      Assert.assertTrue(totalEvaluations[last] > 0.);
+      Assert.assertEquals(maximumResidual[last], maxOfResiduals);
+      reader.close();
+   }
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.lang.reflect.Method;
+
+import sim.engine.SimState;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for {@link MethodDispatchers}.
+  * 
+  * @author phillips
+  */
+public class MethodDispatchersTest {
+   
+   public static final class Target {
+      private int
+         publicCalls,
+         privateCalls;
+      private double
+         lastValue;
+      
+      public void publicMethod() {
+         ++publicCalls;
+      }
+      
+      @SuppressWarnings("unused")
+      private void privateMethod() {
+         ++privateCalls;
+      }
+      
+      public void primitiveArgument(final double value, final Integer count) {
+         lastValue = value * count;
+      }
+      
+      public void raiseException() {
+         throw new IllegalStateException("expected");
+      }
+   }
+   
+   private static final class PrivateTarget {
+      private int
+         calls;
+      
+      void packagePrivateMethod(final int increment) {
+         calls += increment;
+      }
+   }
+   
+   /**
+     * Test that dispatchers are bound once per method.
+     */
+   @Test
+   public void testDispatchersAreBoundOnce() throws Throwable {
+      final Method method = Target.class.getMethod("publicMethod");
+      final MethodDispatcher dispatcher = MethodDispatchers.forMethod(method);
+      Assert.assertSame(MethodDispatchers.forMethod(method), dispatcher);
+      final Target target = new Target();
+      for(int i = 0; i< 10; ++i)
+         dispatcher.invoke(target, null);
+      Assert.assertEquals(target.publicCalls, 10);
+   }
+   
+   /**
+     * Test that private methods, and package-private methods of private nested
+     * types, can be dispatched.
+     */
+   @Test
+   public void testPrivateMethodsAreDispatched() throws Throwable {
+      final Target target = new Target();
+      MethodDispatchers.forMethod(Target.class.getDeclaredMethod("privateMethod"))
+         .invoke(target, new Object[0]);
+      Assert.assertEquals(target.privateCalls, 1);
+      final PrivateTarget privateTarget = new PrivateTarget();
+      final MethodDispatcher dispatcher = MethodDispatchers.forMethod(
+         PrivateTarget.class.getDeclaredMethod("packagePrivateMethod", int.class));
+      dispatcher.invoke(privateTarget, new Object[] { 2 });
+      dispatcher.invoke(privateTarget, new Object[] { 3 });
+      Assert.assertEquals(privateTarget.calls, 5);
+   }
+   
+   private int
+      privateCallbackCalls;
+   
+   @SuppressWarnings("unused") // Scheduled
+   private void privateCallback() {
+      ++privateCallbackCalls;
+   }
+   
+   /**
+     * Test that a scheduled {@code private} callback is bound to the shared 
+     * reflective dispatcher for its method, and that the callback is executed.
+     */
+   @Test
+   public void testScheduledPrivateCallbackIsDispatchedReflectively() throws Throwable {
+      final SimState simulation = new EmptySimulation(1L);
+      simulation.start();
+      try {
+         privateCallbackCalls = 0;
+         final Simulation.ScheduledMethodInvokation event =
+            Simulation.once(this, "privateCallback", NamedEventOrderings.BEFORE_ALL);
+         final MethodDispatcher dispatcher = event.getDispatcher();
+         Assert.assertTrue(dispatcher instanceof MethodDispatchers.ReflectiveDispatcher);
+         Assert.assertSame(dispatcher, MethodDispatchers.forMethod(
+            MethodDispatchersTest.class.getDeclaredMethod("privateCallback")));
+         while(simulation.schedule.getTime() < 1.)
+            simulation.schedule.step(simulation);
+         Assert.assertEquals(privateCallbackCalls, 1);
+      }
+      finally {
+         simulation.finish();
+      }
+   }
+   
+   /**
+     * Test that boxed arguments are unboxed for methods accepting primitives.
+     */
+   @Test
+   public void testPrimitiveArguments() throws Throwable {
+      final Method method = 
+         Target.class.getMethod("primitiveArgument", double.class, Integer.class);
+      final Target target = new Target();
+      MethodDispatchers.forMethod(method).invoke(target, new Object[] { 1.5, 4 });
+      Assert.assertEquals(target.lastValue, 6., 0.);
+   }
+   
+   /**
+     * Test that exceptions raised by the bound method are not wrapped by the
+     * dispatcher.
+     */
+   @Test
+   public void testExceptionsAreNotWrapped() throws Throwable {
+      final Method method = Target.class.getMethod("raiseException");
+      try {
+         MethodDispatchers.forMethod(method).invoke(new Target(), null);
+         Assert.fail();
+      }
+      catch(final IllegalStateException expected) {
+         Assert.assertEquals(expected.getMessage(), "expected");
+      }
+   }
+   
+   void raiseError() {
+      throw new AssertionError("expected");
+   }
+   
+   /**
+     * Test that an {@link Error} raised by a scheduled event reaches the caller
+     * of the scheduler unchanged.
+     */
+   @Test
+   public void testErrorsRaisedByScheduledEventsAreNotWrapped() {
+      final SimState simulation = new EmptySimulation(1L);
+      simulation.start();
+      Simulation.once(this, "raiseError", NamedEventOrderings.BEFORE_ALL);
+      AssertionError raised = null;
+      try {
+         while(simulation.schedule.getTime() < 1.)
+            simulation.schedule.step(simulation);
+      }
+      catch(final AssertionError expected) {
+         raised = expected;
+      }
+      finally {
+         simulation.finish();
+      }
+      Assert.assertNotNull(raised);
+      Assert.assertEquals(raised.getMessage(), "expected");
+   }
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for phase batching (see {@link PhaseBatchScheduler}).
+  * 
+  * @author phillips
+  */
+public class PhaseBatchSchedulerTest {
+   
+   private static final int
+      NUMBER_OF_AGENTS = 200,
+      NUMBER_OF_CYCLES = 20;
+   
+   private static final class DummyAgent {
+      private double
+         state;
+      private final List<String>
+         log;
+      
+      DummyAgent(final List<String> log) {
+         this.log = log;
+         Simulation.repeat(this, "beforeDecision", NamedEventOrderings.BEFORE_ALL);
+         Simulation.repeat(this, "decide", NamedEventOrderings.CONSUMPTION);
+         Simulation.repeat(this, "afterDecision", NamedEventOrderings.AFTER_ALL);
+      }
+      
+      @SuppressWarnings("unused") // Scheduled
+      private void beforeDecision() {
+         log.add("before");
+      }
+      
+      @SuppressWarnings("unused") // Scheduled
+      @AgentLocalEvent
+      private void decide() {
+         state = .5 * state + Simulation.random().nextDouble();
+      }
+      
+      @SuppressWarnings("unused") // Scheduled
+      private void afterDecision() {
+         log.add("after " + Simulation.getFloorTime());
+      }
+   }
+   
+   private static final class DisobedientAgent {
+      DisobedientAgent() {
+         Simulation.once(this, "decide", NamedEventOrderings.CONSUMPTION);
+      }
+      
+      @SuppressWarnings("unused") // Scheduled
+      @AgentLocalEvent
+      private void decide() {
+         Simulation.once(this, "decide", NamedEventOrderings.CONSUMPTION);
+      }
+   }
+   
+   /*
+    * Run a simulation, with phase batching enabled, in its own context. Returns the 
+    * states of all agents after the simulation has finished, followed by the 
+    * simulation time.
+    */
+   private static List<Double> runBatchedSimulation(
+      final int numberOfThreads,
+      final List<String> log
+      ) throws Exception {
+      return new SimulationContext().callWithin(new Callable<List<Double>>() {
+         @Override
+         public List<Double> call() {
+            final Simulation simulation = new EmptySimulation(1L);
+            simulation.setPhaseBatchingEnabled(true);
+            simulation.setPhaseBatchThreads(numberOfThreads);
+            simulation.start();
+            final List<DummyAgent> agents = new ArrayList<DummyAgent>();
+            for(int i = 0; i< NUMBER_OF_AGENTS; ++i)
+               agents.add(new DummyAgent(log));
+            while(simulation.schedule.getTime() < NUMBER_OF_CYCLES)
+               simulation.schedule.step(simulation);
+            final List<Double> result = new ArrayList<Double>();
+            for(final DummyAgent agent : agents)
+               result.add(agent.state);
+            result.add(simulation.schedule.getTime());
+            simulation.finish();
+            return result;
+         }
+      });
+   }
+   
+   /**
+     * Test that the outcome of a batched simulation does not depend on the number 
+     * of threads used to execute agent-local events.
+     */
+   @Test
+   public void testBatchedSimulationIsDeterministic() throws Exception {
+      final List<Double>
+         sequential = runBatchedSimulation(1, new ArrayList<String>()),
+         concurrent = runBatchedSimulation(4, new ArrayList<String>()),
+         repeated = runBatchedSimulation(4, new ArrayList<String>());
+      Assert.assertEquals(concurrent, sequential);
+      Assert.assertEquals(repeated, sequential);
+      Assert.assertTrue(sequential.get(0).doubleValue() != sequential.get(1).doubleValue());
+   }
+   
+   /**
+     * Test that batched events execute once per cycle, and in phase order.
+     */
+   @Test
+   public void testBatchedEventsExecuteInPhaseOrder() throws Exception {
+      final List<String> log = new ArrayList<String>();
+      runBatchedSimulation(4, log);
+      Assert.assertEquals(log.size(), 2 * NUMBER_OF_AGENTS * NUMBER_OF_CYCLES);
+      for(int i = 0; i< NUMBER_OF_CYCLES; ++i) {
+         final int offset = 2 * i * NUMBER_OF_AGENTS;
+         for(int j = 0; j< NUMBER_OF_AGENTS; ++j) {
+            Assert.assertEquals(log.get(offset + j), "before");
+            Assert.assertEquals(log.get(offset + NUMBER_OF_AGENTS + j), "after " + (double) i);
+         }
+      }
+   }
+   
+   /**
+     * Test that agent-local events cannot schedule further events.
+     */
+   @Test(expectedExceptions = RuntimeException.class)
+   public void testAgentLocalEventsCannotSchedule() throws Exception {
+      new SimulationContext().callWithin(new Callable<Void>() {
+         @Override
+         public Void call() {
+            final Simulation simulation = new EmptySimulation(1L);
+            simulation.setPhaseBatchingEnabled(true);
+            simulation.start();
+            new DisobedientAgent();
+            while(simulation.schedule.getTime() < 1.)
+               simulation.schedule.step(simulation);
+            return null;
+         }
+      });
+   }
+}
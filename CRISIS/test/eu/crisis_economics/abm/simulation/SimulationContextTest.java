@@ -0,0 +1,151 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ * 
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import eu.crisis_economics.abm.Agent;
+import eu.crisis_economics.abm.agent.AgentNameFactory;
+import eu.crisis_economics.abm.agent.InstanceIDAgentNameFactory;
+
+/**
+  * Unit tests for {@link SimulationContext} and {@link ConcurrentSimulationRunner}.
+  * 
+  * @author phillips
+  */
+public class SimulationContextTest {
+   
+   /**
+     * Test that two simulations, each running in its own context, do not share
+     * simulation state, agent serial numbers, or the simulation event bus.
+     */
+   @Test
+   public void testContextsAreIsolated() throws Exception {
+      final SimulationContext
+         first = new SimulationContext(),
+         second = new SimulationContext();
+      final Simulation firstModel = first.callWithin(new Callable<Simulation>() {
+         @Override
+         public Simulation call() {
+            final Simulation result = new EmptySimulation(1L);
+            new Agent();
+            new Agent();
+            return result;
+         }
+      });
+      final String secondAgentName = second.callWithin(new Callable<String>() {
+         @Override
+         public String call() {
+            new EmptySimulation(2L);
+            return new Agent().getUniqueName();
+         }
+      });
+      Assert.assertEquals(secondAgentName, "Agent0");
+      Assert.assertSame(first.getSimState(), firstModel);
+      Assert.assertNotSame(second.getSimState(), firstModel);
+      Assert.assertNotSame(first.events(), second.events());
+      Assert.assertFalse(SimulationContext.isBoundToCurrentThread());
+   }
+   
+   /**
+     * Run several identical simulations concurrently, and test that each simulation
+     * proceeds independently of the others.
+     */
+   @Test
+   public void testConcurrentSimulations() throws Exception {
+      final int numberOfRuns = 8;
+      final ConcurrentSimulationRunner runner = new ConcurrentSimulationRunner(4);
+      final List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+      for(int i = 0; i< numberOfRuns; ++i) {
+         final long seed = i;
+         tasks.add(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+               final Simulation model = new EmptySimulation(seed);
+               model.start();
+               final List<String> names = new ArrayList<String>();
+               for(int j = 0; j< 100; ++j) {
+                  names.add(new Agent().getUniqueName());
+                  model.schedule.step(model);
+                  Assert.assertSame(Simulation.getSimState(), model);
+               }
+               model.finish();
+               return names;
+            }
+         });
+      }
+      final List<List<String>> results = runner.invokeAll(tasks);
+      runner.shutdown();
+      Assert.assertEquals(results.size(), numberOfRuns);
+      for(final List<String> names : results) {
+         Assert.assertEquals(names.size(), 100);
+         Assert.assertEquals(names, results.get(0));
+         Assert.assertEquals(names.get(0), "Agent0");
+      }
+   }
+   
+   /**
+     * Run two simulations at the same time, each naming agents with an
+     * {@link InstanceIDAgentNameFactory}, and test that both simulations generate
+     * the same sequence of agent names, starting from zero. Test that the naming
+     * counter is reset when a simulation is restarted.
+     */
+   @Test
+   public void testAgentNamesAreGeneratedPerRun() throws Exception {
+      final int numberOfRuns = 2;
+      final CountDownLatch allRunsStarted = new CountDownLatch(numberOfRuns);
+      final ConcurrentSimulationRunner runner = new ConcurrentSimulationRunner(numberOfRuns);
+      final List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+      for(int i = 0; i< numberOfRuns; ++i) {
+         final long seed = i;
+         tasks.add(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws InterruptedException {
+               final AgentNameFactory names = new InstanceIDAgentNameFactory();
+               final Simulation model = new EmptySimulation(seed);
+               final Agent agent = new Agent();
+               allRunsStarted.countDown();
+               allRunsStarted.await();
+               final List<String> result = new ArrayList<String>();
+               for(int run = 0; run< 2; ++run) {
+                  model.start();
+                  for(int j = 0; j< 1000; ++j)
+                     result.add(names.generateNameFor(agent));
+                  model.finish();
+               }
+               return result;
+            }
+         });
+      }
+      final List<List<String>> results = runner.invokeAll(tasks);
+      runner.shutdown();
+      final List<String> expected = new ArrayList<String>();
+      for(int run = 0; run< 2; ++run)
+         for(int j = 0; j< 1000; ++j)
+            expected.add("Agent" + j);
+      for(final List<String> names : results)
+         Assert.assertEquals(names, expected);
+   }
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.abm.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for {@link WorkerPool}.
+  * 
+  * @author phillips
+  */
+public class WorkerPoolTest {
+   
+   /**
+     * Test that {@link WorkerPool#partition(List, int)} splits a list into 
+     * contiguous blocks which cover every element exactly once.
+     */
+   @Test
+   public void testPartition() {
+      final List<Integer> list = Arrays.asList(0, 1, 2, 3, 4, 5, 6);
+      final List<List<Integer>> expected = new ArrayList<List<Integer>>();
+      expected.add(Arrays.asList(0, 1, 2));
+      expected.add(Arrays.asList(3, 4, 5));
+      expected.add(Arrays.asList(6));
+      Assert.assertEquals(WorkerPool.partition(list, 3), expected);
+      Assert.assertEquals(
+         WorkerPool.partition(list, 1), Collections.singletonList(list));
+      Assert.assertEquals(WorkerPool.partition(list, 10).size(), 7);
+      Assert.assertTrue(WorkerPool.partition(new ArrayList<Integer>(), 4).isEmpty());
+   }
+   
+   /**
+     * Test that the first task is executed by the calling thread, and that all
+     * tasks are executed within the {@link SimulationContext} of the caller.
+     */
+   @Test
+   public void testTasksRunWithinCallingContext() {
+      final SimulationContext context = new SimulationContext();
+      final WorkerPool pool = new WorkerPool("Test Worker", 4);
+      final int numberOfTasks = 8;
+      final SimulationContext[] contexts = new SimulationContext[numberOfTasks];
+      final Thread[] threads = new Thread[numberOfTasks];
+      final List<Runnable> tasks = new ArrayList<Runnable>();
+      for(int i = 0; i< numberOfTasks; ++i) {
+         final int index = i;
+         tasks.add(new Runnable() {
+            @Override
+            public void run() {
+               contexts[index] = SimulationContext.current();
+               threads[index] = Thread.currentThread();
+            }
+         });
+      }
+      context.runWithin(new Runnable() {
+         @Override
+         public void run() {
+            pool.executeAll(tasks);
+         }
+      });
+      Assert.assertSame(threads[0], Thread.currentThread());
+      for(int i = 0; i< numberOfTasks; ++i)
+         Assert.assertSame(contexts[i], context);
+      for(int i = 1; i< numberOfTasks; ++i) {
+         Assert.assertTrue(threads[i].isDaemon());
+         Assert.assertTrue(threads[i].getName().startsWith("Test Worker "));
+      }
+      pool.shutdown();
+   }
+   
+   /**
+     * Test that the failure of the first failing task (in task order) is rethrown
+     * once all tasks have completed.
+     */
+   @Test
+   public void testFirstFailureIsRethrownAfterAllTasksComplete() {
+      final WorkerPool pool = new WorkerPool("Test Worker", 3);
+      final AtomicInteger numberOfTasksCompleted = new AtomicInteger();
+      final List<Runnable> tasks = new ArrayList<Runnable>();
+      tasks.add(new Runnable() {
+         @Override
+         public void run() {
+            numberOfTasksCompleted.incrementAndGet();
+         }
+      });
+      for(final String message : Arrays.asList("first", "second"))
+         tasks.add(new Runnable() {
+            @Override
+            public void run() {
+               numberOfTasksCompleted.incrementAndGet();
+               throw new IllegalStateException(message);
+            }
+         });
+      try {
+         pool.executeAll(tasks);
+         Assert.fail();
+      }
+      catch(final IllegalStateException expected) {
+         Assert.assertEquals(expected.getMessage(), "first");
+      }
+      Assert.assertEquals(numberOfTasksCompleted.get(), 3);
+      pool.shutdown();
+   }
+   
+   /**
+     * Test that the number of threads can be changed while tasks are executing.
+     * Tasks already submitted are completed, and subsequent tasks use the new
+     * number of threads.
+     */
+   @Test
+   public void testSetNumberOfThreadsWhileExecuting() throws Exception {
+      final WorkerPool pool = new WorkerPool("Test Worker", 3);
+      final CountDownLatch
+         started = new CountDownLatch(2),
+         resized = new CountDownLatch(1);
+      final AtomicInteger numberOfTasksCompleted = new AtomicInteger();
+      final Runnable blockingTask = new Runnable() {
+         @Override
+         public void run() {
+            started.countDown();
+            try {
+               resized.await();
+            } catch (final InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+            numberOfTasksCompleted.incrementAndGet();
+         }
+      };
+      final Throwable[] failure = new Throwable[1];
+      final Thread caller = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               pool.executeAll(Collections.nCopies(3, blockingTask));
+            } catch (final Throwable e) {
+               failure[0] = e;
+            }
+         }
+      });
+      caller.start();
+      started.await();
+      pool.setNumberOfThreads(2);
+      resized.countDown();
+      caller.join();
+      Assert.assertNull(failure[0]);
+      Assert.assertEquals(numberOfTasksCompleted.get(), 3);
+      Assert.assertEquals(pool.getNumberOfThreads(), 2);
+      
+      final Runnable task = new Runnable() {
+         @Override
+         public void run() {
+            numberOfTasksCompleted.incrementAndGet();
+         }
+      };
+      pool.executeAll(Collections.nCopies(4, task));
+      Assert.assertEquals(numberOfTasksCompleted.get(), 7);
+      pool.shutdown();
+   }
+}
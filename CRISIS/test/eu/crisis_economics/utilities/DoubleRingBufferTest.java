@@ -0,0 +1,113 @@
+/*
+ * This file is part of CRISIS, an economics simulator.
+ *
+ * Copyright (C) 2015 John Kieran Phillips
+ *
+ * CRISIS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CRISIS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CRISIS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.crisis_economics.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+  * Unit tests for the {@link DoubleRingBuffer}.
+  * 
+  * @author phillips
+  */
+public class DoubleRingBufferTest {
+   
+   /**
+     * Test whether a {@link DoubleRingBuffer} agrees with a naive bounded list
+     * over a long sequence of random insertions. The test compares the contents,
+     * the mean, the minimum and the maximum of the buffer, and its read-only 
+     * view, after every insertion. Several buffer capacities are tested, and
+     * each buffer is cleared halfway through the sequence.
+     */
+   @Test
+   public void testBufferAgreesWithNaiveBoundedList() {
+      final Random dice = new Random(1L);
+      for(final int capacity : new int[] { 1, 2, 7, 20 }) {
+         final DoubleRingBuffer buffer = new DoubleRingBuffer(capacity);
+         final DoubleRingBuffer.ReadOnlyView view = buffer.getReadOnlyView();
+         final List<Double> expected = new ArrayList<Double>();
+         Assert.assertEquals(buffer.capacity(), capacity);
+         Assert.assertTrue(buffer.isEmpty());
+         Assert.assertTrue(Double.isNaN(buffer.getMean()));
+         for(int i = 0; i< 1000; ++i) {
+            if(i == 500) {
+               buffer.clear();
+               expected.clear();
+               Assert.assertTrue(view.isEmpty());
+               Assert.assertTrue(Double.isNaN(view.getMaximum()));
+            }
+            final double value =                                        // Includes ties
+               dice.nextBoolean() ? dice.nextInt(5) : 1.e3 * dice.nextGaussian();
+            buffer.add(value);
+            expected.add(value);
+            if(expected.size() > capacity)
+               expected.remove(0);
+            
+            double sum = 0., min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for(final double record : expected) {
+               sum += record;
+               min = Math.min(min, record);
+               max = Math.max(max, record);
+            }
+            Assert.assertEquals(buffer.size(), expected.size());
+            Assert.assertEquals(view, expected);
+            for(int j = 0; j< expected.size(); ++j) {
+               Assert.assertEquals(buffer.get(j), expected.get(j), 0.);
+               Assert.assertEquals(view.getValue(j), expected.get(j), 0.);
+            }
+            Assert.assertEquals(buffer.getOldest(), expected.get(0), 0.);
+            Assert.assertEquals(buffer.getLatest(), value, 0.);
+            Assert.assertEquals(buffer.getMean(), sum / expected.size(), 1.e-9);
+            Assert.assertEquals(buffer.getMinimum(), min, 0.);
+            Assert.assertEquals(buffer.getMaximum(), max, 0.);
+            Assert.assertEquals(view.getMean(), buffer.getMean(), 0.);
+            Assert.assertEquals(buffer.toArray().length, expected.size());
+         }
+      }
+   }
+   
+   /**
+     * Test that the view of a {@link DoubleRingBuffer} cannot be modified, and 
+     * that out of bounds indices are rejected.
+     */
+   @Test
+   public void testViewIsReadOnly() {
+      final DoubleRingBuffer buffer = new DoubleRingBuffer(3);
+      buffer.add(1.);
+      final List<Double> view = buffer.getReadOnlyView();
+      try {
+         view.add(2.);
+         Assert.fail();
+      } catch(final UnsupportedOperationException e) { }
+      try {
+         view.set(0, 2.);
+         Assert.fail();
+      } catch(final UnsupportedOperationException e) { }
+      try {
+         buffer.get(1);
+         Assert.fail();
+      } catch(final IndexOutOfBoundsException e) { }
+      Assert.assertEquals(view.size(), 1);
+      Assert.assertEquals(view.get(0), 1., 0.);
+   }
+}